@@ -76,6 +76,7 @@ public class DataStructure extends ForwardingMap<String, Component> {
     private final ImmutableMap<String, Component.Role> roleCache;
     private final ImmutableMap<String, Class<?>> typeCache;
     private final ImmutableList<Component> indexListCache;
+    private final ImmutableMap<String, Integer> indexCache;
 
     protected DataStructure(BiFunction<Object, Class<?>, ?> converter, ImmutableMap<String, Component> map) {
         this.converter = checkNotNull(converter);
@@ -84,6 +85,16 @@ public class DataStructure extends ForwardingMap<String, Component> {
         this.roleCache = computeRoleCache(delegate);
         this.typeCache = computeTypeCache(delegate);
         this.indexListCache = computeIndexCache(delegate);
+        this.indexCache = computeNameIndexCache(delegate);
+    }
+
+    private static ImmutableMap<String, Integer> computeNameIndexCache(ImmutableMap<String, Component> delegate) {
+        ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        int index = 0;
+        for (String name : delegate.keySet()) {
+            builder.put(name, index++);
+        }
+        return builder.build();
     }
 
     private static ImmutableMap<String, Component.Role> computeRoleCache(ImmutableMap<String, Component> delegate) {
@@ -213,6 +224,15 @@ public class DataStructure extends ForwardingMap<String, Component> {
         return this.inverseCache.get(component);
     }
 
+    /**
+     * Returns the index of the column in the {@link DataPoint}s of this structure, or -1 if
+     * the structure does not contain the column.
+     */
+    public int indexOf(String name) {
+        Integer index = this.indexCache.get(name);
+        return index == null ? -1 : index;
+    }
+
     public Map<String, Component.Role> getRoles() {
         return this.roleCache;
     }
@@ -27,11 +27,25 @@ import java.util.TimeZone;
 
 import static java.lang.String.*;
 
+/**
+ * A date, stored as the seconds and nanoseconds since the epoch.
+ * <p>
+ * Dates created from strings are parsed once, when created.
+ */
 // TODO: The spec specifies that date format should be configurable.
-public abstract class VTLDate extends VTLObject<Instant> implements VTLTyped<VTLDate> {
+public final class VTLDate extends VTLObject<Instant> implements VTLTyped<VTLDate> {
+
+    private static final DateTimeFormatter YEAR_FORMAT = DateTimeFormatter.ofPattern("yyyy");
+    private static final VTLDate NULL_DATE = new VTLDate(null);
+
+    private final Instant instant;
+    private final long epochSecond;
+    private final int nano;
 
-    private VTLDate() {
-        // private
+    private VTLDate(Instant instant) {
+        this.instant = instant;
+        this.epochSecond = instant == null ? 0 : instant.getEpochSecond();
+        this.nano = instant == null ? 0 : instant.getNano();
     }
 
     @Override
@@ -39,6 +53,35 @@ public abstract class VTLDate extends VTLObject<Instant> implements VTLTyped<VTL
         return VTLDate.class;
     }
 
+    @Override
+    public Instant get() {
+        return instant;
+    }
+
+    /**
+     * Returns the seconds since the epoch, 0 if the date is null.
+     */
+    public long getEpochSecond() {
+        return epochSecond;
+    }
+
+    /**
+     * Returns the nanoseconds within the second, 0 if the date is null.
+     */
+    public int getNano() {
+        return nano;
+    }
+
+    @Override
+    public int compareTo(Object o) {
+        if (instant != null && o instanceof VTLDate && ((VTLDate) o).instant != null) {
+            VTLDate other = (VTLDate) o;
+            int compare = Long.compare(epochSecond, other.epochSecond);
+            return compare != 0 ? compare : Integer.compare(nano, other.nano);
+        }
+        return super.compareTo(o);
+    }
+
     public static VTLDate of(String input, String dateFormat, TimeZone timeZone) {
 
         if (!canParse(dateFormat)) {
@@ -46,29 +89,16 @@ public abstract class VTLDate extends VTLObject<Instant> implements VTLTyped<VTL
                     format("Date format %s unsupported", dateFormat));
         }
 
-        return new VTLDate() {
-
-            @Override
-            public Instant get() {
-                DateTimeFormatter formatter =
-                        DateTimeFormatter.ofPattern("yyyy");
-                Year year = Year.parse(input, formatter);
-                return year.atDay(1).atStartOfDay(timeZone.toZoneId()).toInstant();
-            }
-        };
-
+        Year year = Year.parse(input, YEAR_FORMAT);
+        return new VTLDate(year.atDay(1).atStartOfDay(timeZone.toZoneId()).toInstant());
     }
 
     public static VTLDate of(Instant instant) {
+        return instant == null ? NULL_DATE : new VTLDate(instant);
+    }
 
-        return new VTLDate() {
-
-            @Override
-            public Instant get() {
-                return instant;
-            }
-        };
-
+    public static VTLDate ofEpochSecond(long epochSecond, int nano) {
+        return new VTLDate(Instant.ofEpochSecond(epochSecond, nano));
     }
 
     public static boolean canParse(String dateFormat) {
@@ -24,6 +24,8 @@ import com.google.common.collect.ForwardingMap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Ints;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -42,6 +44,30 @@ public interface VTLFunction<T extends VTLObject> extends VTLTyped<T> {
 
     T invoke(List<VTLObject> arguments, Map<String, VTLObject> namedArguments);
 
+    /**
+     * Invokes the function with the arguments in the order of the {@link #getSignature() signature}.
+     * Optional arguments that are not given are null.
+     */
+    default T invoke(VTLObject[] arguments) {
+        Map<String, VTLObject> namedArguments = new LinkedHashMap<>();
+        Iterator<String> names = getSignature().keySet().iterator();
+        for (VTLObject argument : arguments) {
+            String name = names.next();
+            if (argument != null) {
+                namedArguments.put(name, argument);
+            }
+        }
+        return invoke(namedArguments);
+    }
+
+    /**
+     * Returns true if the function always returns the same value for the same arguments and has no side
+     * effects. Invocations of deterministic functions with constant arguments can be evaluated once.
+     */
+    default boolean isDeterministic() {
+        return false;
+    }
+
     abstract class Signature extends ForwardingMap<String, Argument<?>> {
 
         private final int optionalSize;
@@ -27,9 +27,11 @@ import org.assertj.core.api.SoftAssertions;
 import org.junit.Test;
 
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.assertj.core.api.Java6Assertions.assertThatThrownBy;
@@ -66,6 +68,22 @@ public class VTLObjectTest {
 
     }
 
+    @Test
+    public void testDate() {
+        VTLDate date = VTLDate.of("2010", "YYYY", TimeZone.getTimeZone("UTC"));
+        assertThat(date.get()).isEqualTo(Instant.parse("2010-01-01T00:00:00Z"));
+        assertThat(date.get()).isSameAs(date.get());
+
+        VTLDate later = VTLDate.ofEpochSecond(date.getEpochSecond(), 1);
+        assertThat(date.compareTo(later)).isNegative();
+        assertThat(later.compareTo(date)).isPositive();
+        assertThat(date.compareTo(VTLDate.of(date.get()))).isZero();
+        assertThat(date.compareTo(VTLDate.of((Instant) null))).isPositive();
+
+        assertThatThrownBy(() -> VTLDate.of("20x0", "YYYY", TimeZone.getTimeZone("UTC")))
+                .isInstanceOf(DateTimeParseException.class);
+    }
+
     @Test
     public void testFloat() {
         VTLFloat aFloat = VTLObject.of(1.0);
@@ -0,0 +1,90 @@
+package no.ssb.vtl.script;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import no.ssb.vtl.parser.VTLParser;
+import no.ssb.vtl.script.error.VTLCompileException;
+import no.ssb.vtl.script.error.VTLScriptException;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A VTL script that has been parsed once by a {@link VTLScriptEngine}.
+ * <p>
+ * The parse tree is never modified after compilation; each evaluation creates its own
+ * visitors so the same instance can be evaluated concurrently against different contexts.
+ */
+public class VTLCompiledScript extends CompiledScript {
+
+    private final VTLScriptEngine engine;
+    private final ImmutableList<VTLParser.StatementContext> statements;
+    private final VtlConfiguration configuration;
+
+    VTLCompiledScript(VTLScriptEngine engine, List<VTLParser.StatementContext> statements,
+                      VtlConfiguration configuration) {
+        this.engine = checkNotNull(engine);
+        this.statements = ImmutableList.copyOf(statements);
+        this.configuration = checkNotNull(configuration);
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        try {
+            ArrayList<VTLScriptException> errors = Lists.newArrayList();
+            Object returnValue = engine.run(statements, errors::add, context, configuration);
+            if (!errors.isEmpty()) {
+                throw new VTLCompileException(errors);
+            } else {
+                return returnValue;
+            }
+        } catch (RuntimeException unknownException) {
+            throw new ScriptException(unknownException);
+        }
+    }
+
+    @Override
+    public VTLScriptEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Returns the configuration of the engine when the script was compiled. The configuration
+     * of a {@link VTLScriptContext} takes precedence.
+     */
+    public VtlConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Returns the parsed statements.
+     */
+    public List<VTLParser.StatementContext> getStatements() {
+        return statements;
+    }
+}
@@ -35,6 +35,7 @@ import java.util.Objects;
 public class VTLScriptContext extends SimpleScriptContext {
     
     private Map<Integer, Bindings> scopes;
+    private VtlConfiguration configuration;
     
     @SuppressWarnings("WeakerAccess")
     public VTLScriptContext() {
@@ -48,6 +49,24 @@ public class VTLScriptContext extends SimpleScriptContext {
     public void addScope(int scope) {
         scopes.put(scope, new SimpleBindings(Maps.newLinkedHashMap()));
     }
+
+    /**
+     * Returns the configuration used to evaluate scripts in this context, or null if the
+     * configuration of the engine should be used.
+     */
+    public VtlConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Sets the configuration used to evaluate scripts in this context. It takes precedence
+     * over the configuration of the engine.
+     *
+     * @param configuration the configuration, or null to use the one of the engine.
+     */
+    public void setConfiguration(VtlConfiguration configuration) {
+        this.configuration = configuration;
+    }
     
     
     
@@ -20,24 +20,41 @@ package no.ssb.vtl.script;
  * =========================LICENSE_END==================================
  */
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import no.ssb.vtl.connectors.Connector;
+import no.ssb.vtl.model.Dataset;
 import no.ssb.vtl.parser.VTLLexer;
 import no.ssb.vtl.parser.VTLParser;
 import no.ssb.vtl.script.error.ContextualRuntimeException;
 import no.ssb.vtl.script.error.VTLCompileException;
 import no.ssb.vtl.script.error.VTLScriptException;
+import no.ssb.vtl.script.operations.AbstractDatasetOperation;
+import no.ssb.vtl.script.operations.DatasetOperationWrapper;
+import no.ssb.vtl.script.operations.hierarchy.HierarchyCache;
+import no.ssb.vtl.script.operations.materialize.MaterializationCache;
+import no.ssb.vtl.script.operations.materialize.MaterializedOperation;
+import no.ssb.vtl.script.report.ExecutionReport;
+import no.ssb.vtl.script.scheduler.StatementGraph;
+import no.ssb.vtl.script.scheduler.StatementScheduler;
+import no.ssb.vtl.script.support.CancellationToken;
+import no.ssb.vtl.script.support.MemoryBudget;
 import no.ssb.vtl.script.support.SyntaxErrorListener;
 import no.ssb.vtl.script.visitors.AssignmentVisitor;
-import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 import javax.script.AbstractScriptEngine;
 import javax.script.Bindings;
+import javax.script.Compilable;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
@@ -46,23 +63,55 @@ import javax.script.SimpleBindings;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.function.Consumer;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * A VTL {@link ScriptEngine} implementation.
  */
-public class VTLScriptEngine extends AbstractScriptEngine {
+public class VTLScriptEngine extends AbstractScriptEngine implements Compilable {
+
+    @VisibleForTesting
+    static final String WARM_UP_SCRIPT = "" +
+            "ds2 := ds1\n" +
+            "ds3 := get(\"uri\")\n" +
+            "ds4 := [ds1, ds2] {\n" +
+            "  filter id1 = \"1\" and ds2.m1 = 30 or not (ds1.m1 <> 10),\n" +
+            "  m3 := ds1.m1 + ds2.m2 * 2 - ds1.m2 / 3,\n" +
+            "  m4 := if m3 > 1 then 1 elseif m3 is null then 2 else null,\n" +
+            "  m5 := nvl(ds1.m1, 0),\n" +
+            "  m6 := round(abs(m3), 2),\n" +
+            "  m7 := date_from_string(\"2000\", \"YYYY\"),\n" +
+            "  keep m3, m4, m5, m6, m7,\n" +
+            "  drop m7,\n" +
+            "  rename id1 to id3, m3 to m8\n" +
+            "}\n" +
+            "ds5 := [outer ds1, ds2 on id1] {\n" +
+            "  fold m1, m2 to type, value,\n" +
+            "  unfold type, value to \"m1\", \"m2\"\n" +
+            "}\n" +
+            "ds6 := union(ds1, ds2)\n" +
+            "ds7 := sum(ds1.m1) group by id1\n" +
+            "ds8 := avg(ds1) along id2\n" +
+            "ds9 := check(ds1, not_valid, measures, errorcode(\"ERROR\"))\n" +
+            "ds10 := ds1[rename id1 as id3]\n";
 
     private final ImmutableList<Connector> connectors;
     private TimeZone timeZone = TimeZone.getDefault();
+    private VtlConfiguration configuration = VtlConfiguration.builder()
+            .hierarchyCache(new HierarchyCache(HierarchyCache.DEFAULT_MAXIMUM_WEIGHT))
+            .build();
 
     /**
      * Create a new engine instance.
@@ -116,26 +165,91 @@ public class VTLScriptEngine extends AbstractScriptEngine {
         timeZone = tz;
     }
 
+    /**
+     * Returns the configuration used by this engine.
+     * <p>
+     * Unless set with {@link #setConfiguration(VtlConfiguration)}, it is the default configuration
+     * with a {@link HierarchyCache} of its own.
+     */
+    public VtlConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Sets the configuration used by this engine.
+     * <p>
+     * The configuration of a {@link VTLScriptContext} takes precedence. Scripts compiled
+     * with {@link #compile(Reader)} keep the configuration of the engine at compile time.
+     *
+     * @param configuration the configuration.
+     */
+    public void setConfiguration(VtlConfiguration configuration) {
+        this.configuration = checkNotNull(configuration);
+    }
+
     @Override
     public Object eval(String script, ScriptContext context) throws ScriptException {
         return eval(new StringReader(script), context);
     }
 
+    /**
+     * Parse a script.
+     * <p>
+     * The parser first tries the faster SLL prediction mode with a bail out error strategy.
+     * Only if this fails is the input parsed again using the full LL prediction mode,
+     * which reports the syntax errors to the consumer. Since VTL is SLL for all practical
+     * inputs, valid scripts are almost always parsed in one pass.
+     */
     public VTLParser.StartContext parse(Reader reader, Consumer<VTLScriptException> errorConsumer) throws IOException {
-        // TODO: Change to CharStreams.fromString() when #1977 makes it to release.
-        // TODO: Should be fixed with 4.7.1.
-        VTLLexer lexer = new VTLLexer(new ANTLRInputStream(reader));
-        VTLParser parser = new VTLParser(new CommonTokenStream(lexer));
+        BaseErrorListener errorListener = new SyntaxErrorListener(errorConsumer);
 
+        VTLLexer lexer = new VTLLexer(CharStreams.fromReader(reader));
         lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener);
+
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        VTLParser parser = new VTLParser(tokens);
         parser.removeErrorListeners();
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
 
-        BaseErrorListener errorListener = new SyntaxErrorListener(errorConsumer);
+        try {
+            return parser.start();
+        } catch (ParseCancellationException sllFailed) {
+            tokens.seek(0);
+            parser.reset();
+            parser.addErrorListener(errorListener);
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            return parser.start();
+        }
+    }
 
-        lexer.addErrorListener(errorListener);
-        parser.addErrorListener(errorListener);
+    /**
+     * Parse a set of representative statements so that the DFA cache of the parser,
+     * shared by all the engines, is populated before the first script is evaluated.
+     */
+    public static void warmUp() {
+        warmUp(WARM_UP_SCRIPT);
+    }
 
-        return parser.start();
+    /**
+     * Parse the given scripts so that the DFA cache of the parser, shared by all the
+     * engines, is populated before the first script is evaluated.
+     * <p>
+     * The scripts are only parsed, syntax errors are ignored.
+     *
+     * @param scripts the scripts to parse.
+     */
+    public static void warmUp(String... scripts) {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        for (String script : scripts) {
+            try {
+                engine.parse(new StringReader(script), error -> { });
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
     }
 
     @Override
@@ -154,6 +268,80 @@ public class VTLScriptEngine extends AbstractScriptEngine {
         }
     }
 
+    /**
+     * Evaluates the script with profiling enabled and reads every dataset it assigns, in order.
+     *
+     * @return the report of the execution of each dataset, similar to EXPLAIN ANALYZE.
+     * @see #analyze(Reader, ScriptContext)
+     */
+    public ExecutionReport analyze(String script) throws ScriptException {
+        return analyze(new StringReader(script), getContext());
+    }
+
+    /**
+     * Evaluates the script with profiling enabled and reads every dataset it assigns, in order.
+     * <p>
+     * The configuration of the context, or of this engine, is used with profiling enabled. The
+     * datasets are assigned to the context as with {@link #eval(Reader, ScriptContext)}.
+     *
+     * @return the report of the execution of each dataset, similar to EXPLAIN ANALYZE.
+     */
+    public ExecutionReport analyze(Reader reader, ScriptContext context) throws ScriptException {
+        try {
+            ArrayList<VTLScriptException> errors = Lists.newArrayList();
+            VTLParser.StartContext start = parse(reader, errors::add);
+            if (!errors.isEmpty()) {
+                throw new VTLCompileException(errors);
+            }
+            VtlConfiguration profiled = configurationFor(context, configuration).toBuilder()
+                    .profiling(true)
+                    .build();
+            execute(start.statement(), errors::add, context, profiled);
+            if (!errors.isEmpty()) {
+                throw new VTLCompileException(errors);
+            }
+
+            StatementGraph graph = StatementGraph.create(start.statement());
+            Map<String, Dataset> datasets = Maps.newLinkedHashMap();
+            for (int i = 0; i < graph.size(); i++) {
+                String name = graph.getWrite(i);
+                Object value = name == null ? null : context.getAttribute(name);
+                if (value instanceof Dataset) {
+                    datasets.put(name, (Dataset) value);
+                }
+            }
+            return ExecutionReport.analyze(datasets);
+        } catch (IOException | RuntimeException unknownException) {
+            throw new ScriptException(unknownException);
+        }
+    }
+
+    @Override
+    public VTLCompiledScript compile(String script) throws ScriptException {
+        return compile(new StringReader(script));
+    }
+
+    /**
+     * Parse the script once and return a {@link VTLCompiledScript} that can be
+     * evaluated repeatedly, possibly concurrently, against different contexts.
+     * <p>
+     * Syntax errors are reported here. Errors that depend on the bindings (unknown
+     * variables, type mismatches) are reported when the compiled script is evaluated.
+     */
+    @Override
+    public VTLCompiledScript compile(Reader reader) throws ScriptException {
+        try {
+            ArrayList<VTLScriptException> errors = Lists.newArrayList();
+            VTLParser.StartContext start = parse(reader, errors::add);
+            if (!errors.isEmpty()) {
+                throw new VTLCompileException(errors);
+            }
+            return new VTLCompiledScript(this, start.statement(), configuration);
+        } catch (IOException | RuntimeException unknownException) {
+            throw new ScriptException(unknownException);
+        }
+    }
+
     /**
      * Returns a collection of all keywords/reserved words in VTL, divided into the following categories:
      * - implementedVtlKeywords - implemented functions from the specifications
@@ -201,23 +389,114 @@ public class VTLScriptEngine extends AbstractScriptEngine {
      * Run loop
      */
     protected Object run(VTLParser.StartContext start, Consumer<VTLScriptException> errorConsumer, ScriptContext context) throws VTLScriptException {
-        AssignmentVisitor assignmentVisitor = new AssignmentVisitor(context, connectors);
+        return run(start.statement(), errorConsumer, context);
+    }
+
+    /**
+     * Run loop over already parsed statements.
+     */
+    protected Object run(List<VTLParser.StatementContext> statements, Consumer<VTLScriptException> errorConsumer, ScriptContext context) throws VTLScriptException {
+        return run(statements, errorConsumer, context, configuration);
+    }
+
+    /**
+     * Run loop over already parsed statements with the given configuration, unless the
+     * context has its own.
+     */
+    Object run(List<VTLParser.StatementContext> statements, Consumer<VTLScriptException> errorConsumer,
+               ScriptContext context, VtlConfiguration defaultConfiguration) throws VTLScriptException {
+        return execute(statements, errorConsumer, context, configurationFor(context, defaultConfiguration));
+    }
+
+    private static VtlConfiguration configurationFor(ScriptContext context, VtlConfiguration defaultConfiguration) {
+        if (context instanceof VTLScriptContext && ((VTLScriptContext) context).getConfiguration() != null) {
+            return ((VTLScriptContext) context).getConfiguration();
+        }
+        return defaultConfiguration;
+    }
+
+    private Object execute(List<VTLParser.StatementContext> statements, Consumer<VTLScriptException> errorConsumer,
+                           ScriptContext context, VtlConfiguration configuration) throws VTLScriptException {
+        if (configuration.getCancellationToken() == null && configuration.getTimeout() != null) {
+            configuration = configuration.toBuilder()
+                    .cancellationToken(CancellationToken.withTimeout(configuration.getTimeout()))
+                    .build();
+        }
+        if (configuration.getMemoryBudget() == null && configuration.getMemoryLimit() != null) {
+            configuration = configuration.toBuilder()
+                    .memoryBudget(MemoryBudget.withLimit(configuration.getMemoryLimit()))
+                    .build();
+        }
+        CancellationToken cancellationToken = configuration.getCancellationToken();
+
+        StatementGraph graph = StatementGraph.create(statements);
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (configuration.getExecutor() != null && statements.size() > 1) {
+            VtlConfiguration statementConfiguration = configuration;
+            StatementScheduler scheduler = new StatementScheduler(
+                    configuration.getExecutor(),
+                    scope -> {
+                        checkCancellation(cancellationToken);
+                        return new AssignmentVisitor(scope, connectors, statementConfiguration);
+                    },
+                    (index, value) -> prepare(graph, index, value, statementConfiguration)
+            );
+            return scheduler.run(graph, bindings, cre -> errorConsumer.accept(toScriptException(cre)));
+        }
+        AssignmentVisitor assignmentVisitor = new AssignmentVisitor(context, connectors, configuration);
         Object last = null;
-        for (VTLParser.StatementContext statementContext : start.statement()) {
+        for (int i = 0; i < graph.size(); i++) {
+            checkCancellation(cancellationToken);
             try {
-                last = assignmentVisitor.visit(statementContext);
-            } catch (ContextualRuntimeException cre) {
-                ParserRuleContext ctx = cre.getContext();
-                if (cre.getCause() != null) {
-                    errorConsumer.accept(new VTLScriptException((Exception) cre.getCause(), ctx));
-                } else {
-                    errorConsumer.accept(new VTLScriptException(cre.getMessage(), ctx));
+                Object value = assignmentVisitor.visit(graph.getStatement(i));
+                last = prepare(graph, i, value, configuration);
+                if (last != value) {
+                    bindings.put(graph.getWrite(i), last);
                 }
+            } catch (ContextualRuntimeException cre) {
+                errorConsumer.accept(toScriptException(cre));
             }
         }
         return last;
     }
 
+    private static void checkCancellation(CancellationToken cancellationToken) {
+        if (cancellationToken != null) {
+            cancellationToken.check();
+        }
+    }
+
+    /**
+     * Attaches the configuration to the dataset operations and wraps the ones read by
+     * several statements in a {@link MaterializedOperation}.
+     * <p>
+     * An operation that already belongs to an earlier evaluation, for instance when a statement
+     * only refers to another variable, is wrapped so that its configuration is left untouched.
+     */
+    private static Object prepare(StatementGraph graph, int index, Object value, VtlConfiguration configuration) {
+        if (!(value instanceof AbstractDatasetOperation)) {
+            return value;
+        }
+        AbstractDatasetOperation operation = (AbstractDatasetOperation) value;
+        MaterializationCache cache = configuration.getMaterializationCache();
+        if (cache != null && !(operation instanceof MaterializedOperation) && graph.getReaderCount(index) > 1) {
+            operation = new MaterializedOperation(operation, cache);
+        } else if (operation.isConfigured() && operation.getConfiguration() != configuration) {
+            operation = new DatasetOperationWrapper(operation);
+        }
+        operation.configure(configuration);
+        return operation;
+    }
+
+    private static VTLScriptException toScriptException(ContextualRuntimeException cre) {
+        ParserRuleContext ctx = cre.getContext();
+        if (cre.getCause() != null) {
+            return new VTLScriptException((Exception) cre.getCause(), ctx);
+        } else {
+            return new VTLScriptException(cre.getMessage(), ctx);
+        }
+    }
+
     @Override
     public Bindings createBindings() {
         return new SimpleBindings(Maps.newLinkedHashMap());
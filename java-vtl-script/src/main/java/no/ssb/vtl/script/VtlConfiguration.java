@@ -20,184 +20,439 @@ package no.ssb.vtl.script;
  * =========================LICENSE_END==================================
  */
 
+import com.google.common.base.MoreObjects;
+import no.ssb.vtl.script.operations.hierarchy.HierarchyCache;
+import no.ssb.vtl.script.operations.materialize.MaterializationCache;
+import no.ssb.vtl.script.support.CancellationToken;
+import no.ssb.vtl.script.support.MemoryBudget;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
- * Configuration object for vtl.
+ * Immutable configuration of the execution of the scripts.
  * <p>
- * The configuration is wrapped inside a ThreadLocal for now. Use {@link #getConfig()} to
- * access the instances.
+ * A configuration is attached to a {@link VTLScriptEngine}, a {@link VTLScriptContext} or a
+ * {@link VTLCompiledScript} and carried by the dataset operations to their {@link no.ssb.vtl.script.operations.VtlStream}s,
+ * so the settings apply regardless of the thread the data is consumed on.
  */
 public final class VtlConfiguration {
 
-    private static final ThreadLocal<VtlConfiguration> localConfiguration = new ThreadLocal<>();
+    public static final int DEFAULT_PROFILING_SAMPLE_INTERVAL = 64;
 
-    private boolean filterOptimization = true;
-    private boolean filterPropagation = true;
-    private boolean profiling = false;
-    private boolean sortAssertion = false;
-    private boolean forceSort = false;
+    private static final VtlConfiguration DEFAULT = builder().build();
 
-    private VtlConfiguration() {
-        // prevent instantiation.
-    }
+    private final boolean filterOptimization;
+    private final boolean filterPropagation;
+    private final boolean profiling;
+    private final int profilingSampleInterval;
+    private final boolean sortAssertion;
+    private final boolean forceSort;
+    private final Executor executor;
+    private final Executor operationExecutor;
+    private final int parallelism;
+    private final HierarchyCache hierarchyCache;
+    private final MaterializationCache materializationCache;
+    private final Path spillDirectory;
+    private final Duration timeout;
+    private final CancellationToken cancellationToken;
+    private final Long memoryLimit;
+    private final MemoryBudget memoryBudget;
 
-    public static VtlConfiguration getConfig() {
-        VtlConfiguration configuration = localConfiguration.get();
-        if (configuration == null) {
-            localConfiguration.set(new VtlConfiguration());
-        }
-        return localConfiguration.get();
-    }
-
-    static void setConfig(VtlConfiguration config) {
-        localConfiguration.set(config);
+    private VtlConfiguration(Builder builder) {
+        this.filterOptimization = builder.filterOptimization;
+        this.filterPropagation = builder.filterPropagation;
+        this.profiling = builder.profiling;
+        this.profilingSampleInterval = builder.profilingSampleInterval;
+        this.sortAssertion = builder.sortAssertion;
+        this.forceSort = builder.forceSort;
+        this.executor = builder.executor;
+        this.operationExecutor = builder.operationExecutor;
+        this.parallelism = builder.parallelism;
+        this.hierarchyCache = builder.hierarchyCache;
+        this.materializationCache = builder.materializationCache;
+        this.spillDirectory = builder.spillDirectory;
+        this.timeout = builder.timeout;
+        this.cancellationToken = builder.cancellationToken;
+        this.memoryLimit = builder.memoryLimit;
+        this.memoryBudget = builder.memoryBudget;
     }
 
     /**
-     * Some operations add filters down the execution tree in order to optimize the execution.
-     * {@link no.ssb.vtl.script.operations.unfold.UnfoldOperation} adds a filter on the values that are unfolded.
-     * {@link no.ssb.vtl.script.operations.join.InnerJoinOperation} add a range filter based on the first and last
-     * identifiers of the datasets it joins.
+     * Returns the default configuration.
      */
-    public void setFilterOptimization(boolean filterOptimization) {
-        this.filterOptimization = filterOptimization;
+    public static VtlConfiguration getDefault() {
+        return DEFAULT;
     }
 
-    /**
-     * @see #setFilterOptimization(boolean)
-     */
-    public void enableFilterOptimization() {
-        setFilterOptimization(true);
+    public static Builder builder() {
+        return new Builder();
     }
 
     /**
-     * @see #setFilterOptimization(boolean)
+     * Returns a builder initialized with the values of this configuration.
      */
-    public void disableFilterOptimization() {
-        setFilterOptimization(false);
+    public Builder toBuilder() {
+        return new Builder(this);
     }
 
     /**
-     * When filter propagation is enabled, dataset operations will try to
-     * push back part of the filters they received back to the operations
-     * behind them.
+     * @see Builder#filterOptimization(boolean)
      */
-    public void setFilterPropagation(boolean filterPropagation) {
-        this.filterPropagation = filterPropagation;
+    public boolean isFilterOptimizationEnabled() {
+        return this.filterOptimization;
     }
 
     /**
-     * @see #setFilterPropagation(boolean)
+     * @see Builder#filterPropagation(boolean)
      */
-    public void enableFilterPropagation() {
-        setFilterPropagation(true);
+    public boolean isFilterPropagationEnabled() {
+        return this.filterPropagation;
     }
 
     /**
-     * @see #setFilterPropagation(boolean)
+     * @see Builder#profiling(boolean)
      */
-    public void disableFilterPropagation() {
-        setFilterPropagation(false);
+    public boolean isProfilingEnabled() {
+        return profiling;
     }
 
     /**
-     * Profiling enables timing and counters. Note that profiling will
-     * reduce performances.
-     *
-     * @see no.ssb.vtl.script.operations.VtlStream.Statistics
+     * @see Builder#profilingSampleInterval(int)
      */
-    public void setProfiling(boolean profiling) {
-        this.profiling = profiling;
+    public int getProfilingSampleInterval() {
+        return profilingSampleInterval;
     }
 
     /**
-     * @see #setProfiling(boolean)
+     * @see Builder#sortAssertion(boolean)
      */
-    public void enableProfiling() {
-        setProfiling(true);
+    public boolean isSortAssertionEnabled() {
+        return sortAssertion;
     }
 
     /**
-     * @see #setProfiling(boolean)
+     * @see Builder#forceSort(boolean)
      */
-    public void disableProfiling() {
-        setProfiling(false);
+    public boolean isForceSortEnabled() {
+        return forceSort;
     }
 
     /**
-     * Adds a verification step after each operation that checks that the order of the data it sees
-     * is consistent with the required order. Note that this will reduce performances.
+     * @see Builder#executor(Executor)
      */
-    public void setSortAssertion(boolean sortAssertion) {
-        this.sortAssertion = sortAssertion;
+    public Executor getExecutor() {
+        return executor;
     }
 
     /**
-     * @see #setSortAssertion(boolean)
+     * @see Builder#operationExecutor(Executor)
      */
-    public void enableSortAssertion() {
-        setSortAssertion(true);
+    public Executor getOperationExecutor() {
+        return operationExecutor;
     }
 
     /**
-     * @see #setSortAssertion(boolean)
+     * @see Builder#parallelism(int)
      */
-    public void disableSortAssertion() {
-        setSortAssertion(false);
+    public int getParallelism() {
+        return parallelism;
     }
 
     /**
-     * Force post sort after each operation. Note that this will reduce performances.
+     * @see Builder#hierarchyCache(HierarchyCache)
      */
-    public void setForceSort(boolean forceSort) {
-        this.forceSort = forceSort;
+    public HierarchyCache getHierarchyCache() {
+        return hierarchyCache;
     }
 
     /**
-     * @see #setForceSort(boolean)
+     * @see Builder#materializationCache(MaterializationCache)
      */
-    public void enableForceSort() {
-        setForceSort(true);
+    public MaterializationCache getMaterializationCache() {
+        return materializationCache;
     }
 
     /**
-     * @see #setForceSort(boolean)
+     * @see Builder#spillDirectory(Path)
      */
-    public void disableForceSort() {
-        setForceSort(false);
+    public Path getSpillDirectory() {
+        return spillDirectory;
     }
 
     /**
-     * @see #setFilterOptimization(boolean)
+     * @see Builder#timeout(Duration)
      */
-    public boolean isFilterOptimizationEnabled() {
-        return this.filterOptimization;
+    public Duration getTimeout() {
+        return timeout;
     }
 
     /**
-     * @see #setFilterPropagation(boolean)
+     * @see Builder#cancellationToken(CancellationToken)
      */
-    public boolean isFilterPropagationEnabled() {
-        return this.filterPropagation;
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
     }
 
     /**
-     * @see #setProfiling(boolean)
+     * @see Builder#memoryLimit(Long)
      */
-    public boolean isProfilingEnabled() {
-        return profiling;
+    public Long getMemoryLimit() {
+        return memoryLimit;
     }
 
     /**
-     * @see #setSortAssertion(boolean)
+     * @see Builder#memoryBudget(MemoryBudget)
      */
-    public boolean isSortAssertionEnabled() {
-        return sortAssertion;
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
     }
 
-    /**
-     * @see #setForceSort(boolean)
-     */
-    public boolean isForceSortEnabled() {
-        return forceSort;
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("filterOptimization", filterOptimization)
+                .add("filterPropagation", filterPropagation)
+                .add("profiling", profiling)
+                .add("profilingSampleInterval", profilingSampleInterval)
+                .add("sortAssertion", sortAssertion)
+                .add("forceSort", forceSort)
+                .add("executor", executor)
+                .add("operationExecutor", operationExecutor)
+                .add("parallelism", parallelism)
+                .add("hierarchyCache", hierarchyCache)
+                .add("materializationCache", materializationCache)
+                .add("spillDirectory", spillDirectory)
+                .add("timeout", timeout)
+                .add("cancellationToken", cancellationToken)
+                .add("memoryLimit", memoryLimit)
+                .add("memoryBudget", memoryBudget)
+                .toString();
+    }
+
+    public static class Builder {
+
+        private boolean filterOptimization = true;
+        private boolean filterPropagation = true;
+        private boolean profiling = false;
+        private int profilingSampleInterval = DEFAULT_PROFILING_SAMPLE_INTERVAL;
+        private boolean sortAssertion = false;
+        private boolean forceSort = false;
+        private Executor executor = null;
+        private Executor operationExecutor = null;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private HierarchyCache hierarchyCache = null;
+        private MaterializationCache materializationCache = null;
+        private Path spillDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+        private Duration timeout = null;
+        private CancellationToken cancellationToken = null;
+        private Long memoryLimit = null;
+        private MemoryBudget memoryBudget = null;
+
+        private Builder() {
+        }
+
+        private Builder(VtlConfiguration configuration) {
+            this.filterOptimization = configuration.filterOptimization;
+            this.filterPropagation = configuration.filterPropagation;
+            this.profiling = configuration.profiling;
+            this.profilingSampleInterval = configuration.profilingSampleInterval;
+            this.sortAssertion = configuration.sortAssertion;
+            this.forceSort = configuration.forceSort;
+            this.executor = configuration.executor;
+            this.operationExecutor = configuration.operationExecutor;
+            this.parallelism = configuration.parallelism;
+            this.hierarchyCache = configuration.hierarchyCache;
+            this.materializationCache = configuration.materializationCache;
+            this.spillDirectory = configuration.spillDirectory;
+            this.timeout = configuration.timeout;
+            this.cancellationToken = configuration.cancellationToken;
+            this.memoryLimit = configuration.memoryLimit;
+            this.memoryBudget = configuration.memoryBudget;
+        }
+
+        /**
+         * Some operations add filters down the execution tree in order to optimize the execution.
+         * {@link no.ssb.vtl.script.operations.unfold.UnfoldOperation} adds a filter on the values that are unfolded.
+         * {@link no.ssb.vtl.script.operations.join.InnerJoinOperation} add a range filter based on the first and last
+         * identifiers of the datasets it joins.
+         */
+        public Builder filterOptimization(boolean filterOptimization) {
+            this.filterOptimization = filterOptimization;
+            return this;
+        }
+
+        /**
+         * When filter propagation is enabled, dataset operations will try to
+         * push back part of the filters they received back to the operations
+         * behind them.
+         */
+        public Builder filterPropagation(boolean filterPropagation) {
+            this.filterPropagation = filterPropagation;
+            return this;
+        }
+
+        /**
+         * Profiling enables timing and counters. Only one row out of
+         * {@link #profilingSampleInterval(int)} is timed so that the overhead stays low.
+         *
+         * @see no.ssb.vtl.script.operations.VtlStream.Statistics
+         */
+        public Builder profiling(boolean profiling) {
+            this.profiling = profiling;
+            return this;
+        }
+
+        /**
+         * Number of rows between two timed rows when profiling, the time of the other rows
+         * is estimated from the samples. The first row of each stream is always timed since
+         * it often includes the sorting. Use 1 to time every row. Defaults to
+         * {@value VtlConfiguration#DEFAULT_PROFILING_SAMPLE_INTERVAL}.
+         */
+        public Builder profilingSampleInterval(int profilingSampleInterval) {
+            checkArgument(profilingSampleInterval > 0, "the sample interval must be positive");
+            this.profilingSampleInterval = profilingSampleInterval;
+            return this;
+        }
+
+        /**
+         * Adds a verification step after each operation that checks that the order of the data it sees
+         * is consistent with the required order. Note that this will reduce performances.
+         */
+        public Builder sortAssertion(boolean sortAssertion) {
+            this.sortAssertion = sortAssertion;
+            return this;
+        }
+
+        /**
+         * Force post sort after each operation. Note that this will reduce performances.
+         */
+        public Builder forceSort(boolean forceSort) {
+            this.forceSort = forceSort;
+            return this;
+        }
+
+        /**
+         * Executor used to evaluate independent statements concurrently. The executor should be
+         * bounded; when null (the default) the statements are evaluated sequentially.
+         *
+         * @see no.ssb.vtl.script.scheduler.StatementScheduler
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Executor used by the operations that compute their data concurrently, the slices of a
+         * foreach operation for instance. The executor should be bounded and different from the
+         * {@link #executor(Executor) statement executor}. When null (the default) the operations
+         * compute their data on the thread that consumes it.
+         * <p>
+         * The operations behind a concurrent operation do not use the executor, so that its tasks
+         * never wait for each other.
+         *
+         * @see #parallelism(int)
+         */
+        public Builder operationExecutor(Executor operationExecutor) {
+            this.operationExecutor = operationExecutor;
+            return this;
+        }
+
+        /**
+         * Maximum number of tasks an operation runs concurrently on the
+         * {@link #operationExecutor(Executor) operation executor}. Defaults to the number of
+         * available processors.
+         */
+        public Builder parallelism(int parallelism) {
+            checkArgument(parallelism > 0, "the parallelism must be positive");
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Cache of the hierarchies compiled by the hierarchy operations. When null (the default)
+         * the hierarchies are compiled every time the operations are read. The configuration of
+         * a {@link VTLScriptEngine} has a cache of its own.
+         *
+         * @see no.ssb.vtl.script.operations.hierarchy.HierarchyOperation
+         */
+        public Builder hierarchyCache(HierarchyCache hierarchyCache) {
+            this.hierarchyCache = hierarchyCache;
+            return this;
+        }
+
+        /**
+         * Cache used to materialize the datasets read by several statements. Its maximum weight is
+         * the memory budget of the materializations. Disabled by default: when null, the datasets are
+         * computed every time they are read. The cache is typically created once per engine.
+         *
+         * @see no.ssb.vtl.script.operations.materialize.MaterializedOperation
+         */
+        public Builder materializationCache(MaterializationCache materializationCache) {
+            this.materializationCache = materializationCache;
+            return this;
+        }
+
+        /**
+         * Directory where the operations spill the rows that do not fit in memory. Defaults to the
+         * temporary-file directory.
+         */
+        public Builder spillDirectory(Path spillDirectory) {
+            this.spillDirectory = checkNotNull(spillDirectory);
+            return this;
+        }
+
+        /**
+         * Maximum duration of each evaluation, including the consumption of the resulting
+         * datasets. A new {@link CancellationToken} with this timeout is created for every
+         * evaluation unless one is set with {@link #cancellationToken(CancellationToken)}.
+         * When null (the default) the evaluations do not time out.
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Token checked by the streams to stop the evaluation. Use a dedicated configuration
+         * (in a {@link VTLScriptContext} for instance) for each evaluation that needs to be
+         * cancelled independently.
+         */
+        public Builder cancellationToken(CancellationToken cancellationToken) {
+            this.cancellationToken = cancellationToken;
+            return this;
+        }
+
+        /**
+         * Maximum number of bytes the operations of each evaluation can hold in memory, as
+         * estimated by {@link no.ssb.vtl.script.support.MemoryReservation}. A new
+         * {@link MemoryBudget} with this limit is created for every evaluation unless one is set
+         * with {@link #memoryBudget(MemoryBudget)}. When null (the default) the memory is only
+         * tracked.
+         */
+        public Builder memoryLimit(Long memoryLimit) {
+            this.memoryLimit = memoryLimit;
+            return this;
+        }
+
+        /**
+         * Budget the operations reserve their memory from. Operations that can spill to disk do
+         * so when the budget is exhausted, the others fail with a
+         * {@link no.ssb.vtl.script.error.VTLMemoryLimitException}.
+         */
+        public Builder memoryBudget(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        public VtlConfiguration build() {
+            return new VtlConfiguration(this);
+        }
     }
 }
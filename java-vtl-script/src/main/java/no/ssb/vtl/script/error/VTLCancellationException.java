@@ -0,0 +1,56 @@
+package no.ssb.vtl.script.error;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+import no.ssb.vtl.model.DataPoint;
+
+/**
+ * Thrown when the evaluation of a script was cancelled or exceeded its deadline.
+ *
+ * @see no.ssb.vtl.script.support.CancellationToken
+ */
+public class VTLCancellationException extends VTLRuntimeException {
+
+    public static final String CANCELLED = "VTL-1001";
+    public static final String TIMED_OUT = "VTL-1002";
+
+    private static final long serialVersionUID = -4265394829870163587L;
+
+    private final String message;
+
+    public VTLCancellationException(String message, String vtlCode) {
+        super(message, vtlCode, (DataPoint) null);
+        this.message = message;
+    }
+
+    /**
+     * Returns true if the evaluation exceeded its deadline rather than being cancelled.
+     */
+    public boolean isTimeout() {
+        return TIMED_OUT.equals(getVTLCode());
+    }
+
+    @Override
+    public String getMessage() {
+        return message;
+    }
+}
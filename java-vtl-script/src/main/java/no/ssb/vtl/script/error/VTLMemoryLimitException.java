@@ -0,0 +1,49 @@
+package no.ssb.vtl.script.error;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import no.ssb.vtl.model.DataPoint;
+
+/**
+ * Thrown when an operation cannot reserve memory because the evaluation exceeded its memory limit.
+ *
+ * @see no.ssb.vtl.script.support.MemoryBudget
+ */
+public class VTLMemoryLimitException extends VTLRuntimeException {
+
+    public static final String MEMORY_LIMIT_EXCEEDED = "VTL-1003";
+
+    private static final long serialVersionUID = 3172870632150927491L;
+
+    private final String message;
+
+    public VTLMemoryLimitException(String message) {
+        super(message, MEMORY_LIMIT_EXCEEDED, (DataPoint) null);
+        this.message = message;
+    }
+
+    @Override
+    public String getMessage() {
+        return message;
+    }
+}
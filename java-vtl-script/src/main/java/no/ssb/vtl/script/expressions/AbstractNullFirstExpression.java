@@ -31,9 +31,13 @@ public abstract class AbstractNullFirstExpression extends AbstractBinaryExpressi
 
     @Override
     public VTLObject resolve(Bindings bindings) {
-        VTLObject leftOperand = getLeftOperand().resolve(bindings);
-        VTLObject rightOperand = getRightOperand().resolve(bindings);
+        return resolve(getLeftOperand().resolve(bindings), getRightOperand().resolve(bindings));
+    }
 
+    /**
+     * Computes the result from the resolved operands.
+     */
+    public VTLObject resolve(VTLObject leftOperand, VTLObject rightOperand) {
         if (leftOperand.get() == null || rightOperand.get() == null)
             return VTLObject.NULL;
         else
@@ -20,7 +20,6 @@ package no.ssb.vtl.script.expressions;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import no.ssb.vtl.model.VTLExpression;
@@ -54,12 +53,15 @@ public class FunctionExpression<T extends VTLObject> implements VTLExpression {
     private final VTLFunction<T> wrappedFunction;
     private final List<VTLExpression> arguments;
     private final Map<String, VTLExpression> namedArguments;
+    private final VTLExpression[] boundArguments;
 
     public FunctionExpression(VTLFunction<T> wrappedFunction, List<VTLExpression> arguments, Map<String, VTLExpression> namedArguments) {
         this.wrappedFunction = wrappedFunction;
         this.arguments = arguments;
         this.namedArguments = namedArguments;
-        checkTypes(wrappedFunction, mergeArguments(wrappedFunction.getSignature(), arguments, namedArguments));
+        Map<String, VTLExpression> merged = mergeArguments(wrappedFunction.getSignature(), arguments, namedArguments);
+        checkTypes(wrappedFunction, merged);
+        this.boundArguments = bindArguments(wrappedFunction.getSignature(), merged);
     }
 
     public FunctionExpression(VTLFunction<T> wrappedFunction, List<VTLExpression> arguments) {
@@ -74,6 +76,37 @@ public class FunctionExpression<T extends VTLObject> implements VTLExpression {
         this(wrappedFunction, Arrays.asList(arguments));
     }
 
+    public VTLFunction<T> getFunction() {
+        return wrappedFunction;
+    }
+
+    public List<VTLExpression> getArguments() {
+        return arguments;
+    }
+
+    public Map<String, VTLExpression> getNamedArguments() {
+        return namedArguments;
+    }
+
+    /**
+     * Returns the arguments in the order of the signature, null for the optional arguments that are not given.
+     */
+    private static VTLExpression[] bindArguments(VTLFunction.Signature signature, Map<String, VTLExpression> arguments) {
+        VTLExpression[] bound = new VTLExpression[signature.size()];
+        int index = 0;
+        for (String name : signature.keySet()) {
+            bound[index++] = arguments.get(name);
+        }
+        return bound;
+    }
+
+    /**
+     * Returns the arguments in the order of the signature, null for the optional arguments that are not given.
+     */
+    public List<VTLExpression> getBoundArguments() {
+        return Collections.unmodifiableList(Arrays.asList(boundArguments));
+    }
+
     // TODO: Move to VTLFunction or AbstractVTLFunction.
     private void checkTypes(VTLFunction<?> function, Map<String, VTLExpression> arguments) {
         VTLFunction.Signature signature = function.getSignature();
@@ -125,23 +158,14 @@ public class FunctionExpression<T extends VTLObject> implements VTLExpression {
 
     @Override
     public VTLObject resolve(Bindings bindings) {
-        // Resolve the parameters.
-        List<VTLObject> resolvedParameters = Lists.newArrayList();
-        for (VTLExpression expression : arguments) {
-            resolvedParameters.add(expression.resolve(bindings));
-        }
-        Map<String, VTLObject> resolvedNamedParameters = Maps.newLinkedHashMap();
-        for (Map.Entry<String, VTLExpression> entry : namedArguments.entrySet()) {
-            resolvedNamedParameters.put(
-                    entry.getKey(),
-                    entry.getValue().resolve(bindings)
-            );
+        // The positions of the parameters are resolved in the constructor.
+        VTLObject[] resolvedParameters = new VTLObject[boundArguments.length];
+        for (int i = 0; i < boundArguments.length; i++) {
+            if (boundArguments[i] != null) {
+                resolvedParameters[i] = boundArguments[i].resolve(bindings);
+            }
         }
-
-        return wrappedFunction.invoke(
-                resolvedParameters,
-                resolvedNamedParameters
-        );
+        return wrappedFunction.invoke(resolvedParameters);
     }
 
     @Override
@@ -65,6 +65,17 @@ public class IfThenElseExpression implements VTLExpression {
         return vtlType;
     }
 
+    /**
+     * Returns the conditions and their values, in evaluation order.
+     */
+    public ImmutableMap<VTLExpression, VTLExpression> getConditions() {
+        return conditionToExpression;
+    }
+
+    public VTLExpression getDefaultExpression() {
+        return defaultExpression;
+    }
+
     public static class Builder {
         private final VTLExpression defaultExpression;
         private Class returnType;
@@ -0,0 +1,147 @@
+package no.ssb.vtl.script.expressions.compiler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.VTLExpression;
+import no.ssb.vtl.script.operations.join.ComponentBindings;
+import no.ssb.vtl.script.operations.join.DataPointBindings;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A sequence of assignments compiled together and evaluated in one pass over each data point.
+ * <p>
+ * Each assignment is compiled against the structure it sees (the result of the previous assignments),
+ * subexpressions that occur several times are evaluated once per data point.
+ */
+public final class CompiledAssignments {
+
+    private final CompiledExpression[] expressions;
+    private final DataPointBindings[] bindings;
+    private final int[] indices;
+    private final SharedSubexpressions shared;
+
+    private CompiledAssignments(CompiledExpression[] expressions, DataPointBindings[] bindings, int[] indices,
+                                SharedSubexpressions shared) {
+        this.expressions = expressions;
+        this.bindings = bindings;
+        this.indices = indices;
+        this.shared = shared;
+    }
+
+    public static Builder builder(int width) {
+        return new Builder(width);
+    }
+
+    /**
+     * Evaluates the assignments in order and sets the results in the data point.
+     */
+    public void evaluate(DataPoint dataPoint) {
+        shared.next();
+        for (int i = 0; i < expressions.length; i++) {
+            DataPointBindings dataPointBindings = bindings[i];
+            if (dataPointBindings != null) {
+                dataPointBindings.setDataPoint(dataPoint);
+            }
+            dataPoint.set(indices[i], expressions[i].resolve(dataPoint, dataPointBindings));
+        }
+    }
+
+    /**
+     * Returns the number of subexpressions evaluated once for all the assignments.
+     */
+    @VisibleForTesting
+    int getSharedCount() {
+        return shared.size();
+    }
+
+    public static class Builder {
+
+        private final int width;
+        private final ImmutableList.Builder<Assignment> assignments = ImmutableList.builder();
+
+        private Builder(int width) {
+            this.width = width;
+        }
+
+        /**
+         * Adds an assignment.
+         *
+         * @param expression the expression to assign.
+         * @param bindings   the bindings the expression was created with.
+         * @param structure  the structure the expression is evaluated against.
+         * @param index      the index of the assigned column.
+         */
+        public Builder add(VTLExpression expression, ComponentBindings bindings, DataStructure structure, int index) {
+            checkArgument(index >= 0 && index < width, "invalid column index %s", index);
+            assignments.add(new Assignment(expression, bindings, structure, index));
+            return this;
+        }
+
+        public CompiledAssignments build() {
+            List<Assignment> list = assignments.build();
+            SharedSubexpressions shared = new SharedSubexpressions(width);
+
+            for (Assignment assignment : list) {
+                ExpressionCompiler.compile(assignment.expression, assignment.bindings, assignment.structure, shared);
+                shared.assigned(assignment.index);
+            }
+            shared.compiling();
+
+            CompiledExpression[] expressions = new CompiledExpression[list.size()];
+            DataPointBindings[] bindings = new DataPointBindings[list.size()];
+            int[] indices = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                Assignment assignment = list.get(i);
+                expressions[i] = ExpressionCompiler.compile(
+                        assignment.expression, assignment.bindings, assignment.structure, shared
+                );
+                if (expressions[i].isInterpreted()) {
+                    bindings[i] = new DataPointBindings(assignment.bindings, assignment.structure);
+                }
+                indices[i] = assignment.index;
+                shared.assigned(assignment.index);
+            }
+            return new CompiledAssignments(expressions, bindings, indices, shared);
+        }
+    }
+
+    private static final class Assignment {
+        private final VTLExpression expression;
+        private final ComponentBindings bindings;
+        private final DataStructure structure;
+        private final int index;
+
+        private Assignment(VTLExpression expression, ComponentBindings bindings, DataStructure structure, int index) {
+            this.expression = checkNotNull(expression);
+            this.bindings = checkNotNull(bindings);
+            this.structure = checkNotNull(structure);
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package no.ssb.vtl.script.expressions.compiler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.base.MoreObjects;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.VTLExpression;
+import no.ssb.vtl.model.VTLObject;
+
+import javax.script.Bindings;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link VTLExpression} compiled for a {@link no.ssb.vtl.model.DataStructure}.
+ * <p>
+ * The compiled expression reads the cells of the {@link DataPoint}s by index. The {@link #resolve(Bindings)}
+ * method is resolved by the original expression.
+ * <p>
+ * Compiled expressions keep per evaluation state and must not be shared between threads.
+ *
+ * @see ExpressionCompiler
+ */
+public final class CompiledExpression implements VTLExpression {
+
+    private final VTLExpression expression;
+    private final ExpressionCompiler.Node root;
+    private final boolean interpreted;
+
+    CompiledExpression(VTLExpression expression, ExpressionCompiler.Node root, boolean interpreted) {
+        this.expression = checkNotNull(expression);
+        this.root = checkNotNull(root);
+        this.interpreted = interpreted;
+    }
+
+    /**
+     * Returns the expression this was compiled from.
+     */
+    public VTLExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Returns true if some nodes fall back to the interpreter, in which case the
+     * bindings given to {@link #resolve(DataPoint, Bindings)} must wrap the data point.
+     */
+    public boolean isInterpreted() {
+        return interpreted;
+    }
+
+    @Override
+    public Class<?> getVTLType() {
+        return expression.getVTLType();
+    }
+
+    @Override
+    public VTLObject resolve(Bindings bindings) {
+        return expression.resolve(bindings);
+    }
+
+    public VTLObject resolve(DataPoint dataPoint, Bindings bindings) {
+        return root.resolve(dataPoint, bindings);
+    }
+
+    /**
+     * Evaluates a boolean expression, null is false.
+     */
+    public boolean test(DataPoint dataPoint, Bindings bindings) {
+        if (root instanceof ExpressionCompiler.BooleanNode) {
+            return ((ExpressionCompiler.BooleanNode) root).test(dataPoint, bindings) == ExpressionCompiler.TRUE;
+        }
+        Object value = root.resolve(dataPoint, bindings).get();
+        return value != null && (Boolean) value;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .addValue(expression)
+                .add("interpreted", interpreted)
+                .toString();
+    }
+}
@@ -0,0 +1,608 @@
+package no.ssb.vtl.script.expressions.compiler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.VTLBoolean;
+import no.ssb.vtl.model.VTLExpression;
+import no.ssb.vtl.model.VTLFloat;
+import no.ssb.vtl.model.VTLFunction;
+import no.ssb.vtl.model.VTLInteger;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.script.expressions.AbstractBinaryExpression;
+import no.ssb.vtl.script.expressions.FunctionExpression;
+import no.ssb.vtl.script.expressions.LiteralExpression;
+import no.ssb.vtl.script.expressions.MembershipExpression;
+import no.ssb.vtl.script.expressions.VariableExpression;
+import no.ssb.vtl.script.expressions.arithmetic.AbstractArithmeticExpression;
+import no.ssb.vtl.script.expressions.arithmetic.AdditionExpression;
+import no.ssb.vtl.script.expressions.arithmetic.DivisionExpression;
+import no.ssb.vtl.script.expressions.arithmetic.MultiplicationExpression;
+import no.ssb.vtl.script.expressions.arithmetic.SubtractionExpression;
+import no.ssb.vtl.script.expressions.equality.AbstractEqualityExpression;
+import no.ssb.vtl.script.expressions.equality.EqualExpression;
+import no.ssb.vtl.script.expressions.equality.GraterThanExpression;
+import no.ssb.vtl.script.expressions.equality.GreaterOrEqualExpression;
+import no.ssb.vtl.script.expressions.equality.IsNotNullExpression;
+import no.ssb.vtl.script.expressions.equality.IsNullExpression;
+import no.ssb.vtl.script.expressions.equality.LesserOrEqualExpression;
+import no.ssb.vtl.script.expressions.equality.LesserThanExpression;
+import no.ssb.vtl.script.expressions.equality.NotEqualExpression;
+import no.ssb.vtl.script.expressions.logic.AbstractLogicExpression;
+import no.ssb.vtl.script.expressions.logic.AndExpression;
+import no.ssb.vtl.script.expressions.logic.NotExpression;
+import no.ssb.vtl.script.expressions.logic.OrExpression;
+import no.ssb.vtl.script.expressions.logic.XorExpression;
+import no.ssb.vtl.script.operations.join.ComponentBindings;
+
+import javax.script.Bindings;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiles {@link VTLExpression} trees against a {@link DataStructure}.
+ * <p>
+ * Variables are resolved to column indices once, integer and float arithmetic and comparisons use
+ * primitive values and booleans use a three valued int ({@link #TRUE}, {@link #FALSE} and {@link #NULL})
+ * so that no {@link VTLObject} is created for the intermediate results. Nodes that cannot be compiled
+ * (conditionals, variables that are not columns) are resolved by the interpreter.
+ * <p>
+ * The expression is first simplified by the {@link ExpressionOptimizer} so that row independent
+ * subexpressions are only evaluated once.
+ */
+public final class ExpressionCompiler {
+
+    static final int TRUE = 1;
+    static final int FALSE = 0;
+    static final int NULL = -1;
+
+    private static final VTLBoolean NULL_BOOLEAN = VTLBoolean.of((Boolean) null);
+
+    private final Bindings bindings;
+    private final Map<Component, Integer> indices = new IdentityHashMap<>();
+    private final SharedSubexpressions shared;
+    private boolean interpreted = false;
+
+    private ExpressionCompiler(ComponentBindings bindings, DataStructure structure, SharedSubexpressions shared) {
+        this.bindings = checkNotNull(bindings);
+        this.shared = shared;
+        int index = 0;
+        for (Component component : structure.values()) {
+            indices.put(component, index++);
+        }
+    }
+
+    /**
+     * Compiles the expression for data points of the given structure.
+     *
+     * @param expression the expression to compile.
+     * @param bindings   the bindings the expression was created with.
+     * @param structure  the structure of the data points the expression will be evaluated against.
+     */
+    public static CompiledExpression compile(VTLExpression expression, ComponentBindings bindings,
+                                             DataStructure structure) {
+        return compile(expression, bindings, structure, null);
+    }
+
+    static CompiledExpression compile(VTLExpression expression, ComponentBindings bindings,
+                                      DataStructure structure, SharedSubexpressions shared) {
+        if (expression instanceof CompiledExpression) {
+            expression = ((CompiledExpression) expression).getExpression();
+        }
+        ExpressionCompiler compiler = new ExpressionCompiler(bindings, structure, shared);
+        Node root = compiler.compile(ExpressionOptimizer.optimize(expression));
+        return new CompiledExpression(expression, root, compiler.interpreted);
+    }
+
+    private static boolean isNull(VTLObject value) {
+        return value == null || value.get() == null;
+    }
+
+    private static VTLObject toVTLObject(int value) {
+        return value == NULL ? NULL_BOOLEAN : VTLBoolean.of(value == TRUE);
+    }
+
+    private static int toInt(VTLObject value) {
+        if (isNull(value)) {
+            return NULL;
+        }
+        return (Boolean) value.get() ? TRUE : FALSE;
+    }
+
+    private Node compile(VTLExpression expression) {
+        if (shared == null || expression instanceof LiteralExpression || expression instanceof VariableExpression) {
+            return compileExpression(expression);
+        }
+
+        String key = key(expression);
+        if (key == null) {
+            return compileExpression(expression);
+        }
+        Node existing = shared.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        // Nodes that use the interpreter depend on the bindings and are not shared.
+        boolean parentInterpreted = interpreted;
+        interpreted = false;
+        Node node = compileExpression(expression);
+        boolean nodeInterpreted = interpreted;
+        interpreted = parentInterpreted || nodeInterpreted;
+        return nodeInterpreted ? node : shared.share(key, node);
+    }
+
+    /**
+     * Returns a key that identifies the value of the expression for a data point or null if the expression
+     * cannot be shared.
+     */
+    private String key(VTLExpression expression) {
+        if (expression instanceof LiteralExpression) {
+            Object value = expression.resolve(null).get();
+            String string = String.valueOf(value);
+            return "L" + (value == null ? "" : value.getClass().getSimpleName()) + ":" + string.length() + ":" + string;
+        }
+        if (expression instanceof VariableExpression) {
+            Integer index = indexOf((VariableExpression) expression);
+            return index == null ? null : "V" + index + "@" + shared.version(index);
+        }
+        if (expression instanceof AbstractBinaryExpression) {
+            String left = key(((AbstractBinaryExpression) expression).getLeftOperand());
+            String right = key(((AbstractBinaryExpression) expression).getRightOperand());
+            if (left == null || right == null) {
+                return null;
+            }
+            return expression.getClass().getSimpleName() + "(" + left + "," + right + ")";
+        }
+        if (expression instanceof NotExpression) {
+            String operand = key(((NotExpression) expression).getOperand());
+            return operand == null ? null : "Not(" + operand + ")";
+        }
+        if (expression instanceof FunctionExpression && ((FunctionExpression<?>) expression).getFunction().isDeterministic()) {
+            FunctionExpression<?> function = (FunctionExpression<?>) expression;
+            StringBuilder key = new StringBuilder("F").append(shared.idOf(function.getFunction())).append("(");
+            for (VTLExpression argument : function.getBoundArguments()) {
+                String argumentKey = argument == null ? "" : key(argument);
+                if (argumentKey == null) {
+                    return null;
+                }
+                key.append(argumentKey).append(",");
+            }
+            return key.append(")").toString();
+        }
+        return null;
+    }
+
+    private Node compileExpression(VTLExpression expression) {
+        if (expression instanceof LiteralExpression) {
+            return compileLiteral(expression);
+        }
+        if (expression instanceof VariableExpression) {
+            return compileVariable((VariableExpression) expression);
+        }
+        if (expression instanceof AbstractArithmeticExpression) {
+            return compileArithmetic((AbstractArithmeticExpression) expression);
+        }
+        if (expression instanceof IsNullExpression) {
+            return compileIsNull((IsNullExpression) expression);
+        }
+        if (expression instanceof AbstractEqualityExpression) {
+            return compileComparison((AbstractEqualityExpression) expression);
+        }
+        if (expression instanceof AbstractLogicExpression) {
+            return compileLogic((AbstractLogicExpression) expression);
+        }
+        if (expression instanceof FunctionExpression) {
+            return compileFunction((FunctionExpression<?>) expression);
+        }
+        if (expression instanceof NotExpression) {
+            BooleanNode operand = asBoolean(compile(((NotExpression) expression).getOperand()));
+            return (BooleanNode) (dataPoint, bindings) -> {
+                int value = operand.test(dataPoint, bindings);
+                return value == NULL ? NULL : TRUE - value;
+            };
+        }
+        return interpret(expression);
+    }
+
+    private Node interpret(VTLExpression expression) {
+        interpreted = true;
+        return (dataPoint, bindings) -> expression.resolve(bindings);
+    }
+
+    private Node compileLiteral(VTLExpression expression) {
+        VTLObject literal = expression.resolve(null);
+        Object value = literal.get();
+        if (value instanceof Long) {
+            long primitive = (Long) value;
+            return new LongNode() {
+                public boolean isNull(DataPoint dataPoint, Bindings bindings) {
+                    return false;
+                }
+
+                public long value(DataPoint dataPoint, Bindings bindings) {
+                    return primitive;
+                }
+
+                public VTLObject resolve(DataPoint dataPoint, Bindings bindings) {
+                    return literal;
+                }
+            };
+        }
+        if (value instanceof Double) {
+            double primitive = (Double) value;
+            return new DoubleNode() {
+                public boolean isNull(DataPoint dataPoint, Bindings bindings) {
+                    return false;
+                }
+
+                public double value(DataPoint dataPoint, Bindings bindings) {
+                    return primitive;
+                }
+
+                public VTLObject resolve(DataPoint dataPoint, Bindings bindings) {
+                    return literal;
+                }
+            };
+        }
+        if (value instanceof Boolean) {
+            int primitive = toInt(literal);
+            return (BooleanNode) (dataPoint, bindings) -> primitive;
+        }
+        return (dataPoint, bindings) -> literal;
+    }
+
+    /**
+     * Returns the index of the column the variable refers to or null.
+     */
+    private Integer indexOf(VariableExpression expression) {
+        Object scope = bindings;
+        if (expression instanceof MembershipExpression) {
+            scope = bindings.get(((MembershipExpression) expression).getDatasetIdentifier());
+        }
+        if (!(scope instanceof Bindings)) {
+            return null;
+        }
+        Object reference = ((Bindings) scope).get(expression.getIdentifier());
+        if (!(reference instanceof ComponentBindings.ComponentReference)) {
+            return null;
+        }
+        return indices.get(((ComponentBindings.ComponentReference) reference).getComponent());
+    }
+
+    private Node compileVariable(VariableExpression expression) {
+        Integer index = indexOf(expression);
+        if (index == null) {
+            return interpret(expression);
+        }
+
+        int i = index;
+        Class<?> type = expression.getVTLType();
+        if (type == VTLInteger.class) {
+            return new LongNode() {
+                public boolean isNull(DataPoint dataPoint, Bindings bindings) {
+                    return ExpressionCompiler.isNull(dataPoint.get(i));
+                }
+
+                public long value(DataPoint dataPoint, Bindings bindings) {
+                    return ((Number) dataPoint.get(i).get()).longValue();
+                }
+
+                public VTLObject resolve(DataPoint dataPoint, Bindings bindings) {
+                    return dataPoint.get(i);
+                }
+            };
+        }
+        if (type == VTLFloat.class) {
+            return new DoubleNode() {
+                public boolean isNull(DataPoint dataPoint, Bindings bindings) {
+                    return ExpressionCompiler.isNull(dataPoint.get(i));
+                }
+
+                public double value(DataPoint dataPoint, Bindings bindings) {
+                    return ((Number) dataPoint.get(i).get()).doubleValue();
+                }
+
+                public VTLObject resolve(DataPoint dataPoint, Bindings bindings) {
+                    return dataPoint.get(i);
+                }
+            };
+        }
+        if (type == VTLBoolean.class) {
+            return (BooleanNode) (dataPoint, bindings) -> toInt(dataPoint.get(i));
+        }
+        return (dataPoint, bindings) -> dataPoint.get(i);
+    }
+
+    private Node compileArithmetic(AbstractArithmeticExpression expression) {
+        Node left = compile(expression.getLeftOperand());
+        Node right = compile(expression.getRightOperand());
+
+        if (left instanceof LongNode && right instanceof LongNode && !(expression instanceof DivisionExpression)) {
+            LongNode l = (LongNode) left;
+            LongNode r = (LongNode) right;
+            LongBinaryOperator operator;
+            if (expression instanceof AdditionExpression) {
+                operator = (a, b) -> a + b;
+            } else if (expression instanceof SubtractionExpression) {
+                operator = (a, b) -> a - b;
+            } else if (expression instanceof MultiplicationExpression) {
+                operator = (a, b) -> a * b;
+            } else {
+                return interpret(expression);
+            }
+            return new LongNode() {
+                public boolean isNull(DataPoint dataPoint, Bindings bindings) {
+                    return l.isNull(dataPoint, bindings) || r.isNull(dataPoint, bindings);
+                }
+
+                public long value(DataPoint dataPoint, Bindings bindings) {
+                    return operator.apply(l.value(dataPoint, bindings), r.value(dataPoint, bindings));
+                }
+            };
+        }
+
+        if (isNumeric(left) && isNumeric(right)) {
+            DoubleNode l = asDouble(left);
+            DoubleNode r = asDouble(right);
+            DoubleBinaryOperator operator;
+            if (expression instanceof AdditionExpression) {
+                operator = (a, b) -> a + b;
+            } else if (expression instanceof SubtractionExpression) {
+                operator = (a, b) -> a - b;
+            } else if (expression instanceof MultiplicationExpression) {
+                operator = (a, b) -> a * b;
+            } else if (expression instanceof DivisionExpression) {
+                operator = (a, b) -> a / b;
+            } else {
+                return interpret(expression);
+            }
+            return new DoubleNode() {
+                public boolean isNull(DataPoint dataPoint, Bindings bindings) {
+                    return l.isNull(dataPoint, bindings) || r.isNull(dataPoint, bindings);
+                }
+
+                public double value(DataPoint dataPoint, Bindings bindings) {
+                    return operator.apply(l.value(dataPoint, bindings), r.value(dataPoint, bindings));
+                }
+            };
+        }
+
+        // Operands of unknown numeric type (functions for instance).
+        return (dataPoint, bindings) -> expression.resolve(
+                left.resolve(dataPoint, bindings), right.resolve(dataPoint, bindings)
+        );
+    }
+
+    private Node compileFunction(FunctionExpression<?> expression) {
+        VTLFunction<?> function = expression.getFunction();
+        List<VTLExpression> arguments = expression.getBoundArguments();
+        Node[] nodes = new Node[arguments.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            VTLExpression argument = arguments.get(i);
+            nodes[i] = argument == null ? null : compile(argument);
+        }
+
+        return (dataPoint, bindings) -> {
+            // Allocated for each row so that the node can be resolved by several threads.
+            VTLObject[] values = new VTLObject[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                values[i] = nodes[i] == null ? null : nodes[i].resolve(dataPoint, bindings);
+            }
+            return function.invoke(values);
+        };
+    }
+
+    private Node compileIsNull(IsNullExpression expression) {
+        Node operand = compile(expression.getLeftOperand());
+        int ifNull = expression instanceof IsNotNullExpression ? FALSE : TRUE;
+        int ifNotNull = TRUE - ifNull;
+        if (operand instanceof LongNode) {
+            LongNode node = (LongNode) operand;
+            return (BooleanNode) (dataPoint, bindings) -> node.isNull(dataPoint, bindings) ? ifNull : ifNotNull;
+        }
+        if (operand instanceof DoubleNode) {
+            DoubleNode node = (DoubleNode) operand;
+            return (BooleanNode) (dataPoint, bindings) -> node.isNull(dataPoint, bindings) ? ifNull : ifNotNull;
+        }
+        if (operand instanceof BooleanNode) {
+            BooleanNode node = (BooleanNode) operand;
+            return (BooleanNode) (dataPoint, bindings) -> node.test(dataPoint, bindings) == NULL ? ifNull : ifNotNull;
+        }
+        return (BooleanNode) (dataPoint, bindings) -> isNull(operand.resolve(dataPoint, bindings)) ? ifNull : ifNotNull;
+    }
+
+    private Node compileComparison(AbstractEqualityExpression expression) {
+        IntPredicate predicate;
+        if (expression instanceof EqualExpression) {
+            predicate = compare -> compare == 0;
+        } else if (expression instanceof NotEqualExpression) {
+            predicate = compare -> compare != 0;
+        } else if (expression instanceof GraterThanExpression) {
+            predicate = compare -> compare > 0;
+        } else if (expression instanceof GreaterOrEqualExpression) {
+            predicate = compare -> compare >= 0;
+        } else if (expression instanceof LesserThanExpression) {
+            predicate = compare -> compare < 0;
+        } else if (expression instanceof LesserOrEqualExpression) {
+            predicate = compare -> compare <= 0;
+        } else {
+            return interpret(expression);
+        }
+
+        Node left = compile(expression.getLeftOperand());
+        Node right = compile(expression.getRightOperand());
+
+        if (left instanceof LongNode && right instanceof LongNode) {
+            LongNode l = (LongNode) left;
+            LongNode r = (LongNode) right;
+            return (BooleanNode) (dataPoint, bindings) -> {
+                if (l.isNull(dataPoint, bindings) || r.isNull(dataPoint, bindings)) {
+                    return NULL;
+                }
+                int compare = Long.compare(l.value(dataPoint, bindings), r.value(dataPoint, bindings));
+                return predicate.test(compare) ? TRUE : FALSE;
+            };
+        }
+        if (isNumeric(left) && isNumeric(right)) {
+            DoubleNode l = asDouble(left);
+            DoubleNode r = asDouble(right);
+            return (BooleanNode) (dataPoint, bindings) -> {
+                if (l.isNull(dataPoint, bindings) || r.isNull(dataPoint, bindings)) {
+                    return NULL;
+                }
+                int compare = Double.compare(l.value(dataPoint, bindings), r.value(dataPoint, bindings));
+                return predicate.test(compare) ? TRUE : FALSE;
+            };
+        }
+        return (BooleanNode) (dataPoint, bindings) -> {
+            VTLObject l = left.resolve(dataPoint, bindings);
+            VTLObject r = right.resolve(dataPoint, bindings);
+            if (isNull(l) || isNull(r)) {
+                return NULL;
+            }
+            return predicate.test(l.compareTo(r)) ? TRUE : FALSE;
+        };
+    }
+
+    private Node compileLogic(AbstractLogicExpression expression) {
+        BooleanNode left = asBoolean(compile(expression.getLeftOperand()));
+        BooleanNode right = asBoolean(compile(expression.getRightOperand()));
+        if (expression instanceof AndExpression) {
+            return (BooleanNode) (dataPoint, bindings) -> {
+                int l = left.test(dataPoint, bindings);
+                if (l == FALSE) {
+                    return FALSE;
+                }
+                int r = right.test(dataPoint, bindings);
+                return r == FALSE ? FALSE : Math.min(l, r);
+            };
+        }
+        if (expression instanceof OrExpression) {
+            return (BooleanNode) (dataPoint, bindings) -> {
+                int l = left.test(dataPoint, bindings);
+                if (l == TRUE) {
+                    return TRUE;
+                }
+                int r = right.test(dataPoint, bindings);
+                return r == TRUE ? TRUE : Math.min(l, r);
+            };
+        }
+        if (expression instanceof XorExpression) {
+            return (BooleanNode) (dataPoint, bindings) -> {
+                int l = left.test(dataPoint, bindings);
+                int r = right.test(dataPoint, bindings);
+                return l == NULL || r == NULL ? NULL : l ^ r;
+            };
+        }
+        return interpret(expression);
+    }
+
+    private static boolean isNumeric(Node node) {
+        return node instanceof LongNode || node instanceof DoubleNode;
+    }
+
+    private static DoubleNode asDouble(Node node) {
+        if (node instanceof DoubleNode) {
+            return (DoubleNode) node;
+        }
+        LongNode longNode = (LongNode) node;
+        return new DoubleNode() {
+            public boolean isNull(DataPoint dataPoint, Bindings bindings) {
+                return longNode.isNull(dataPoint, bindings);
+            }
+
+            public double value(DataPoint dataPoint, Bindings bindings) {
+                return longNode.value(dataPoint, bindings);
+            }
+        };
+    }
+
+    private static BooleanNode asBoolean(Node node) {
+        if (node instanceof BooleanNode) {
+            return (BooleanNode) node;
+        }
+        return (dataPoint, bindings) -> toInt(node.resolve(dataPoint, bindings));
+    }
+
+    @FunctionalInterface
+    interface Node {
+        VTLObject resolve(DataPoint dataPoint, Bindings bindings);
+    }
+
+    @FunctionalInterface
+    interface BooleanNode extends Node {
+
+        /**
+         * Returns {@link #TRUE}, {@link #FALSE} or {@link #NULL}.
+         */
+        int test(DataPoint dataPoint, Bindings bindings);
+
+        @Override
+        default VTLObject resolve(DataPoint dataPoint, Bindings bindings) {
+            return toVTLObject(test(dataPoint, bindings));
+        }
+    }
+
+    /**
+     * The value is only read when {@link #isNull(DataPoint, Bindings)} returned false.
+     */
+    interface LongNode extends Node {
+        boolean isNull(DataPoint dataPoint, Bindings bindings);
+
+        long value(DataPoint dataPoint, Bindings bindings);
+
+        @Override
+        default VTLObject resolve(DataPoint dataPoint, Bindings bindings) {
+            return isNull(dataPoint, bindings) ? VTLObject.NULL : VTLInteger.of(value(dataPoint, bindings));
+        }
+    }
+
+    /**
+     * The value is only read when {@link #isNull(DataPoint, Bindings)} returned false.
+     */
+    interface DoubleNode extends Node {
+        boolean isNull(DataPoint dataPoint, Bindings bindings);
+
+        double value(DataPoint dataPoint, Bindings bindings);
+
+        @Override
+        default VTLObject resolve(DataPoint dataPoint, Bindings bindings) {
+            return isNull(dataPoint, bindings) ? VTLObject.NULL : VTLFloat.of(value(dataPoint, bindings));
+        }
+    }
+
+    @FunctionalInterface
+    private interface LongBinaryOperator {
+        long apply(long left, long right);
+    }
+
+    @FunctionalInterface
+    private interface DoubleBinaryOperator {
+        double apply(double left, double right);
+    }
+}
@@ -0,0 +1,336 @@
+package no.ssb.vtl.script.expressions.compiler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import no.ssb.vtl.model.VTLExpression;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.script.expressions.AbstractBinaryExpression;
+import no.ssb.vtl.script.expressions.AbstractNullFirstExpression;
+import no.ssb.vtl.script.expressions.FunctionExpression;
+import no.ssb.vtl.script.expressions.IfThenElseExpression;
+import no.ssb.vtl.script.expressions.LiteralExpression;
+import no.ssb.vtl.script.expressions.arithmetic.AdditionExpression;
+import no.ssb.vtl.script.expressions.arithmetic.DivisionExpression;
+import no.ssb.vtl.script.expressions.arithmetic.MultiplicationExpression;
+import no.ssb.vtl.script.expressions.arithmetic.SubtractionExpression;
+import no.ssb.vtl.script.expressions.equality.EqualExpression;
+import no.ssb.vtl.script.expressions.equality.GraterThanExpression;
+import no.ssb.vtl.script.expressions.equality.GreaterOrEqualExpression;
+import no.ssb.vtl.script.expressions.equality.IsNotNullExpression;
+import no.ssb.vtl.script.expressions.equality.IsNullExpression;
+import no.ssb.vtl.script.expressions.equality.LesserOrEqualExpression;
+import no.ssb.vtl.script.expressions.equality.LesserThanExpression;
+import no.ssb.vtl.script.expressions.equality.NotEqualExpression;
+import no.ssb.vtl.script.expressions.logic.AndExpression;
+import no.ssb.vtl.script.expressions.logic.NotExpression;
+import no.ssb.vtl.script.expressions.logic.OrExpression;
+import no.ssb.vtl.script.expressions.logic.XorExpression;
+
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Simplifies {@link VTLExpression} trees before they are evaluated.
+ * <p>
+ * Subtrees that do not depend on the row (literals, operators and deterministic functions with
+ * constant operands) are evaluated once and replaced by a literal of the same type. Null operands
+ * of null propagating operators, boolean identities and constant conditions of if-then-else
+ * expressions are simplified as well.
+ * <p>
+ * A subtree that fails to evaluate is left as is so that the error is reported when (and if) a
+ * row is evaluated.
+ */
+public final class ExpressionOptimizer {
+
+    private ExpressionOptimizer() {
+    }
+
+    /**
+     * Returns an equivalent, simplified expression. The original is returned if nothing could be simplified.
+     */
+    public static VTLExpression optimize(VTLExpression expression) {
+        if (expression instanceof LiteralExpression) {
+            return expression;
+        }
+        if (expression instanceof IsNullExpression) {
+            return optimizeIsNull((IsNullExpression) expression);
+        }
+        if (expression instanceof AbstractBinaryExpression) {
+            return optimizeBinary((AbstractBinaryExpression) expression);
+        }
+        if (expression instanceof NotExpression) {
+            return optimizeNot((NotExpression) expression);
+        }
+        if (expression instanceof IfThenElseExpression) {
+            return optimizeIfThenElse((IfThenElseExpression) expression);
+        }
+        if (expression instanceof FunctionExpression) {
+            return optimizeFunction((FunctionExpression<?>) expression);
+        }
+        return expression;
+    }
+
+    private static boolean isConstant(VTLExpression expression) {
+        return expression instanceof LiteralExpression;
+    }
+
+    private static Object valueOf(VTLExpression constant) {
+        return constant.resolve(null).get();
+    }
+
+    private static boolean isNullConstant(VTLExpression expression) {
+        return isConstant(expression) && valueOf(expression) == null;
+    }
+
+    private static boolean isConstant(VTLExpression expression, Boolean value) {
+        return isConstant(expression) && value.equals(valueOf(expression));
+    }
+
+    /**
+     * Evaluates the expression and wraps the result in a literal with the type of the expression.
+     */
+    private static VTLExpression fold(VTLExpression expression) {
+        try {
+            return new Constant(expression.resolve(null), expression.getVTLType());
+        } catch (RuntimeException e) {
+            return expression;
+        }
+    }
+
+    private static VTLExpression constant(Object value, VTLExpression replaced) {
+        return new Constant(VTLObject.of(value), replaced.getVTLType());
+    }
+
+    private static VTLExpression optimizeIsNull(IsNullExpression expression) {
+        VTLExpression operand = optimize(expression.getLeftOperand());
+        if (isConstant(operand)) {
+            return constant(expression instanceof IsNotNullExpression ^ valueOf(operand) == null, expression);
+        }
+        if (operand == expression.getLeftOperand()) {
+            return expression;
+        }
+        return expression instanceof IsNotNullExpression
+                ? new IsNotNullExpression(operand)
+                : new IsNullExpression(operand);
+    }
+
+    private static VTLExpression optimizeBinary(AbstractBinaryExpression expression) {
+        VTLExpression left = optimize(expression.getLeftOperand());
+        VTLExpression right = optimize(expression.getRightOperand());
+
+        BinaryOperator<VTLExpression> constructor = constructorOf(expression);
+        if (constructor == null) {
+            return expression;
+        }
+
+        VTLExpression rebuilt = left == expression.getLeftOperand() && right == expression.getRightOperand()
+                ? expression
+                : constructor.apply(left, right);
+
+        if (isConstant(left) && isConstant(right)) {
+            return fold(rebuilt);
+        }
+
+        // Null operands short-circuit the arithmetic and the comparisons.
+        if (expression instanceof AbstractNullFirstExpression && (isNullConstant(left) || isNullConstant(right))) {
+            return new Constant(VTLObject.NULL, expression.getVTLType());
+        }
+
+        // false and x = false, true and x = x
+        if (expression instanceof AndExpression) {
+            if (isConstant(left, false) || isConstant(right, false)) {
+                return constant(false, expression);
+            }
+            if (isConstant(left, true)) {
+                return right;
+            }
+            if (isConstant(right, true)) {
+                return left;
+            }
+        }
+
+        // true or x = true, false or x = x
+        if (expression instanceof OrExpression) {
+            if (isConstant(left, true) || isConstant(right, true)) {
+                return constant(true, expression);
+            }
+            if (isConstant(left, false)) {
+                return right;
+            }
+            if (isConstant(right, false)) {
+                return left;
+            }
+        }
+
+        // null xor x = null
+        if (expression instanceof XorExpression && (isNullConstant(left) || isNullConstant(right))) {
+            return new Constant(VTLObject.NULL, expression.getVTLType());
+        }
+
+        return rebuilt;
+    }
+
+    private static BinaryOperator<VTLExpression> constructorOf(AbstractBinaryExpression expression) {
+        if (expression instanceof AdditionExpression) {
+            return AdditionExpression::new;
+        } else if (expression instanceof SubtractionExpression) {
+            return SubtractionExpression::new;
+        } else if (expression instanceof MultiplicationExpression) {
+            return MultiplicationExpression::new;
+        } else if (expression instanceof DivisionExpression) {
+            return DivisionExpression::new;
+        } else if (expression instanceof EqualExpression) {
+            return EqualExpression::new;
+        } else if (expression instanceof NotEqualExpression) {
+            return NotEqualExpression::new;
+        } else if (expression instanceof GraterThanExpression) {
+            return GraterThanExpression::new;
+        } else if (expression instanceof GreaterOrEqualExpression) {
+            return GreaterOrEqualExpression::new;
+        } else if (expression instanceof LesserThanExpression) {
+            return LesserThanExpression::new;
+        } else if (expression instanceof LesserOrEqualExpression) {
+            return LesserOrEqualExpression::new;
+        } else if (expression instanceof AndExpression) {
+            return AndExpression::new;
+        } else if (expression instanceof OrExpression) {
+            return OrExpression::new;
+        } else if (expression instanceof XorExpression) {
+            return XorExpression::new;
+        }
+        return null;
+    }
+
+    private static VTLExpression optimizeNot(NotExpression expression) {
+        VTLExpression operand = optimize(expression.getOperand());
+        if (isConstant(operand)) {
+            return fold(new NotExpression(operand));
+        }
+        // not not x = x
+        if (operand instanceof NotExpression) {
+            return ((NotExpression) operand).getOperand();
+        }
+        return operand == expression.getOperand() ? expression : new NotExpression(operand);
+    }
+
+    private static VTLExpression optimizeIfThenElse(IfThenElseExpression expression) {
+        ImmutableMap.Builder<VTLExpression, VTLExpression> conditions = ImmutableMap.builder();
+        boolean changed = false;
+        VTLExpression defaultExpression = null;
+
+        for (Map.Entry<VTLExpression, VTLExpression> entry : expression.getConditions().entrySet()) {
+            VTLExpression condition = optimize(entry.getKey());
+            VTLExpression value = optimize(entry.getValue());
+            changed |= condition != entry.getKey() || value != entry.getValue();
+            if (isConstant(condition)) {
+                changed = true;
+                if (Boolean.TRUE.equals(valueOf(condition))) {
+                    // The remaining conditions are never evaluated.
+                    defaultExpression = value;
+                    break;
+                }
+                // False and null conditions are never taken.
+                continue;
+            }
+            conditions.put(condition, value);
+        }
+
+        if (defaultExpression == null) {
+            defaultExpression = optimize(expression.getDefaultExpression());
+            changed |= defaultExpression != expression.getDefaultExpression();
+        }
+
+        ImmutableMap<VTLExpression, VTLExpression> remaining = conditions.build();
+        if (remaining.isEmpty()) {
+            return defaultExpression;
+        }
+        if (!changed) {
+            return expression;
+        }
+        try {
+            IfThenElseExpression.Builder builder = new IfThenElseExpression.Builder(defaultExpression);
+            for (Map.Entry<VTLExpression, VTLExpression> entry : remaining.entrySet()) {
+                builder.addCondition(entry.getKey(), entry.getValue());
+            }
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            // Simplified operands can lose their type, keep the original.
+            return expression;
+        }
+    }
+
+    private static <T extends VTLObject> VTLExpression optimizeFunction(FunctionExpression<T> expression) {
+        boolean changed = false;
+        boolean constant = true;
+
+        ImmutableList.Builder<VTLExpression> arguments = ImmutableList.builder();
+        for (VTLExpression argument : expression.getArguments()) {
+            VTLExpression optimized = optimize(argument);
+            changed |= optimized != argument;
+            constant &= isConstant(optimized);
+            arguments.add(optimized);
+        }
+
+        ImmutableMap.Builder<String, VTLExpression> namedArguments = ImmutableMap.builder();
+        for (Map.Entry<String, VTLExpression> entry : expression.getNamedArguments().entrySet()) {
+            VTLExpression optimized = optimize(entry.getValue());
+            changed |= optimized != entry.getValue();
+            constant &= isConstant(optimized);
+            namedArguments.put(entry.getKey(), optimized);
+        }
+
+        VTLExpression rebuilt = expression;
+        if (changed) {
+            try {
+                rebuilt = new FunctionExpression<>(expression.getFunction(), arguments.build(), namedArguments.build());
+            } catch (IllegalArgumentException e) {
+                return expression;
+            }
+        }
+
+        if (constant && expression.getFunction().isDeterministic()) {
+            return fold(rebuilt);
+        }
+        return rebuilt;
+    }
+
+    /**
+     * A literal that keeps the type of the expression it replaces.
+     */
+    private static final class Constant extends LiteralExpression {
+
+        private final Class<?> type;
+
+        private Constant(VTLObject literal, Class<?> type) {
+            super(literal);
+            this.type = checkNotNull(type);
+        }
+
+        @Override
+        public Class<?> getVTLType() {
+            return type;
+        }
+    }
+}
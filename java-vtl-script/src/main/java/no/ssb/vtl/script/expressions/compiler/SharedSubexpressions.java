@@ -0,0 +1,222 @@
+package no.ssb.vtl.script.expressions.compiler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.script.expressions.compiler.ExpressionCompiler.BooleanNode;
+import no.ssb.vtl.script.expressions.compiler.ExpressionCompiler.DoubleNode;
+import no.ssb.vtl.script.expressions.compiler.ExpressionCompiler.LongNode;
+import no.ssb.vtl.script.expressions.compiler.ExpressionCompiler.Node;
+
+import javax.script.Bindings;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Subexpressions shared by several compiled expressions evaluated on the same data point.
+ * <p>
+ * The expressions are first analyzed to count the occurrences of each subexpression. When compiled,
+ * the subexpressions that occur more than once are replaced by a single node that caches its value
+ * until {@link #next()} is called. Subexpressions are identified by a key built from their operators,
+ * literals and the column and version of their variables; the version of a column is incremented
+ * when it is assigned so that reads before and after an assignment are not mixed up.
+ */
+final class SharedSubexpressions {
+
+    private final Map<String, Integer> counts = new HashMap<>();
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final Map<Object, Integer> identities = new IdentityHashMap<>();
+    private final int[] versions;
+    private boolean analyzing = true;
+    private long row = 0;
+
+    SharedSubexpressions(int columns) {
+        this.versions = new int[columns];
+    }
+
+    /**
+     * Returns a number that identifies the object in the keys.
+     */
+    int idOf(Object object) {
+        return identities.computeIfAbsent(object, o -> identities.size());
+    }
+
+    int version(int column) {
+        return column < versions.length ? versions[column] : 0;
+    }
+
+    void assigned(int column) {
+        versions[column]++;
+    }
+
+    /**
+     * Ends the analysis, the expressions must then be compiled in the same order.
+     */
+    void compiling() {
+        analyzing = false;
+        Arrays.fill(versions, 0);
+    }
+
+    /**
+     * Invalidates the cached values.
+     */
+    void next() {
+        row++;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    Node get(String key) {
+        return nodes.get(key);
+    }
+
+    /**
+     * Counts the node when analyzing or returns the shared node if the key was seen more than once.
+     */
+    Node share(String key, Node node) {
+        if (analyzing) {
+            counts.merge(key, 1, Integer::sum);
+            return node;
+        }
+        if (counts.getOrDefault(key, 0) < 2) {
+            return node;
+        }
+        return nodes.computeIfAbsent(key, k -> cache(node));
+    }
+
+    private Node cache(Node node) {
+        if (node instanceof LongNode) {
+            return new CachedLongNode((LongNode) node);
+        }
+        if (node instanceof DoubleNode) {
+            return new CachedDoubleNode((DoubleNode) node);
+        }
+        if (node instanceof BooleanNode) {
+            return new CachedBooleanNode((BooleanNode) node);
+        }
+        return new CachedNode(node);
+    }
+
+    private final class CachedNode implements Node {
+        private final Node node;
+        private long computed = -1;
+        private VTLObject value;
+
+        private CachedNode(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public VTLObject resolve(DataPoint dataPoint, Bindings bindings) {
+            if (computed != row) {
+                value = node.resolve(dataPoint, bindings);
+                computed = row;
+            }
+            return value;
+        }
+    }
+
+    private final class CachedBooleanNode implements BooleanNode {
+        private final BooleanNode node;
+        private long computed = -1;
+        private int value;
+
+        private CachedBooleanNode(BooleanNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public int test(DataPoint dataPoint, Bindings bindings) {
+            if (computed != row) {
+                value = node.test(dataPoint, bindings);
+                computed = row;
+            }
+            return value;
+        }
+    }
+
+    private final class CachedLongNode implements LongNode {
+        private final LongNode node;
+        private long computed = -1;
+        private boolean isNull;
+        private long value;
+
+        private CachedLongNode(LongNode node) {
+            this.node = node;
+        }
+
+        private void compute(DataPoint dataPoint, Bindings bindings) {
+            if (computed != row) {
+                isNull = node.isNull(dataPoint, bindings);
+                value = isNull ? 0 : node.value(dataPoint, bindings);
+                computed = row;
+            }
+        }
+
+        @Override
+        public boolean isNull(DataPoint dataPoint, Bindings bindings) {
+            compute(dataPoint, bindings);
+            return isNull;
+        }
+
+        @Override
+        public long value(DataPoint dataPoint, Bindings bindings) {
+            compute(dataPoint, bindings);
+            return value;
+        }
+    }
+
+    private final class CachedDoubleNode implements DoubleNode {
+        private final DoubleNode node;
+        private long computed = -1;
+        private boolean isNull;
+        private double value;
+
+        private CachedDoubleNode(DoubleNode node) {
+            this.node = node;
+        }
+
+        private void compute(DataPoint dataPoint, Bindings bindings) {
+            if (computed != row) {
+                isNull = node.isNull(dataPoint, bindings);
+                value = isNull ? 0 : node.value(dataPoint, bindings);
+                computed = row;
+            }
+        }
+
+        @Override
+        public boolean isNull(DataPoint dataPoint, Bindings bindings) {
+            compute(dataPoint, bindings);
+            return isNull;
+        }
+
+        @Override
+        public double value(DataPoint dataPoint, Bindings bindings) {
+            compute(dataPoint, bindings);
+            return value;
+        }
+    }
+}
@@ -51,6 +51,7 @@ public abstract class AbstractVTLFunction<T extends VTLObject> implements VTLFun
     private final String id;
     private final Class<T> type;
     private final ImmutableMap<String, AbstractVTLFunction.Argument<?>> signature;
+    private final Argument<?>[] arguments;
 
     protected AbstractVTLFunction(String id, Class<T> returnType, Argument... arguments) {
         this(id, returnType, Arrays.asList(arguments));
@@ -69,6 +70,7 @@ public abstract class AbstractVTLFunction<T extends VTLObject> implements VTLFun
         for (Argument<?> argument : arguments)
             signatureBuilder.put(argument.getName(), argument);
         this.signature = signatureBuilder.build();
+        this.arguments = this.signature.values().toArray(new Argument<?>[0]);
     }
 
     /**
@@ -171,6 +173,14 @@ public abstract class AbstractVTLFunction<T extends VTLObject> implements VTLFun
         return type;
     }
 
+    /**
+     * The functions are deterministic by default, functions that are not must override this method.
+     */
+    @Override
+    public boolean isDeterministic() {
+        return true;
+    }
+
     @Override
     public String toString() {
         return toStringHelper(this)
@@ -197,6 +207,33 @@ public abstract class AbstractVTLFunction<T extends VTLObject> implements VTLFun
         return safeInvoke(createTypeSafeArguments(arguments));
     }
 
+    /**
+     * Invokes the function without building the argument maps.
+     * <p>
+     * The arguments are in the order of the signature, the null elements are replaced by the
+     * default values of the optional arguments in a copy of the array. The types of the arguments
+     * are not checked again, {@link no.ssb.vtl.script.expressions.FunctionExpression} checks them
+     * when the call is bound.
+     */
+    @Override
+    public T invoke(VTLObject[] arguments) {
+        checkArgument(arguments.length == this.arguments.length,
+                INVALID_ARGUMENT_COUNT, this.arguments.length, arguments.length);
+        VTLObject[] values = arguments;
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i] == null) {
+                checkArgument(this.arguments[i] instanceof OptionalArgument,
+                        MISSING_ARGUMENTS, this.arguments[i].getName());
+                // Missing optional arguments stay null in the caller's array.
+                if (values == arguments) {
+                    values = arguments.clone();
+                }
+                values[i] = ((OptionalArgument<?>) this.arguments[i]).getDefaultValue();
+            }
+        }
+        return safeInvoke(new TypeSafeArguments(values, this.arguments));
+    }
+
     protected abstract T safeInvoke(TypeSafeArguments arguments);
 
     // TODO: Rename
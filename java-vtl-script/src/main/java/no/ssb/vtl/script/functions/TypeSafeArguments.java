@@ -20,7 +20,6 @@ package no.ssb.vtl.script.functions;
  * =========================LICENSE_END==================================
  */
 
-import com.google.common.collect.ImmutableMap;
 import no.ssb.vtl.model.VTLObject;
 
 import java.util.Map;
@@ -28,29 +27,51 @@ import java.util.Map;
 import static com.google.common.base.Preconditions.checkArgument;
 
 public class TypeSafeArguments {
-    private final Map<AbstractVTLFunction.Argument, VTLObject<?>> arguments;
 
     private static final String WRONG_ARGUMENT_TYPE = "invalid type %s for argument %s, expected %s";
 
+    private final AbstractVTLFunction.Argument<?>[] signature;
+    private final VTLObject<?>[] values;
+
     public TypeSafeArguments(Map<String, VTLObject> arguments, Map<String, AbstractVTLFunction.Argument<?>> signature) {
         checkArgument(arguments.size() == signature.size());
-        ImmutableMap.Builder<AbstractVTLFunction.Argument, VTLObject<?>> builder = ImmutableMap.builder();
+        this.signature = signature.values().toArray(new AbstractVTLFunction.Argument<?>[0]);
+        this.values = new VTLObject<?>[this.signature.length];
+        int index = 0;
         for (String name : signature.keySet()) {
-            VTLObject value = arguments.get(name);
-            AbstractVTLFunction.Argument argument = signature.get(name);
-            builder.put(argument, checkType(value, argument));
+            values[index] = checkType(arguments.get(name), this.signature[index]);
+            index++;
+        }
+    }
+
+    /**
+     * Wraps the values, in the order of the signature, without copying them.
+     * <p>
+     * The types are not checked, callers of the array based invoke checked them when the
+     * function call was bound.
+     */
+    TypeSafeArguments(VTLObject<?>[] values, AbstractVTLFunction.Argument<?>[] signature) {
+        checkArgument(values.length == signature.length);
+        this.signature = signature;
+        this.values = values;
+    }
+
+    private VTLObject<?> find(AbstractVTLFunction.Argument<?> argumentReference) {
+        // The signatures are short, a scan is cheaper than a lookup.
+        for (int i = 0; i < signature.length; i++) {
+            if (signature[i] == argumentReference) {
+                return values[i];
+            }
         }
-        this.arguments = builder.build();
+        throw new IllegalArgumentException();
     }
 
     public <T extends VTLObject> T get(AbstractVTLFunction.Argument<T> argumentReference) {
-        checkArgument(arguments.containsKey(argumentReference));
-        return (T) arguments.get(argumentReference);
+        return (T) find(argumentReference);
     }
 
     public <T extends VTLObject> T getNullable(AbstractVTLFunction.Argument<T> argumentReference, T valueIfNull) {
-        checkArgument(arguments.containsKey(argumentReference));
-        T value = (T) arguments.get(argumentReference);
+        T value = (T) find(argumentReference);
         return value.get() == null ? valueIfNull : value;
     }
 
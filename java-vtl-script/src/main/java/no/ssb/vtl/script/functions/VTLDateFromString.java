@@ -18,21 +18,37 @@ package no.ssb.vtl.script.functions;
  * =========================LICENSE_END==================================
  */
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import no.ssb.vtl.model.VTLDate;
 import no.ssb.vtl.model.VTLString;
 import no.ssb.vtl.script.VTLScriptEngine;
 
 import java.time.Instant;
+import java.util.TimeZone;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+/**
+ * The date_from_string function.
+ * <p>
+ * Date columns usually contain few distinct values, the parsed dates are kept in a bounded cache.
+ */
 public class VTLDateFromString extends AbstractVTLFunction<VTLDate> {
 
+    @VisibleForTesting
+    static final int CACHE_SIZE = 10_000;
+
     private static final Argument<VTLString> DS = new Argument<>("ds", VTLString.class);
     private static final Argument<VTLString> FORMAT = new Argument<>("format", VTLString.class);
     private static VTLDateFromString instance;
     private VTLString NULL = VTLString.of((String) null);
 
+    private final Cache<CacheKey, VTLDate> cache = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .build();
+
     private VTLDateFromString() {
         super("date_from_string", VTLDate.class, DS, FORMAT);
     }
@@ -51,7 +67,44 @@ public class VTLDateFromString extends AbstractVTLFunction<VTLDate> {
         checkArgument(VTLDate.canParse(format.get()), "date format %s unsupported", format.get());
         if (value.get() == null)
             return VTLDate.of((Instant) null);
-        else
-            return VTLDate.of(value.get(), format.get(), VTLScriptEngine.getTimeZone());
+
+        TimeZone timeZone = VTLScriptEngine.getTimeZone();
+        CacheKey key = new CacheKey(value.get(), format.get(), timeZone.getID());
+        VTLDate date = cache.getIfPresent(key);
+        if (date == null) {
+            date = VTLDate.of(value.get(), format.get(), timeZone);
+            cache.put(key, date);
+        }
+        return date;
+    }
+
+    @VisibleForTesting
+    long cacheSize() {
+        return cache.size();
+    }
+
+    private static final class CacheKey {
+        private final String input;
+        private final String format;
+        private final String zone;
+
+        private CacheKey(String input, String format, String zone) {
+            this.input = input;
+            this.format = format;
+            this.zone = zone;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return input.equals(other.input) && format.equals(other.format) && zone.equals(other.zone);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * input.hashCode() + format.hashCode()) + zone.hashCode();
+        }
     }
 }
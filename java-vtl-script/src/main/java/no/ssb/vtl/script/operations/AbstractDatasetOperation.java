@@ -28,12 +28,16 @@ import no.ssb.vtl.model.Filtering;
 import no.ssb.vtl.model.FilteringSpecification;
 import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
+import no.ssb.vtl.script.VtlConfiguration;
+import no.ssb.vtl.script.support.MemoryReservation;
 
 import java.util.Collection;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * Base class for {@link Dataset} transformation.
  */
@@ -41,6 +45,7 @@ public abstract class AbstractDatasetOperation implements Dataset {
 
     private final ImmutableList<AbstractDatasetOperation> children;
     private DataStructure cache;
+    private volatile VtlConfiguration configuration;
 
     public AbstractDatasetOperation(Collection<Dataset> children) {
         ImmutableList.Builder<AbstractDatasetOperation> childrenCopy = ImmutableList.builder();
@@ -89,7 +94,21 @@ public abstract class AbstractDatasetOperation implements Dataset {
      */
     protected abstract DataStructure computeDataStructure();
 
-    public abstract Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components);
+    /**
+     * Computes the data of this operation with its configuration, see {@link #getConfiguration()}.
+     */
+    public final Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components) {
+        return computeData(orders, filtering, components, getConfiguration());
+    }
+
+    /**
+     * Computes the data of this operation with the configuration of the evaluation that reads it.
+     * <p>
+     * Implementations read their children with the same configuration, so that operations created by
+     * earlier evaluations use the settings of the evaluation that reads them.
+     */
+    public abstract Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components,
+                                                  VtlConfiguration configuration);
 
     /**
      * Returns the required filtering of this operation.
@@ -101,6 +120,49 @@ public abstract class AbstractDatasetOperation implements Dataset {
      */
     public abstract OrderingSpecification computeRequiredOrdering(OrderingSpecification ordering);
 
+    /**
+     * Attaches the configuration used when this operation is read through the {@link Dataset} methods.
+     * <p>
+     * The operations behind it are read with the same configuration, see
+     * {@link #computeData(Ordering, Filtering, Set, VtlConfiguration)}.
+     */
+    public void configure(VtlConfiguration configuration) {
+        this.configuration = checkNotNull(configuration);
+    }
+
+    /**
+     * Returns true if a configuration was attached to this operation.
+     */
+    public boolean isConfigured() {
+        return configuration != null;
+    }
+
+    /**
+     * Returns the configuration attached to this operation, the one of its first child
+     * if none or {@link VtlConfiguration#getDefault()}.
+     */
+    public VtlConfiguration getConfiguration() {
+        return configuration != null ? configuration : inheritedConfiguration();
+    }
+
+    /**
+     * Returns the configuration used when none is attached to this operation.
+     */
+    protected VtlConfiguration inheritedConfiguration() {
+        if (!children.isEmpty()) {
+            return children.get(0).getConfiguration();
+        }
+        return VtlConfiguration.getDefault();
+    }
+
+    /**
+     * Creates a reservation for the memory held by a stream of this operation, against the
+     * {@link no.ssb.vtl.script.support.MemoryBudget} of the configuration.
+     */
+    protected MemoryReservation reserveMemory(VtlConfiguration configuration) {
+        return MemoryReservation.create(configuration.getMemoryBudget(), getClass().getSimpleName());
+    }
+
     /**
      * Returns the children {@link AbstractDatasetOperation} of this operation.
      */
@@ -28,6 +28,7 @@ import no.ssb.vtl.model.Filtering;
 import no.ssb.vtl.model.FilteringSpecification;
 import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
+import no.ssb.vtl.script.VtlConfiguration;
 
 import java.util.Collections;
 import java.util.Map;
@@ -49,6 +50,18 @@ public class DatasetOperationWrapper extends AbstractDatasetOperation {
         this.dataset = checkNotNull(dataset);
     }
 
+    public Dataset getDataset() {
+        return dataset;
+    }
+
+    @Override
+    protected VtlConfiguration inheritedConfiguration() {
+        if (dataset instanceof AbstractDatasetOperation) {
+            return ((AbstractDatasetOperation) dataset).getConfiguration();
+        }
+        return super.inheritedConfiguration();
+    }
+
     @Override
     public String toString() {
         if (dataset instanceof AbstractDatasetOperation) {
@@ -63,24 +76,27 @@ public class DatasetOperationWrapper extends AbstractDatasetOperation {
     /**
      * Sorts and filters the stream if the underlying dataset does not support it.
      */
-    private Stream<DataPoint> ensureSortedFilteredStream(Ordering orders, Filtering filtering, Set<String> components) {
+    private Stream<DataPoint> ensureSortedFilteredStream(Ordering orders, Filtering filtering, Set<String> components,
+                                                         VtlConfiguration configuration) {
         Optional<Stream<DataPoint>> sorted = dataset.getData(orders, filtering, components);
         if (sorted.isPresent()) {
             return new VtlStream(
-                    this, sorted.get(), Collections.emptyList(), orders, filtering, orders, Filtering.ALL);
+                    this, configuration,
+                    sorted.get(), Collections.emptyList(), orders, filtering, orders, Filtering.ALL);
         } else {
             return new VtlStream(
-                    this,
+                    this, configuration,
                     dataset.getData(), Collections.emptyList(), orders, filtering, Ordering.ANY, Filtering.ALL);
         }
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
         if (dataset instanceof AbstractDatasetOperation) {
-            return ((AbstractDatasetOperation) dataset).computeData(orders, filtering, components);
+            return ((AbstractDatasetOperation) dataset).computeData(orders, filtering, components, configuration);
         } else {
-            return ensureSortedFilteredStream(orders, filtering, components);
+            return ensureSortedFilteredStream(orders, filtering, components, configuration);
         }
     }
 
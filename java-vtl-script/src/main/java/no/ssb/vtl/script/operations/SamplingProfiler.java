@@ -0,0 +1,222 @@
+package no.ssb.vtl.script.operations;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import com.google.common.base.MoreObjects;
+import com.netflix.spectator.api.Clock;
+import no.ssb.vtl.model.DataPoint;
+
+import java.util.Comparator;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Estimates the time spent producing the rows of a stream.
+ * <p>
+ * The first row is always timed since it often includes work done once, a sort for instance.
+ * After that, only one row out of {@code interval} is timed and the time of the other rows
+ * is extrapolated from the samples. The time of a row does not include the time spent by
+ * the consumer of the stream.
+ * <p>
+ * The spliterators count in plain fields, confined to the thread consuming them, and merge
+ * their counts when the stream is exhausted or closed. A spliterator split off for a parallel
+ * stream keeps its own counts; only the first row of the original spliterator is timed as the
+ * first row.
+ */
+final class SamplingProfiler {
+
+    private final int interval;
+    private final Clock clock;
+
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder cells = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+    private final LongAdder firstNanos = new LongAdder();
+
+    SamplingProfiler(int interval, Clock clock) {
+        checkArgument(interval > 0, "the sample interval must be positive");
+        this.interval = interval;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns a stream that measures the given stream. The returned stream is parallel if the
+     * given one is.
+     */
+    Stream<DataPoint> measure(Stream<DataPoint> stream) {
+        Queue<ProfiledSpliterator> spliterators = new ConcurrentLinkedQueue<>();
+        ProfiledSpliterator profiled = new ProfiledSpliterator(stream.spliterator(), true, spliterators);
+        return StreamSupport.stream(profiled, stream.isParallel())
+                .onClose(() -> spliterators.forEach(ProfiledSpliterator::merge))
+                .onClose(stream::close);
+    }
+
+    long getRows() {
+        return rows.sum();
+    }
+
+    long getCells() {
+        return cells.sum();
+    }
+
+    long getSamples() {
+        return samples.sum();
+    }
+
+    /**
+     * Returns the time until the first row.
+     */
+    long getFirstRowNanos() {
+        return firstNanos.sum();
+    }
+
+    /**
+     * Returns the estimated time spent producing all the rows.
+     */
+    long getEstimatedNanos() {
+        long first = firstNanos.sum();
+        long sampled = samples.sum();
+        long others = rows.sum() - 1;
+        if (sampled == 0 || others <= 0) {
+            return first;
+        }
+        return first + (long) ((double) sampledNanos.sum() / sampled * others);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("interval", interval)
+                .add("rows", getRows())
+                .add("samples", getSamples())
+                .add("estimatedNanos", getEstimatedNanos())
+                .toString();
+    }
+
+    private final class ProfiledSpliterator implements Spliterator<DataPoint>, Consumer<DataPoint> {
+
+        private final Spliterator<DataPoint> source;
+        private final Queue<ProfiledSpliterator> spliterators;
+
+        private DataPoint current;
+        private boolean first;
+        private int countdown = interval;
+        private long localRows;
+        private long localCells;
+        private long localSamples;
+        private long localSampledNanos;
+        private long localFirstNanos;
+
+        private ProfiledSpliterator(Spliterator<DataPoint> source, boolean first,
+                                    Queue<ProfiledSpliterator> spliterators) {
+            this.source = source;
+            this.first = first;
+            this.spliterators = spliterators;
+            spliterators.add(this);
+        }
+
+        @Override
+        public void accept(DataPoint dataPoint) {
+            current = dataPoint;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super DataPoint> action) {
+            boolean sampled = first || --countdown == 0;
+            long start = sampled ? clock.monotonicTime() : 0;
+            if (!source.tryAdvance(this)) {
+                if (first) {
+                    localFirstNanos = clock.monotonicTime() - start;
+                    first = false;
+                }
+                merge();
+                return false;
+            }
+            if (sampled) {
+                long elapsed = clock.monotonicTime() - start;
+                if (first) {
+                    localFirstNanos = elapsed;
+                    first = false;
+                } else {
+                    localSamples++;
+                    localSampledNanos += elapsed;
+                    countdown = interval;
+                }
+            }
+            DataPoint dataPoint = current;
+            current = null;
+            localRows++;
+            localCells += dataPoint.size();
+            action.accept(dataPoint);
+            return true;
+        }
+
+        /**
+         * Adds the local counts to the profiler.
+         */
+        private void merge() {
+            rows.add(localRows);
+            cells.add(localCells);
+            samples.add(localSamples);
+            sampledNanos.add(localSampledNanos);
+            firstNanos.add(localFirstNanos);
+            localRows = 0;
+            localCells = 0;
+            localSamples = 0;
+            localSampledNanos = 0;
+            localFirstNanos = 0;
+        }
+
+        @Override
+        public Spliterator<DataPoint> trySplit() {
+            Spliterator<DataPoint> split = source.trySplit();
+            return split == null ? null : new ProfiledSpliterator(split, false, spliterators);
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        /**
+         * The size is not reported so that the rows are always traversed, by count() for instance.
+         */
+        @Override
+        public int characteristics() {
+            return source.characteristics() & ~(Spliterator.SIZED | Spliterator.SUBSIZED);
+        }
+
+        @Override
+        public Comparator<? super DataPoint> getComparator() {
+            return source.getComparator();
+        }
+    }
+}
@@ -33,7 +33,12 @@ import no.ssb.vtl.model.Filtering;
 import no.ssb.vtl.model.FilteringSpecification;
 import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.script.VtlConfiguration;
+import no.ssb.vtl.script.support.CancellationToken;
+import no.ssb.vtl.script.support.Closer;
+import no.ssb.vtl.script.support.MemoryReservation;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -42,7 +47,7 @@ import java.util.ListIterator;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -61,11 +66,15 @@ public class VtlStream extends ForwardingStream<DataPoint> {
     private static final String V_END = " └─";
     private static final String H_BAR = "───";
     private static final String SPACE = "   ";
+    private static final int CANCELLATION_BATCH_SIZE = 1024;
     private final AbstractDatasetOperation operation;
+    private final VtlConfiguration configuration;
     private final ImmutableList<Stream<DataPoint>> parents;
     private final Stream<DataPoint> delegate;
     private final Ordering requestedOrdering;
     private final Filtering requestedFiltering;
+    private final MemoryReservation memory;
+    private volatile CancellationToken cancellationToken;
     private VtlStream child;
     private Ordering actualOrdering;
     private Filtering actualFiltering;
@@ -73,6 +82,7 @@ public class VtlStream extends ForwardingStream<DataPoint> {
 
     public VtlStream(
             AbstractDatasetOperation operation,
+            VtlConfiguration configuration,
             Stream<DataPoint> delegate,
             Stream<DataPoint> parent,
             Ordering requestedOrdering,
@@ -80,12 +90,13 @@ public class VtlStream extends ForwardingStream<DataPoint> {
             Ordering actualOrdering,
             Filtering actualFiltering
     ) {
-        this(operation, delegate, Collections.singletonList(parent), requestedOrdering, requestedFiltering,
-                actualOrdering, actualFiltering);
+        this(operation, configuration, delegate, Collections.singletonList(parent), requestedOrdering,
+                requestedFiltering, actualOrdering, actualFiltering);
     }
 
     public VtlStream(
             AbstractDatasetOperation operation,
+            VtlConfiguration configuration,
             Stream<DataPoint> delegate,
             Collection<Stream<DataPoint>> parents,
             Ordering requestedOrdering,
@@ -93,20 +104,51 @@ public class VtlStream extends ForwardingStream<DataPoint> {
             Ordering actualOrdering,
             Filtering actualFiltering
     ) {
+        this(operation, configuration, delegate, parents, requestedOrdering, requestedFiltering, actualOrdering,
+                actualFiltering, operation.reserveMemory(configuration));
+    }
+
+    /**
+     * Creates a stream that reports and releases the memory held by the operation, see
+     * {@link AbstractDatasetOperation#reserveMemory(VtlConfiguration)}.
+     * <p>
+     * The configuration is the one the operation was read with, see
+     * {@link AbstractDatasetOperation#computeData(Ordering, Filtering, java.util.Set, VtlConfiguration)}.
+     */
+    public VtlStream(
+            AbstractDatasetOperation operation,
+            VtlConfiguration configuration,
+            Stream<DataPoint> delegate,
+            Collection<Stream<DataPoint>> parents,
+            Ordering requestedOrdering,
+            Filtering requestedFiltering,
+            Ordering actualOrdering,
+            Filtering actualFiltering,
+            MemoryReservation memory
+    ) {
 
         this.parents = ImmutableList.copyOf(parents);
+        this.configuration = configuration;
+        this.cancellationToken = configuration.getCancellationToken();
 
         for (Stream<DataPoint> parent : parents) {
             if (parent instanceof VtlStream) {
                 ((VtlStream) parent).child = this;
+                if (cancellationToken != null) {
+                    ((VtlStream) parent).propagateCancellation(cancellationToken);
+                }
             }
         }
+        if (cancellationToken != null) {
+            cancellationToken.check();
+        }
 
         this.operation = operation;
         this.requestedOrdering = requestedOrdering;
         this.requestedFiltering = requestedFiltering;
         this.actualOrdering = actualOrdering;
         this.actualFiltering = actualFiltering;
+        this.memory = memory;
 
         this.statistics = new Statistics(this, Spectator.globalRegistry());
         this.delegate = decorateStream(delegate);
@@ -132,96 +174,97 @@ public class VtlStream extends ForwardingStream<DataPoint> {
         return requestedFiltering;
     }
 
+    public Filtering getActualFiltering() {
+        return actualFiltering;
+    }
+
     public AbstractDatasetOperation getOperation() {
         return operation;
     }
 
+    /**
+     * Returns the configuration the operation was read with.
+     */
+    public VtlConfiguration getConfiguration() {
+        return configuration;
+    }
+
     public ImmutableList<Stream<DataPoint>> getParents() {
         return parents;
     }
 
-    @Override
-    public void close() {
-        delegate.close();
-        RuntimeException exception = null;
+    /**
+     * Returns the token checked by this stream, if any.
+     */
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * The streams behind a stream use its cancellation token, so that consuming a dataset
+     * can be stopped even if the operations behind it belong to a different evaluation.
+     */
+    private void propagateCancellation(CancellationToken token) {
+        this.cancellationToken = token;
         for (Stream<DataPoint> parent : parents) {
-            try {
-                parent.close();
-            } catch (RuntimeException ex) {
-                if (exception != null) {
-                    ex.addSuppressed(ex);
-                } else {
-                    exception = ex;
-                }
+            if (parent instanceof VtlStream) {
+                ((VtlStream) parent).propagateCancellation(token);
             }
         }
-        if (exception != null) {
-            throw exception;
-        }
-    }
-
-    private Stream<DataPoint> measureStream(Stream<DataPoint> stream, Timer timer, Clock clock) {
-        return StreamSupport.stream(() -> {
-            Spliterator<DataPoint> spliterator = stream.spliterator();
-            return new Spliterators.AbstractSpliterator<DataPoint>(spliterator.estimateSize(), spliterator.characteristics()) {
-
-                @Override
-                public boolean tryAdvance(Consumer<? super DataPoint> action) {
-                    AtomicLong end = new AtomicLong(clock.monotonicTime());
-                    AtomicLong start = new AtomicLong(clock.monotonicTime());
-                    return spliterator.tryAdvance(dp -> {
-                        end.set(clock.monotonicTime());
-                        action.accept(dp);
-                        timer.record(end.get() - start.get(), TimeUnit.NANOSECONDS);
-                        start.set(clock.monotonicTime());
-                    });
-                }
-            };
-        }, 0, false).onClose(stream::close);
     }
 
-    private Stream<DataPoint> measureStartStream(Stream<DataPoint> stream, Timer timer, Clock clock) {
-        return StreamSupport.stream(() -> {
-            long start = clock.monotonicTime();
-            Spliterator<DataPoint> spliterator = stream.spliterator();
-            long end = clock.monotonicTime();
-            timer.record(end - start, TimeUnit.NANOSECONDS);
-            return spliterator;
-        }, 0, false).onClose(stream::close);
+    /**
+     * Closes the delegate and all the parent streams, even if one of them fails, and releases
+     * the memory held by the operation.
+     */
+    @Override
+    public void close() {
+        Closer closer = Closer.create();
+        closer.register(memory);
+        for (Stream<DataPoint> parent : parents) {
+            closer.register(parent);
+        }
+        closer.register(delegate);
+        closer.register(statistics::publish);
+        try {
+            closer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     Stream<DataPoint> decorateStream(Stream<DataPoint> stream) {
 
-        VtlConfiguration configuration = VtlConfiguration.getConfig();
-
         final Clock clock = statistics.registry.clock();
+        final int interval = configuration.getProfilingSampleInterval();
+
+        // Checked at batch boundaries, the token may be set later by the child stream.
+        stream = stream.peek(new CancellationCheck());
         if (configuration.isProfilingEnabled()) {
-            stream = measureStream(stream, statistics.time, clock);
+            statistics.timeProfiler = new SamplingProfiler(interval, clock);
+            stream = statistics.timeProfiler.measure(stream);
         }
 
 
         // Post filter
-        if (requestedFiltering.getOperator() != FilteringSpecification.Operator.TRUE
-                && !requestedFiltering.equals(actualFiltering)) {
+        if (isPostFiltered(requestedFiltering, actualFiltering)) {
             stream = stream.filter(requestedFiltering);
             if (configuration.isProfilingEnabled()) {
-                stream = measureStream(
-                        stream,
-                        statistics.filterTime,
-                        clock
-                );
+                statistics.filterProfiler = new SamplingProfiler(interval, clock);
+                stream = statistics.filterProfiler.measure(stream);
             }
         }
 
         // Post ordering
-        if (configuration.isForceSortEnabled() || !requestedOrdering.equals(actualOrdering)) {
-            stream = stream.sorted(requestedOrdering);
+        if (isPostSorted(configuration, requestedOrdering, actualOrdering)) {
+            // The sorted rows are held until the sorted stream is exhausted or closed.
+            MemoryReservation sortMemory = memory.newChild();
+            stream = stream.peek(dataPoint -> sortMemory.reserve(MemoryReservation.estimate(dataPoint)));
+            stream = onExhaustion(stream.sorted(requestedOrdering), sortMemory::releaseAll);
             if (configuration.isProfilingEnabled()) {
-                stream = measureStartStream(
-                        stream,
-                        statistics.sortTime,
-                        clock
-                );
+                // The rows are sorted before the first one is returned.
+                statistics.sortProfiler = new SamplingProfiler(interval, clock);
+                stream = statistics.sortProfiler.measure(stream);
             }
         }
 
@@ -252,16 +295,61 @@ public class VtlStream extends ForwardingStream<DataPoint> {
                 previous.set((DataPoint) dataPoint.clone());
             });
         }
-
-        if (configuration.isProfilingEnabled()) {
-            stream = stream.peek(dataPoint -> {
-                statistics.rows.increment();
-                statistics.cells.increment(dataPoint.size());
-            });
-        }
         return stream;
     }
 
+    /**
+     * Returns true if the rows of an operation returned with the actual filtering are filtered again.
+     */
+    public static boolean isPostFiltered(Filtering requestedFiltering, Filtering actualFiltering) {
+        return requestedFiltering.getOperator() != FilteringSpecification.Operator.TRUE
+                && !requestedFiltering.equals(actualFiltering);
+    }
+
+    /**
+     * Returns true if the rows of an operation returned with the actual ordering are buffered and sorted again.
+     */
+    public static boolean isPostSorted(VtlConfiguration configuration, Ordering requestedOrdering,
+                                       Ordering actualOrdering) {
+        return configuration.isForceSortEnabled() || !requestedOrdering.equals(actualOrdering);
+    }
+
+    /**
+     * Runs the action once the stream returned all its rows.
+     */
+    private static Stream<DataPoint> onExhaustion(Stream<DataPoint> stream, Runnable action) {
+        Spliterator<DataPoint> spliterator = stream.spliterator();
+        int characteristics = spliterator.characteristics() & ~Spliterator.SORTED;
+        Spliterator<DataPoint> exhaustion = new Spliterators.AbstractSpliterator<DataPoint>(
+                spliterator.estimateSize(), characteristics) {
+
+            private boolean exhausted = false;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super DataPoint> consumer) {
+                if (spliterator.tryAdvance(consumer)) {
+                    return true;
+                }
+                exhausted();
+                return false;
+            }
+
+            @Override
+            public void forEachRemaining(Consumer<? super DataPoint> consumer) {
+                spliterator.forEachRemaining(consumer);
+                exhausted();
+            }
+
+            private void exhausted() {
+                if (!exhausted) {
+                    exhausted = true;
+                    action.run();
+                }
+            }
+        };
+        return StreamSupport.stream(exhaustion, false).onClose(stream::close);
+    }
+
     @Override
     protected Stream<DataPoint> delegate() {
         return delegate;
@@ -275,6 +363,24 @@ public class VtlStream extends ForwardingStream<DataPoint> {
                 .toString();
     }
 
+    /**
+     * Checks the cancellation token every {@value #CANCELLATION_BATCH_SIZE} rows.
+     */
+    private final class CancellationCheck implements Consumer<DataPoint> {
+
+        private int rows = 0;
+
+        @Override
+        public void accept(DataPoint dataPoint) {
+            if (++rows % CANCELLATION_BATCH_SIZE == 0) {
+                CancellationToken token = cancellationToken;
+                if (token != null) {
+                    token.check();
+                }
+            }
+        }
+    }
+
     /**
      * Prints the execution plan.
      */
@@ -324,6 +430,10 @@ public class VtlStream extends ForwardingStream<DataPoint> {
      * Time spent post ordering.
      * Cell count.
      * Row count.
+     * Memory peak.
+     * <p>
+     * The times are estimated by a {@link SamplingProfiler} and recorded in the registry when
+     * the stream is closed.
      */
     public class Statistics {
 
@@ -333,6 +443,12 @@ public class VtlStream extends ForwardingStream<DataPoint> {
         private final Timer time;
         private final Timer sortTime;
         private final Timer filterTime;
+        private final AtomicBoolean published = new AtomicBoolean();
+
+        // Set by decorateStream when profiling.
+        private SamplingProfiler timeProfiler;
+        private SamplingProfiler filterProfiler;
+        private SamplingProfiler sortProfiler;
 
         private Statistics(VtlStream stream, Registry registry) {
             List<Tag> tags = Arrays.asList(
@@ -348,10 +464,130 @@ public class VtlStream extends ForwardingStream<DataPoint> {
             this.registry = registry;
         }
 
+        /**
+         * Records the estimates in the registry, once the stream is closed.
+         */
+        private void publish() {
+            if (timeProfiler == null || published.getAndSet(true)) {
+                return;
+            }
+            rows.increment(getRowCount());
+            cells.increment(getCellCount());
+            time.record(getOperationNanos(), TimeUnit.NANOSECONDS);
+            if (filterProfiler != null) {
+                filterTime.record(getFilterNanos(), TimeUnit.NANOSECONDS);
+            }
+            if (sortProfiler != null) {
+                sortTime.record(getSortNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Returns true if the stream is profiled.
+         */
+        public boolean isProfiled() {
+            return timeProfiler != null;
+        }
+
+        private SamplingProfiler last() {
+            if (sortProfiler != null) {
+                return sortProfiler;
+            }
+            return filterProfiler != null ? filterProfiler : timeProfiler;
+        }
+
+        private long estimate(SamplingProfiler profiler) {
+            return profiler == null ? 0 : profiler.getEstimatedNanos();
+        }
+
+        /**
+         * Returns the number of rows returned by the stream.
+         */
+        public long getRowCount() {
+            return timeProfiler == null ? 0 : last().getRows();
+        }
+
+        /**
+         * Returns the number of cells returned by the stream.
+         */
+        public long getCellCount() {
+            return timeProfiler == null ? 0 : last().getCells();
+        }
+
+        /**
+         * Returns the number of rows that were timed.
+         */
+        public long getSampledRows() {
+            long samples = 0;
+            for (SamplingProfiler profiler : Arrays.asList(timeProfiler, filterProfiler, sortProfiler)) {
+                if (profiler != null) {
+                    samples += profiler.getSamples() + Math.min(1, profiler.getRows());
+                }
+            }
+            return samples;
+        }
+
+        /**
+         * Returns the estimated time spent producing the rows, including the time spent in the
+         * streams behind this one.
+         */
+        public long getInclusiveNanos() {
+            return estimate(last());
+        }
+
+        /**
+         * Returns the estimated time spent producing the rows, excluding the time spent in the
+         * streams behind this one.
+         */
+        public long getSelfNanos() {
+            long self = getInclusiveNanos();
+            for (Stream<DataPoint> parent : parents) {
+                if (parent instanceof VtlStream) {
+                    self -= ((VtlStream) parent).getStatistics().getInclusiveNanos();
+                }
+            }
+            return Math.max(0, self);
+        }
+
+        /**
+         * Returns the estimated time spent by the operation, before the post filter and
+         * the post sort.
+         */
+        public long getOperationNanos() {
+            return estimate(timeProfiler);
+        }
+
+        /**
+         * Returns the estimated time spent post filtering.
+         */
+        public long getFilterNanos() {
+            if (filterProfiler == null) {
+                return 0;
+            }
+            return Math.max(0, estimate(filterProfiler) - estimate(timeProfiler));
+        }
+
+        /**
+         * Returns the estimated time spent post sorting.
+         */
+        public long getSortNanos() {
+            if (sortProfiler == null) {
+                return 0;
+            }
+            SamplingProfiler previous = filterProfiler != null ? filterProfiler : timeProfiler;
+            return Math.max(0, estimate(sortProfiler) - estimate(previous));
+        }
+
+        /**
+         * Returns the post sort time recorded in the registry when the stream is closed.
+         */
         public Timer getSortTime() {
             return sortTime;
         }
 
+        /**
+         * Returns the post filter time recorded in the registry when the stream is closed.
+         */
         public Timer getFilterTime() {
             return filterTime;
         }
@@ -364,8 +600,33 @@ public class VtlStream extends ForwardingStream<DataPoint> {
             return cells;
         }
 
+        /**
+         * Returns the time of the operation recorded in the registry when the stream is closed.
+         */
         public Timer getTime() {
             return time;
         }
+
+        /**
+         * Returns the largest estimated number of bytes held at once by the operation,
+         * including the post sort.
+         */
+        public long getMemoryPeak() {
+            return memory.getPeak();
+        }
+
+        /**
+         * Returns the number of bytes the operation spilled to disk.
+         */
+        public long getSpilledBytes() {
+            return memory.getSpilledBytes();
+        }
+
+        /**
+         * Returns the estimated number of bytes currently held by the operation.
+         */
+        public long getMemoryReserved() {
+            return memory.getReserved();
+        }
     }
 }
@@ -38,12 +38,15 @@ import no.ssb.vtl.model.VTLNumber;
 import no.ssb.vtl.model.VTLObject;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.error.TypeException;
 import no.ssb.vtl.script.operations.AbstractDatasetOperation;
 import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
 import no.ssb.vtl.script.operations.VtlStream;
+import no.ssb.vtl.script.support.MemoryReservation;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -198,7 +201,8 @@ public class AggregationOperation extends AbstractUnaryDatasetOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
 
         AbstractDatasetOperation childOperation = getChild();
 
@@ -211,13 +215,24 @@ public class AggregationOperation extends AbstractUnaryDatasetOperation {
                 childOperation.getDataStructure()
         );
 
-        Stream<DataPoint> original = childOperation.computeData(groupByOrdering, aggregationFilter, components);
+        Stream<DataPoint> original = childOperation.computeData(groupByOrdering, aggregationFilter, components,
+                configuration);
 
-        // TODO: Move close logic to VtlStream.
-        Stream<DataPoint> stream = StreamUtils.aggregate(original, (previous, current) -> groupByPredicate.compare(previous, current) == 0)
-                .onClose(original::close).map(this::aggregate);
+        // The rows of a group are held until the group is aggregated.
+        MemoryReservation memory = reserveMemory(configuration);
+        Stream<DataPoint> grouped = original.peek(dataPoint -> memory.reserve(MemoryReservation.estimate(dataPoint)));
 
-        return new VtlStream(this, stream, original, orders, filtering, groupByOrdering, aggregationFilter);
+        // TODO: Move close logic to VtlStream.
+        Stream<DataPoint> stream = StreamUtils.aggregate(grouped, (previous, current) -> groupByPredicate.compare(previous, current) == 0)
+                .onClose(original::close).map(group -> {
+                    DataPoint result = aggregate(group);
+                    memory.release(MemoryReservation.estimate(group));
+                    return result;
+                });
+
+        return new VtlStream(this, configuration,
+                stream, Collections.singletonList(original), orders, filtering, groupByOrdering,
+                aggregationFilter, memory);
     }
 
     @Override
@@ -0,0 +1,131 @@
+package no.ssb.vtl.script.operations.check;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.script.operations.check.CheckSingleRuleOperation.RowsToReturn;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates the conditions of a rule against each row of a source.
+ * <p>
+ * Every source row emits at most one row, unless filtered by the {@link RowsToReturn} parameter.
+ * The rule is valid when all its conditions are true. Output indices of optional columns are
+ * negative when absent.
+ */
+final class CheckRuleSpliterator extends Spliterators.AbstractSpliterator<DataPoint> implements Consumer<DataPoint> {
+
+    private static final VTLObject TRUE = VTLObject.of(true);
+    private static final VTLObject FALSE = VTLObject.of(false);
+
+    private final Spliterator<DataPoint> source;
+    private final int size;
+    private final int[] copyIndices;
+    private final int[] conditionIndices;
+    private final VTLObject errorCode;
+    private final VTLObject errorLevel;
+    private final int conditionIndex;
+    private final int errorCodeIndex;
+    private final int errorLevelIndex;
+    private final RowsToReturn rowsToReturn;
+
+    private DataPoint current;
+
+    CheckRuleSpliterator(Spliterator<DataPoint> source, int size, int[] copyIndices, int[] conditionIndices,
+                         VTLObject errorCode, VTLObject errorLevel,
+                         int conditionIndex, int errorCodeIndex, int errorLevelIndex,
+                         RowsToReturn rowsToReturn) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.source = source;
+        this.size = size;
+        this.copyIndices = copyIndices;
+        this.conditionIndices = conditionIndices;
+        this.errorCode = errorCode;
+        this.errorLevel = errorLevel;
+        this.conditionIndex = conditionIndex;
+        this.errorCodeIndex = errorCodeIndex;
+        this.errorLevelIndex = errorLevelIndex;
+        this.rowsToReturn = rowsToReturn;
+    }
+
+    private CheckRuleSpliterator(CheckRuleSpliterator parent, Spliterator<DataPoint> source) {
+        this(source, parent.size, parent.copyIndices, parent.conditionIndices, parent.errorCode,
+                parent.errorLevel, parent.conditionIndex, parent.errorCodeIndex, parent.errorLevelIndex,
+                parent.rowsToReturn);
+    }
+
+    @Override
+    public void accept(DataPoint dataPoint) {
+        current = dataPoint;
+    }
+
+    /**
+     * Null conditions are not valid.
+     */
+    private boolean isValid() {
+        for (int index : conditionIndices) {
+            VTLObject value = current.get(index);
+            if (value == null || !Boolean.TRUE.equals(value.get())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super DataPoint> action) {
+        while (source.tryAdvance(this)) {
+            boolean valid = isValid();
+            if (rowsToReturn == RowsToReturn.VALID && !valid
+                    || rowsToReturn == RowsToReturn.NOT_VALID && valid) {
+                current = null;
+                continue;
+            }
+
+            DataPoint result = DataPoint.create(size);
+            for (int j = 0; j < copyIndices.length; j++) {
+                result.set(j, current.get(copyIndices[j]));
+            }
+            if (conditionIndex >= 0) {
+                result.set(conditionIndex, valid ? TRUE : FALSE);
+            }
+            result.set(errorCodeIndex, errorCode);
+            if (errorLevelIndex >= 0) {
+                result.set(errorLevelIndex, errorLevel);
+            }
+            current = null;
+
+            action.accept(result);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<DataPoint> trySplit() {
+        Spliterator<DataPoint> prefix = source.trySplit();
+        return prefix == null ? null : new CheckRuleSpliterator(this, prefix);
+    }
+}
@@ -20,6 +20,7 @@ package no.ssb.vtl.script.operations.check;
  * =========================LICENSE_END==================================
  */
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import no.ssb.vtl.model.Component;
@@ -31,13 +32,19 @@ import no.ssb.vtl.model.FilteringSpecification;
 import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
 import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.model.VtlFiltering;
+import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
+import no.ssb.vtl.script.operations.VtlStream;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -52,7 +59,7 @@ public class CheckSingleRuleOperation extends AbstractUnaryDatasetOperation {
     private final ComponentsToReturn componentsToReturn;
     private final String errorCode;
     private final Long errorLevel;
-    private final Set<Component> conditions = Sets.newHashSet();
+    private final Set<Component> conditions = Sets.newLinkedHashSet();
 
     private CheckSingleRuleOperation(Builder builder) {
         super(checkNotNull(builder.dataset, "dataset was null"));
@@ -77,72 +84,86 @@ public class CheckSingleRuleOperation extends AbstractUnaryDatasetOperation {
         checkArgument(noIdentifiers > 0, "dataset does not have identifier components");
     }
 
-    @Override
-    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components) {
-        Dataset childDataset = getChild();
-        DataStructure newStructure = getDataStructure();
-        DataStructure previousStructure = childDataset.getDataStructure();
-        Component conditionComponent = getConditionComponent(newStructure);
-
-        return childDataset.getData().map(dataPoint -> {
-
-            DataPoint resultDataPoint = DataPoint.create(newStructure.size());
-            Map<Component, VTLObject> originalMap = previousStructure.asMap(dataPoint);
-            Map<Component, VTLObject> resultMap = newStructure.asMap(resultDataPoint);
-
-            for (Component component : resultMap.keySet()) {
-                if (originalMap.containsKey(component)) {
-                    resultMap.put(component, originalMap.get(component));
-                }
+    /**
+     * Returns the components of the child that are copied as is.
+     */
+    private DataStructure getCopiedStructure() {
+        DataStructure childStructure = getChild().getDataStructure();
+        DataStructure.Builder builder = DataStructure.builder();
+        for (Map.Entry<String, Component> entry : getDataStructure().entrySet()) {
+            if (entry.getValue().equals(childStructure.get(entry.getKey()))) {
+                builder.put(entry);
             }
+        }
+        return builder.build();
+    }
 
-            // Optimized and.
-            // TODO: Handle nulls somewhere else (VTLBoolean?)
-            Boolean combinedCondition = true;
-            for (Component condition : conditions) {
-                VTLObject value = originalMap.get(condition);
-                if (value.get() == null) {
-                    combinedCondition = false;
-                    break;
-                } else {
-                    if (!(combinedCondition && (Boolean) value.get())) {
-                        combinedCondition = false;
-                        break;
-                    }
-                }
-            }
+    @Override
+    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
+        DataStructure childStructure = getChild().getDataStructure();
+        DataStructure copiedStructure = getCopiedStructure();
+        DataStructure structure = getDataStructure();
+
+        int[] copyIndices = new int[copiedStructure.size()];
+        int i = 0;
+        for (String name : copiedStructure.keySet()) {
+            copyIndices[i++] = childStructure.indexOf(name);
+        }
 
-            //... then filter rows
-            if (rowsToReturn != RowsToReturn.ALL) {
-                if (rowsToReturn == RowsToReturn.VALID && !combinedCondition) {
-                    return null;
-                }
-                if (rowsToReturn == RowsToReturn.NOT_VALID && combinedCondition) {
-                    return null;
-                }
-            }
+        int[] conditionIndices = new int[conditions.size()];
+        Set<String> childComponents = Sets.newLinkedHashSet(Sets.intersection(components, copiedStructure.keySet()));
+        i = 0;
+        for (Component condition : conditions) {
+            String name = getConditionName(childStructure, condition);
+            conditionIndices[i++] = childStructure.indexOf(name);
+            childComponents.add(name);
+        }
 
-            resultMap.computeIfPresent(getErrorCodeComponent(), (k, v) -> VTLObject.of(errorCode));
-            resultMap.computeIfPresent(getErrorLevelComponent(), (k, v) -> VTLObject.of(errorLevel));
+        VtlOrdering childOrdering = (VtlOrdering) computeRequiredOrdering(orders);
+        VtlFiltering childFiltering = (VtlFiltering) computeRequiredFiltering(filtering);
 
-            Boolean finalPrevious = combinedCondition;
-            resultMap.computeIfPresent(conditionComponent, (k, v) -> VTLObject.of(finalPrevious));
+        Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, childComponents,
+                configuration);
 
+        Stream<DataPoint> stream = StreamSupport.stream(new CheckRuleSpliterator(
+                original.spliterator(),
+                structure.size(),
+                copyIndices,
+                conditionIndices,
+                VTLObject.of(errorCode),
+                VTLObject.of(errorLevel),
+                structure.indexOf(CONDITION_LABEL),
+                structure.indexOf(ERROR_CODE_LABEL),
+                structure.indexOf(ERROR_LEVEL_LABEL),
+                rowsToReturn
+        ), original.isParallel()).onClose(original::close);
 
-            return resultDataPoint;
-        }).filter(Objects::nonNull);
-    }
+        Ordering actualOrdering = childOrdering.columns().size() == getVariableColumns(orders).size() ? orders : childOrdering;
 
-    private Component getConditionComponent(DataStructure structure) {
-        return structure.get(CONDITION_LABEL);
+        return new VtlStream(this, configuration, stream, original, orders, filtering, actualOrdering, childFiltering);
     }
 
-    private Component getErrorLevelComponent() {
-        return getDataStructure().get(ERROR_LEVEL_LABEL);
+    private static String getConditionName(DataStructure structure, Component condition) {
+        for (Map.Entry<String, Component> entry : structure.entrySet()) {
+            if (entry.getValue().equals(condition)) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("condition not found in " + structure);
     }
 
-    private Component getErrorCodeComponent() {
-        return getDataStructure().get(ERROR_CODE_LABEL);
+    /**
+     * Returns the ordered columns, without the ones that have the same value on every row.
+     */
+    private List<String> getVariableColumns(OrderingSpecification ordering) {
+        List<String> columns = Lists.newArrayList(ordering.columns());
+        columns.remove(ERROR_CODE_LABEL);
+        columns.remove(ERROR_LEVEL_LABEL);
+        if (rowsToReturn != RowsToReturn.ALL) {
+            columns.remove(CONDITION_LABEL);
+        }
+        return columns;
     }
 
     @Override
@@ -198,14 +219,46 @@ public class CheckSingleRuleOperation extends AbstractUnaryDatasetOperation {
         return builder.build();
     }
 
+    /**
+     * Sends the filters on the copied components to the child, combined with the condition
+     * filter when only valid or not valid rows are returned.
+     */
     @Override
     public FilteringSpecification computeRequiredFiltering(FilteringSpecification filtering) {
-        throw new UnsupportedOperationException("TODO");
+        DataStructure childStructure = getChild().getDataStructure();
+        VtlFiltering copied = VtlFiltering.using(getCopiedStructure()).transpose(filtering);
+        VtlFiltering transposed = VtlFiltering.using(childStructure).transpose(copied);
+        if (rowsToReturn == RowsToReturn.ALL) {
+            return transposed;
+        }
+
+        // Negated and/or are avoided since the children cannot transpose them.
+        List<VtlFiltering> operands = Lists.newArrayList();
+        for (Component condition : conditions) {
+            VtlFiltering valid = VtlFiltering.eq(getConditionName(childStructure, condition), true);
+            operands.add(rowsToReturn == RowsToReturn.VALID ? valid : VtlFiltering.not(valid));
+        }
+        VtlFiltering conditionFiltering = rowsToReturn == RowsToReturn.VALID
+                ? VtlFiltering.and(operands.toArray(new VtlFiltering[0]))
+                : VtlFiltering.or(operands);
+        return VtlFiltering.using(childStructure).and(transposed, conditionFiltering).build();
     }
 
+    /**
+     * Returns the longest prefix of the ordering that uses copied components. The columns
+     * that are constant, like the error code, are skipped.
+     */
     @Override
-    public OrderingSpecification computeRequiredOrdering(OrderingSpecification filtering) {
-        throw new UnsupportedOperationException("TODO");
+    public OrderingSpecification computeRequiredOrdering(OrderingSpecification ordering) {
+        DataStructure copiedStructure = getCopiedStructure();
+        Map<String, Ordering.Direction> prefix = new LinkedHashMap<>();
+        for (String column : getVariableColumns(ordering)) {
+            if (!copiedStructure.containsKey(column)) {
+                break;
+            }
+            prefix.put(column, ordering.getDirection(column));
+        }
+        return new VtlOrdering(prefix, getChild().getDataStructure());
     }
 
 
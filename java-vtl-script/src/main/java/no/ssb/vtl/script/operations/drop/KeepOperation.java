@@ -35,6 +35,7 @@ import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
 import no.ssb.vtl.script.operations.VtlStream;
 
@@ -98,13 +99,15 @@ public class KeepOperation extends AbstractUnaryDatasetOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
         ImmutableList<Component> componentsToRemove = getComponentsToRemove();
 
         VtlFiltering childFiltering = (VtlFiltering) computeRequiredFiltering(filtering);
         VtlOrdering childOrdering = (VtlOrdering) computeRequiredOrdering(ordering);
 
-        final Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, components);
+        final Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, components,
+                configuration);
         Stream<DataPoint> stream = original;
         if (!componentsToRemove.isEmpty()) {
             final ImmutableSet<Integer> indexes = computeIndexes(componentsToRemove);
@@ -117,7 +120,7 @@ public class KeepOperation extends AbstractUnaryDatasetOperation {
             );
         }
 
-        return new VtlStream(this, stream,
+        return new VtlStream(this, configuration, stream,
                 original,
                 ordering,
                 filtering,
@@ -27,12 +27,13 @@ import no.ssb.vtl.model.Filtering;
 import no.ssb.vtl.model.FilteringSpecification;
 import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
-import no.ssb.vtl.model.VTLBoolean;
 import no.ssb.vtl.model.VTLExpression;
-import no.ssb.vtl.model.VTLObject;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.expressions.VtlFilteringConverter;
+import no.ssb.vtl.script.expressions.compiler.CompiledExpression;
+import no.ssb.vtl.script.expressions.compiler.ExpressionCompiler;
 import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
 import no.ssb.vtl.script.operations.VtlStream;
 import no.ssb.vtl.script.operations.join.ComponentBindings;
@@ -62,22 +63,28 @@ public class FilterOperation extends AbstractUnaryDatasetOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
         DataPointBindings dataPointBindings = new DataPointBindings(componentBindings, getDataStructure());
 
         VtlOrdering childrenOrdering = (VtlOrdering) computeRequiredOrdering(ordering);
         VtlFiltering childrenFiltering = (VtlFiltering) computeRequiredFiltering(filtering);
 
-        Stream<DataPoint> original = getChild().computeData(childrenOrdering, childrenFiltering, components);
+        Stream<DataPoint> original = getChild().computeData(childrenOrdering, childrenFiltering, components,
+                configuration);
 
-        Stream<DataPoint> data = original.map(dataPointBindings::setDataPoint)
-                .filter(bindings -> {
-                    VTLObject resolved = predicate.resolve(dataPointBindings);
-                    return resolved.get() == null ? false : VTLBoolean.of((Boolean) resolved.get()).get();
-                })
-                .map(DataPointBindings::getDataPoint);
+        CompiledExpression compiled = ExpressionCompiler.compile(predicate, componentBindings, getDataStructure());
 
-        return new VtlStream(this, data,
+        Stream<DataPoint> data;
+        if (compiled.isInterpreted()) {
+            data = original.map(dataPointBindings::setDataPoint)
+                    .map(DataPointBindings::getDataPoint)
+                    .filter(dataPoint -> compiled.test(dataPoint, dataPointBindings));
+        } else {
+            data = original.filter(dataPoint -> compiled.test(dataPoint, null));
+        }
+
+        return new VtlStream(this, configuration, data,
                 original,
                 ordering,
                 filtering,
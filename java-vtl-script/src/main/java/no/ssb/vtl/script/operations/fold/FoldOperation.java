@@ -25,7 +25,6 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import no.ssb.vtl.model.DataPoint;
 import no.ssb.vtl.model.DataStructure;
@@ -37,6 +36,7 @@ import no.ssb.vtl.model.OrderingSpecification;
 import no.ssb.vtl.model.VTLObject;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
 import no.ssb.vtl.script.operations.VtlStream;
 
@@ -46,6 +46,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -53,22 +54,37 @@ import static no.ssb.vtl.model.Component.Role;
 
 /**
  * Fold clause.
+ * <p>
+ * The rows are folded lazily by a {@link FoldSpliterator}.
  */
 public class FoldOperation extends AbstractUnaryDatasetOperation {
 
     private final String dimension;
     private final String measure;
     private final ImmutableSet<String> elements;
+    private final boolean reuseRows;
 
     private int[] copyIndices;
     private int[] elementIndices;
     private int measureIndex;
     private int dimensionIndex;
     private int size;
-    private String[] elementNames;
+    private VTLObject[] elementNames;
 
     public FoldOperation(Dataset dataset, String dimension, String measure, Set<String> elements) {
+        this(dataset, dimension, measure, elements, false);
+    }
+
+    /**
+     * Creates a fold operation.
+     * <p>
+     * If reuseRows is true the stream emits the same data point instance for the consecutive elements
+     * and only consumers that copy the rows before advancing should use it. The rows are not reused
+     * when the requested filtering or ordering cannot be satisfied by the child.
+     */
+    public FoldOperation(Dataset dataset, String dimension, String measure, Set<String> elements, boolean reuseRows) {
         super(dataset);
+        this.reuseRows = reuseRows;
 
         this.elements = ImmutableSet.copyOf(elements);
         checkArgument(!elements.isEmpty());
@@ -180,58 +196,41 @@ public class FoldOperation extends AbstractUnaryDatasetOperation {
                 .mapToInt(originalColumns.asList()::indexOf)
                 .toArray();
 
-        elementNames = elements.asList().toArray(new String[]{});
+        elementNames = elements.stream().map(VTLObject::of).toArray(VTLObject[]::new);
 
         measureIndex = columns.asList().indexOf(measure);
         dimensionIndex = columns.asList().indexOf(dimension);
         size = columns.size();
     }
 
-    /**
-     * Fold a single datapoint.
-     */
-    private Stream<DataPoint> fold(DataPoint dataPoint) {
-
-        // Create a new datapoint
-        DataPoint baseDatapoint = DataPoint.create(size);
-        for (int i = 0; i < copyIndices.length; i++) {
-            baseDatapoint.set(i, dataPoint.get(copyIndices[i]));
-        }
-
-        List<DataPoint> foldedDatapoints = Lists.newArrayListWithCapacity(elements.size());
-        for (int i = 0; i < elementIndices.length; i++) {
-
-            VTLObject elementValue = dataPoint.get(elementIndices[i]);
-            if (VTLObject.NULL == elementValue || elementValue == null || elementValue.get() == null) {
-                continue;
-            }
-
-            // TODO: Still unclear from benchmark.
-            //DataPoint clone = DataPoint.create(baseDatapoint);
-            DataPoint clone = (DataPoint) baseDatapoint.clone();
-
-            clone.set(dimensionIndex, VTLObject.of(elementNames[i]));
-            clone.set(measureIndex, elementValue);
-
-            foldedDatapoints.add(clone);
-        }
-
-        return foldedDatapoints.stream();
-
-    }
-
     @Override
-    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
         // To initialize the indices.
         getDataStructure();
 
         VtlOrdering childOrdering = (VtlOrdering) computeRequiredOrdering(ordering);
         VtlFiltering childFiltering = (VtlFiltering) computeRequiredFiltering(filtering);
 
-        final Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, components);
-        Stream<DataPoint> stream = original.flatMap(this::fold);
-
-        return new VtlStream(this, stream, original, ordering, filtering, childOrdering, childFiltering);
+        // The rows cannot be reused if they are filtered or buffered by the post sort.
+        boolean reuse = reuseRows
+                && !VtlStream.isPostFiltered(filtering, childFiltering)
+                && !VtlStream.isPostSorted(configuration, ordering, childOrdering);
+
+        final Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, components,
+                configuration);
+        Stream<DataPoint> stream = StreamSupport.stream(new FoldSpliterator(
+                original.spliterator(),
+                size,
+                copyIndices,
+                elementIndices,
+                elementNames,
+                dimensionIndex,
+                measureIndex,
+                reuse
+        ), original.isParallel());
+
+        return new VtlStream(this, configuration, stream, original, ordering, filtering, childOrdering, childFiltering);
     }
 
     @Override
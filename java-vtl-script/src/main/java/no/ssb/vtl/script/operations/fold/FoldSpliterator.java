@@ -0,0 +1,129 @@
+package no.ssb.vtl.script.operations.fold;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.VTLObject;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Folds the rows of a source one element at a time.
+ * <p>
+ * Each call to {@link #tryAdvance(Consumer)} emits the next non null element of the current row,
+ * no intermediate collection is created. When reusing rows, the same data point is emitted for every
+ * element of a spliterator; the consumer must copy it before advancing.
+ */
+final class FoldSpliterator extends Spliterators.AbstractSpliterator<DataPoint> implements Consumer<DataPoint> {
+
+    private final Spliterator<DataPoint> source;
+    private final int size;
+    private final int[] copyIndices;
+    private final int[] elementIndices;
+    private final VTLObject[] elementNames;
+    private final int dimensionIndex;
+    private final int measureIndex;
+    private final boolean reuseRows;
+
+    private DataPoint current;
+    private int element;
+    private DataPoint row;
+
+    FoldSpliterator(Spliterator<DataPoint> source, int size, int[] copyIndices, int[] elementIndices,
+                    VTLObject[] elementNames, int dimensionIndex, int measureIndex, boolean reuseRows) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.source = source;
+        this.size = size;
+        this.copyIndices = copyIndices;
+        this.elementIndices = elementIndices;
+        this.elementNames = elementNames;
+        this.dimensionIndex = dimensionIndex;
+        this.measureIndex = measureIndex;
+        this.reuseRows = reuseRows;
+    }
+
+    private FoldSpliterator(FoldSpliterator parent, Spliterator<DataPoint> source) {
+        this(source, parent.size, parent.copyIndices, parent.elementIndices, parent.elementNames,
+                parent.dimensionIndex, parent.measureIndex, parent.reuseRows);
+    }
+
+    @Override
+    public void accept(DataPoint dataPoint) {
+        current = dataPoint;
+        element = 0;
+        if (reuseRows && row != null) {
+            copyColumns(row);
+        }
+    }
+
+    private void copyColumns(DataPoint target) {
+        for (int i = 0; i < copyIndices.length; i++) {
+            target.set(i, current.get(copyIndices[i]));
+        }
+    }
+
+    private static boolean isNull(VTLObject value) {
+        return VTLObject.NULL == value || value == null || value.get() == null;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super DataPoint> action) {
+        while (current != null || source.tryAdvance(this)) {
+            while (element < elementIndices.length) {
+                int i = element++;
+                VTLObject value = current.get(elementIndices[i]);
+                if (isNull(value)) {
+                    continue;
+                }
+
+                DataPoint result;
+                if (reuseRows && row != null) {
+                    result = row;
+                } else {
+                    result = DataPoint.create(size);
+                    copyColumns(result);
+                    if (reuseRows) {
+                        row = result;
+                    }
+                }
+                result.set(dimensionIndex, elementNames[i]);
+                result.set(measureIndex, value);
+
+                action.accept(result);
+                return true;
+            }
+            current = null;
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<DataPoint> trySplit() {
+        // Splitting while a row is being folded would break the encounter order.
+        if (current != null) {
+            return null;
+        }
+        Spliterator<DataPoint> prefix = source.trySplit();
+        return prefix == null ? null : new FoldSpliterator(this, prefix);
+    }
+}
@@ -0,0 +1,73 @@
+package no.ssb.vtl.script.operations.foreach;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableMap;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.Ordering;
+import no.ssb.vtl.script.VTLDataset;
+import no.ssb.vtl.script.VtlConfiguration;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The operation tree of a foreach block compiled against {@link SliceDataset}s.
+ * <p>
+ * A template evaluates one slice at a time. Concurrent evaluations require one template each.
+ */
+final class BlockTemplate {
+
+    private final ImmutableMap<String, SliceDataset> slices;
+    private final Dataset result;
+
+    BlockTemplate(Map<String, Dataset> sources, Function<Bindings, VTLDataset> block) {
+        ImmutableMap.Builder<String, SliceDataset> slices = ImmutableMap.builder();
+        Bindings scope = new SimpleBindings(new LinkedHashMap<>());
+        for (Map.Entry<String, Dataset> source : sources.entrySet()) {
+            SliceDataset slice = new SliceDataset(source.getValue().getDataStructure());
+            slices.put(source.getKey(), slice);
+            scope.put(source.getKey(), VTLDataset.of(slice));
+        }
+        this.slices = slices.build();
+        this.result = block.apply(scope).get();
+    }
+
+    Dataset getResult() {
+        return result;
+    }
+
+    /**
+     * Binds the data of a slice and returns the result of the block, read with the configuration.
+     */
+    Iterator<DataPoint> evaluate(Map<String, ? extends Iterator<DataPoint>> slice, Ordering orders,
+                                 VtlConfiguration configuration) {
+        for (Map.Entry<String, SliceDataset> entry : slices.entrySet()) {
+            entry.getValue().bind(slice.get(entry.getKey()));
+        }
+        return ForeachOperation.getSortedData(result, orders, configuration).iterator();
+    }
+}
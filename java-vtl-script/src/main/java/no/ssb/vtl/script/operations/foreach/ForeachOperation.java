@@ -20,11 +20,12 @@ package no.ssb.vtl.script.operations.foreach;
  * =========================LICENSE_END==================================
  */
 
-import com.google.common.base.Stopwatch;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Streams;
@@ -37,22 +38,26 @@ import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
 import no.ssb.vtl.model.VtlOrdering;
 import no.ssb.vtl.script.VTLDataset;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.AbstractDatasetOperation;
 
 import javax.script.Bindings;
-import javax.script.SimpleBindings;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Function;
+import java.util.logging.Logger;
 import java.util.stream.Stream;
 
+import static com.google.common.base.Preconditions.checkState;
 import static no.ssb.vtl.model.Ordering.Direction.ANY;
 import static no.ssb.vtl.model.Ordering.Direction.ASC;
 
@@ -75,14 +80,22 @@ import static no.ssb.vtl.model.Ordering.Direction.ASC;
  * <p>
  * The set of identifiers much be a subset of the common identifiers of the
  * set of datasets.
+ * <p>
+ * Slices are evaluated one after the other unless the configuration the operation is read with
+ * has an operation executor, see {@link VtlConfiguration.Builder#operationExecutor(Executor)}.
  */
 public final class ForeachOperation extends AbstractDatasetOperation {
 
+    private static final Logger logger = Logger.getLogger(ForeachOperation.class.getName());
+
     private final ImmutableMap<String, Dataset> sources;
     private final ImmutableSet<String> identifiers;
-    private DataStructure structure;
     private Function<Bindings, VTLDataset> block;
 
+    // The block compiled against placeholders of the sources. A template is taken by each
+    // evaluation, so that concurrent reads never rebind the slices of one another.
+    private final BlockingQueue<BlockTemplate> templates = new LinkedBlockingQueue<>();
+
     public ForeachOperation(Map<String, Dataset> sourceDatasets, Set<String> identifiers) {
         super(sourceDatasets.values());
         this.sources = ImmutableMap.copyOf(sourceDatasets);
@@ -90,66 +103,134 @@ public final class ForeachOperation extends AbstractDatasetOperation {
     }
 
     public static Stream<DataPoint> sort(Stream<DataPoint> stream, Comparator<DataPoint> order) {
-        System.out.println("WARN: needed to sort");
-        Stopwatch started = Stopwatch.createStarted();
-        Stream<DataPoint> sorted = stream.sorted(order);
-        System.out.println("WARN: done sorting: " + started.stop().elapsed(TimeUnit.SECONDS));
-        return sorted;
+        logger.fine(() -> "sorting the data using " + order);
+        return stream.sorted(order);
     }
 
+    /**
+     * Sets the function that compiles the block.
+     * <p>
+     * The function is called once with placeholder datasets in place of the sources. The resulting
+     * operation tree is then evaluated for every slice.
+     */
     public void setBlock(Function<Bindings, VTLDataset> block) {
         this.block = block;
+        this.templates.clear();
+    }
+
+    /**
+     * Takes an unused template, compiling a new one if none is available. The template must be
+     * given back with {@link #release(BlockTemplate)}.
+     */
+    private BlockTemplate acquire() {
+        BlockTemplate template = templates.poll();
+        if (template == null) {
+            template = compile();
+        }
+        return template;
+    }
+
+    private void release(BlockTemplate template) {
+        templates.offer(template);
+    }
+
+    private synchronized BlockTemplate compile() {
+        checkState(block != null, "the block was not set");
+        return new BlockTemplate(sources, block);
+    }
+
+    private List<DataPoint> evaluate(Map<String, List<DataPoint>> slice, Ordering orders,
+                                     VtlConfiguration configuration) {
+        BlockTemplate template = acquire();
+        try {
+            return ImmutableList.copyOf(template.evaluate(Maps.transformValues(slice, List::iterator), orders,
+                    configuration));
+        } finally {
+            release(template);
+        }
+    }
+
+    /**
+     * Reads the data of a slice so that it can be evaluated by another thread.
+     */
+    private static Map<String, List<DataPoint>> materialize(Map<String, Iterator<DataPoint>> slice) {
+        ImmutableMap.Builder<String, List<DataPoint>> data = ImmutableMap.builder();
+        for (Map.Entry<String, Iterator<DataPoint>> entry : slice.entrySet()) {
+            data.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+        }
+        return data.build();
     }
 
-    private Stream<DataPoint> sortIfNeeded(Dataset dataset, Ordering order) {
+    private Stream<DataPoint> sortIfNeeded(Dataset dataset, Ordering order, VtlConfiguration configuration) {
         Ordering actualOrder = rearrangeOrder(order, dataset.getDataStructure());
-        return dataset.getData(actualOrder).orElseGet(() -> sort(dataset.getData(), actualOrder));
+        return getSortedData(dataset, actualOrder, configuration);
+    }
+
+    /**
+     * Returns the data of the dataset in the given order, read with the configuration if it is an operation.
+     */
+    static Stream<DataPoint> getSortedData(Dataset dataset, Ordering order, VtlConfiguration configuration) {
+        if (dataset instanceof AbstractDatasetOperation) {
+            return ((AbstractDatasetOperation) dataset).computeData(
+                    order, Filtering.ALL, dataset.getDataStructure().keySet(), configuration
+            );
+        }
+        return dataset.getData(order).orElseGet(() -> sort(dataset.getData(), order));
     }
 
 
     @Override
-    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
         Boolean needSort = !isCompatible(orders);
 
         ImmutableMap.Builder<String, PeekingIterator<DataPointMap.View>> iteratorBuilder = ImmutableMap.builder();
-        ImmutableMap.Builder<String, DataStructure> structureBuilder = ImmutableMap.builder();
         for (String name : sources.keySet()) {
             Dataset dataset = sources.get(name);
             DataPointMap mapView = new DataPointMap(dataset.getDataStructure());
             PeekingIterator<DataPointMap.View> iterator = Iterators.peekingIterator(
-                    sortIfNeeded(dataset, orders).map(mapView::wrap).iterator()
+                    sortIfNeeded(dataset, orders, configuration).map(mapView::wrap).iterator()
             );
             iteratorBuilder.put(name, iterator);
-            structureBuilder.put(name, dataset.getDataStructure());
         }
         ImmutableMap<String, PeekingIterator<DataPointMap.View>> sources = iteratorBuilder.build();
-        ImmutableMap<String, DataStructure> structures = structureBuilder.build();
+        Comparator<DataPointMap.View> comparator = createComparator(orders);
 
-        Stream<DataPoint> stream = Streams.stream(new AbstractIterator<DataPoint>() {
+        Stream<DataPoint> stream;
+        Executor executor = configuration.getOperationExecutor();
+        int parallelism = configuration.getParallelism();
+        if (executor != null && parallelism > 1) {
+            // Up to parallelism slices are evaluated concurrently and twice as many are read ahead and
+            // kept in memory. The blocks do not use the executor so that they never wait for its threads.
+            VtlConfiguration blockConfiguration = configuration.toBuilder().operationExecutor(null).build();
+            ParallelSliceIterator iterator = new ParallelSliceIterator(
+                    () -> slice(sources, comparator).map(ForeachOperation::materialize),
+                    slice -> evaluate(slice, orders, blockConfiguration),
+                    executor,
+                    parallelism * 2
+            );
+            stream = Streams.stream(iterator).onClose(iterator::close);
+        } else {
+            // The template is kept until the stream is closed.
+            BlockTemplate template = acquire();
+            stream = Streams.stream(new AbstractIterator<DataPoint>() {
 
-            Iterator<DataPoint> current = null;
+                Iterator<DataPoint> current = Collections.emptyIterator();
 
-            @Override
-            protected DataPoint computeNext() {
-                if (current == null || !current.hasNext()) {
-                    current = slice(structures, sources, orders);
-                }
-                if (!current.hasNext()) {
+                @Override
+                protected DataPoint computeNext() {
                     // Continue as long as source has values.
-                    for (PeekingIterator<DataPointMap.View> it : sources.values()) {
-                        if (it.hasNext()) {
-                            current = slice(structures, sources, orders);
-                            if (current.hasNext()) {
-                                return current.next();
-                            }
+                    while (!current.hasNext()) {
+                        Optional<Map<String, Iterator<DataPoint>>> slice = slice(sources, comparator);
+                        if (!slice.isPresent()) {
+                            return endOfData();
                         }
+                        current = template.evaluate(slice.get(), orders, configuration);
                     }
-                    return endOfData();
-                } else {
                     return current.next();
                 }
-            }
-        });
+            }).onClose(() -> release(template));
+        }
 
         return needSort ? stream.sorted(orders) : stream;
     }
@@ -202,33 +283,28 @@ public final class ForeachOperation extends AbstractDatasetOperation {
     }
 
     /**
-     * Create a "slice" of data and execute the block on it.
+     * Create a "slice" of data.
      * <p>
      * In order to do so, the maximum value of each input is calculated
      * and each input stream (iterator for simplicity here) first discards
      * any values <b>less than max</b> then produces values <b>as long as
      * it is equal to max</b>.
      *
-     * @param structures the structure of the datasets.
      * @param iterators  the iterators for the data of the datasets.
-     * @param orders
-     * @return the result of the block as an iterator.
+     * @param comparator compares the identifiers we slice along.
+     * @return the data of each dataset for the slice, or empty if all the iterators are exhausted.
      */
-    private Iterator<DataPoint> slice(
-            Map<String, DataStructure> structures,
+    private Optional<Map<String, Iterator<DataPoint>>> slice(
             Map<String, PeekingIterator<DataPointMap.View>> iterators,
-            Ordering orders) {
-        Bindings scope = new SimpleBindings(new LinkedHashMap<>());
-
-
-        Comparator<DataPointMap.View> comparator = createComparator(orders);
+            Comparator<DataPointMap.View> comparator) {
 
         MaxSelector<DataPointMap.View> maxSupplier = new MaxSelector<>(iterators.values(), comparator);
         Optional<DataPointMap.View> max = maxSupplier.get();
         if (!max.isPresent()) {
-            return Collections.emptyIterator();
+            return Optional.empty();
         }
 
+        ImmutableMap.Builder<String, Iterator<DataPoint>> slices = ImmutableMap.builder();
         for (String name : iterators.keySet()) {
             PeekingIterator<DataPointMap.View> iterator = iterators.get(name);
             DataPointMap.View finalMax = max.get();
@@ -245,15 +321,9 @@ public final class ForeachOperation extends AbstractDatasetOperation {
                     }
                 }
             };
-            DataStructure structure = structures.get(name);
-            IteratorDataset dataset = new IteratorDataset(
-                    structure,
-                    Iterators.transform(slice, DataPointMap.View::unwrap)
-            );
-            scope.put(name, VTLDataset.of(dataset));
+            slices.put(name, Iterators.transform(slice, DataPointMap.View::unwrap));
         }
-        Dataset dataset = block.apply(scope).get();
-        return dataset.getData(orders).orElseGet(() -> sort(dataset.getData(), orders)).iterator();
+        return Optional.of(slices.build());
     }
 
     private Comparator<DataPointMap.View> createComparator(Ordering orders) {
@@ -278,14 +348,12 @@ public final class ForeachOperation extends AbstractDatasetOperation {
 
     @Override
     public DataStructure computeDataStructure() {
-        if (structure == null) {
-            Bindings scope = new SimpleBindings(new LinkedHashMap<>());
-            for (String name : sources.keySet()) {
-                scope.put(name, VTLDataset.of(sources.get(name)));
-            }
-            structure = block.apply(scope).get().getDataStructure();
+        BlockTemplate template = acquire();
+        try {
+            return template.getResult().getDataStructure();
+        } finally {
+            release(template);
         }
-        return structure;
     }
 
     @Override
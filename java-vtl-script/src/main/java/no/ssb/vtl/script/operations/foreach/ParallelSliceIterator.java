@@ -0,0 +1,128 @@
+package no.ssb.vtl.script.operations.foreach;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import no.ssb.vtl.model.DataPoint;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Evaluates the slices of a foreach operation concurrently.
+ * <p>
+ * Slices are read ahead and submitted to the executor, at most readAhead of them are in flight
+ * at any time. The results are returned in the order the slices were read.
+ */
+final class ParallelSliceIterator extends AbstractIterator<DataPoint> implements AutoCloseable {
+
+    private final Supplier<Optional<Map<String, List<DataPoint>>>> slices;
+    private final Function<Map<String, List<DataPoint>>, List<DataPoint>> block;
+    private final Executor executor;
+    private final int readAhead;
+
+    private final Deque<Future<List<DataPoint>>> pending = new ArrayDeque<>();
+    private Iterator<DataPoint> current = Collections.emptyIterator();
+    private boolean exhausted = false;
+
+    /**
+     * @param slices    returns the next slice, or empty when all the slices were read
+     * @param block     evaluates a slice; it is called concurrently
+     * @param executor  the executor running the evaluations
+     * @param readAhead the maximum number of slices read ahead
+     */
+    ParallelSliceIterator(Supplier<Optional<Map<String, List<DataPoint>>>> slices,
+                          Function<Map<String, List<DataPoint>>, List<DataPoint>> block,
+                          Executor executor, int readAhead) {
+        checkArgument(readAhead > 0, "read ahead must be positive");
+        this.slices = checkNotNull(slices);
+        this.block = checkNotNull(block);
+        this.executor = checkNotNull(executor);
+        this.readAhead = readAhead;
+    }
+
+    private void fill() {
+        while (!exhausted && pending.size() < readAhead) {
+            Optional<Map<String, List<DataPoint>>> slice = slices.get();
+            if (!slice.isPresent()) {
+                exhausted = true;
+            } else {
+                Callable<List<DataPoint>> task = () -> block.apply(slice.get());
+                FutureTask<List<DataPoint>> future = new FutureTask<>(task);
+                executor.execute(future);
+                pending.add(future);
+            }
+        }
+    }
+
+    private static List<DataPoint> await(Future<List<DataPoint>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while evaluating a slice", ie);
+        } catch (ExecutionException ee) {
+            Throwables.throwIfUnchecked(ee.getCause());
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    @Override
+    protected DataPoint computeNext() {
+        while (!current.hasNext()) {
+            fill();
+            Future<List<DataPoint>> next = pending.poll();
+            if (next == null) {
+                return endOfData();
+            }
+            current = await(next).iterator();
+        }
+        return current.next();
+    }
+
+    /**
+     * Cancels the evaluations that did not complete.
+     */
+    @Override
+    public void close() {
+        exhausted = true;
+        for (Future<List<DataPoint>> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+    }
+}
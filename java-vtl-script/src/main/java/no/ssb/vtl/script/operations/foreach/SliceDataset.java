@@ -30,25 +30,35 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
 /**
- * A Dataset that returns its data based on an iterator.
+ * A placeholder for a source of a foreach block.
+ * <p>
+ * The block is compiled once against these datasets and the data of each slice is bound before
+ * the result of the block is evaluated.
  */
-public class IteratorDataset implements Dataset {
+final class SliceDataset implements Dataset {
 
-    private final Iterator<DataPoint> source;
     private final DataStructure structure;
+    private Iterator<DataPoint> slice;
+
+    SliceDataset(DataStructure structure) {
+        this.structure = checkNotNull(structure);
+    }
 
-    public IteratorDataset(
-            DataStructure structure,
-            Iterator<DataPoint> source
-    ) {
-        this.source = source;
-        this.structure = structure;
+    /**
+     * Sets the data returned by this dataset.
+     */
+    void bind(Iterator<DataPoint> slice) {
+        this.slice = checkNotNull(slice);
     }
 
     @Override
     public Stream<DataPoint> getData() {
-        return Streams.stream(this.source);
+        checkState(slice != null, "no slice was bound");
+        return Streams.stream(slice);
     }
 
     @Override
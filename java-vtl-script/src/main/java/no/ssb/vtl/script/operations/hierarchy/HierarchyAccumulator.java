@@ -26,7 +26,11 @@ import java.util.function.BiFunction;
 
 /**
  * Accumulator used in the hierarchy aggregation.
+ *
+ * @deprecated the hierarchy operation sums the measures with a {@link HierarchyRollup} and no longer
+ * uses the accumulators. Will be removed in the next release.
  */
+@Deprecated
 public interface HierarchyAccumulator<T> {
 
     public HierarchyAccumulator PRODUCT = new ProductHierarchyAccumulator();
@@ -0,0 +1,125 @@
+package no.ssb.vtl.script.operations.hierarchy;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.VTLObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Cache of compiled hierarchies.
+ * <p>
+ * The hierarchies are keyed by their content (the from, to and sign values in the order they
+ * are read) so that identical code lists are compiled once even if they are read from different datasets
+ * or scripts. The identity of the dataset is not used since the content of a dataset can change, the
+ * datasets of a foreach block for instance. The hierarchy is still read every time but the validation,
+ * the topological sort and the compilation are skipped.
+ * <p>
+ * Entries are evicted when the total weight (see {@link HierarchyRollup#weight()}) exceeds the maximum.
+ * Hits and misses are available through {@link #stats()} and are reported to the Spectator registry
+ * as the counter {@value #METRIC_NAME}, tagged with result=hit or result=miss.
+ */
+public final class HierarchyCache {
+
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 1_000_000;
+    public static final String METRIC_NAME = "hierarchyCache";
+
+    private final Cache<List<List<Object>>, HierarchyRollup> cache;
+    private final Counter hits;
+    private final Counter misses;
+
+    public HierarchyCache(long maximumWeight) {
+        this(maximumWeight, Spectator.globalRegistry());
+    }
+
+    public HierarchyCache(long maximumWeight, Registry registry) {
+        checkArgument(maximumWeight >= 0, "maximum weight cannot be negative");
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((List<List<Object>> key, HierarchyRollup rollup) -> rollup.weight())
+                .recordStats()
+                .build();
+        this.hits = registry.counter(METRIC_NAME, "result", "hit");
+        this.misses = registry.counter(METRIC_NAME, "result", "miss");
+    }
+
+    /**
+     * Returns the values of the edges. Two keys are equal only if the hierarchies have the same
+     * edges, with values of the same types.
+     */
+    static List<List<Object>> key(List<VTLObject[]> edges) {
+        List<List<Object>> key = new ArrayList<>(edges.size());
+        for (VTLObject[] edge : edges) {
+            Object[] values = new Object[edge.length];
+            for (int i = 0; i < edge.length; i++) {
+                values[i] = edge[i] == null ? null : edge[i].get();
+            }
+            key.add(Collections.unmodifiableList(Arrays.asList(values)));
+        }
+        return Collections.unmodifiableList(key);
+    }
+
+    /**
+     * Returns the compiled hierarchy read from the dataset.
+     *
+     * @throws IllegalArgumentException if the hierarchy is not valid.
+     */
+    HierarchyRollup get(Dataset hierarchy) {
+        List<VTLObject[]> edges = HierarchyOperation.readEdges(checkNotNull(hierarchy));
+        List<List<Object>> key = key(edges);
+
+        HierarchyRollup rollup = cache.getIfPresent(key);
+        if (rollup != null) {
+            hits.increment();
+            return rollup;
+        }
+
+        misses.increment();
+        rollup = HierarchyRollup.compile(HierarchyOperation.convertToHierarchy(edges));
+        cache.put(key, rollup);
+        return rollup;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -20,21 +20,19 @@ package no.ssb.vtl.script.operations.hierarchy;
  * =========================LICENSE_END==================================
  */
 
-import com.codepoetics.protonpack.StreamUtils;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.MoreObjects;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.common.graph.Graph;
 import com.google.common.graph.Graphs;
 import com.google.common.graph.ImmutableValueGraph;
 import com.google.common.graph.MutableValueGraph;
 import com.google.common.graph.ValueGraph;
 import com.google.common.graph.ValueGraphBuilder;
+import com.google.common.primitives.Booleans;
+import com.google.common.primitives.Ints;
 import no.ssb.vtl.model.Component;
 import no.ssb.vtl.model.DataPoint;
 import no.ssb.vtl.model.DataStructure;
@@ -46,15 +44,15 @@ import no.ssb.vtl.model.OrderingSpecification;
 import no.ssb.vtl.model.VTLObject;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.AbstractDatasetOperation;
 import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
 import no.ssb.vtl.script.operations.VtlStream;
+import no.ssb.vtl.script.support.MemoryReservation;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -62,11 +60,11 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.stream.Collectors.toList;
-import static no.ssb.vtl.script.operations.hierarchy.HierarchyAccumulator.sumAccumulatorFor;
 
 public class HierarchyOperation extends AbstractUnaryDatasetOperation {
 
@@ -86,13 +84,26 @@ public class HierarchyOperation extends AbstractUnaryDatasetOperation {
     );
 
     private final Dataset hierarchy;
+    private final HierarchyCache cache;
     // The component
     private final Component component;
+    // Only set when created with a graph, otherwise the graph is read from the hierarchy
+    // every time the data is computed since the content of the hierarchy dataset can change
+    // (in foreach blocks for instance).
     private ImmutableValueGraph<VTLObject, Composition> graph;
-    private List<VTLObject> graphValues;
+    private HierarchyRollup rollup;
 
     public HierarchyOperation(Dataset dataset, Dataset hierarchy, Component group) {
+        this(dataset, hierarchy, group, null);
+    }
+
+    /**
+     * Creates a hierarchy operation that looks up the compiled hierarchy in the given cache, or
+     * compiles it every time the data is computed if the cache is null.
+     */
+    public HierarchyOperation(Dataset dataset, Dataset hierarchy, Component group, HierarchyCache cache) {
         super(dataset);
+        this.cache = cache;
 
         this.component = checkNotNull(group, "component cannot be null");
 
@@ -139,21 +150,42 @@ public class HierarchyOperation extends AbstractUnaryDatasetOperation {
     }
 
     /**
-     * Create the directed acyclic graph from the dataset.
+     * Reads the edges of the hierarchy.
      * <p>
      * The dataset is required to have the following columns:
      * from, to, sign.
      *
-     * @throws IllegalArgumentException if a circular dependency is found.
-     * @throws IllegalArgumentException if from and to are not of the same type.
+     * @return the from, to and sign values of each row.
      */
-    private static ValueGraph<VTLObject, Composition> convertToHierarchy(final Dataset hierarchy) {
+    static List<VTLObject[]> readEdges(final Dataset hierarchy) {
 
         // Checks.
         final DataStructure structure = checkNotNull(hierarchy).getDataStructure();
-        Component fromComponent = checkNotNull(structure.get(FROM_COLUMN_NAME), COLUMN_NOT_FOUND, FROM_COLUMN_NAME);
-        Component toComponent = checkNotNull(structure.get(TO_COLUMN_NAME), COLUMN_NOT_FOUND, TO_COLUMN_NAME);
-        Component signComponent = checkNotNull(structure.get(SIGN_COLUMN_NAME), COLUMN_NOT_FOUND, SIGN_COLUMN_NAME);
+        checkNotNull(structure.get(FROM_COLUMN_NAME), COLUMN_NOT_FOUND, FROM_COLUMN_NAME);
+        checkNotNull(structure.get(TO_COLUMN_NAME), COLUMN_NOT_FOUND, TO_COLUMN_NAME);
+        checkNotNull(structure.get(SIGN_COLUMN_NAME), COLUMN_NOT_FOUND, SIGN_COLUMN_NAME);
+
+        int fromIndex = structure.indexOf(FROM_COLUMN_NAME);
+        int toIndex = structure.indexOf(TO_COLUMN_NAME);
+        int signIndex = structure.indexOf(SIGN_COLUMN_NAME);
+
+        List<VTLObject[]> edges = new ArrayList<>();
+        try (Stream<DataPoint> stream = hierarchy.getData()) {
+            for (DataPoint point : (Iterable<? extends DataPoint>) stream::iterator) {
+                edges.add(new VTLObject[]{point.get(fromIndex), point.get(toIndex), point.get(signIndex)});
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Create the directed acyclic graph from the edges.
+     *
+     * @throws IllegalArgumentException if a circular dependency is found.
+     * @throws IllegalArgumentException if from and to are not of the same type.
+     * @see #readEdges(Dataset)
+     */
+    static ValueGraph<VTLObject, Composition> convertToHierarchy(final List<VTLObject[]> edges) {
 
         // The graph.
         MutableValueGraph<VTLObject, Composition> graph = ValueGraphBuilder.directed()
@@ -161,24 +193,20 @@ public class HierarchyOperation extends AbstractUnaryDatasetOperation {
                 .build();
 
         // Add all the points.
-        try (Stream<DataPoint> stream = hierarchy.getData()) {
-            for (DataPoint point : (Iterable<? extends DataPoint>) stream::iterator) {
-
-                Map<Component, VTLObject> asMap = structure.asMap(point);
+        for (VTLObject[] edge : edges) {
 
-                VTLObject from = asMap.get(fromComponent);
-                VTLObject to = asMap.get(toComponent);
-                VTLObject sign = asMap.get(signComponent);
+            VTLObject from = edge[0];
+            VTLObject to = edge[1];
+            VTLObject sign = edge[2];
 
-                Composition composition = checkNotNull(COMPOSITION_MAP.get(sign.get()), UNKNOWN_SIGN_VALUE, sign);
+            Composition composition = checkNotNull(COMPOSITION_MAP.get(sign.get()), UNKNOWN_SIGN_VALUE, sign);
 
-                List<List<VTLObject>> paths = findPaths(graph, to, from);
-                checkArgument(paths.isEmpty(), CIRCULAR_DEPENDENCY, from, composition, to, paths);
+            List<List<VTLObject>> paths = findPaths(graph, to, from);
+            checkArgument(paths.isEmpty(), CIRCULAR_DEPENDENCY, from, composition, to, paths);
 
-                graph.putEdgeValue(from, to, composition);
-            }
-            return graph;
+            graph.putEdgeValue(from, to, composition);
         }
+        return graph;
     }
 
     @VisibleForTesting
@@ -246,15 +274,18 @@ public class HierarchyOperation extends AbstractUnaryDatasetOperation {
         return paths;
     }
 
-    private List<VTLObject> getGraphValues() {
+    private HierarchyRollup getRollup() {
         if (this.graph == null) {
             // TODO: Hierarchy should be typed.
-            this.graph = ImmutableValueGraph.copyOf(convertToHierarchy(this.hierarchy));
+            if (cache == null) {
+                return HierarchyRollup.compile(convertToHierarchy(readEdges(this.hierarchy)));
+            }
+            return cache.get(this.hierarchy);
         }
-        if (this.graphValues == null) {
-            this.graphValues = sortTopologically(this.graph);
+        if (this.rollup == null) {
+            this.rollup = HierarchyRollup.compile(this.graph);
         }
-        return this.graphValues;
+        return this.rollup;
     }
 
     @Override
@@ -296,7 +327,8 @@ public class HierarchyOperation extends AbstractUnaryDatasetOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
 
         final DataStructure structure = getDataStructure();
 
@@ -309,111 +341,33 @@ public class HierarchyOperation extends AbstractUnaryDatasetOperation {
                 getChild().getDataStructure()
         );
 
-        final List<VTLObject> sorted = getGraphValues();
-
-        final Map<Component, HierarchyAccumulator> accumulators = createAccumulatorMap();
-
-        Stream<DataPoint> sortedData = getChild().computeData(childOrdering, childFiltering, components);
-        Stream<ComposedDataPoint> streamToAggregate = StreamUtils.aggregate(
-                sortedData,
-                (prev, current) -> childPredicate.compare(prev, current) == 0
-        ).onClose(sortedData::close).map(dataPoints -> {
+        HierarchyRollup rollup = getRollup();
 
-            // Organize the data points in "buckets" for each component. Here we add "sign" information
-            // to the data points so that we can use it later when we aggregate.
-            Multimap<VTLObject, ComposedDataPoint> buckets = ArrayListMultimap.create();
-            for (DataPoint dataPoint : dataPoints) {
-                Map<Component, VTLObject> map = structure.asMap(dataPoint);
-                VTLObject group = map.get(this.component);
-                buckets.put(group, new ComposedDataPoint(dataPoint, Composition.UNION));
-            }
-
-            // TODO: Filter the nodes by the keys of the bucket (and check that it is faster)
-            // For each component put the content in every successors. If the edge was a complement (-) then we invert
-            // the sign of each datapoint (ie. a - (b - c + d) = a - b + c - d)
-            for (VTLObject node : sorted) {
-                for (VTLObject successor : graph.successors(node)) {
-                    Composition sign = graph.edgeValue(node, successor);
-                    for (ComposedDataPoint point : buckets.get(node)) {
-                        if (Composition.COMPLEMENT.equals(sign)) {
-                            // Invert if complement.
-                            buckets.put(successor, ComposedDataPoint.invert(point));
-                        } else {
-                            buckets.put(successor, new ComposedDataPoint(point, point.sign));
-                        }
-                    }
-                }
-            }
-
-            // Put the new "mapped" component
-            List<ComposedDataPoint> result = Lists.newArrayList();
-            for (Map.Entry<VTLObject, ComposedDataPoint> entry : buckets.entries()) {
-                VTLObject group = entry.getKey();
-                ComposedDataPoint point = entry.getValue();
-                result.add(point);
-                structure.asMap(point).put(this.component, group);
-            }
-
-            // Not needed since we are constructing the result by component.
-            // Collections.sort(result, groupOrder);
-
-            return result;
-
-        }).flatMap(Collection::stream);
-
-
-        Stream<DataPoint> data = StreamUtils.aggregate(
-                streamToAggregate,
-                (dataPoint, dataPoint2) -> childOrdering.compare(dataPoint, dataPoint2) == 0
-        ).onClose(streamToAggregate::close).map(dataPoints -> {
-
-            DataPoint aggregate;
-            // Optimization.
-            if (dataPoints.size() > 1) {
-
-
-                // Won't fail since we check size.
-                aggregate = DataPoint.create(dataPoints.get(0));
-                Map<Component, VTLObject> result = structure.asMap(aggregate);
-
-                for (Map.Entry<Component, HierarchyAccumulator> entry : accumulators.entrySet()) {
-                    result.put(entry.getKey(), entry.getValue().identity());
-                }
-
-                Iterator<ComposedDataPoint> iterator = dataPoints.iterator();
-                while (iterator.hasNext()) {
-                    ComposedDataPoint composedDataPoint = iterator.next();
-                    Map<Component, VTLObject> next = structure.asMap(composedDataPoint);
-
-                    for (Map.Entry<Component, HierarchyAccumulator> accumulator : accumulators.entrySet()) {
-                        Component component = accumulator.getKey();
-                        VTLObject objectValue = next.get(component);
-                        HierarchyAccumulator value = accumulator.getValue();
-                        result.merge(component, objectValue, value.accumulator(composedDataPoint.getSign()));
-                    }
-
-                }
-            } else {
-                aggregate = dataPoints.get(0);
-            }
-
-            return aggregate;
-        });
-
-        return new VtlStream(this, data, sortedData, ordering, filtering, childOrdering, childFiltering);
-    }
-
-    private Map<Component, HierarchyAccumulator> createAccumulatorMap() {
-        DataStructure structure = getDataStructure();
-        ImmutableMap.Builder<Component, HierarchyAccumulator> builder = ImmutableMap.builder();
-        for (Component component : structure.values()) {
-            if (component.isMeasure()) {
-                builder.put(component, sumAccumulatorFor(component.getType()));
+        List<Integer> measureIndices = new ArrayList<>();
+        List<Boolean> longMeasures = new ArrayList<>();
+        for (Map.Entry<String, Component> entry : structure.entrySet()) {
+            if (entry.getValue().isMeasure()) {
+                measureIndices.add(structure.indexOf(entry.getKey()));
+                longMeasures.add(Long.class.equals(entry.getValue().getType()));
             }
         }
-        return builder.build();
-    }
 
+        MemoryReservation memory = reserveMemory(configuration);
+        Stream<DataPoint> sortedData = getChild().computeData(childOrdering, childFiltering, components, configuration);
+        Stream<DataPoint> data = StreamSupport.stream(new HierarchySpliterator(
+                sortedData.spliterator(),
+                rollup,
+                childPredicate,
+                structure.indexOf(componentName),
+                Ints.toArray(measureIndices),
+                Booleans.toArray(longMeasures),
+                memory
+        ), false);
+
+        return new VtlStream(this, configuration,
+                data, Collections.singletonList(sortedData), ordering, filtering, childOrdering,
+                childFiltering, memory);
+    }
 
     @Override
     public Optional<Map<String, Integer>> getDistinctValuesCount() {
@@ -424,35 +378,4 @@ public class HierarchyOperation extends AbstractUnaryDatasetOperation {
     public Optional<Long> getSize() {
         return Optional.empty();
     }
-
-    static class ComposedDataPoint extends DataPoint {
-        final Composition sign;
-
-        ComposedDataPoint(Collection<? extends VTLObject> c, Composition sign) {
-            super(c);
-            this.sign = checkNotNull(sign);
-        }
-
-        static ComposedDataPoint invert(ComposedDataPoint original) {
-            switch (original.getSign()) {
-                case COMPLEMENT:
-                    return new ComposedDataPoint(original, Composition.UNION);
-                case UNION:
-                    return new ComposedDataPoint(original, Composition.COMPLEMENT);
-                default:
-                    throw new IllegalArgumentException("unknown sign");
-            }
-        }
-
-        private Composition getSign() {
-            return sign;
-        }
-
-        @Override
-        public String toString() {
-            return MoreObjects.toStringHelper(super.toString())
-                    .addValue(sign)
-                    .toString();
-        }
-    }
 }
@@ -0,0 +1,207 @@
+package no.ssb.vtl.script.operations.hierarchy;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.graph.ValueGraph;
+import no.ssb.vtl.model.VTLObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A hierarchy graph compiled into a sparse matrix of signed coefficients.
+ * <p>
+ * For every node (the source) the matrix lists the nodes it contributes to (the targets),
+ * including itself. Each entry holds:
+ * <ul>
+ * <li>the coefficient, the sum of the signs of all the paths from the source to the target,</li>
+ * <li>the number of paths, that is the number of contributions of the source to the target,</li>
+ * <li>the position of the first contribution, used to select the data point the non-aggregated
+ * values of the target are copied from.</li>
+ * </ul>
+ */
+final class HierarchyRollup {
+
+    private final ImmutableMap<VTLObject, Integer> index;
+    private final VTLObject[] nodes;
+    private final int[][] targets;
+    private final long[][] coefficients;
+    private final int[][] paths;
+    private final long[][] positions;
+
+    private HierarchyRollup(ImmutableMap<VTLObject, Integer> index, VTLObject[] nodes, int[][] targets,
+                            long[][] coefficients, int[][] paths, long[][] positions) {
+        this.index = index;
+        this.nodes = nodes;
+        this.targets = targets;
+        this.coefficients = coefficients;
+        this.paths = paths;
+        this.positions = positions;
+    }
+
+    /**
+     * Compiles the graph.
+     *
+     * @throws IllegalArgumentException if the graph contains a circular dependency.
+     */
+    static HierarchyRollup compile(ValueGraph<VTLObject, Composition> graph) {
+        List<VTLObject> sorted = HierarchyOperation.sortTopologically(graph);
+
+        ImmutableMap.Builder<VTLObject, Integer> indexBuilder = ImmutableMap.builder();
+        for (int i = 0; i < sorted.size(); i++) {
+            indexBuilder.put(sorted.get(i), i);
+        }
+        ImmutableMap<VTLObject, Integer> index = indexBuilder.build();
+        int size = sorted.size();
+
+        // Contributions to each target, in the order they are encountered when the sources are
+        // propagated in topological order: the target itself first and then the contributions
+        // of each predecessor.
+        List<Map<Integer, Entry>> contributions = new ArrayList<>(size);
+        long[] lengths = new long[size];
+        for (int target = 0; target < size; target++) {
+            Map<Integer, Entry> entries = new LinkedHashMap<>();
+            entries.put(target, new Entry(1, 1, 0));
+            long offset = 1;
+            for (VTLObject predecessorNode : predecessorsInOrder(graph, sorted, index, sorted.get(target))) {
+                int predecessor = index.get(predecessorNode);
+                long sign = graph.edgeValue(predecessorNode, sorted.get(target)) == Composition.COMPLEMENT ? -1 : 1;
+                for (Map.Entry<Integer, Entry> entry : contributions.get(predecessor).entrySet()) {
+                    Entry value = entry.getValue();
+                    Entry existing = entries.get(entry.getKey());
+                    if (existing == null) {
+                        entries.put(entry.getKey(), new Entry(sign * value.coefficient, value.paths, offset + value.position));
+                    } else {
+                        existing.coefficient += sign * value.coefficient;
+                        existing.paths = Math.addExact(existing.paths, value.paths);
+                        existing.position = Math.min(existing.position, offset + value.position);
+                    }
+                }
+                offset = Math.addExact(offset, lengths[predecessor]);
+            }
+            lengths[target] = offset;
+            contributions.add(entries);
+        }
+
+        // Transpose to get the targets of each source.
+        List<List<Integer>> targetLists = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            targetLists.add(new ArrayList<>());
+        }
+        for (int target = 0; target < size; target++) {
+            for (Integer source : contributions.get(target).keySet()) {
+                targetLists.get(source).add(target);
+            }
+        }
+
+        int[][] targets = new int[size][];
+        long[][] coefficients = new long[size][];
+        int[][] paths = new int[size][];
+        long[][] positions = new long[size][];
+        for (int source = 0; source < size; source++) {
+            List<Integer> sourceTargets = targetLists.get(source);
+            targets[source] = new int[sourceTargets.size()];
+            coefficients[source] = new long[sourceTargets.size()];
+            paths[source] = new int[sourceTargets.size()];
+            positions[source] = new long[sourceTargets.size()];
+            for (int k = 0; k < sourceTargets.size(); k++) {
+                int target = sourceTargets.get(k);
+                Entry entry = contributions.get(target).get(source);
+                targets[source][k] = target;
+                coefficients[source][k] = entry.coefficient;
+                paths[source][k] = Math.toIntExact(entry.paths);
+                positions[source][k] = entry.position;
+            }
+        }
+
+        return new HierarchyRollup(index, sorted.toArray(new VTLObject[0]), targets, coefficients, paths, positions);
+    }
+
+    private static List<VTLObject> predecessorsInOrder(ValueGraph<VTLObject, Composition> graph,
+                                                       List<VTLObject> sorted, Map<VTLObject, Integer> index,
+                                                       VTLObject node) {
+        List<VTLObject> predecessors = new ArrayList<>(graph.predecessors(node));
+        predecessors.sort((left, right) -> Integer.compare(index.get(left), index.get(right)));
+        checkArgument(predecessors.stream().allMatch(p -> index.get(p) < index.get(node)),
+                "%s is not in topological order", sorted);
+        return predecessors;
+    }
+
+    /**
+     * Returns the index of the node or -1 if the value is not part of the hierarchy.
+     */
+    int indexOf(VTLObject value) {
+        Integer i = index.get(value);
+        return i == null ? -1 : i;
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns the number of nodes plus the number of entries in the matrix.
+     */
+    int weight() {
+        int weight = nodes.length;
+        for (int[] sourceTargets : targets) {
+            weight += sourceTargets.length;
+        }
+        return weight;
+    }
+
+    VTLObject node(int index) {
+        return nodes[index];
+    }
+
+    int[] targets(int source) {
+        return targets[source];
+    }
+
+    long[] coefficients(int source) {
+        return coefficients[source];
+    }
+
+    int[] paths(int source) {
+        return paths[source];
+    }
+
+    long[] positions(int source) {
+        return positions[source];
+    }
+
+    private static final class Entry {
+        private long coefficient;
+        private long paths;
+        private long position;
+
+        private Entry(long coefficient, long paths, long position) {
+            this.coefficient = coefficient;
+            this.paths = paths;
+            this.position = position;
+        }
+    }
+}
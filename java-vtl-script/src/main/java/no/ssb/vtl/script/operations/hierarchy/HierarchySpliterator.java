@@ -0,0 +1,219 @@
+package no.ssb.vtl.script.operations.hierarchy;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.VTLNumber;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.script.support.MemoryReservation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Applies a {@link HierarchyRollup} to groups of data points.
+ * <p>
+ * The rows of a group are read once; each row adds its measures, multiplied by the coefficients,
+ * to primitive accumulators of its targets. The group is then emitted ordered by the hierarchy
+ * component.
+ * <p>
+ * A target that received a single contribution is a copy of the contributing row. Otherwise the
+ * row of the first contribution is copied and its measures replaced by the sums, null values
+ * counting as zero.
+ * <p>
+ * The rows of a group are reserved in the {@link MemoryReservation} until the group is emitted.
+ */
+final class HierarchySpliterator extends Spliterators.AbstractSpliterator<DataPoint> implements Consumer<DataPoint> {
+
+    private final Spliterator<DataPoint> source;
+    private final HierarchyRollup rollup;
+    private final Comparator<DataPoint> groupPredicate;
+    private final Comparator<DataPoint> componentOrder;
+    private final int componentIndex;
+    private final int[] measureIndices;
+    private final boolean[] longMeasures;
+    private final MemoryReservation memory;
+
+    // Accumulators, indexed by measure then target.
+    private final long[][] longSums;
+    private final double[][] doubleSums;
+    private final int[] counts;
+    private final long[] firstPositions;
+    private final DataPoint[] firstRows;
+    private final int[] touched;
+    private int touchedCount;
+
+    private final Deque<DataPoint> output = new ArrayDeque<>();
+    private final List<DataPoint> group = new ArrayList<>();
+    private DataPoint pending;
+
+    /**
+     * @param source         the rows, sorted by group
+     * @param rollup         the compiled hierarchy
+     * @param groupPredicate compares the columns that define the groups
+     * @param componentIndex the index of the hierarchy component
+     * @param measureIndices the indices of the measures
+     * @param longMeasures   for each measure, whether it is summed as a long or as a double
+     * @param memory         the reservation for the rows of a group
+     */
+    HierarchySpliterator(Spliterator<DataPoint> source, HierarchyRollup rollup, Comparator<DataPoint> groupPredicate,
+                         int componentIndex, int[] measureIndices, boolean[] longMeasures, MemoryReservation memory) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.source = source;
+        this.rollup = rollup;
+        this.groupPredicate = groupPredicate;
+        this.componentIndex = componentIndex;
+        this.componentOrder = Comparator.comparing(dataPoint -> dataPoint.get(componentIndex));
+        this.measureIndices = measureIndices;
+        this.longMeasures = longMeasures;
+        this.memory = memory;
+
+        int size = rollup.size();
+        this.longSums = new long[measureIndices.length][size];
+        this.doubleSums = new double[measureIndices.length][size];
+        this.counts = new int[size];
+        this.firstPositions = new long[size];
+        Arrays.fill(firstPositions, Long.MAX_VALUE);
+        this.firstRows = new DataPoint[size];
+        this.touched = new int[size];
+    }
+
+    @Override
+    public void accept(DataPoint dataPoint) {
+        pending = dataPoint;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super DataPoint> action) {
+        if (output.isEmpty()) {
+            memory.releaseAll();
+            if (!computeGroup()) {
+                return false;
+            }
+        }
+        action.accept(output.poll());
+        return true;
+    }
+
+    private boolean computeGroup() {
+        if (pending == null && !source.tryAdvance(this)) {
+            return false;
+        }
+        DataPoint first = pending;
+        pending = null;
+        add(first);
+        while (source.tryAdvance(this)) {
+            if (groupPredicate.compare(first, pending) != 0) {
+                break;
+            }
+            add(pending);
+            pending = null;
+        }
+        flush();
+        return true;
+    }
+
+    private void add(DataPoint row) {
+        int source = rollup.indexOf(row.get(componentIndex));
+        if (source < 0) {
+            // Not part of the hierarchy.
+            memory.reserve(MemoryReservation.estimate(row));
+            group.add(row);
+            return;
+        }
+
+        int[] targets = rollup.targets(source);
+        long[] coefficients = rollup.coefficients(source);
+        int[] paths = rollup.paths(source);
+        long[] positions = rollup.positions(source);
+        for (int k = 0; k < targets.length; k++) {
+            int target = targets[k];
+            if (counts[target] == 0) {
+                touched[touchedCount++] = target;
+            }
+            counts[target] += paths[k];
+            if (positions[k] < firstPositions[target]) {
+                firstPositions[target] = positions[k];
+                firstRows[target] = row;
+            }
+            long coefficient = coefficients[k];
+            for (int m = 0; m < measureIndices.length; m++) {
+                VTLObject value = row.get(measureIndices[m]);
+                if (value == null || value.get() == null) {
+                    continue;
+                }
+                Number number = (Number) value.get();
+                if (longMeasures[m]) {
+                    longSums[m][target] += coefficient * number.longValue();
+                } else {
+                    doubleSums[m][target] += coefficient * number.doubleValue();
+                }
+            }
+        }
+    }
+
+    private void flush() {
+        for (int i = 0; i < touchedCount; i++) {
+            int target = touched[i];
+            DataPoint row = firstRows[target];
+            VTLObject node = rollup.node(target);
+
+            DataPoint result;
+            if (counts[target] == 1 && node.equals(row.get(componentIndex))) {
+                result = row;
+            } else {
+                result = DataPoint.create(row);
+                result.set(componentIndex, node);
+                if (counts[target] > 1) {
+                    for (int m = 0; m < measureIndices.length; m++) {
+                        result.set(measureIndices[m], longMeasures[m]
+                                ? VTLNumber.of(longSums[m][target])
+                                : VTLNumber.of(doubleSums[m][target]));
+                    }
+                }
+            }
+            memory.reserve(MemoryReservation.estimate(result));
+            group.add(result);
+
+            counts[target] = 0;
+            firstPositions[target] = Long.MAX_VALUE;
+            firstRows[target] = null;
+            for (int m = 0; m < measureIndices.length; m++) {
+                longSums[m][target] = 0;
+                doubleSums[m][target] = 0;
+            }
+        }
+        touchedCount = 0;
+
+        if (group.size() > 1) {
+            group.sort(componentOrder);
+        }
+        output.addAll(group);
+        group.clear();
+    }
+}
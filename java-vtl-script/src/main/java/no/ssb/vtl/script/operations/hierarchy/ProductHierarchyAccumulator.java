@@ -26,7 +26,10 @@ import java.util.function.BiFunction;
 
 /**
  * Product accumulator.
+ *
+ * @deprecated see {@link HierarchyAccumulator}.
  */
+@Deprecated
 public class ProductHierarchyAccumulator implements HierarchyAccumulator {
 
     @Override
@@ -31,7 +31,10 @@ import static com.google.common.base.Preconditions.*;
 
 /**
  * Sum accumulator.
+ *
+ * @deprecated see {@link HierarchyAccumulator}.
  */
+@Deprecated
 public class SumHierarchyAccumulator implements HierarchyAccumulator {
 
     private static Map<Class<?>, Object> ZEROS = ImmutableMap.<Class<?>, Object>builder()
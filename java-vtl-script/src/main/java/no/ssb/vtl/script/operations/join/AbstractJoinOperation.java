@@ -42,6 +42,7 @@ import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.Ordering.Direction;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.AbstractDatasetOperation;
 
 import java.util.ArrayList;
@@ -78,6 +79,13 @@ public abstract class AbstractJoinOperation extends AbstractDatasetOperation imp
     private final ComponentBindings joinScope;
 
     AbstractJoinOperation(Map<String, Dataset> namedDatasets, Map<String, Component> identifiers) {
+        this(namedDatasets, identifiers, false);
+    }
+
+    /**
+     * @param cartesian true if the operation combines all the rows of the datasets without key.
+     */
+    AbstractJoinOperation(Map<String, Dataset> namedDatasets, Map<String, Component> identifiers, boolean cartesian) {
         super(Lists.newArrayList(checkNotNull(namedDatasets).values()));
 
         checkArgument(
@@ -88,6 +96,14 @@ public abstract class AbstractJoinOperation extends AbstractDatasetOperation imp
 
         checkNotNull(identifiers);
 
+        // Cartesian product, nothing in common.
+        if (cartesian) {
+            this.commonIdentifiers = ImmutableMap.of();
+            this.columnMapping = getCartesianColumnMapping(namedDatasets);
+            this.joinScope = createJoinScope(namedDatasets, commonIdentifiers);
+            return;
+        }
+
         this.commonIdentifiers = ImmutableMap.copyOf(new CommonIdentifierBindings(this.datasets)
                 .getComponentReferences().entrySet().stream()
                 .filter(entry -> identifiers.isEmpty() || identifiers.values().contains(entry.getValue()))
@@ -250,6 +266,40 @@ public abstract class AbstractJoinOperation extends AbstractDatasetOperation imp
         return table.build();
     }
 
+    /**
+     * Create a mapping between the names of join scoped variable, dataset and dataset variable for
+     * a cartesian product.
+     * <p>
+     * Since no column is joined, all the columns that appear in more than one dataset are prefixed
+     * with the name of their dataset.
+     *
+     * @param datasets dataset map
+     * @return column mappings for all datasets (identifiers, measures and attributes)
+     */
+    @VisibleForTesting
+    static Table<String, String, String> getCartesianColumnMapping(Map<String, Dataset> datasets) {
+
+        ImmutableTable.Builder<String, String, String> table;
+        table = ImmutableTable.builder();
+
+        Multiset<String> sharedColumns = HashMultiset.create();
+        for (Dataset dataset : datasets.values()) {
+            sharedColumns.addAll(dataset.getDataStructure().keySet());
+        }
+
+        for (Map.Entry<String, Dataset> entry : datasets.entrySet()) {
+            for (String column : entry.getValue().getDataStructure().keySet()) {
+                if (sharedColumns.count(column) > 1) {
+                    table.put(entry.getKey() + "_" + column, entry.getKey(), column);
+                } else {
+                    table.put(column, entry.getKey(), column);
+                }
+            }
+        }
+
+        return table.build();
+    }
+
     protected ImmutableMap<String, Component> getCommonIdentifiers() {
         return this.commonIdentifiers;
     }
@@ -357,11 +407,14 @@ public abstract class AbstractJoinOperation extends AbstractDatasetOperation imp
         return builder.build();
     }
 
-    protected Stream<DataPoint> getOrSortData(Dataset dataset, Ordering order, Filtering filtering, Set<String> components) {
+    protected Stream<DataPoint> getOrSortData(Dataset dataset, Ordering order, Filtering filtering,
+                                              Set<String> components, VtlConfiguration configuration) {
         VtlFiltering vtlFiltering = computeDatasetFiltering(dataset, filtering);
         // TODO: Refactor to use AbstractOperation directly.
         if (dataset instanceof AbstractDatasetOperation) {
-            return ((AbstractDatasetOperation) dataset).computeData(new VtlOrdering(order, dataset.getDataStructure()), vtlFiltering, components);
+            return ((AbstractDatasetOperation) dataset).computeData(
+                    new VtlOrdering(order, dataset.getDataStructure()), vtlFiltering, components, configuration
+            );
         } else {
             //throw new UnsupportedOperationException("Parent should sort.");
             Optional<Stream<DataPoint>> sortedData = dataset.getData(order, vtlFiltering, components);
@@ -0,0 +1,215 @@
+package no.ssb.vtl.script.operations.join;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.AbstractIterator;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.script.support.CancellationToken;
+import no.ssb.vtl.script.support.Closer;
+import no.ssb.vtl.script.support.MemoryReservation;
+import no.ssb.vtl.script.support.SpillFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Iterates over the Cartesian product of two streams using a block nested loop.
+ * <p>
+ * The inner stream is read only once. Its first {@code bufferSize} rows are kept in memory and the remaining
+ * rows are spilled to a {@link SpillFile}. The outer stream is then re-created once for the rows in memory and
+ * once for every block of {@code blockSize} spilled rows, so that at most {@code bufferSize + blockSize} inner
+ * rows are held in memory. The rows in memory are reserved in a {@link MemoryReservation} that also records
+ * the size of the spilled rows.
+ * <p>
+ * The output is ordered by block, then by outer row and finally by inner row.
+ */
+class BlockNestedLoopIterator extends AbstractIterator<DataPoint> implements AutoCloseable {
+
+    private final Supplier<Stream<DataPoint>> outerSupplier;
+    private final Iterator<DataPoint> innerIterator;
+    private final BiFunction<DataPoint, DataPoint, DataPoint> merger;
+    private final int blockSize;
+    private final int bufferSize;
+    private final AtomicLong spilledBlocks;
+    private final Path spillDirectory;
+    private final CancellationToken cancellationToken;
+    private final MemoryReservation memory;
+
+    private List<DataPoint> block;
+    private SpillFile spillFile;
+    private SpillFile.Reader spillReader;
+
+    private Stream<DataPoint> outerStream;
+    private Iterator<DataPoint> outerIterator;
+    private boolean outerEmpty = true;
+
+    private DataPoint currentOuter;
+    private int innerIndex;
+
+    BlockNestedLoopIterator(
+            Supplier<Stream<DataPoint>> outerSupplier,
+            Iterator<DataPoint> innerIterator,
+            BiFunction<DataPoint, DataPoint, DataPoint> merger,
+            int blockSize,
+            int bufferSize,
+            AtomicLong spilledBlocks,
+            Path spillDirectory,
+            CancellationToken cancellationToken,
+            MemoryReservation memory
+    ) {
+        checkArgument(blockSize > 0, "block size must be positive");
+        checkArgument(bufferSize > 0, "buffer size must be positive");
+        this.outerSupplier = checkNotNull(outerSupplier);
+        this.innerIterator = checkNotNull(innerIterator);
+        this.merger = checkNotNull(merger);
+        this.blockSize = blockSize;
+        this.bufferSize = bufferSize;
+        this.spilledBlocks = checkNotNull(spilledBlocks);
+        this.spillDirectory = checkNotNull(spillDirectory);
+        this.cancellationToken = cancellationToken;
+        this.memory = checkNotNull(memory);
+    }
+
+    private void addToBlock(DataPoint dataPoint) {
+        memory.reserve(MemoryReservation.estimate(dataPoint));
+        block.add(dataPoint);
+    }
+
+    /**
+     * Reads the whole inner stream, keeping the first rows in memory and spilling the rest.
+     */
+    private void bufferInner() {
+        block = new ArrayList<>();
+        while (block.size() < bufferSize && innerIterator.hasNext()) {
+            addToBlock(innerIterator.next());
+        }
+        if (!innerIterator.hasNext()) {
+            return;
+        }
+
+        spillFile = SpillFile.create(spillDirectory);
+        long spilledRows = 0;
+        while (innerIterator.hasNext()) {
+            spillFile.write(innerIterator.next());
+            if (++spilledRows % blockSize == 0) {
+                checkCancellation();
+            }
+        }
+        spilledBlocks.addAndGet((spilledRows + blockSize - 1) / blockSize);
+        spillReader = spillFile.reader();
+        memory.recordSpill(spillFile.getByteCount());
+    }
+
+    /**
+     * Loads the next spilled block.
+     *
+     * @return false if no more block are available.
+     */
+    private boolean nextBlock() {
+        if (spillReader == null || !spillReader.hasNext()) {
+            return false;
+        }
+        memory.releaseAll();
+        block = new ArrayList<>(blockSize);
+        while (block.size() < blockSize && spillReader.hasNext()) {
+            addToBlock(spillReader.next());
+        }
+        return true;
+    }
+
+    private void checkCancellation() {
+        if (cancellationToken != null) {
+            cancellationToken.check();
+        }
+    }
+
+    /**
+     * Replays the outer stream for the current block.
+     */
+    private void openOuter() {
+        checkCancellation();
+        outerStream = outerSupplier.get();
+        outerIterator = outerStream.iterator();
+        currentOuter = null;
+    }
+
+    private void closeOuter() {
+        if (outerStream != null) {
+            outerStream.close();
+            outerStream = null;
+            outerIterator = null;
+        }
+    }
+
+    @Override
+    protected DataPoint computeNext() {
+        if (block == null) {
+            bufferInner();
+            if (block.isEmpty()) {
+                return endOfData();
+            }
+            openOuter();
+        }
+
+        while (true) {
+            if (currentOuter != null && innerIndex < block.size()) {
+                return merger.apply(currentOuter, block.get(innerIndex++));
+            }
+            if (outerIterator.hasNext()) {
+                currentOuter = outerIterator.next();
+                outerEmpty = false;
+                innerIndex = 0;
+                continue;
+            }
+            closeOuter();
+            // No need to replay an empty outer stream.
+            if (outerEmpty || !nextBlock()) {
+                return endOfData();
+            }
+            openOuter();
+        }
+    }
+
+    @Override
+    public void close() {
+        Closer closer = Closer.create();
+        closer.register(spillFile);
+        closer.register(spillReader);
+        closer.register(this::closeOuter);
+        closer.register(memory);
+        try {
+            closer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
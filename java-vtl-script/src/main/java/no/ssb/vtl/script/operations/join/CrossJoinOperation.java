@@ -19,43 +19,237 @@ package no.ssb.vtl.script.operations.join;
  * limitations under the License.
  * =========================LICENSE_END==================================
  */
-/*-
- * #%L
- * java-vtl-script
- * %%
- * Copyright (C) 2016 Hadrien Kohl
- * %%
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- * #L%
- */
 
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.math.LongMath;
 import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
 import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.Filtering;
+import no.ssb.vtl.model.FilteringSpecification;
+import no.ssb.vtl.model.Ordering;
+import no.ssb.vtl.model.OrderingSpecification;
+import no.ssb.vtl.model.VtlFiltering;
+import no.ssb.vtl.script.VtlConfiguration;
+import no.ssb.vtl.script.operations.AbstractDatasetOperation;
+import no.ssb.vtl.script.operations.VtlStream;
+import no.ssb.vtl.script.support.Closer;
+import no.ssb.vtl.script.support.MemoryReservation;
+import no.ssb.vtl.script.support.SpillFile;
 
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
- * TODO(hk): Finish this.
+ * Cartesian product of datasets.
+ * <p>
+ * The datasets are combined from left to right using a block nested loop (see {@link BlockNestedLoopIterator}).
+ * The right (inner) dataset is read once and buffered, keeping at most {@link #getBufferSize()} rows in memory
+ * and spilling the remaining ones to a temporary file in blocks of {@link #getBlockSize()} rows. The left (outer)
+ * dataset is streamed again for every block. With more than two datasets the intermediate products are
+ * spilled to a temporary file once and replayed from it.
+ * <p>
+ * Columns that appear in more than one dataset are prefixed with the name of their dataset.
  */
-public abstract class CrossJoinOperation extends OuterJoinOperation {
+public class CrossJoinOperation extends AbstractJoinOperation {
+
+    public static final int DEFAULT_BLOCK_SIZE = 10_000;
+    public static final int DEFAULT_BUFFER_SIZE = 100_000;
+
+    private final int blockSize;
+    private final int bufferSize;
+    private final AtomicLong spilledBlocks = new AtomicLong();
+
+    public CrossJoinOperation(Map<String, Dataset> namedDatasets) {
+        this(namedDatasets, DEFAULT_BLOCK_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param blockSize  the number of rows of the spilled blocks.
+     * @param bufferSize the number of inner rows kept in memory before spilling.
+     */
+    public CrossJoinOperation(Map<String, Dataset> namedDatasets, int blockSize, int bufferSize) {
+        super(namedDatasets, Collections.emptyMap(), true);
+        checkArgument(blockSize > 0, "block size must be positive");
+        checkArgument(bufferSize > 0, "buffer size must be positive");
+        this.blockSize = blockSize;
+        this.bufferSize = bufferSize;
+    }
+
+    private static DataPoint concat(DataPoint left, DataPoint right) {
+        int leftSize = left.size();
+        DataPoint result = DataPoint.create(leftSize + right.size());
+        for (int i = 0; i < leftSize; i++) {
+            result.set(i, left.get(i));
+        }
+        for (int i = 0; i < right.size(); i++) {
+            result.set(leftSize + i, right.get(i));
+        }
+        return result;
+    }
+
+    private static Stream<DataPoint> streamChild(AbstractDatasetOperation child, VtlFiltering filtering,
+                                                 VtlConfiguration configuration) {
+        VtlFiltering childFiltering = VtlFiltering.using(child).transpose(filtering);
+        return child.computeData(Ordering.ANY, childFiltering, child.getDataStructure().keySet(), configuration);
+    }
+
+    private Stream<DataPoint> product(Supplier<Stream<DataPoint>> outer, Stream<DataPoint> inner,
+                                      VtlConfiguration configuration, MemoryReservation memory) {
+        BlockNestedLoopIterator iterator = new BlockNestedLoopIterator(
+                outer, inner.iterator(), CrossJoinOperation::concat, blockSize, bufferSize, spilledBlocks,
+                configuration.getSpillDirectory(), configuration.getCancellationToken(), memory.newChild()
+        );
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.IMMUTABLE),
+                false
+        ).onClose(iterator::close).onClose(inner::close);
+    }
+
+    /**
+     * Writes the stream to a new spill file, deleted when the closer is closed.
+     */
+    private static SpillFile spill(Stream<DataPoint> stream, Path spillDirectory, MemoryReservation memory,
+                                   Closer closer) {
+        SpillFile spillFile = closer.register(SpillFile.create(spillDirectory));
+        try (Stream<DataPoint> rows = stream) {
+            rows.forEach(spillFile::write);
+        }
+        memory.recordSpill(spillFile.getByteCount());
+        return spillFile;
+    }
+
+    private static Stream<DataPoint> replay(SpillFile spillFile) {
+        SpillFile.Reader reader = spillFile.reader();
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL),
+                false
+        ).onClose(() -> close(reader));
+    }
+
+    private static void close(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
+        ImmutableList<AbstractDatasetOperation> children = getChildren();
+        VtlFiltering childFiltering = (VtlFiltering) computeRequiredFiltering(filtering);
+
+        AbstractDatasetOperation first = children.get(0);
+        if (children.size() == 1) {
+            Stream<DataPoint> original = streamChild(first, childFiltering, configuration);
+            return new VtlStream(this, configuration,
+                    original, original, orders, filtering, Ordering.ANY, Filtering.ALL);
+        }
+
+        // The outer side is replayed for each block. The intermediate products are
+        // computed once, the first time they are read, and replayed from a spill file.
+        MemoryReservation memory = reserveMemory(configuration);
+        Closer spillFiles = Closer.create();
+        Supplier<Stream<DataPoint>> outer = () -> streamChild(first, childFiltering, configuration);
+        for (AbstractDatasetOperation child : children.subList(1, children.size() - 1)) {
+            Supplier<Stream<DataPoint>> previous = outer;
+            Supplier<SpillFile> intermediate = Suppliers.memoize(
+                    () -> spill(
+                            product(previous, streamChild(child, childFiltering, configuration),
+                                    configuration, memory),
+                            configuration.getSpillDirectory(), memory, spillFiles
+                    )
+            );
+            outer = () -> replay(intermediate.get());
+        }
+
+        Stream<DataPoint> inner = streamChild(children.get(children.size() - 1), childFiltering, configuration);
+        return new VtlStream(
+                this, configuration,
+                product(outer, inner, configuration, memory).onClose(() -> close(spillFiles)),
+                Collections.singletonList(inner),
+                orders,
+                filtering,
+                Ordering.ANY,
+                Filtering.ALL,
+                memory
+        );
+    }
+
+    /**
+     * Returns the number of blocks that were spilled to disk since the creation of this operation.
+     */
+    public long getSpilledBlocks() {
+        return spilledBlocks.get();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public Optional<Map<String, Integer>> getDistinctValuesCount() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Long> getSize() {
+        long size = 1;
+        for (AbstractDatasetOperation child : getChildren()) {
+            Optional<Long> childSize = child.getSize();
+            if (!childSize.isPresent()) {
+                return Optional.empty();
+            }
+            size = LongMath.saturatedMultiply(size, childSize.get());
+        }
+        return Optional.of(size);
+    }
 
-    CrossJoinOperation(Map<String, Dataset> namedDatasets) {
-        super(namedDatasets, Collections.emptyMap());
+    /**
+     * Only the filters on the columns that keep the name they have in their dataset are sent to the
+     * datasets. The filters on the prefixed columns are applied to the product.
+     */
+    @Override
+    public FilteringSpecification computeRequiredFiltering(FilteringSpecification filtering) {
+        DataStructure.Builder unprefixed = DataStructure.builder();
+        for (Map.Entry<String, Component> entry : getDataStructure().entrySet()) {
+            for (AbstractDatasetOperation child : getChildren()) {
+                if (entry.getValue().equals(child.getDataStructure().get(entry.getKey()))) {
+                    unprefixed.put(entry);
+                    break;
+                }
+            }
+        }
+        return VtlFiltering.using(unprefixed.build()).transpose(filtering);
     }
 
-    public CrossJoinOperation(Map<String, Dataset> namedDatasets, Map<String, Component> identifiers) {
-        super(namedDatasets, identifiers);
+    /**
+     * The outer dataset is read again for every block of the inner one, so no ordering of the
+     * datasets is kept in the product.
+     */
+    @Override
+    public OrderingSpecification computeRequiredOrdering(OrderingSpecification ordering) {
+        return Ordering.ANY;
     }
 }
@@ -29,8 +29,10 @@ import no.ssb.vtl.model.FilteringSpecification;
 import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.VtlStream;
 import no.ssb.vtl.script.support.Closer;
+import no.ssb.vtl.script.support.MemoryReservation;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -53,7 +55,8 @@ public class InnerJoinOperation extends AbstractJoinOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering requestedOrder, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering requestedOrder, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
 
         // Try to create a compatible order.
         Ordering requiredOrder = createCompatibleOrder(getDataStructure(), getCommonIdentifiers(), requestedOrder);
@@ -68,6 +71,7 @@ public class InnerJoinOperation extends AbstractJoinOperation {
 
         ImmutableList.Builder<Stream<DataPoint>> originals = ImmutableList.builder();
 
+        MemoryReservation memory = reserveMemory(configuration);
         Closer closer = Closer.create();
         try {
 
@@ -75,7 +79,8 @@ public class InnerJoinOperation extends AbstractJoinOperation {
                     left.getValue(),
                     adjustOrderForStructure(requiredOrder, left.getValue().getDataStructure()),
                     renameFilterColumns(filtering, left.getKey()),
-                    components
+                    components,
+                    configuration
             );
             originals.add(original);
             Stream<DataPoint> result = original.peek(new DataPointCapacityExpander(getDataStructure().size()));
@@ -91,7 +96,8 @@ public class InnerJoinOperation extends AbstractJoinOperation {
                         right.getValue(),
                         adjustOrderForStructure(requiredOrder, right.getValue().getDataStructure()),
                         renameFilterColumns(filtering, right.getKey()),
-                        components
+                        components,
+                        configuration
                 );
                 originals.add(rightStream);
                 closer.register(rightStream);
@@ -108,7 +114,10 @@ public class InnerJoinOperation extends AbstractJoinOperation {
                                 predicate,
                                 new InnerJoinMerger(getDataStructure(), right.getValue().getDataStructure()),
                                 result.spliterator(),
-                                rightStream.spliterator()
+                                rightStream.spliterator(),
+                                memory,
+                                MemoryReservation::estimate,
+                                MemoryReservation::estimate
                         ), false
                 );
 
@@ -126,13 +135,14 @@ public class InnerJoinOperation extends AbstractJoinOperation {
 
             // TODO: Closer could be moved to VtlStream.
             return new VtlStream(
-                    this,
+                    this, configuration,
                     delegate,
                     originals.build(),
                     requestedOrder,
                     filtering,
                     new VtlOrdering(predicate, this.getDataStructure()),
-                    filtering
+                    filtering,
+                    memory
             );
 
         } catch (Exception ex) {
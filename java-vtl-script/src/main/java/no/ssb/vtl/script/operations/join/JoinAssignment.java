@@ -39,6 +39,10 @@ import no.ssb.vtl.model.VTLObject;
 import no.ssb.vtl.model.VTLString;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
+import no.ssb.vtl.script.expressions.compiler.CompiledExpression;
+import no.ssb.vtl.script.expressions.compiler.ExpressionCompiler;
+import no.ssb.vtl.script.expressions.compiler.ExpressionOptimizer;
 import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
 import no.ssb.vtl.script.operations.VtlStream;
 
@@ -79,6 +83,18 @@ public class JoinAssignment extends AbstractUnaryDatasetOperation {
         this.componentBindings = ComponentBindings.copyOf(checkNotNull(componentBindings));
     }
 
+    VTLExpression getExpression() {
+        return expression;
+    }
+
+    String getIdentifier() {
+        return identifier;
+    }
+
+    ComponentBindings getComponentBindings() {
+        return componentBindings;
+    }
+
     @VisibleForTesting
     static Class<?> convertToComponentType(Class<? extends VTLObject> vtlType) {
         if (vtlType == VTLString.class)
@@ -137,11 +153,11 @@ public class JoinAssignment extends AbstractUnaryDatasetOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
         DataStructure childDataStructure = getChild().getDataStructure();
 
         DataStructure dataStructure = getDataStructure();
-        Component component = dataStructure.get(identifier);
         DataPointBindings dataPointBindings = new DataPointBindings(
                 componentBindings,
                 childDataStructure
@@ -150,19 +166,37 @@ public class JoinAssignment extends AbstractUnaryDatasetOperation {
         VtlFiltering childFiltering = (VtlFiltering) computeRequiredFiltering(filtering);
         VtlOrdering childOrdering = (VtlOrdering) computeRequiredOrdering(ordering);
 
-        final Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, components);
+        // The assigned column is added at the end or replaced in place.
+        int index = dataStructure.indexOf(identifier);
+        // The compiler optimizes the expression itself, only the interpreter
+        // fallback needs to optimize it here.
+        CompiledExpression compiled = componentBindings != null
+                ? ExpressionCompiler.compile(expression, componentBindings, childDataStructure)
+                : null;
+        VTLExpression optimized = compiled == null ? ExpressionOptimizer.optimize(expression) : null;
+
+        final Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, components,
+                configuration);
         Stream<DataPoint> stream = original.peek(datapoint -> {
 
             if (childDataStructure.size() < dataStructure.size())
                 datapoint.add(VTLObject.NULL);
 
-            dataPointBindings.setDataPoint(datapoint);
-            VTLObject resolved = expression.resolve(dataPointBindings);
+            VTLObject resolved;
+            if (compiled == null) {
+                dataPointBindings.setDataPoint(datapoint);
+                resolved = optimized.resolve(dataPointBindings);
+            } else if (compiled.isInterpreted()) {
+                dataPointBindings.setDataPoint(datapoint);
+                resolved = compiled.resolve(datapoint, dataPointBindings);
+            } else {
+                resolved = compiled.resolve(datapoint, null);
+            }
 
-            dataStructure.asMap(datapoint).put(component, resolved);
+            datapoint.set(index, resolved);
         });
 
-        return new VtlStream(this, stream, original, ordering, filtering, childOrdering, childFiltering);
+        return new VtlStream(this, configuration, stream, original, ordering, filtering, childOrdering, childFiltering);
     }
 
     @Override
@@ -178,7 +212,15 @@ public class JoinAssignment extends AbstractUnaryDatasetOperation {
     @Override
     public FilteringSpecification computeRequiredFiltering(FilteringSpecification filtering) {
         // TODO: transform the filter on identity assignments.
-        return VtlFiltering.using(getChild()).transpose(filtering);
+        // The assigned column is removed since the child holds the value before the assignment.
+        DataStructure.Builder unchanged = DataStructure.builder();
+        for (Map.Entry<String, Component> entry : getChild().getDataStructure().entrySet()) {
+            if (!identifier.equals(entry.getKey())) {
+                unchanged.put(entry);
+            }
+        }
+        VtlFiltering transposed = VtlFiltering.using(unchanged.build()).transpose(filtering);
+        return VtlFiltering.using(getChild()).transpose(transposed);
     }
 
     @Override
@@ -0,0 +1,164 @@
+package no.ssb.vtl.script.operations.join;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableList;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.Filtering;
+import no.ssb.vtl.model.FilteringSpecification;
+import no.ssb.vtl.model.Ordering;
+import no.ssb.vtl.model.OrderingSpecification;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.model.VtlFiltering;
+import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
+import no.ssb.vtl.script.expressions.compiler.CompiledAssignments;
+import no.ssb.vtl.script.operations.AbstractDatasetOperation;
+import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
+import no.ssb.vtl.script.operations.DatasetOperationWrapper;
+import no.ssb.vtl.script.operations.VtlStream;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Consecutive {@link JoinAssignment}s of a join body evaluated in a single pass.
+ * <p>
+ * The assignments are compiled together so that the subexpressions they have in common are
+ * only evaluated once per data point.
+ */
+public class JoinCalcOperation extends AbstractUnaryDatasetOperation {
+
+    private final ImmutableList<JoinAssignment> assignments;
+
+    private JoinCalcOperation(AbstractDatasetOperation child, List<JoinAssignment> assignments) {
+        super(checkNotNull(child));
+        this.assignments = ImmutableList.copyOf(assignments);
+        checkArgument(!this.assignments.isEmpty(), "no assignments");
+        for (JoinAssignment assignment : this.assignments) {
+            checkArgument(assignment.getComponentBindings() != null, "the assignment %s has no bindings", assignment);
+        }
+    }
+
+    /**
+     * Merges the assignment with the assignments it is applied to.
+     *
+     * @return a {@link JoinCalcOperation} if the child of the assignment is an assignment,
+     * the assignment otherwise.
+     */
+    public static AbstractDatasetOperation merge(JoinAssignment assignment) {
+        Dataset child = assignment.getChild();
+        if (child instanceof DatasetOperationWrapper) {
+            child = ((DatasetOperationWrapper) child).getDataset();
+        }
+        if (child instanceof JoinCalcOperation) {
+            JoinCalcOperation calc = (JoinCalcOperation) child;
+            return new JoinCalcOperation(calc.getChild(), ImmutableList.<JoinAssignment>builder()
+                    .addAll(calc.assignments).add(assignment).build());
+        }
+        if (child instanceof JoinAssignment && ((JoinAssignment) child).getComponentBindings() != null) {
+            return new JoinCalcOperation(((JoinAssignment) child).getChild(),
+                    ImmutableList.of((JoinAssignment) child, assignment));
+        }
+        return assignment;
+    }
+
+    public List<JoinAssignment> getAssignments() {
+        return assignments;
+    }
+
+    private JoinAssignment last() {
+        return assignments.get(assignments.size() - 1);
+    }
+
+    @Override
+    protected DataStructure computeDataStructure() {
+        // Use the same instance so that the component references of the join scope stay valid.
+        return last().getDataStructure();
+    }
+
+    @Override
+    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
+        DataStructure dataStructure = getDataStructure();
+        int width = dataStructure.size();
+
+        // The assignments either replace a column or add one at the end.
+        CompiledAssignments.Builder builder = CompiledAssignments.builder(width);
+        for (JoinAssignment assignment : assignments) {
+            builder.add(
+                    assignment.getExpression(),
+                    assignment.getComponentBindings(),
+                    assignment.getChild().getDataStructure(),
+                    dataStructure.indexOf(assignment.getIdentifier())
+            );
+        }
+        CompiledAssignments compiled = builder.build();
+
+        VtlFiltering childFiltering = (VtlFiltering) computeRequiredFiltering(filtering);
+        VtlOrdering childOrdering = (VtlOrdering) computeRequiredOrdering(ordering);
+
+        final Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, components,
+                configuration);
+        Stream<DataPoint> stream = original.peek(datapoint -> {
+            while (datapoint.size() < width) {
+                datapoint.add(VTLObject.NULL);
+            }
+            compiled.evaluate(datapoint);
+        });
+
+        return new VtlStream(this, configuration, stream, original, ordering, filtering, childOrdering, childFiltering);
+    }
+
+    @Override
+    public Optional<Map<String, Integer>> getDistinctValuesCount() {
+        return getChild().getDistinctValuesCount();
+    }
+
+    @Override
+    public Optional<Long> getSize() {
+        return getChild().getSize();
+    }
+
+    @Override
+    public FilteringSpecification computeRequiredFiltering(FilteringSpecification filtering) {
+        for (JoinAssignment assignment : assignments.reverse()) {
+            filtering = assignment.computeRequiredFiltering(filtering);
+        }
+        return filtering;
+    }
+
+    @Override
+    public OrderingSpecification computeRequiredOrdering(OrderingSpecification ordering) {
+        for (JoinAssignment assignment : assignments.reverse()) {
+            ordering = assignment.computeRequiredOrdering(ordering);
+        }
+        return ordering;
+    }
+}
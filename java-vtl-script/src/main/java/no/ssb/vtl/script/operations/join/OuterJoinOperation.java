@@ -28,8 +28,10 @@ import no.ssb.vtl.model.Filtering;
 import no.ssb.vtl.model.FilteringSpecification;
 import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.VtlStream;
 import no.ssb.vtl.script.support.Closer;
+import no.ssb.vtl.script.support.MemoryReservation;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -79,7 +81,8 @@ public class OuterJoinOperation extends AbstractJoinOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
         // Try to create a compatible order.
         Ordering requiredOrder = createCompatibleOrder(getDataStructure(), getCommonIdentifiers(), orders);
 
@@ -93,6 +96,7 @@ public class OuterJoinOperation extends AbstractJoinOperation {
 
         ImmutableList.Builder<Stream<DataPoint>> originals = ImmutableList.builder();
 
+        MemoryReservation memory = reserveMemory(configuration);
         // Close all children
         Closer closer = Closer.create();
         try {
@@ -101,7 +105,8 @@ public class OuterJoinOperation extends AbstractJoinOperation {
                     left.getValue(),
                     adjustOrderForStructure(requiredOrder, left.getValue().getDataStructure()),
                     renameFilterColumns(filtering, left.getKey()),
-                    components
+                    components,
+                    configuration
             );
             originals.add(original);
             Stream<DataPoint> result = original.peek(new DataPointCapacityExpander(getDataStructure().size()));
@@ -117,7 +122,8 @@ public class OuterJoinOperation extends AbstractJoinOperation {
                         right.getValue(),
                         adjustOrderForStructure(requiredOrder, right.getValue().getDataStructure()),
                         renameFilterColumns(filtering, right.getKey()),
-                        components
+                        components,
+                        configuration
                 );
                 originals.add(rightStream);
                 closer.register(rightStream);
@@ -133,7 +139,10 @@ public class OuterJoinOperation extends AbstractJoinOperation {
                                 new JoinKeyExtractor(right.getValue().getDataStructure(), predicate), predicate,
                                 new OuterJoinMerger(this, right.getValue()),
                                 result.spliterator(),
-                                rightStream.spliterator()
+                                rightStream.spliterator(),
+                                memory,
+                                MemoryReservation::estimate,
+                                MemoryReservation::estimate
                         ), false
                 );
 
@@ -150,13 +159,14 @@ public class OuterJoinOperation extends AbstractJoinOperation {
             });
 
             return new VtlStream(
-                    this,
+                    this, configuration,
                     delegate,
                     originals.build(),
                     orders,
                     filtering,
                     requiredOrder,
-                    filtering
+                    filtering,
+                    memory
             );
 
         } catch (Exception ex) {
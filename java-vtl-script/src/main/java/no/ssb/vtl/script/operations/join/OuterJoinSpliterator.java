@@ -24,6 +24,7 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Queues;
 import com.google.common.math.LongMath;
+import no.ssb.vtl.script.support.MemoryReservation;
 
 import java.util.Comparator;
 import java.util.Deque;
@@ -32,6 +33,9 @@ import java.util.Spliterators;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 public class OuterJoinSpliterator<L, R, K, O> implements Spliterator<O> {
 
@@ -48,6 +52,12 @@ public class OuterJoinSpliterator<L, R, K, O> implements Spliterator<O> {
     private Deque<L> leftBuffer = Queues.newArrayDeque();
     private Deque<R> rightBuffer = Queues.newArrayDeque();
 
+    // The rows in the buffers, released when the buffers are cleared.
+    private final MemoryReservation leftMemory;
+    private final MemoryReservation rightMemory;
+    private final ToLongFunction<? super L> leftWeigher;
+    private final ToLongFunction<? super R> rightWeigher;
+
     private Deque<O> outputBuffer = Queues.newArrayDeque();
 
     public OuterJoinSpliterator(
@@ -58,6 +68,29 @@ public class OuterJoinSpliterator<L, R, K, O> implements Spliterator<O> {
             Spliterator<L> leftSpliterator,
             Spliterator<R> rightSpliterator
     ) {
+        this(leftKeyExtractor, rightKeyExtractor, predicate, merger, leftSpliterator, rightSpliterator,
+                MemoryReservation.create(null, "OuterJoinSpliterator"), value -> 0, value -> 0);
+    }
+
+    /**
+     * Creates a spliterator that reserves the size of the rows sharing the same key while
+     * they are buffered.
+     */
+    public OuterJoinSpliterator(
+            Function<L, K> leftKeyExtractor,
+            Function<R, K> rightKeyExtractor,
+            Comparator<K> predicate,
+            BiFunction<L, R, O> merger,
+            Spliterator<L> leftSpliterator,
+            Spliterator<R> rightSpliterator,
+            MemoryReservation memory,
+            ToLongFunction<? super L> leftWeigher,
+            ToLongFunction<? super R> rightWeigher
+    ) {
+        this.leftMemory = memory.newChild();
+        this.rightMemory = memory.newChild();
+        this.leftWeigher = checkNotNull(leftWeigher);
+        this.rightWeigher = checkNotNull(rightWeigher);
         this.predicate = Comparator.nullsFirst(predicate);
         this.merger = merger;
         this.leftKeyExtractor = leftKeyExtractor;
@@ -69,32 +102,39 @@ public class OuterJoinSpliterator<L, R, K, O> implements Spliterator<O> {
         this.rightIterator = Iterators.peekingIterator(Spliterators.iterator(this.rightSpliterator));
     }
 
-    private <I> K advance(PeekingIterator<I> source, Deque<I> buffer, Function<I, K> keyExtractor, Comparator<K> predicate) {
+    private <I> K advance(PeekingIterator<I> source, Deque<I> buffer, Function<I, K> keyExtractor, Comparator<K> predicate,
+                          MemoryReservation memory, ToLongFunction<? super I> weigher) {
         buffer.clear();
+        memory.releaseAll();
 
         if (!source.hasNext())
             return null;
 
-        buffer.addLast(source.next());
+        addLast(buffer, source.next(), memory, weigher);
         K key = keyExtractor.apply(buffer.getFirst());
         while (source.hasNext() && predicate.compare(key, keyExtractor.apply(source.peek())) == 0) {
-            buffer.addLast(source.next());
+            addLast(buffer, source.next(), memory, weigher);
         }
         return key;
     }
 
+    private static <I> void addLast(Deque<I> buffer, I value, MemoryReservation memory, ToLongFunction<? super I> weigher) {
+        memory.reserve(weigher.applyAsLong(value));
+        buffer.addLast(value);
+    }
+
     private K advanceRight() {
         while (!rightBuffer.isEmpty()) {
             outputBuffer.addLast(merger.apply(null, rightBuffer.removeFirst()));
         }
-        return advance(rightIterator, rightBuffer, rightKeyExtractor, predicate);
+        return advance(rightIterator, rightBuffer, rightKeyExtractor, predicate, rightMemory, rightWeigher);
     }
 
     private K advanceLeft() {
         while (!leftBuffer.isEmpty()) {
             outputBuffer.addLast(merger.apply(leftBuffer.removeFirst(), null));
         }
-        return advance(leftIterator, leftBuffer, leftKeyExtractor, predicate);
+        return advance(leftIterator, leftBuffer, leftKeyExtractor, predicate, leftMemory, leftWeigher);
     }
 
     @Override
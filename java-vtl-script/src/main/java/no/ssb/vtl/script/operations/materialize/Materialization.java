@@ -0,0 +1,213 @@
+package no.ssb.vtl.script.operations.materialize;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Streams;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.Ordering;
+import no.ssb.vtl.script.support.MemoryReservation;
+import no.ssb.vtl.script.support.SpillFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The rows of a dataset, kept in memory or spilled to disk when too large.
+ * <p>
+ * The rows are stored in the ordering they were computed with and always returned as stored.
+ * Other orderings are sorted by the {@link no.ssb.vtl.script.operations.VtlStream}, so the weight
+ * of the entry accounts for everything it keeps in memory.
+ * <p>
+ * The spill file is reference counted: the cache holds one reference until the entry is
+ * evicted and each opened stream holds one until it is closed. The file is deleted when the
+ * last reference is released.
+ */
+final class Materialization implements AutoCloseable {
+
+    private final Ordering ordering;
+    private final ImmutableList<DataPoint> rows;
+    private final SpillFile spillFile;
+    private final long rowCount;
+    private final long cellCount;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private Materialization(Ordering ordering, ImmutableList<DataPoint> rows, SpillFile spillFile,
+                            long rowCount, long cellCount) {
+        this.ordering = checkNotNull(ordering);
+        this.rows = rows;
+        this.spillFile = spillFile;
+        this.rowCount = rowCount;
+        this.cellCount = cellCount;
+    }
+
+    /**
+     * Consumes the stream. The rows are spilled once they hold more than spillThreshold cells or
+     * cannot be reserved in memory. Once created, the rows are accounted for by the
+     * {@link MaterializationCache} and the reservation is released.
+     */
+    static Materialization create(Stream<DataPoint> data, Ordering ordering, long spillThreshold, Path spillDirectory,
+                                  MemoryReservation memory) {
+        List<DataPoint> rows = new ArrayList<>();
+        SpillFile spillFile = null;
+        long rowCount = 0;
+        long cellCount = 0;
+        try (Stream<DataPoint> stream = data) {
+            Iterator<DataPoint> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                DataPoint dataPoint = iterator.next();
+                rowCount++;
+                cellCount += dataPoint.size();
+                if (spillFile != null) {
+                    spillFile.write(dataPoint);
+                } else {
+                    boolean reserved = memory.tryReserve(MemoryReservation.estimate(dataPoint));
+                    rows.add(DataPoint.create(dataPoint));
+                    if (cellCount > spillThreshold || !reserved) {
+                        spillFile = SpillFile.create(spillDirectory);
+                        rows.forEach(spillFile::write);
+                        rows = null;
+                        memory.releaseAll();
+                    }
+                }
+            }
+            memory.releaseAll();
+            if (spillFile != null) {
+                // Seal the file so that the readers can be opened concurrently.
+                spillFile.reader().close();
+                memory.recordSpill(spillFile.getByteCount());
+                return new Materialization(ordering, null, spillFile, rowCount, cellCount);
+            }
+            return new Materialization(ordering, ImmutableList.copyOf(rows), null, rowCount, cellCount);
+        } catch (IOException | RuntimeException e) {
+            memory.releaseAll();
+            if (spillFile != null) {
+                try {
+                    spillFile.close();
+                } catch (IOException ioe) {
+                    e.addSuppressed(ioe);
+                }
+            }
+            if (e instanceof IOException) {
+                throw new UncheckedIOException((IOException) e);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    /**
+     * Returns the ordering of the rows returned by {@link #open()}.
+     */
+    Ordering getActualOrdering(Ordering requested) {
+        return requested.equals(Ordering.ANY) ? requested : ordering;
+    }
+
+    /**
+     * Returns a copy of the rows, or empty if the spill file was already deleted. The spill file
+     * is kept until the stream is closed.
+     */
+    Optional<Stream<DataPoint>> open() {
+        if (isSpilled()) {
+            if (!retain()) {
+                return Optional.empty();
+            }
+            SpillFile.Reader reader;
+            try {
+                reader = spillFile.reader();
+            } catch (RuntimeException e) {
+                release();
+                throw e;
+            }
+            return Optional.of(Streams.stream(reader).onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    release();
+                }
+            }));
+        }
+        return Optional.of(rows.stream().map(DataPoint::create));
+    }
+
+    private boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    private void release() {
+        if (references.decrementAndGet() == 0 && spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of cells held in memory.
+     */
+    long weight() {
+        return isSpilled() ? 1 : Math.max(1, cellCount);
+    }
+
+    /**
+     * Releases the reference of the cache. The spill file is deleted once the opened streams
+     * are closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            try {
+                release();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
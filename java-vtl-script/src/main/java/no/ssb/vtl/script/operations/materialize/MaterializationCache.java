@@ -0,0 +1,108 @@
+package no.ssb.vtl.script.operations.materialize;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Cache of the rows of the {@link MaterializedOperation}s.
+ * <p>
+ * Entries are keyed by the identity of the operation and are weighted by the number of
+ * cells they hold in memory. The least recently used entries are evicted when the total
+ * weight exceeds the maximum; an evicted operation is computed again the next time it is
+ * read. Datasets larger than the spill threshold are written to a {@link no.ssb.vtl.script.support.SpillFile}
+ * and only weigh one.
+ */
+public final class MaterializationCache {
+
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 10_000_000;
+    public static final long DEFAULT_SPILL_THRESHOLD = 1_000_000;
+
+    private final Cache<MaterializedOperation, Materialization> cache;
+    private final long spillThreshold;
+
+    public MaterializationCache(long maximumWeight, long spillThreshold) {
+        checkArgument(maximumWeight >= 0, "maximum weight cannot be negative");
+        checkArgument(spillThreshold >= 0, "spill threshold cannot be negative");
+        this.spillThreshold = spillThreshold;
+        this.cache = CacheBuilder.newBuilder()
+                .weakKeys()
+                .maximumWeight(maximumWeight)
+                .weigher((MaterializedOperation key, Materialization value) -> (int) Math.min(Integer.MAX_VALUE, value.weight()))
+                .removalListener((RemovalListener<MaterializedOperation, Materialization>) notification -> {
+                    try {
+                        notification.getValue().close();
+                    } catch (IOException ignored) {
+                        // The spill file is deleted on a best effort basis.
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Returns the rows of the operation, computing them with the loader if absent. Concurrent
+     * calls for the same operation wait for a single computation.
+     */
+    Materialization get(MaterializedOperation operation, Callable<Materialization> loader) {
+        try {
+            return cache.get(checkNotNull(operation), loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the rows of the operation if cached, without affecting the statistics.
+     */
+    Materialization getIfPresent(MaterializedOperation operation) {
+        return cache.asMap().get(operation);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
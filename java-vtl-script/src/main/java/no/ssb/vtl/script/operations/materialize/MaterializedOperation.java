@@ -0,0 +1,154 @@
+package no.ssb.vtl.script.operations.materialize;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.base.MoreObjects;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.Filtering;
+import no.ssb.vtl.model.FilteringSpecification;
+import no.ssb.vtl.model.Ordering;
+import no.ssb.vtl.model.OrderingSpecification;
+import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
+import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
+import no.ssb.vtl.script.operations.VtlStream;
+import no.ssb.vtl.script.support.MemoryReservation;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Computes the dataset once and serves the following reads from a {@link MaterializationCache}.
+ * <p>
+ * Used for the datasets that are read by several statements. The first unfiltered read
+ * computes the child with all its components, in the ordering of that read. Filtered reads
+ * are served from the cache if the rows are already there and pushed down to the child
+ * otherwise.
+ */
+public class MaterializedOperation extends AbstractUnaryDatasetOperation {
+
+    private final MaterializationCache cache;
+
+    public MaterializedOperation(Dataset dataset, MaterializationCache cache) {
+        super(checkNotNull(dataset, "the dataset was null"));
+        this.cache = checkNotNull(cache);
+    }
+
+    @Override
+    protected DataStructure computeDataStructure() {
+        return getChild().getDataStructure();
+    }
+
+    @Override
+    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
+        if (filtering.getOperator() != FilteringSpecification.Operator.TRUE) {
+            // Do not give up the filter pushdown to materialize the dataset.
+            Materialization materialization = cache.getIfPresent(this);
+            Optional<Stream<DataPoint>> rows = materialization != null
+                    ? materialization.open() : Optional.empty();
+            if (!rows.isPresent()) {
+                return getChild().computeData(ordering, filtering, components, configuration);
+            }
+            return stream(materialization, rows.get(), ordering, filtering, configuration,
+                    reserveMemory(configuration));
+        }
+
+        MemoryReservation memory = reserveMemory(configuration);
+        Materialization materialization = cache.get(this, () -> {
+            VtlOrdering childOrdering = (VtlOrdering) computeRequiredOrdering(ordering);
+            Stream<DataPoint> data = getChild().computeData(
+                    childOrdering, Filtering.ALL, getChild().getDataStructure().keySet(), configuration
+            );
+            return Materialization.create(
+                    data, childOrdering, cache.getSpillThreshold(), configuration.getSpillDirectory(), memory
+            );
+        });
+
+        Optional<Stream<DataPoint>> rows = materialization.open();
+        if (!rows.isPresent()) {
+            // Evicted before it could be read.
+            memory.close();
+            return getChild().computeData(ordering, filtering, components, configuration);
+        }
+        return stream(materialization, rows.get(), ordering, filtering, configuration, memory);
+    }
+
+    private VtlStream stream(Materialization materialization, Stream<DataPoint> rows, Ordering ordering,
+                             Filtering filtering, VtlConfiguration configuration, MemoryReservation memory) {
+        return new VtlStream(this, configuration, rows,
+                Collections.emptyList(),
+                ordering,
+                filtering,
+                materialization.getActualOrdering(ordering),
+                Filtering.ALL,
+                memory
+        );
+    }
+
+    /**
+     * Returns true if the rows are currently cached.
+     */
+    public boolean isMaterialized() {
+        return cache.getIfPresent(this) != null;
+    }
+
+    @Override
+    public Optional<Map<String, Integer>> getDistinctValuesCount() {
+        return getChild().getDistinctValuesCount();
+    }
+
+    @Override
+    public Optional<Long> getSize() {
+        Materialization materialization = cache.getIfPresent(this);
+        if (materialization != null) {
+            return Optional.of(materialization.getRowCount());
+        }
+        return getChild().getSize();
+    }
+
+    /**
+     * The child is computed unfiltered when materialized.
+     */
+    @Override
+    public FilteringSpecification computeRequiredFiltering(FilteringSpecification filtering) {
+        return Filtering.ALL;
+    }
+
+    @Override
+    public OrderingSpecification computeRequiredOrdering(OrderingSpecification ordering) {
+        return new VtlOrdering(ordering, getChild().getDataStructure());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("materialized", isMaterialized())
+                .toString();
+    }
+}
@@ -54,6 +54,7 @@ import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
 import no.ssb.vtl.script.operations.VtlStream;
 
@@ -106,6 +107,10 @@ public class RenameOperation extends AbstractUnaryDatasetOperation {
 
     @Override
     public FilteringSpecification computeRequiredFiltering(FilteringSpecification filtering) {
+        return VtlFiltering.using(getChild()).transpose(renameFilterColumns(filtering));
+    }
+
+    private VtlFiltering renameFilterColumns(FilteringSpecification filtering) {
         if (filtering == Filtering.ALL) {
             return VtlFiltering.literal(false, FilteringSpecification.Operator.TRUE, null, null);
         }
@@ -114,7 +119,7 @@ public class RenameOperation extends AbstractUnaryDatasetOperation {
         if (filtering.getOperator() == FilteringSpecification.Operator.OR || filtering.getOperator() == FilteringSpecification.Operator.AND) {
             List<VtlFiltering> operands = new ArrayList<>();
             for (FilteringSpecification operand : filtering.getOperands()) {
-                operands.add((VtlFiltering) computeRequiredFiltering(operand));
+                operands.add(renameFilterColumns(operand));
             }
             return VtlFiltering.nary(negated, operator, operands);
         } else {
@@ -154,15 +159,16 @@ public class RenameOperation extends AbstractUnaryDatasetOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering oldOrdering, Filtering oldFiltering, Set<String> oldComponents) {
+    public Stream<DataPoint> computeData(Ordering oldOrdering, Filtering oldFiltering, Set<String> oldComponents,
+                                         VtlConfiguration configuration) {
         VtlFiltering childFiltering = (VtlFiltering) computeRequiredFiltering(oldFiltering);
         VtlOrdering childOrdering = (VtlOrdering) computeRequiredOrdering(oldOrdering);
 
         Set<String> components = renameComponent(oldComponents);
 
         // No post filter/order since rename does not change the structure.
-        Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, components);
-        return new VtlStream(this, original,
+        Stream<DataPoint> original = getChild().computeData(childOrdering, childFiltering, components, configuration);
+        return new VtlStream(this, configuration, original,
                 original,
                 oldOrdering,
                 oldFiltering,
@@ -20,9 +20,10 @@ package no.ssb.vtl.script.operations.unfold;
  * =========================LICENSE_END==================================
  */
 
-import com.codepoetics.protonpack.StreamUtils;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
 import no.ssb.vtl.model.Component;
 import no.ssb.vtl.model.Component.Role;
 import no.ssb.vtl.model.DataPoint;
@@ -32,23 +33,30 @@ import no.ssb.vtl.model.Filtering;
 import no.ssb.vtl.model.FilteringSpecification;
 import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
-import no.ssb.vtl.model.VTLObject;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.AbstractUnaryDatasetOperation;
 import no.ssb.vtl.script.operations.VtlStream;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Unfold clause.
+ * <p>
+ * The rows are requested sorted by identifiers and unfolded group by group, see {@link UnfoldSpliterator}.
+ * The resulting stream is parallel if the child stream is.
  */
 public class UnfoldOperation extends AbstractUnaryDatasetOperation {
 
@@ -67,63 +75,22 @@ public class UnfoldOperation extends AbstractUnaryDatasetOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components) {
-
-        DataStructure dataStructure = getDataStructure();
-        DataStructure childStructure = getChild().getDataStructure();
+    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
 
         VtlFiltering childFiltering = (VtlFiltering) computeRequiredFiltering(filtering);
         VtlOrdering childOrdering = (VtlOrdering) computeRequiredOrdering(ordering);
 
-        // Filter out the dimensionName and measureName to get the predicate.
-        String dimensionName = childStructure.getName(dimension);
-        String measureName = childStructure.getName(measure);
-        Ordering predicate = new VtlOrdering(
-                Maps.filterKeys(
-                        childOrdering.toMap(),
-                        column -> !measureName.equals(column) && !dimensionName.equals(column)
-                ),
-                childStructure
-        );
-
         // Try to get data sorted as required. If impossible, sort it.
         Stream<DataPoint> sortedStream = getChild()
-                .computeData(childOrdering, childFiltering, components);
-
-
-        Stream<DataPoint> unfoldedStream = StreamUtils.aggregate(sortedStream, (left, right) -> {
-            // Checks if the previous ids (except the one with unfold on) where different.
-            return predicate.compare(left, right) == 0;
-        }).map(dataPoints -> {
-
-            // TODO: remove asMap() (instantiate too many objects).
-            DataPoint result = DataPoint.create(dataStructure.size());
-            Map<Component, VTLObject> resultAsMap = dataStructure.asMap(result);
-
-            for (DataPoint dataPoint : dataPoints) {
-                Map<Component, VTLObject> dataPointAsMap = childStructure.asMap(dataPoint);
-
-                VTLObject unfoldedValue = null;
-                Component unfoldedComponent = null;
-
-                for (Component component : dataPointAsMap.keySet()) {
-                    if (component.equals(dimension)) {
-                        VTLObject value = dataPointAsMap.get(component);
-                        if (elements.contains(value.get())) {
-                            unfoldedComponent = dataStructure.get(value.get());
-                        }
-                    } else if (component.equals(measure)) {
-                        unfoldedValue = dataPointAsMap.get(component);
-                    } else if (component.isIdentifier()) {
-                        resultAsMap.put(component, dataPointAsMap.get(component));
-                    }
-                }
-                resultAsMap.put(unfoldedComponent, unfoldedValue);
-            }
-            return result;
-        });
+                .computeData(childOrdering, childFiltering, components, configuration);
+
+        Stream<DataPoint> unfoldedStream = StreamSupport.stream(
+                createSpliterator(sortedStream.spliterator(), UnfoldSpliterator.DEFAULT_BATCH_SIZE),
+                sortedStream.isParallel()
+        );
 
-        return new VtlStream(this, unfoldedStream,
+        return new VtlStream(this, configuration, unfoldedStream,
                 sortedStream,
                 ordering,
                 filtering,
@@ -132,6 +99,40 @@ public class UnfoldOperation extends AbstractUnaryDatasetOperation {
         );
     }
 
+    /**
+     * Resolves the columns once and returns a spliterator that unfolds the sorted rows using indices.
+     */
+    @VisibleForTesting
+    UnfoldSpliterator createSpliterator(Spliterator<DataPoint> sorted, int batchSize) {
+        DataStructure dataStructure = getDataStructure();
+        DataStructure childStructure = getChild().getDataStructure();
+
+        List<Integer> identifierSource = new ArrayList<>();
+        List<Integer> identifierTarget = new ArrayList<>();
+        for (Map.Entry<String, Component> entry : dataStructure.entrySet()) {
+            if (entry.getValue().isIdentifier()) {
+                identifierSource.add(childStructure.indexOf(entry.getKey()));
+                identifierTarget.add(dataStructure.indexOf(entry.getKey()));
+            }
+        }
+
+        Map<Object, Integer> elementIndex = Maps.newHashMapWithExpectedSize(elements.size());
+        for (String element : elements) {
+            elementIndex.put(element, dataStructure.indexOf(element));
+        }
+
+        return new UnfoldSpliterator(
+                sorted,
+                dataStructure.size(),
+                Ints.toArray(identifierSource),
+                Ints.toArray(identifierTarget),
+                childStructure.indexOf(childStructure.getName(dimension)),
+                childStructure.indexOf(childStructure.getName(measure)),
+                elementIndex,
+                batchSize
+        );
+    }
+
     @Override
     public Optional<Map<String, Integer>> getDistinctValuesCount() {
         return Optional.empty();
@@ -0,0 +1,160 @@
+package no.ssb.vtl.script.operations.unfold;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.VTLObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Unfolds a stream of data points sorted by identifiers.
+ * <p>
+ * Consecutive rows sharing the same identifier values form a group and are unfolded into one
+ * data point. The index arrays and the element lookup table are computed once by the
+ * {@link UnfoldOperation} so that each row costs one hash lookup and one array store.
+ * <p>
+ * {@link #trySplit()} buffers whole groups, allowing a parallel stream to unfold them concurrently.
+ */
+final class UnfoldSpliterator extends Spliterators.AbstractSpliterator<DataPoint> implements Consumer<DataPoint> {
+
+    static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final Spliterator<DataPoint> source;
+    private final int size;
+    private final int[] identifierSource;
+    private final int[] identifierTarget;
+    private final int dimensionIndex;
+    private final int measureIndex;
+    private final Map<Object, Integer> elementIndex;
+    private final int batchSize;
+
+    private DataPoint pending;
+
+    /**
+     * @param source           the rows, sorted by identifiers
+     * @param size             the size of the unfolded data points
+     * @param identifierSource the index of the identifiers in the rows
+     * @param identifierTarget the index of the identifiers in the unfolded data points
+     * @param dimensionIndex   the index of the dimension in the rows
+     * @param measureIndex     the index of the measure in the rows
+     * @param elementIndex     the index in the unfolded data points of each element
+     * @param batchSize        the minimum number of rows in a split
+     */
+    UnfoldSpliterator(Spliterator<DataPoint> source, int size, int[] identifierSource, int[] identifierTarget,
+                      int dimensionIndex, int measureIndex, Map<Object, Integer> elementIndex, int batchSize) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.source = source;
+        this.size = size;
+        this.identifierSource = identifierSource;
+        this.identifierTarget = identifierTarget;
+        this.dimensionIndex = dimensionIndex;
+        this.measureIndex = measureIndex;
+        this.elementIndex = elementIndex;
+        this.batchSize = batchSize;
+    }
+
+    private UnfoldSpliterator(UnfoldSpliterator parent, Spliterator<DataPoint> source) {
+        this(source, parent.size, parent.identifierSource, parent.identifierTarget, parent.dimensionIndex,
+                parent.measureIndex, parent.elementIndex, parent.batchSize);
+    }
+
+    @Override
+    public void accept(DataPoint dataPoint) {
+        pending = dataPoint;
+    }
+
+    private boolean fetch() {
+        return pending != null || source.tryAdvance(this);
+    }
+
+    private boolean sameGroup(DataPoint left, DataPoint right) {
+        for (int index : identifierSource) {
+            if (!Objects.equals(left.get(index), right.get(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void unfold(DataPoint result, DataPoint row) {
+        VTLObject element = row.get(dimensionIndex);
+        Integer index = elementIndex.get(element.get());
+        if (index != null) {
+            result.set(index, row.get(measureIndex));
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super DataPoint> action) {
+        if (!fetch()) {
+            return false;
+        }
+
+        DataPoint first = pending;
+        pending = null;
+
+        DataPoint result = DataPoint.create(size);
+        for (int i = 0; i < identifierSource.length; i++) {
+            result.set(identifierTarget[i], first.get(identifierSource[i]));
+        }
+        unfold(result, first);
+
+        while (source.tryAdvance(this)) {
+            if (!sameGroup(first, pending)) {
+                break;
+            }
+            unfold(result, pending);
+            pending = null;
+        }
+
+        action.accept(result);
+        return true;
+    }
+
+    @Override
+    public Spliterator<DataPoint> trySplit() {
+        if (source.estimateSize() <= batchSize || !fetch()) {
+            return null;
+        }
+
+        // Only cut between two groups.
+        List<DataPoint> batch = new ArrayList<>(batchSize);
+        while (true) {
+            DataPoint last = pending;
+            batch.add(last);
+            pending = null;
+            if (!source.tryAdvance(this)) {
+                break;
+            }
+            if (batch.size() >= batchSize && !sameGroup(last, pending)) {
+                break;
+            }
+        }
+        return new UnfoldSpliterator(this, batch.spliterator());
+    }
+}
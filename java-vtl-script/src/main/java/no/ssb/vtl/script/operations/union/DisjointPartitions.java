@@ -0,0 +1,126 @@
+package no.ssb.vtl.script.operations.union;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.Filtering;
+import no.ssb.vtl.model.FilteringSpecification;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.script.operations.AbstractDatasetOperation;
+import no.ssb.vtl.script.operations.drop.KeepOperation;
+import no.ssb.vtl.script.operations.filter.FilterOperation;
+import no.ssb.vtl.script.operations.join.AbstractJoinOperation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tries to prove that datasets are disjoint partitions.
+ * <p>
+ * The datasets are disjoint if they are all filtered on an equality with a different value of the same
+ * identifier. Only the filters found by walking down operations that keep the identifiers unchanged
+ * (filter, keep, drop and single dataset joins) are considered.
+ */
+final class DisjointPartitions {
+
+    private DisjointPartitions() {
+        // Utility class.
+    }
+
+    /**
+     * Returns true if the given operations cannot contain the same identifiers.
+     */
+    static boolean prove(List<? extends AbstractDatasetOperation> operations) {
+        if (operations.size() < 2) {
+            return true;
+        }
+
+        DataStructure structure = operations.get(0).getDataStructure();
+        List<Map<String, VTLObject>> fixedValues = new ArrayList<>();
+        for (AbstractDatasetOperation operation : operations) {
+            fixedValues.add(fixedIdentifierValues(operation));
+        }
+
+        for (Map.Entry<String, Component> column : structure.entrySet()) {
+            if (!column.getValue().isIdentifier()) {
+                continue;
+            }
+            Set<VTLObject> values = new HashSet<>();
+            for (Map<String, VTLObject> fixed : fixedValues) {
+                VTLObject value = fixed.get(column.getKey());
+                if (value == null || value.get() == null || !values.add(value)) {
+                    break;
+                }
+            }
+            if (values.size() == operations.size()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the identifier values that all the rows of the operation have.
+     */
+    static Map<String, VTLObject> fixedIdentifierValues(AbstractDatasetOperation operation) {
+        Map<String, VTLObject> fixed = new HashMap<>();
+        AbstractDatasetOperation current = operation;
+        while (current != null) {
+            if (current instanceof FilterOperation) {
+                FilterOperation filter = (FilterOperation) current;
+                try {
+                    collectEqualities(filter.computeRequiredFiltering(Filtering.ALL), fixed);
+                } catch (RuntimeException e) {
+                    // The predicate cannot be expressed as a filter specification.
+                }
+                current = filter.getChild();
+            } else if (current instanceof KeepOperation) {
+                current = ((KeepOperation) current).getChild();
+            } else if (current instanceof AbstractJoinOperation && current.getChildren().size() == 1) {
+                current = current.getChildren().get(0);
+            } else {
+                current = null;
+            }
+        }
+
+        DataStructure structure = operation.getDataStructure();
+        fixed.keySet().removeIf(column -> !structure.containsKey(column) || !structure.get(column).isIdentifier());
+        return fixed;
+    }
+
+    private static void collectEqualities(FilteringSpecification filtering, Map<String, VTLObject> fixed) {
+        if (filtering.isNegated() != null && filtering.isNegated()) {
+            return;
+        }
+        if (filtering.getOperator() == FilteringSpecification.Operator.EQ) {
+            fixed.putIfAbsent(filtering.getColumn(), filtering.getValue());
+        } else if (filtering.getOperator() == FilteringSpecification.Operator.AND) {
+            for (FilteringSpecification operand : filtering.getOperands()) {
+                collectEqualities(operand, fixed);
+            }
+        }
+    }
+}
@@ -47,16 +47,16 @@ public class DuplicateChecker implements UnaryOperator<DataPoint> {
     @Override
     public DataPoint apply(DataPoint dataPoint) {
         if (last != null && order.compare(last, dataPoint) == 0)
-                throwDuplicateError(dataPoint);
+                throw duplicateError(structure, dataPoint);
         return last = dataPoint;
     }
 
-    private void throwDuplicateError(DataPoint o) {
+    static VTLRuntimeException duplicateError(DataStructure structure, DataPoint o) {
         //TODO: define an error code encoding. See VTL User Manuel "Constraints and errors"
         Map<Component, VTLObject> row = structure.asMap(o);
         String rowAsString = row.keySet().stream()
                 .map(k -> k.getRole() + ":" + row.get(k))
                 .collect(Collectors.joining("\n"));
-        throw new VTLRuntimeException(String.format("The resulting dataset from a union contains duplicates. Duplicate row: %s", rowAsString), "VTL-1xxx", o);
+        return new VTLRuntimeException(String.format("The resulting dataset from a union contains duplicates. Duplicate row: %s", rowAsString), "VTL-1xxx", o);
     }
 }
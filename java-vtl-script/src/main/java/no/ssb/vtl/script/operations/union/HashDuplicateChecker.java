@@ -0,0 +1,68 @@
+package no.ssb.vtl.script.operations.union;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.VTLObject;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Checks for duplicates by keeping the identifiers of all the data points seen so far.
+ * <p>
+ * Unlike {@link DuplicateChecker} the data does not need to be sorted, at the cost of
+ * keeping all the keys in memory.
+ */
+public class HashDuplicateChecker implements UnaryOperator<DataPoint> {
+
+    private final DataStructure structure;
+    private final int[] identifierIndices;
+    private final Set<List<VTLObject>> seen = new HashSet<>();
+
+    public HashDuplicateChecker(DataStructure structure) {
+        this.structure = checkNotNull(structure);
+        this.identifierIndices = structure.values().stream()
+                .filter(Component::isIdentifier)
+                .map(structure::getName)
+                .mapToInt(structure::indexOf)
+                .toArray();
+    }
+
+    @Override
+    public DataPoint apply(DataPoint dataPoint) {
+        VTLObject[] key = new VTLObject[identifierIndices.length];
+        for (int i = 0; i < identifierIndices.length; i++) {
+            key[i] = dataPoint.get(identifierIndices[i]);
+        }
+        if (!seen.add(Arrays.asList(key))) {
+            throw DuplicateChecker.duplicateError(structure, dataPoint);
+        }
+        return dataPoint;
+    }
+}
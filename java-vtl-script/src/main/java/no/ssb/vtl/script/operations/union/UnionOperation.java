@@ -20,12 +20,11 @@ package no.ssb.vtl.script.operations.union;
  * =========================LICENSE_END==================================
  */
 
-import com.codepoetics.protonpack.StreamUtils;
-import com.codepoetics.protonpack.selectors.Selector;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.collect.Streams;
 import no.ssb.vtl.model.Component;
 import no.ssb.vtl.model.DataPoint;
 import no.ssb.vtl.model.DataStructure;
@@ -36,11 +35,11 @@ import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
 import no.ssb.vtl.model.VtlFiltering;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.AbstractDatasetOperation;
-import no.ssb.vtl.script.operations.DataPointMap;
-import no.ssb.vtl.script.operations.DataPointMapComparator;
 import no.ssb.vtl.script.operations.VtlStream;
-import no.ssb.vtl.script.operations.join.DataPointCapacityExpander;
+import no.ssb.vtl.script.support.LoserTreeSpliterator;
+import no.ssb.vtl.script.support.ParallelConcatSpliterator;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -49,6 +48,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -60,20 +60,56 @@ import static no.ssb.vtl.model.DataStructure.builder;
 
 /**
  * Union operator
+ * <p>
+ * By default the children are sorted on their identifiers and merged, which allows the operation
+ * to detect duplicates in constant memory. When no ordering is requested and the children are
+ * known to be disjoint, the children are instead concatenated. They are consumed concurrently
+ * when the configuration has an operation executor (see {@link ParallelConcatSpliterator} and
+ * {@link VtlConfiguration.Builder#operationExecutor(java.util.concurrent.Executor)}). The children are considered disjoint if the operation was
+ * created with the disjoint hint or if they are all filtered on different values of the same
+ * identifier (ie. yearly partitions). The concatenation can also be used on non disjoint children
+ * when the hash duplicate check is enabled (see {@link HashDuplicateChecker}).
  */
 public class UnionOperation extends AbstractDatasetOperation {
 
+    private final boolean disjoint;
+    private final boolean hashDuplicateCheck;
+    private Boolean provenDisjoint;
+
     @VisibleForTesting
     UnionOperation(Dataset... dataset) {
         this(asList(dataset));
     }
 
     public UnionOperation(List<Dataset> datasets) {
+        this(datasets, false, false);
+    }
+
+    /**
+     * @param disjoint           hint that the datasets do not share any identifiers.
+     * @param hashDuplicateCheck use hash based duplicate detection when the children are concatenated.
+     */
+    public UnionOperation(List<Dataset> datasets, boolean disjoint, boolean hashDuplicateCheck) {
         super(datasets);
         Iterator<Dataset> iterator = datasets.iterator();
         DataStructure firstDataStructure = iterator.next().getDataStructure();
         while (iterator.hasNext())
             checkDataStructures(firstDataStructure, iterator.next().getDataStructure());
+        this.disjoint = disjoint;
+        this.hashDuplicateCheck = hashDuplicateCheck;
+    }
+
+    /**
+     * Returns true if the children of this operation cannot contain the same identifiers.
+     */
+    public boolean isDisjoint() {
+        if (disjoint) {
+            return true;
+        }
+        if (provenDisjoint == null) {
+            provenDisjoint = DisjointPartitions.prove(getChildren());
+        }
+        return provenDisjoint;
     }
 
     @Override
@@ -166,56 +202,143 @@ public class UnionOperation extends AbstractDatasetOperation {
     }
 
     @Override
-    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components) {
+    public Stream<DataPoint> computeData(Ordering ordering, Filtering filtering, Set<String> components,
+                                         VtlConfiguration configuration) {
 
         // Optimization.
         if (getChildren().size() == 1)
-            return getChildren().get(0).computeData(ordering, filtering, components);
+            return getChildren().get(0).computeData(ordering, filtering, components, configuration);
 
         VtlFiltering childFiltering = (VtlFiltering) computeRequiredFiltering(filtering);
+
+        if (ordering.columns().isEmpty() && (hashDuplicateCheck || isDisjoint())) {
+            return concatenateData(ordering, filtering, childFiltering, components, configuration);
+        }
+
         VtlOrdering unionOrder = (VtlOrdering) computeRequiredOrdering(ordering);
 
         DataStructure structure = getDataStructure();
-        ImmutableList.Builder<Stream<DataPointMap>> streams = ImmutableList.builder();
+        VtlOrdering unionOrdering = new VtlOrdering(unionOrder, structure);
+
+        ImmutableList.Builder<Iterator<DataPoint>> sources = ImmutableList.builder();
         ImmutableList.Builder<Stream<DataPoint>> originals = ImmutableList.builder();
         for (AbstractDatasetOperation child : getChildren()) {
-
-            Stream<DataPointMap> dataPointMapStream = getChildDataStream(
-                    components, childFiltering, unionOrder, structure, originals, child);
-            streams.add(dataPointMapStream);
+            DataStructure childStructure = child.getDataStructure();
+            VtlOrdering childOrdering = new VtlOrdering(unionOrder,
+                    getNormalizedChildStructure(childStructure, structure));
+            VtlFiltering childFilter = VtlFiltering.using(child).transpose(childFiltering);
+
+            Stream<DataPoint> stream = child.computeData(childOrdering, childFilter, components, configuration);
+            originals.add(stream);
+
+            // Rows are converted to the union structure before the merge so that the
+            // tree can compare them with the union ordering.
+            int[] mapping = computeIndexMapping(childStructure, structure);
+            sources.add(reshape(stream, mapping).iterator());
         }
 
-        VtlOrdering unionOrdering = new VtlOrdering(unionOrder, structure);
-        Comparator<DataPointMap> comparing = new DataPointMapComparator(unionOrdering);
+        Stream<DataPoint> result = StreamSupport.stream(
+                new LoserTreeSpliterator<>(sources.build(), unionOrdering), false
+        ).map(new DuplicateChecker(unionOrdering, structure));
 
-        ImmutableList<Stream<DataPointMap>> build = streams.build();
+        return new VtlStream(
+                this, configuration, result, originals.build(), ordering, filtering, unionOrdering, childFiltering);
+    }
 
-        DataPointMap resultMap = new DataPointMap(structure);
-        Stream<DataPoint> result = StreamUtils.interleave(
-                createSelector(comparing), build)
-                .map(source -> {
-                    resultMap.setDataPoint(DataPoint.create(structure.size()));
-                    structure.keySet().forEach(col -> resultMap.set(col, source.get(col)));
-                    return resultMap.getDataPoint();
-                }).map(new DuplicateChecker(unionOrdering, structure));
+    /**
+     * Concatenates the children without sorting them.
+     */
+    private Stream<DataPoint> concatenateData(Ordering ordering, Filtering filtering, VtlFiltering childFiltering,
+                                              Set<String> components, VtlConfiguration configuration) {
+        DataStructure structure = getDataStructure();
+        Executor executor = configuration.getOperationExecutor();
+
+        // The children are consumed by the tasks and do not use the executor.
+        VtlConfiguration childConfiguration = executor == null
+                ? configuration
+                : configuration.toBuilder().operationExecutor(null).build();
+
+        ImmutableList.Builder<Stream<DataPoint>> originals = ImmutableList.builder();
+        List<Stream<DataPoint>> reshaped = new ArrayList<>();
+        for (AbstractDatasetOperation child : getChildren()) {
+            VtlFiltering unionFilter = VtlFiltering.using(child).transpose(childFiltering);
+            Stream<DataPoint> stream = child.computeData(Ordering.ANY, unionFilter, components, childConfiguration);
+            originals.add(stream);
+
+            reshaped.add(reshape(stream, computeIndexMapping(child.getDataStructure(), structure)));
+        }
+
+        Stream<DataPoint> result;
+        int parallelism = Math.min(configuration.getParallelism(), reshaped.size());
+        if (executor == null || parallelism < 2) {
+            result = concat(reshaped);
+        } else {
+            // Each task consumes every parallelism-th child.
+            List<Stream<DataPoint>> groups = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                List<Stream<DataPoint>> group = new ArrayList<>();
+                for (int j = i; j < reshaped.size(); j += parallelism) {
+                    group.add(reshaped.get(j));
+                }
+                groups.add(concat(group));
+            }
+            ParallelConcatSpliterator<DataPoint> spliterator = new ParallelConcatSpliterator<>(groups, executor);
+            result = StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+        }
+        if (hashDuplicateCheck) {
+            result = result.map(new HashDuplicateChecker(structure));
+        }
 
         return new VtlStream(
-                this, result, originals.build(), ordering, filtering, unionOrdering, childFiltering);
+                this, configuration, result, originals.build(), ordering, filtering, Ordering.ANY, childFiltering);
     }
 
-    private Stream<DataPointMap> getChildDataStream(Set<String> components, VtlFiltering childFiltering, VtlOrdering unionOrder, DataStructure structure, ImmutableList.Builder<Stream<DataPoint>> originals, AbstractDatasetOperation child) {
-        DataStructure childStructure = getNormalizedChildStructure(child.getDataStructure(), structure);
-        VtlOrdering unionOrdering = new VtlOrdering(unionOrder, childStructure);
-        VtlFiltering unionFilter = VtlFiltering.using(child).transpose(childFiltering);
+    /**
+     * Concatenates the streams one after the other. Closing the result closes all the streams.
+     */
+    @SuppressWarnings("unchecked")
+    private static Stream<DataPoint> concat(List<Stream<DataPoint>> streams) {
+        return Streams.concat(streams.toArray(new Stream[0]));
+    }
 
-        Stream<DataPoint> stream = child.computeData(unionOrdering, unionFilter, components)
-                .peek(new DataPointCapacityExpander(structure.size()));
+    /**
+     * Computes, for each column of the target structure, the index of the column in the source structure
+     * or -1 if the source does not have the column.
+     */
+    @VisibleForTesting
+    static int[] computeIndexMapping(DataStructure source, DataStructure target) {
+        int[] mapping = new int[target.size()];
+        int i = 0;
+        for (String column : target.keySet()) {
+            mapping[i++] = source.indexOf(column);
+        }
+        return mapping;
+    }
 
-        originals.add(stream);
+    private static boolean isIdentity(int[] mapping) {
+        for (int i = 0; i < mapping.length; i++) {
+            if (mapping[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        DataPointMap map = new DataPointMap(childStructure);
+    /**
+     * Converts the rows of the stream using the mapping computed by {@link #computeIndexMapping}.
+     */
+    private static Stream<DataPoint> reshape(Stream<DataPoint> stream, int[] mapping) {
+        return isIdentity(mapping) ? stream : stream.map(dataPoint -> reshape(dataPoint, mapping));
+    }
 
-        return StreamSupport.stream(stream.spliterator(), false).map(map::withDataPoint);
+    private static DataPoint reshape(DataPoint source, int[] mapping) {
+        DataPoint result = DataPoint.create(mapping.length);
+        for (int i = 0; i < mapping.length; i++) {
+            if (mapping[i] >= 0) {
+                result.set(i, source.get(mapping[i]));
+            }
+        }
+        return result;
     }
 
     /**
@@ -243,10 +366,6 @@ public class UnionOperation extends AbstractDatasetOperation {
         return builder().putAll(childStructureList).build();
     }
 
-    private <T> Selector<T> createSelector(Comparator<T> comparator) {
-        return new MinimumSelector<>(comparator);
-    }
-
     @Override
     public Optional<Map<String, Integer>> getDistinctValuesCount() {
         return Optional.empty();
@@ -0,0 +1,93 @@
+package no.ssb.vtl.script.report;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.Dataset;
+
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The execution of a script, similar to EXPLAIN ANALYZE: the datasets are read and the
+ * report of each contains the tree of the operations that computed it.
+ * <p>
+ * The times are only available when profiling is enabled, see
+ * {@link no.ssb.vtl.script.VTLScriptEngine#analyze(String)}.
+ * <p>
+ * The report is annotated for Jackson; serialize it with the ObjectMapper of the application.
+ */
+@JsonPropertyOrder({"totalNanos", "datasets"})
+public final class ExecutionReport {
+
+    private final long totalNanos;
+    private final ImmutableMap<String, OperatorReport> datasets;
+
+    private ExecutionReport(long totalNanos, ImmutableMap<String, OperatorReport> datasets) {
+        this.totalNanos = totalNanos;
+        this.datasets = datasets;
+    }
+
+    /**
+     * Reads the datasets, in order, and returns the report of their execution.
+     */
+    public static ExecutionReport analyze(Map<String, ? extends Dataset> datasets) {
+        ImmutableMap.Builder<String, OperatorReport> reports = ImmutableMap.builder();
+        long start = System.nanoTime();
+        for (Map.Entry<String, ? extends Dataset> entry : datasets.entrySet()) {
+            reports.put(entry.getKey(), analyze(entry.getValue()));
+        }
+        return new ExecutionReport(System.nanoTime() - start, reports.build());
+    }
+
+    /**
+     * Reads the dataset and returns the report of its execution.
+     */
+    public static OperatorReport analyze(Dataset dataset) {
+        Stream<DataPoint> stream = dataset.getData();
+        try (Stream<DataPoint> data = stream) {
+            data.forEach(dataPoint -> {
+            });
+        }
+        return OperatorReport.of(stream);
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public Map<String, OperatorReport> getDatasets() {
+        return datasets;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("totalNanos", totalNanos)
+                .add("datasets", datasets)
+                .toString();
+    }
+}
@@ -0,0 +1,220 @@
+package no.ssb.vtl.script.report;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.script.operations.AbstractDatasetOperation;
+import no.ssb.vtl.script.operations.VtlStream;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The execution of one operation, built from a consumed {@link VtlStream}.
+ * <p>
+ * The times are the estimates of the {@link VtlStream.Statistics} and are null when the stream
+ * was not profiled. The estimated rows are the size the operation announced before the
+ * execution, null if unknown.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+        "operation", "description",
+        "requestedOrdering", "actualOrdering", "requestedFiltering", "actualFiltering",
+        "estimatedRows", "actualRows", "cells",
+        "inclusiveNanos", "selfNanos", "filterNanos", "sortNanos",
+        "spilledBytes", "memoryPeak", "children"
+})
+public final class OperatorReport {
+
+    private static final String CONNECTOR = "Connector";
+
+    private final String operation;
+    private final String description;
+    private final String requestedOrdering;
+    private final String actualOrdering;
+    private final String requestedFiltering;
+    private final String actualFiltering;
+    private final Long estimatedRows;
+    private final Long actualRows;
+    private final Long cells;
+    private final Long inclusiveNanos;
+    private final Long selfNanos;
+    private final Long filterNanos;
+    private final Long sortNanos;
+    private final Long spilledBytes;
+    private final Long memoryPeak;
+    private final ImmutableList<OperatorReport> children;
+
+    private OperatorReport(VtlStream stream) {
+        AbstractDatasetOperation op = stream.getOperation();
+        VtlStream.Statistics statistics = stream.getStatistics();
+        this.operation = op.getClass().getSimpleName();
+        this.description = op.toString();
+        this.requestedOrdering = stream.getOrdering().toString();
+        this.actualOrdering = stream.getActualOrdering().toString();
+        this.requestedFiltering = stream.getFiltering().toString();
+        this.actualFiltering = stream.getActualFiltering().toString();
+        this.estimatedRows = estimateSize(op);
+        this.spilledBytes = statistics.getSpilledBytes();
+        this.memoryPeak = statistics.getMemoryPeak();
+        if (statistics.isProfiled()) {
+            this.actualRows = statistics.getRowCount();
+            this.cells = statistics.getCellCount();
+            this.inclusiveNanos = statistics.getInclusiveNanos();
+            this.selfNanos = statistics.getSelfNanos();
+            this.filterNanos = statistics.getFilterNanos();
+            this.sortNanos = statistics.getSortNanos();
+        } else {
+            this.actualRows = null;
+            this.cells = null;
+            this.inclusiveNanos = null;
+            this.selfNanos = null;
+            this.filterNanos = null;
+            this.sortNanos = null;
+        }
+
+        ImmutableList.Builder<OperatorReport> builder = ImmutableList.builder();
+        for (Stream<DataPoint> parent : stream.getParents()) {
+            builder.add(parent instanceof VtlStream ? new OperatorReport((VtlStream) parent) : new OperatorReport());
+        }
+        this.children = builder.build();
+    }
+
+    /**
+     * A stream that does not come from an operation.
+     */
+    private OperatorReport() {
+        this.operation = CONNECTOR;
+        this.description = null;
+        this.requestedOrdering = null;
+        this.actualOrdering = null;
+        this.requestedFiltering = null;
+        this.actualFiltering = null;
+        this.estimatedRows = null;
+        this.actualRows = null;
+        this.cells = null;
+        this.inclusiveNanos = null;
+        this.selfNanos = null;
+        this.filterNanos = null;
+        this.sortNanos = null;
+        this.spilledBytes = null;
+        this.memoryPeak = null;
+        this.children = ImmutableList.of();
+    }
+
+    /**
+     * Creates the report of a stream and the streams behind it.
+     */
+    public static OperatorReport of(Stream<DataPoint> stream) {
+        return stream instanceof VtlStream ? new OperatorReport((VtlStream) stream) : new OperatorReport();
+    }
+
+    private static Long estimateSize(AbstractDatasetOperation operation) {
+        try {
+            return operation.getSize().orElse(null);
+        } catch (RuntimeException e) {
+            // Estimates are best effort.
+            return null;
+        }
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getRequestedOrdering() {
+        return requestedOrdering;
+    }
+
+    public String getActualOrdering() {
+        return actualOrdering;
+    }
+
+    public String getRequestedFiltering() {
+        return requestedFiltering;
+    }
+
+    public String getActualFiltering() {
+        return actualFiltering;
+    }
+
+    public Long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public Long getActualRows() {
+        return actualRows;
+    }
+
+    public Long getCells() {
+        return cells;
+    }
+
+    public Long getInclusiveNanos() {
+        return inclusiveNanos;
+    }
+
+    public Long getSelfNanos() {
+        return selfNanos;
+    }
+
+    public Long getFilterNanos() {
+        return filterNanos;
+    }
+
+    public Long getSortNanos() {
+        return sortNanos;
+    }
+
+    public Long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    public Long getMemoryPeak() {
+        return memoryPeak;
+    }
+
+    public List<OperatorReport> getChildren() {
+        return children;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("operation", operation)
+                .add("estimatedRows", estimatedRows)
+                .add("actualRows", actualRows)
+                .add("inclusiveNanos", inclusiveNanos)
+                .add("selfNanos", selfNanos)
+                .add("children", children.size())
+                .toString();
+    }
+}
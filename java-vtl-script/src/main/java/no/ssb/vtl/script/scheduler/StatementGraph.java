@@ -0,0 +1,173 @@
+package no.ssb.vtl.script.scheduler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import no.ssb.vtl.parser.VTLBaseListener;
+import no.ssb.vtl.parser.VTLParser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static no.ssb.vtl.script.visitors.AbstractVariableVisitor.unEscape;
+
+/**
+ * Dependency graph of the statements of a script.
+ * <p>
+ * Every variable name that appears in the right hand side of an assignment is considered
+ * read by the statement. This over-approximates the reads (component names inside join
+ * bodies are included) but never misses one. A statement depends on every earlier
+ * statement that writes a variable it reads. Statements using put() depend on all earlier
+ * statements using put() so that side effects happen in script order.
+ * <p>
+ * Write after read and write after write conflicts do not create edges; the
+ * {@link StatementScheduler} evaluates each statement against its own view of the
+ * bindings and applies the writes in script order.
+ */
+public final class StatementGraph {
+
+    private final ImmutableList<VTLParser.StatementContext> statements;
+    private final ImmutableList<String> writes;
+    private final ImmutableList<ImmutableSet<String>> reads;
+    private final ImmutableList<ImmutableSortedSet<Integer>> dependencies;
+    private final int[] readerCounts;
+
+    private StatementGraph(List<VTLParser.StatementContext> statements) {
+        this.statements = ImmutableList.copyOf(statements);
+
+        ImmutableList.Builder<String> writes = ImmutableList.builder();
+        ImmutableList.Builder<ImmutableSet<String>> reads = ImmutableList.builder();
+        ImmutableList.Builder<Boolean> puts = ImmutableList.builder();
+        for (VTLParser.StatementContext statement : this.statements) {
+            VTLParser.AssignmentContext assignment = statement.assignment();
+            writes.add(unEscape(assignment.variable().getText()));
+
+            ReadListener listener = new ReadListener();
+            ParserRuleContext value = assignment.expression() != null
+                    ? assignment.expression()
+                    : assignment.datasetExpression();
+            ParseTreeWalker.DEFAULT.walk(listener, value);
+            reads.add(listener.variables.build());
+            puts.add(listener.put);
+        }
+        this.writes = writes.build();
+        this.reads = reads.build();
+
+        ImmutableList<Boolean> usesPut = puts.build();
+        ImmutableList.Builder<ImmutableSortedSet<Integer>> dependencies = ImmutableList.builder();
+        for (int i = 0; i < this.statements.size(); i++) {
+            ImmutableSortedSet.Builder<Integer> statementDependencies = ImmutableSortedSet.naturalOrder();
+            for (int j = 0; j < i; j++) {
+                if (this.reads.get(i).contains(this.writes.get(j)) || (usesPut.get(i) && usesPut.get(j))) {
+                    statementDependencies.add(j);
+                }
+            }
+            dependencies.add(statementDependencies.build());
+        }
+        this.dependencies = dependencies.build();
+
+        this.readerCounts = new int[this.statements.size()];
+        for (int i = 0; i < this.statements.size(); i++) {
+            String name = this.writes.get(i);
+            for (int j = i + 1; j < this.statements.size(); j++) {
+                if (this.reads.get(j).contains(name)) {
+                    readerCounts[i]++;
+                }
+                if (this.writes.get(j).equals(name)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Analyse the given statements.
+     */
+    public static StatementGraph create(List<VTLParser.StatementContext> statements) {
+        return new StatementGraph(checkNotNull(statements));
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public VTLParser.StatementContext getStatement(int index) {
+        return statements.get(index);
+    }
+
+    /**
+     * Returns the name of the variable assigned by the statement.
+     */
+    public String getWrite(int index) {
+        return writes.get(index);
+    }
+
+    /**
+     * Returns the names of the variables the statement may read.
+     */
+    public Set<String> getReads(int index) {
+        return reads.get(index);
+    }
+
+    /**
+     * Returns the indices of the statements that must complete before the statement.
+     */
+    public Set<Integer> getDependencies(int index) {
+        return dependencies.get(index);
+    }
+
+    /**
+     * Returns the number of later statements that read the value assigned by the statement.
+     */
+    public int getReaderCount(int index) {
+        return readerCounts[index];
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("writes", writes)
+                .add("dependencies", dependencies)
+                .toString();
+    }
+
+    private static final class ReadListener extends VTLBaseListener {
+
+        private final ImmutableSet.Builder<String> variables = ImmutableSet.builder();
+        private boolean put = false;
+
+        @Override
+        public void enterVariable(VTLParser.VariableContext ctx) {
+            variables.add(unEscape(ctx.getText()));
+        }
+
+        @Override
+        public void enterPutFunction(VTLParser.PutFunctionContext ctx) {
+            put = true;
+        }
+    }
+}
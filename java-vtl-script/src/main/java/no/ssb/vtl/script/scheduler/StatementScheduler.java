@@ -0,0 +1,188 @@
+package no.ssb.vtl.script.scheduler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.script.error.ContextualRuntimeException;
+import no.ssb.vtl.script.visitors.AssignmentVisitor;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Evaluates the statements of a {@link StatementGraph} concurrently.
+ * <p>
+ * A statement is submitted to the executor as soon as the statements it depends on are
+ * evaluated. Each statement sees its own bindings containing only the variables it reads,
+ * as they would be in a sequential evaluation. Once all the statements are evaluated the
+ * assignments are applied to the bindings and the errors reported in script order, so the
+ * outcome does not depend on the scheduling.
+ */
+public final class StatementScheduler {
+
+    private final Executor executor;
+    private final Function<Bindings, AssignmentVisitor> visitorFactory;
+    private final BiFunction<Integer, Object, Object> valueTransformer;
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param executor       the executor the statements are evaluated on. Should be bounded.
+     * @param visitorFactory creates the visitor used to evaluate a statement against its bindings.
+     */
+    public StatementScheduler(Executor executor, Function<Bindings, AssignmentVisitor> visitorFactory) {
+        this(executor, visitorFactory, (index, value) -> value);
+    }
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param executor         the executor the statements are evaluated on. Should be bounded.
+     * @param visitorFactory   creates the visitor used to evaluate a statement against its bindings.
+     * @param valueTransformer applied to the value of each statement, given its index, before
+     *                         it is visible to the other statements.
+     */
+    public StatementScheduler(Executor executor, Function<Bindings, AssignmentVisitor> visitorFactory,
+                              BiFunction<Integer, Object, Object> valueTransformer) {
+        this.executor = checkNotNull(executor);
+        this.visitorFactory = checkNotNull(visitorFactory);
+        this.valueTransformer = checkNotNull(valueTransformer);
+    }
+
+    /**
+     * Evaluates the statements and writes the results to the bindings.
+     *
+     * @param graph          the statements to evaluate.
+     * @param bindings       the bindings read and written by the script.
+     * @param errorConsumer  receives the errors, in script order.
+     * @return the value of the last successful statement.
+     */
+    public Object run(StatementGraph graph, Bindings bindings, Consumer<ContextualRuntimeException> errorConsumer) {
+        int size = graph.size();
+
+        // Values of the variables before the script runs.
+        Map<String, Object> initial = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            for (String name : graph.getReads(i)) {
+                if (bindings.containsKey(name)) {
+                    initial.put(name, bindings.get(name));
+                }
+            }
+        }
+
+        Outcome[] outcomes = new Outcome[size];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[size];
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            CompletableFuture<?>[] dependencies = graph.getDependencies(index).stream()
+                    .map(dependency -> futures[dependency])
+                    .toArray(CompletableFuture<?>[]::new);
+            futures[index] = CompletableFuture.allOf(dependencies).thenRunAsync(
+                    () -> outcomes[index] = evaluate(graph, index, initial, outcomes),
+                    executor
+            );
+        }
+        CompletableFuture.allOf(futures).join();
+
+        Object last = null;
+        for (int i = 0; i < size; i++) {
+            Outcome outcome = outcomes[i];
+            if (outcome.unexpected != null) {
+                throw outcome.unexpected;
+            } else if (outcome.error != null) {
+                errorConsumer.accept(outcome.error);
+            } else {
+                bindings.put(graph.getWrite(i), outcome.value);
+                last = outcome.value;
+            }
+        }
+        return last;
+    }
+
+    private Outcome evaluate(StatementGraph graph, int index, Map<String, Object> initial, Outcome[] outcomes) {
+        Bindings scope = new SimpleBindings(new HashMap<>());
+        for (String name : graph.getReads(index)) {
+            resolve(graph, index, name, initial, outcomes, scope);
+        }
+        try {
+            Object value = visitorFactory.apply(scope).visit(graph.getStatement(index));
+            return Outcome.success(valueTransformer.apply(index, value));
+        } catch (ContextualRuntimeException cre) {
+            return Outcome.error(cre);
+        } catch (RuntimeException re) {
+            return Outcome.unexpected(re);
+        }
+    }
+
+    /**
+     * Puts the value the variable would have before the statement in a sequential evaluation.
+     * All the earlier statements writing the variable are dependencies and thus completed.
+     */
+    private static void resolve(StatementGraph graph, int index, String name, Map<String, Object> initial,
+                                Outcome[] outcomes, Bindings scope) {
+        for (int i = index - 1; i >= 0; i--) {
+            if (name.equals(graph.getWrite(i)) && outcomes[i].isSuccess()) {
+                scope.put(name, outcomes[i].value);
+                return;
+            }
+        }
+        if (initial.containsKey(name)) {
+            scope.put(name, initial.get(name));
+        }
+    }
+
+    private static final class Outcome {
+
+        private final Object value;
+        private final ContextualRuntimeException error;
+        private final RuntimeException unexpected;
+
+        private Outcome(Object value, ContextualRuntimeException error, RuntimeException unexpected) {
+            this.value = value;
+            this.error = error;
+            this.unexpected = unexpected;
+        }
+
+        static Outcome success(Object value) {
+            return new Outcome(value, null, null);
+        }
+
+        static Outcome error(ContextualRuntimeException error) {
+            return new Outcome(null, error, null);
+        }
+
+        static Outcome unexpected(RuntimeException unexpected) {
+            return new Outcome(null, null, unexpected);
+        }
+
+        boolean isSuccess() {
+            return error == null && unexpected == null;
+        }
+    }
+}
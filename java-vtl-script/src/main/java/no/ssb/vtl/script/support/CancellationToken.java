@@ -0,0 +1,107 @@
+package no.ssb.vtl.script.support;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+import com.google.common.base.MoreObjects;
+import no.ssb.vtl.script.error.VTLCancellationException;
+
+import java.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Cooperative cancellation of an evaluation.
+ * <p>
+ * The {@link no.ssb.vtl.script.operations.VtlStream}s and the long running loops call
+ * {@link #check()} at batch boundaries and stop with a {@link VTLCancellationException}
+ * once the token is cancelled or its deadline passed.
+ */
+public final class CancellationToken {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final long deadline;
+    private final Duration timeout;
+    private volatile boolean cancelled = false;
+
+    private CancellationToken(Duration timeout) {
+        this.timeout = timeout;
+        this.deadline = timeout == null ? NO_DEADLINE : System.nanoTime() + timeout.toNanos();
+    }
+
+    /**
+     * Creates a token without deadline.
+     */
+    public static CancellationToken create() {
+        return new CancellationToken(null);
+    }
+
+    /**
+     * Creates a token that expires after the given duration.
+     */
+    public static CancellationToken withTimeout(Duration timeout) {
+        checkNotNull(timeout);
+        checkArgument(!timeout.isNegative(), "timeout cannot be negative");
+        return new CancellationToken(timeout);
+    }
+
+    /**
+     * Cancels the evaluation. The streams stop at their next check.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || isExpired();
+    }
+
+    private boolean isExpired() {
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * Throws if the token was cancelled or its deadline passed.
+     *
+     * @throws VTLCancellationException if the evaluation must stop.
+     */
+    public void check() throws VTLCancellationException {
+        if (cancelled) {
+            throw new VTLCancellationException("the evaluation was cancelled", VTLCancellationException.CANCELLED);
+        }
+        if (isExpired()) {
+            throw new VTLCancellationException(
+                    String.format("the evaluation exceeded its timeout of %s", timeout),
+                    VTLCancellationException.TIMED_OUT
+            );
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("cancelled", cancelled)
+                .add("timeout", timeout)
+                .toString();
+    }
+}
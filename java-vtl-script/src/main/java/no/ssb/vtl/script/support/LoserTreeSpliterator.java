@@ -0,0 +1,136 @@
+package no.ssb.vtl.script.support;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * K-way merge of sorted sources using a tournament (loser) tree.
+ * <p>
+ * The internal nodes of the tree keep the index of the source that lost the match played at
+ * that node, the overall winner is kept at the root. Advancing the winner only replays the matches
+ * on the path from its leaf to the root, that is one comparison per level.
+ * <p>
+ * Exhausted sources are considered bigger than any element. When two elements are equal the one
+ * coming from the source with the lowest index wins, making the merge stable.
+ */
+public final class LoserTreeSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+    private final Comparator<? super T> comparator;
+    private final ImmutableList<Iterator<? extends T>> sources;
+    private final int size;
+
+    // tree[0] is the winner, tree[1..size-1] the losers.
+    private final int[] tree;
+    private final Object[] heads;
+    private boolean initialized = false;
+
+    public LoserTreeSpliterator(List<? extends Iterator<? extends T>> sources, Comparator<? super T> comparator) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        checkArgument(!checkNotNull(sources).isEmpty(), "no sources");
+        this.sources = ImmutableList.copyOf(sources);
+        this.comparator = checkNotNull(comparator);
+        this.size = sources.size();
+        this.tree = new int[size];
+        this.heads = new Object[size];
+    }
+
+    private void advance(int source) {
+        Iterator<? extends T> iterator = sources.get(source);
+        heads[source] = iterator.hasNext() ? checkNotNull(iterator.next()) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean wins(int left, int right) {
+        Object leftHead = heads[left];
+        Object rightHead = heads[right];
+        if (leftHead == null) {
+            return false;
+        }
+        if (rightHead == null) {
+            return true;
+        }
+        int result = comparator.compare((T) leftHead, (T) rightHead);
+        return result != 0 ? result < 0 : left < right;
+    }
+
+    /**
+     * Plays the matches of the subtree and returns the winner. Leaves are the nodes size..2*size-1.
+     */
+    private int build(int node) {
+        if (node >= size) {
+            return node - size;
+        }
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (wins(left, right)) {
+            tree[node] = right;
+            return left;
+        } else {
+            tree[node] = left;
+            return right;
+        }
+    }
+
+    private void replay(int winner) {
+        for (int node = (winner + size) / 2; node > 0; node /= 2) {
+            if (wins(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (!initialized) {
+            for (int i = 0; i < size; i++) {
+                advance(i);
+            }
+            tree[0] = build(1);
+            initialized = true;
+        }
+
+        int winner = tree[0];
+        Object head = heads[winner];
+        if (head == null) {
+            return false;
+        }
+
+        advance(winner);
+        replay(winner);
+        action.accept((T) head);
+        return true;
+    }
+}
@@ -0,0 +1,111 @@
+package no.ssb.vtl.script.support;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import com.google.common.base.MoreObjects;
+import no.ssb.vtl.script.error.VTLMemoryLimitException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The memory available to an evaluation.
+ * <p>
+ * The operations do not use the budget directly but through a {@link MemoryReservation}, that
+ * acquires memory by chunks to keep the contention on the budget low.
+ */
+public final class MemoryBudget {
+
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+
+    private MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Creates a budget of the given number of bytes.
+     */
+    public static MemoryBudget withLimit(long limit) {
+        checkArgument(limit > 0, "the memory limit must be positive");
+        return new MemoryBudget(limit);
+    }
+
+    /**
+     * Acquires the given number of bytes if available.
+     *
+     * @return false if the budget is exhausted.
+     */
+    boolean tryAcquire(long bytes) {
+        long current;
+        do {
+            current = used.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+        } while (!used.compareAndSet(current, current + bytes));
+        peak.accumulateAndGet(current + bytes, Math::max);
+        return true;
+    }
+
+    /**
+     * Acquires the given number of bytes.
+     *
+     * @throws VTLMemoryLimitException if the budget is exhausted.
+     */
+    void acquire(long bytes, String owner) throws VTLMemoryLimitException {
+        if (!tryAcquire(bytes)) {
+            throw new VTLMemoryLimitException(String.format(
+                    "%s could not reserve %d bytes, %d bytes of the memory limit of %d bytes are in use",
+                    owner, bytes, used.get(), limit
+            ));
+        }
+    }
+
+    void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getPeak() {
+        return peak.get();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("limit", limit)
+                .add("used", used.get())
+                .add("peak", peak.get())
+                .toString();
+    }
+}
@@ -0,0 +1,246 @@
+package no.ssb.vtl.script.support;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.MoreObjects;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.VTLObject;
+
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The memory held by an operation.
+ * <p>
+ * The operations reserve the estimated size of the rows they buffer and release it when the
+ * rows are dropped. A reservation can have children, whose reservations are included in the
+ * parent. The root reservation acquires memory from the {@link MemoryBudget}, if any, by chunks
+ * of at least {@value #CHUNK_SIZE} bytes.
+ * <p>
+ * Without budget, the reservations are only tracked so that the peaks can be reported. The
+ * operations that spill to disk record the spilled bytes as well.
+ */
+public final class MemoryReservation implements AutoCloseable {
+
+    @VisibleForTesting
+    static final long CHUNK_SIZE = 64 * 1024;
+
+    // Estimated sizes, assuming compressed references.
+    private static final long ROW_SIZE = 40;
+    private static final long CELL_SIZE = 20;
+    private static final long VALUE_SIZE = 24;
+    private static final long STRING_SIZE = 40;
+
+    private final MemoryBudget budget;
+    private final MemoryReservation parent;
+    private final String owner;
+
+    private long reserved = 0;
+    private long peak = 0;
+    private long granted = 0;
+    private long spilled = 0;
+
+    private MemoryReservation(MemoryBudget budget, MemoryReservation parent, String owner) {
+        this.budget = budget;
+        this.parent = parent;
+        this.owner = owner;
+    }
+
+    /**
+     * Creates a reservation.
+     *
+     * @param budget the budget to acquire the memory from, or null to only track the reservations.
+     * @param owner  the name of the operation, used in error messages.
+     */
+    public static MemoryReservation create(MemoryBudget budget, String owner) {
+        return new MemoryReservation(budget, null, owner);
+    }
+
+    /**
+     * Creates a reservation included in this one.
+     */
+    public MemoryReservation newChild() {
+        return new MemoryReservation(null, this, owner);
+    }
+
+    /**
+     * Estimates the size of a row and its values.
+     */
+    public static long estimate(DataPoint dataPoint) {
+        long size = ROW_SIZE;
+        for (VTLObject value : dataPoint) {
+            size += CELL_SIZE;
+            Object object = value == null ? null : value.get();
+            if (object instanceof String) {
+                size += STRING_SIZE + 2L * ((String) object).length();
+            } else if (object != null) {
+                size += VALUE_SIZE;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the size of rows and their values.
+     */
+    public static long estimate(Collection<DataPoint> dataPoints) {
+        long size = 0;
+        for (DataPoint dataPoint : dataPoints) {
+            size += estimate(dataPoint);
+        }
+        return size;
+    }
+
+    /**
+     * Reserves the given number of bytes.
+     *
+     * @throws no.ssb.vtl.script.error.VTLMemoryLimitException if the budget is exhausted.
+     */
+    public synchronized void reserve(long bytes) {
+        checkArgument(bytes >= 0, "cannot reserve a negative size");
+        if (parent != null) {
+            parent.reserve(bytes);
+        } else if (budget != null && reserved + bytes > granted) {
+            long needed = reserved + bytes - granted;
+            if (!acquireChunk(needed)) {
+                budget.acquire(needed, owner);
+                granted += needed;
+            }
+        }
+        add(bytes);
+    }
+
+    /**
+     * Reserves the given number of bytes if available.
+     *
+     * @return false if the budget is exhausted, the reservation is unchanged.
+     */
+    public synchronized boolean tryReserve(long bytes) {
+        checkArgument(bytes >= 0, "cannot reserve a negative size");
+        if (parent != null) {
+            if (!parent.tryReserve(bytes)) {
+                return false;
+            }
+        } else if (budget != null && reserved + bytes > granted) {
+            long needed = reserved + bytes - granted;
+            if (!acquireChunk(needed)) {
+                if (!budget.tryAcquire(needed)) {
+                    return false;
+                }
+                granted += needed;
+            }
+        }
+        add(bytes);
+        return true;
+    }
+
+    /**
+     * Acquires at least one chunk, falling back to the needed size close to the limit.
+     */
+    private boolean acquireChunk(long needed) {
+        if (needed < CHUNK_SIZE && budget.tryAcquire(CHUNK_SIZE)) {
+            granted += CHUNK_SIZE;
+            return true;
+        }
+        return false;
+    }
+
+    private void add(long bytes) {
+        reserved += bytes;
+        peak = Math.max(peak, reserved);
+    }
+
+    /**
+     * Releases the given number of bytes, at most the reserved size.
+     */
+    public synchronized void release(long bytes) {
+        checkArgument(bytes >= 0, "cannot release a negative size");
+        bytes = Math.min(bytes, reserved);
+        reserved -= bytes;
+        if (parent != null) {
+            parent.release(bytes);
+        } else if (budget != null && granted - reserved >= 2 * CHUNK_SIZE) {
+            // Keep one chunk to avoid acquiring it again right away.
+            long surplus = granted - reserved - CHUNK_SIZE;
+            budget.release(surplus);
+            granted -= surplus;
+        }
+    }
+
+    /**
+     * Releases everything reserved.
+     */
+    public synchronized void releaseAll() {
+        release(reserved);
+    }
+
+    /**
+     * Records bytes written to disk instead of being held in memory.
+     */
+    public synchronized void recordSpill(long bytes) {
+        checkArgument(bytes >= 0, "cannot record a negative size");
+        spilled += bytes;
+        if (parent != null) {
+            parent.recordSpill(bytes);
+        }
+    }
+
+    public synchronized long getSpilledBytes() {
+        return spilled;
+    }
+
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * Returns the largest size held at once.
+     */
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * Releases everything reserved and gives the memory back to the budget.
+     */
+    @Override
+    public synchronized void close() {
+        releaseAll();
+        if (budget != null && granted > 0) {
+            budget.release(granted);
+            granted = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("owner", owner)
+                .add("reserved", reserved)
+                .add("peak", peak)
+                .add("spilled", spilled)
+                .toString();
+    }
+}
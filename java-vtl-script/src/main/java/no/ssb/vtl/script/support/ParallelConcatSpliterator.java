@@ -0,0 +1,193 @@
+package no.ssb.vtl.script.support;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Concatenates streams by consuming them concurrently.
+ * <p>
+ * Each source stream is drained by its own task on the given {@link Executor}. The tasks
+ * push batches of elements to a bounded queue that is consumed by the spliterator. When the
+ * queue is full the producers block, keeping the memory usage bounded.
+ * <p>
+ * The elements of a given source keep their relative order but the sources are interleaved
+ * in no particular order. Exceptions thrown by a source are rethrown by the consumer.
+ * <p>
+ * Closing the spliterator stops the producers at the next batch boundary and waits for them
+ * to terminate. The source streams are closed by their producers.
+ */
+public final class ParallelConcatSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+
+    private static final long POLL_MILLIS = 100;
+
+    private final ImmutableList<Stream<T>> sources;
+    private final Executor executor;
+    private final int batchSize;
+    private final BlockingQueue<Batch<T>> queue;
+
+    private CountDownLatch running;
+    private volatile boolean cancelled = false;
+    private int remaining;
+    private Iterator<T> current = null;
+
+    public ParallelConcatSpliterator(List<Stream<T>> sources, Executor executor) {
+        this(sources, executor, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_SIZE);
+    }
+
+    public ParallelConcatSpliterator(List<Stream<T>> sources, Executor executor, int batchSize, int queueSize) {
+        // Not ORDERED: the interleaving of the sources depends on the timing of the producers.
+        super(Long.MAX_VALUE, 0);
+        checkArgument(batchSize > 0, "batch size must be positive");
+        checkArgument(queueSize > 0, "queue size must be positive");
+        this.sources = ImmutableList.copyOf(sources);
+        this.executor = checkNotNull(executor);
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    private void start() {
+        remaining = sources.size();
+        running = new CountDownLatch(sources.size());
+        for (Stream<T> source : sources) {
+            executor.execute(() -> produce(source));
+        }
+    }
+
+    private void produce(Stream<T> source) {
+        try (Stream<T> stream = source) {
+            Iterator<T> iterator = stream.iterator();
+            List<T> batch = new ArrayList<>(batchSize);
+            while (!cancelled && iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == batchSize) {
+                    put(new Batch<>(batch, null, false));
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                put(new Batch<>(batch, null, false));
+            }
+            put(new Batch<>(ImmutableList.of(), null, true));
+        } catch (Throwable t) {
+            try {
+                put(new Batch<>(ImmutableList.of(), t, true));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            running.countDown();
+        }
+    }
+
+    private void put(Batch<T> batch) throws InterruptedException {
+        while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (cancelled) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (running == null) {
+            start();
+        }
+        while (current == null || !current.hasNext()) {
+            if (remaining == 0) {
+                return false;
+            }
+            Batch<T> batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("interrupted while waiting for data", ie);
+            }
+            if (batch.failure != null) {
+                close();
+                if (batch.failure instanceof RuntimeException) {
+                    throw (RuntimeException) batch.failure;
+                } else if (batch.failure instanceof Error) {
+                    throw (Error) batch.failure;
+                }
+                throw new IllegalStateException(batch.failure);
+            }
+            if (batch.last) {
+                remaining--;
+            }
+            current = batch.elements.iterator();
+        }
+        action.accept(current.next());
+        return true;
+    }
+
+    @Override
+    public void close() {
+        cancelled = true;
+        if (running == null) {
+            // Never started, close the sources ourselves.
+            for (Stream<T> source : sources) {
+                source.close();
+            }
+            return;
+        }
+        try {
+            // Unblock the producers until they all stopped.
+            do {
+                queue.clear();
+            } while (!running.await(POLL_MILLIS, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Batch<T> {
+        private final List<T> elements;
+        private final Throwable failure;
+        private final boolean last;
+
+        private Batch(List<T> elements, Throwable failure, boolean last) {
+            this.elements = elements;
+            this.failure = failure;
+            this.last = last;
+        }
+    }
+}
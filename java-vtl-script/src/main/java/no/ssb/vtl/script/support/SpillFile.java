@@ -0,0 +1,271 @@
+package no.ssb.vtl.script.support;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.AbstractIterator;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.VTLBoolean;
+import no.ssb.vtl.model.VTLDate;
+import no.ssb.vtl.model.VTLFloat;
+import no.ssb.vtl.model.VTLInteger;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.model.VTLString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Temporary file of {@link DataPoint}s used by operations that cannot keep all their rows in memory.
+ * <p>
+ * Rows are appended with {@link #write(DataPoint)} and read back in the same order with {@link #reader()}.
+ * Once the first reader has been created the file cannot be written to anymore but it can be read several
+ * times. The file is deleted when the spill file is closed.
+ * <p>
+ * The values are written with their type so that typed nulls (ie. {@link VTLInteger#NULL}) survive the
+ * round trip.
+ */
+public final class SpillFile implements AutoCloseable {
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte FLOAT = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte DATE = 5;
+    private static final byte NULL_FLAG = (byte) 0x80;
+
+    private final Path path;
+    private DataOutputStream output;
+    private long rows = 0;
+
+    private SpillFile(Path path) throws IOException {
+        this.path = checkNotNull(path);
+        this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+    }
+
+    /**
+     * Creates a new spill file in the default temporary-file directory.
+     */
+    public static SpillFile create() {
+        try {
+            return new SpillFile(Files.createTempFile("vtl-spill", ".bin"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates a new spill file in the given directory.
+     */
+    public static SpillFile create(Path directory) {
+        try {
+            return new SpillFile(Files.createTempFile(checkNotNull(directory), "vtl-spill", ".bin"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte typeOf(VTLObject value) {
+        if (value instanceof VTLString) {
+            return STRING;
+        } else if (value instanceof VTLInteger) {
+            return INTEGER;
+        } else if (value instanceof VTLFloat) {
+            return FLOAT;
+        } else if (value instanceof VTLBoolean) {
+            return BOOLEAN;
+        } else if (value instanceof VTLDate) {
+            return DATE;
+        }
+        Object object = value == null ? null : value.get();
+        if (object == null) {
+            return NULL;
+        }
+        return typeOf(VTLObject.of(object));
+    }
+
+    private static void writeValue(DataOutputStream out, VTLObject value) throws IOException {
+        byte type = typeOf(value);
+        Object object = value == null ? null : value.get();
+        if (object == null) {
+            out.writeByte(type | NULL_FLAG);
+            return;
+        }
+        out.writeByte(type);
+        switch (type) {
+            case STRING:
+                byte[] bytes = ((String) object).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            case INTEGER:
+                out.writeLong(((Number) object).longValue());
+                break;
+            case FLOAT:
+                out.writeDouble(((Number) object).doubleValue());
+                break;
+            case BOOLEAN:
+                out.writeBoolean((Boolean) object);
+                break;
+            case DATE:
+                Instant instant = (Instant) object;
+                out.writeLong(instant.getEpochSecond());
+                out.writeInt(instant.getNano());
+                break;
+            default:
+                throw new IllegalArgumentException("could not spill " + value);
+        }
+    }
+
+    private static VTLObject readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        boolean isNull = (tag & NULL_FLAG) != 0;
+        switch (tag & ~NULL_FLAG) {
+            case NULL:
+                return VTLObject.NULL;
+            case STRING:
+                return VTLString.of(isNull ? null : readString(in));
+            case INTEGER:
+                return VTLInteger.of(isNull ? null : in.readLong());
+            case FLOAT:
+                return VTLFloat.of(isNull ? null : in.readDouble());
+            case BOOLEAN:
+                return VTLBoolean.of(isNull ? null : in.readBoolean());
+            case DATE:
+                return isNull ? VTLDate.of((Instant) null) : VTLDate.ofEpochSecond(in.readLong(), in.readInt());
+            default:
+                throw new IOException("corrupted spill file, unknown tag " + tag);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends a row to the file.
+     */
+    public void write(DataPoint dataPoint) {
+        checkState(output != null, "spill file %s is not writable", path);
+        try {
+            output.writeInt(dataPoint.size());
+            for (VTLObject value : dataPoint) {
+                writeValue(output, value);
+            }
+            rows++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a new reader positioned at the beginning of the file.
+     * <p>
+     * The first call flushes the file and makes it read only.
+     */
+    public Reader reader() {
+        try {
+            if (output != null) {
+                output.close();
+                output = null;
+            }
+            return new Reader(new DataInputStream(new BufferedInputStream(Files.newInputStream(path))));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of rows written to this file.
+     */
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Returns the size in bytes of the data written to this file.
+     */
+    public long getByteCount() {
+        return output != null ? output.size() : path.toFile().length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (output != null) {
+                output.close();
+                output = null;
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Sequential reader over the rows of a {@link SpillFile}.
+     */
+    public final class Reader extends AbstractIterator<DataPoint> implements AutoCloseable {
+
+        private final DataInputStream input;
+
+        private Reader(DataInputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        protected DataPoint computeNext() {
+            try {
+                int size;
+                try {
+                    size = input.readInt();
+                } catch (EOFException eof) {
+                    return endOfData();
+                }
+                DataPoint dataPoint = DataPoint.create(size);
+                for (int i = 0; i < size; i++) {
+                    dataPoint.set(i, readValue(input));
+                }
+                return dataPoint;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
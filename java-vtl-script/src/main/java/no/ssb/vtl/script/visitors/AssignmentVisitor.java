@@ -26,6 +26,7 @@ import no.ssb.vtl.model.VTLExpression;
 import no.ssb.vtl.model.VTLObject;
 import no.ssb.vtl.parser.VTLBaseVisitor;
 import no.ssb.vtl.parser.VTLParser;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.error.ContextualRuntimeException;
 import no.ssb.vtl.script.visitors.foreach.ForeachVisitor;
 
@@ -55,9 +56,14 @@ public class AssignmentVisitor extends VTLBaseVisitor<Object> {
     private final ForeachVisitor foreachVisitor;
 
     public AssignmentVisitor(ScriptContext context, List<Connector> connectors) {
+        this(context, connectors, VtlConfiguration.getDefault());
+    }
+
+    public AssignmentVisitor(ScriptContext context, List<Connector> connectors, VtlConfiguration configuration) {
         this(
                 checkNotNull(context, "the context was null").getBindings(ScriptContext.ENGINE_SCOPE),
-                connectors
+                connectors,
+                configuration
         );
     }
 
@@ -66,17 +72,25 @@ public class AssignmentVisitor extends VTLBaseVisitor<Object> {
     }
 
     public AssignmentVisitor(Bindings bindings, List<Connector> connectors) {
+        this(bindings, connectors, VtlConfiguration.getDefault());
+    }
+
+    /**
+     * Creates a visitor that compiles the statements for the given configuration.
+     */
+    public AssignmentVisitor(Bindings bindings, List<Connector> connectors, VtlConfiguration configuration) {
         this.bindings = checkNotNull(bindings);
+        checkNotNull(configuration);
         expressionVisitor = new ExpressionVisitor(this.bindings);
 
         connectorVisitor = new ConnectorVisitor(connectors);
         clausesVisitor = new ClauseVisitor();
 
         datasetExpressionVisitor = new DatasetExpressionVisitor(expressionVisitor);
-        foreachVisitor = new ForeachVisitor(expressionVisitor);
+        foreachVisitor = new ForeachVisitor(expressionVisitor, configuration);
 
         checkVisitor = new CheckVisitor(datasetExpressionVisitor);
-        hierarchyVisitor = new HierarchyVisitor(datasetExpressionVisitor);
+        hierarchyVisitor = new HierarchyVisitor(datasetExpressionVisitor, configuration);
         aggregationVisitor = new AggregationVisitor(datasetExpressionVisitor);
     }
 
@@ -24,6 +24,7 @@ import no.ssb.vtl.model.Component;
 import no.ssb.vtl.model.Dataset;
 import no.ssb.vtl.parser.VTLBaseVisitor;
 import no.ssb.vtl.parser.VTLParser;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.hierarchy.HierarchyOperation;
 import no.ssb.vtl.script.operations.join.ComponentBindings;
 
@@ -32,9 +33,18 @@ import static com.google.common.base.Preconditions.*;
 public class HierarchyVisitor extends VTLBaseVisitor<Dataset> {
 
     private final DatasetExpressionVisitor datasetExpressionVisitor;
+    private final VtlConfiguration configuration;
 
     public HierarchyVisitor(DatasetExpressionVisitor datasetExpressionVisitor) {
+        this(datasetExpressionVisitor, VtlConfiguration.getDefault());
+    }
+
+    /**
+     * Creates a visitor whose hierarchy operations use the hierarchy cache of the configuration.
+     */
+    public HierarchyVisitor(DatasetExpressionVisitor datasetExpressionVisitor, VtlConfiguration configuration) {
         this.datasetExpressionVisitor = checkNotNull(datasetExpressionVisitor);
+        this.configuration = checkNotNull(configuration);
     }
 
     @Override
@@ -52,7 +62,7 @@ public class HierarchyVisitor extends VTLBaseVisitor<Dataset> {
 
         Dataset hierarchyDataset = datasetExpressionVisitor.visit(ctx.hierarchyReference());
 
-        return new HierarchyOperation(dataset, hierarchyDataset, component);
+        return new HierarchyOperation(dataset, hierarchyDataset, component, configuration.getHierarchyCache());
 
     }
 }
@@ -26,10 +26,13 @@ import no.ssb.vtl.model.Dataset;
 import no.ssb.vtl.model.VTLExpression;
 import no.ssb.vtl.parser.VTLBaseVisitor;
 import no.ssb.vtl.script.VTLDataset;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.foreach.ForeachOperation;
 import no.ssb.vtl.script.visitors.AssignmentVisitor;
 import no.ssb.vtl.script.visitors.ExpressionVisitor;
 
+import java.util.Collections;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 import static no.ssb.vtl.parser.VTLParser.RepeatContext;
 import static no.ssb.vtl.parser.VTLParser.StatementContext;
@@ -38,9 +41,19 @@ import static no.ssb.vtl.parser.VTLParser.VariableContext;
 public class ForeachVisitor extends VTLBaseVisitor<ForeachOperation> {
 
     private final ExpressionVisitor expressionVisitor;
+    private final VtlConfiguration configuration;
 
     public ForeachVisitor(ExpressionVisitor expressionVisitor) {
+        this(expressionVisitor, VtlConfiguration.getDefault());
+    }
+
+    /**
+     * Creates a visitor that compiles the blocks for the given configuration. The slices are evaluated
+     * concurrently when the configuration the operation is read with has an operation executor.
+     */
+    public ForeachVisitor(ExpressionVisitor expressionVisitor, VtlConfiguration configuration) {
         this.expressionVisitor = checkNotNull(expressionVisitor);
+        this.configuration = checkNotNull(configuration);
     }
 
     @Override
@@ -66,8 +79,11 @@ public class ForeachVisitor extends VTLBaseVisitor<ForeachOperation> {
 
         ForeachOperation foreachOperation = new ForeachOperation(datasets.build(), identifiers.build());
 
+        // Called only once; the operation binds the data of each slice to the datasets of the scope.
         foreachOperation.setBlock(bindings -> {
-            AssignmentVisitor assignmentVisitor = new AssignmentVisitor(bindings);
+            AssignmentVisitor assignmentVisitor = new AssignmentVisitor(
+                    bindings, Collections.emptyList(), configuration
+            );
             Object last = null;
             for (StatementContext statementContext : ctx.statement()) {
                 last = assignmentVisitor.visit(statementContext);
@@ -28,6 +28,7 @@ import no.ssb.vtl.parser.VTLParser;
 import no.ssb.vtl.script.operations.join.JoinAssignment;
 import no.ssb.vtl.script.operations.join.AbstractJoinOperation;
 import no.ssb.vtl.script.operations.join.ComponentBindings;
+import no.ssb.vtl.script.operations.join.JoinCalcOperation;
 import no.ssb.vtl.script.visitors.ComponentRoleVisitor;
 import no.ssb.vtl.script.visitors.ComponentVisitor;
 import no.ssb.vtl.script.visitors.DatasetExpressionVisitor;
@@ -100,7 +101,9 @@ public class JoinBodyVisitor extends VTLBaseVisitor<Dataset> {
                 componentBindings
         );
         componentBindings.putAll(new ComponentBindings(result));
-        return result;
+
+        // Consecutive assignments are evaluated together.
+        return JoinCalcOperation.merge(result);
     }
 
     @Override
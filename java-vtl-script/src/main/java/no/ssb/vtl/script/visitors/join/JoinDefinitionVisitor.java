@@ -27,6 +27,7 @@ import no.ssb.vtl.parser.VTLParser;
 import no.ssb.vtl.script.error.ContextualRuntimeException;
 import no.ssb.vtl.script.operations.join.AbstractJoinOperation;
 import no.ssb.vtl.script.operations.join.CommonIdentifierBindings;
+import no.ssb.vtl.script.operations.join.CrossJoinOperation;
 import no.ssb.vtl.script.operations.join.InnerJoinOperation;
 import no.ssb.vtl.script.operations.join.OuterJoinOperation;
 import no.ssb.vtl.script.visitors.ComponentVisitor;
@@ -92,9 +93,10 @@ public class JoinDefinitionVisitor extends VTLDatasetExpressionVisitor<AbstractJ
             case VTLParser.OUTER:
                 return new OuterJoinOperation(datasets, identifiers);
             case VTLParser.CROSS:
-                //TODO: Finish CrossJoinOperation
-                throw new ContextualRuntimeException("Not implemented", ctx);
-
+                if (!identifiers.isEmpty()) {
+                    throw new ContextualRuntimeException("cross join does not support the on clause", ctx);
+                }
+                return new CrossJoinOperation(datasets);
 
         }
         return super.visitJoinDefinition(ctx);
@@ -0,0 +1,95 @@
+package no.ssb.vtl.script;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.io.Resources;
+import no.ssb.vtl.script.error.VTLScriptException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Measures the parsing of the scripts in the benchmark resources on a cold JVM (single shot per fork)
+ * and in steady state.
+ * <p>
+ * When warmUp is true the engine is warmed up with {@link VTLScriptEngine#WARM_UP_SCRIPT} only, the
+ * measured script is not parsed before the measurement.
+ */
+public class ParserBenchmark {
+
+    private static final Consumer<VTLScriptException> IGNORE = error -> { };
+
+    @State(Scope.Benchmark)
+    public static class ParserState {
+
+        @Param({"false", "true"})
+        public boolean warmUp;
+
+        @Param({"test-suite.vtl", "join.vtl"})
+        public String script;
+
+        private VTLScriptEngine engine;
+        private String source;
+
+        @Setup()
+        public void setup() throws IOException {
+            source = Resources.toString(
+                    Resources.getResource(ParserBenchmark.class, "benchmark/" + script),
+                    StandardCharsets.UTF_8
+            );
+            if (warmUp) {
+                VTLScriptEngine.warmUp();
+            }
+            engine = new VTLScriptEngine();
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 10)
+    @Warmup(iterations = 0)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 1)
+    public void coldStart(ParserState state, Blackhole blackhole) throws IOException {
+        blackhole.consume(state.engine.parse(new StringReader(state.source), IGNORE));
+    }
+
+    @Benchmark
+    @Fork(value = 2, warmups = 1)
+    @Warmup(iterations = 5)
+    @BenchmarkMode(Mode.Throughput)
+    @Measurement(iterations = 10)
+    public void steadyState(ParserState state, Blackhole blackhole) throws IOException {
+        blackhole.consume(state.engine.parse(new StringReader(state.source), IGNORE));
+    }
+}
@@ -31,15 +31,24 @@ import no.ssb.vtl.model.StaticDataset;
 import no.ssb.vtl.model.VTLObject;
 import no.ssb.vtl.model.VtlOrdering;
 import no.ssb.vtl.parser.VTLLexer;
+import no.ssb.vtl.parser.VTLParser;
+import no.ssb.vtl.script.error.VTLCompileException;
+import no.ssb.vtl.script.error.VTLScriptException;
+import no.ssb.vtl.script.operations.materialize.MaterializationCache;
+import no.ssb.vtl.script.operations.materialize.MaterializedOperation;
+import no.ssb.vtl.script.operations.union.UnionOperation;
 import no.ssb.vtl.script.support.VTLPrintStream;
 import org.antlr.v4.runtime.Vocabulary;
 import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.junit.Test;
 
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import java.io.StringReader;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -51,10 +60,12 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static no.ssb.vtl.model.Component.Role;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
@@ -192,6 +203,87 @@ public class VTLScriptEngineTest {
         );
     }
 
+    @Test
+    public void testWarmUp() throws Exception {
+        List<VTLScriptException> errors = Lists.newArrayList();
+        VTLParser.StartContext start = ((VTLScriptEngine) engine).parse(
+                new StringReader(VTLScriptEngine.WARM_UP_SCRIPT), errors::add
+        );
+        assertThat(errors).isEmpty();
+        assertThat(start.statement()).hasSize(9);
+
+        VTLScriptEngine.warmUp();
+    }
+
+    @Test
+    public void testParseReportsSyntaxErrors() throws Exception {
+        List<VTLScriptException> errors = Lists.newArrayList();
+        ((VTLScriptEngine) engine).parse(new StringReader("ds2 := [ds1] { m1 := }"), errors::add);
+        assertThat(errors).isNotEmpty();
+    }
+
+    @Test
+    public void testCompiledScript() throws Exception {
+        CompiledScript compiled = ((Compilable) engine).compile("res := [ds] { assigned := me + 1 }");
+
+        List<Long> results = IntStream.range(0, 16).parallel().mapToObj(i -> {
+            Dataset simpleDataset = StaticDataset.create()
+                    .addComponent("id", Role.IDENTIFIER, String.class)
+                    .addComponent("me", Role.MEASURE, Long.class)
+                    .addPoints("id", (long) i)
+                    .build();
+            Bindings scriptBindings = engine.createBindings();
+            scriptBindings.put("ds", simpleDataset);
+            try {
+                compiled.eval(scriptBindings);
+            } catch (ScriptException se) {
+                throw new RuntimeException(se);
+            }
+            Dataset res = (Dataset) scriptBindings.get("res");
+            return (Long) res.getData().findFirst().get().get(2).get();
+        }).collect(Collectors.toList());
+
+        assertThat(results).containsExactlyElementsOf(
+                LongStream.range(1, 17).boxed().collect(Collectors.toList())
+        );
+        assertThat(bindings).doesNotContainKey("res");
+    }
+
+    @Test
+    public void testCompileSyntaxError() {
+        assertThatThrownBy(() -> ((Compilable) engine).compile("res := [ds] { assigned := }"))
+                .isInstanceOf(VTLCompileException.class);
+    }
+
+    @Test
+    public void testMaterializeSharedDataset() throws Exception {
+        Dataset simpleDataset = StaticDataset.create()
+                .addComponent("id", Role.IDENTIFIER, String.class)
+                .addComponent("me", Role.MEASURE, Long.class)
+                .addPoints("id", 0L)
+                .build();
+
+        bindings.put("ds", simpleDataset);
+        ((VTLScriptEngine) engine).setConfiguration(
+                VtlConfiguration.builder().materializationCache(new MaterializationCache(1000, 1000)).build()
+        );
+        engine.eval("" +
+                "shared := [ds] { assigned := me + 1 }\n" +
+                "single := [shared] { filter true }\n" +
+                "res1 := [shared, single] { filter true }\n");
+
+        assertThat(bindings.get("shared")).isInstanceOf(MaterializedOperation.class);
+        assertThat(bindings.get("single")).isNotInstanceOf(MaterializedOperation.class);
+        assertThat(((Dataset) bindings.get("res1")).getData()).hasSize(1);
+
+        // Materialization is disabled by default.
+        ((VTLScriptEngine) engine).setConfiguration(VtlConfiguration.builder().build());
+        engine.eval("shared := [ds] { assigned := me + 1 }\n" +
+                "res2 := [shared] { filter true }\n" +
+                "res3 := [shared] { filter true }\n");
+        assertThat(bindings.get("shared")).isNotInstanceOf(MaterializedOperation.class);
+    }
+
     @Test
     public void testJoinEscapedAssignment() throws ScriptException {
 
@@ -1121,6 +1213,39 @@ public class VTLScriptEngineTest {
                 );
     }
 
+    @Test
+    public void testUnionOfPartitions() throws Exception {
+
+        Dataset ds1 = StaticDataset.create()
+                .addComponent("id1", Role.IDENTIFIER, String.class)
+                .addComponent("year", Role.IDENTIFIER, String.class)
+                .addComponent("m1", Role.MEASURE, Long.class)
+
+                .addPoints("1", "2011", 10L)
+                .addPoints("1", "2012", 20L)
+                .addPoints("2", "2011", 30L)
+                .addPoints("2", "2012", 40L)
+                .build();
+
+        bindings.put("ds1", ds1);
+
+        engine.eval("" +
+                "ds2 := union([ds1]{filter year = \"2011\"}, [ds1]{filter year = \"2012\"})\n" +
+                "ds3 := union([ds1]{filter year = \"2011\"}, [ds1]{filter id1 = \"1\"})");
+
+        UnionOperation ds2 = (UnionOperation) bindings.get("ds2");
+        assertThat(ds2.isDisjoint()).isTrue();
+        assertThat(ds2.getData()).containsExactlyInAnyOrder(
+                DataPoint.create("1", "2011", 10L),
+                DataPoint.create("1", "2012", 20L),
+                DataPoint.create("2", "2011", 30L),
+                DataPoint.create("2", "2012", 40L)
+        );
+
+        UnionOperation ds3 = (UnionOperation) bindings.get("ds3");
+        assertThat(ds3.isDisjoint()).isFalse();
+    }
+
     @Test
     public void testUnionWithFilter() throws Exception {
         Dataset ds1 = StaticDataset.create()
@@ -1440,6 +1565,19 @@ public class VTLScriptEngineTest {
         );
     }
 
+    @Test
+    public void testCrossJoin() throws ScriptException {
+        createMultipleIdDatasets();
+        engine.eval("result := [cross a,b] {\n" +
+                "  total := a.integerMeasure + b.integerMeasure\n" +
+                "}");
+        Dataset result = (Dataset) bindings.get("result");
+        assertThat(result.getDataStructure().keySet()).contains(
+                "a_id1", "a_id2", "b_id1", "b_id2", "total"
+        );
+        assertThat(result.getData()).hasSize(20);
+    }
+
     private void createMultipleIdDatasets() {
         StaticDataset a = StaticDataset.create()
                 .addComponent("id1", Role.IDENTIFIER, String.class)
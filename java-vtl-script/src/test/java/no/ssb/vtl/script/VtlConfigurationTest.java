@@ -0,0 +1,295 @@
+package no.ssb.vtl.script;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.Filtering;
+import no.ssb.vtl.model.Ordering;
+import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.error.VTLCancellationException;
+import no.ssb.vtl.script.error.VTLMemoryLimitException;
+import no.ssb.vtl.script.operations.AbstractDatasetOperation;
+import no.ssb.vtl.script.operations.VtlStream;
+import no.ssb.vtl.script.support.MemoryBudget;
+import org.junit.Test;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class VtlConfigurationTest {
+
+    private final Dataset dataset = StaticDataset.create()
+            .addComponent("id", Component.Role.IDENTIFIER, Long.class)
+            .addComponent("m", Component.Role.MEASURE, Long.class)
+            .addPoints(2L, 2L)
+            .addPoints(1L, 1L)
+            .build();
+
+    /**
+     * A dataset that claims to sort its data but does not.
+     */
+    private final Dataset unsorted = new Dataset() {
+        @Override
+        public Stream<DataPoint> getData() {
+            return dataset.getData();
+        }
+
+        @Override
+        public Optional<Stream<DataPoint>> getData(Ordering orders, Filtering filtering, Set<String> components) {
+            return Optional.of(dataset.getData());
+        }
+
+        @Override
+        public Optional<Map<String, Integer>> getDistinctValuesCount() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Long> getSize() {
+            return dataset.getSize();
+        }
+
+        @Override
+        public DataStructure getDataStructure() {
+            return dataset.getDataStructure();
+        }
+    };
+
+    @Test
+    public void testBuilder() {
+        VtlConfiguration configuration = VtlConfiguration.builder()
+                .profiling(true)
+                .forceSort(true)
+                .build();
+
+        assertThat(configuration.isProfilingEnabled()).isTrue();
+        assertThat(configuration.isForceSortEnabled()).isTrue();
+        assertThat(configuration.getMaterializationCache()).isNull();
+        assertThat(configuration.isSortAssertionEnabled()).isFalse();
+        assertThat(configuration.getSpillDirectory()).isNotNull();
+
+        VtlConfiguration copy = configuration.toBuilder().sortAssertion(true).build();
+        assertThat(copy.isProfilingEnabled()).isTrue();
+        assertThat(copy.isSortAssertionEnabled()).isTrue();
+        assertThat(configuration.isSortAssertionEnabled()).isFalse();
+    }
+
+    @Test
+    public void testConfigurationUsedOnOtherThreads() throws Exception {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        VtlConfiguration configuration = VtlConfiguration.builder().sortAssertion(true).build();
+        engine.setConfiguration(configuration);
+        engine.put("ds", unsorted);
+        engine.eval("res := [ds] { filter true }");
+
+        AbstractDatasetOperation result = (AbstractDatasetOperation) engine.get("res");
+        assertThat(result.getConfiguration()).isSameAs(configuration);
+
+        Ordering ordering = VtlOrdering.using(result).asc("id").build();
+        try (VtlStream stream = (VtlStream) result.computeData(ordering, Filtering.ALL, result.getDataStructure().keySet())) {
+            assertThat(((VtlStream) stream.getParents().get(0)).getConfiguration()).isSameAs(configuration);
+        }
+
+        Throwable throwable = catchThrowable(() -> CompletableFuture.supplyAsync(() -> {
+            try (Stream<DataPoint> data = result.computeData(ordering, Filtering.ALL, result.getDataStructure().keySet())) {
+                return data.count();
+            }
+        }).join());
+        assertThat(throwable).isInstanceOf(CompletionException.class);
+        assertThat(throwable.getCause()).hasMessageContaining("Order assertion failed");
+    }
+
+    @Test
+    public void testEarlierOperationsReadWithTheConfigurationOfTheEvaluation() throws Exception {
+        StaticDataset.ValueBuilder builder = StaticDataset.create()
+                .addComponent("id", Component.Role.IDENTIFIER, Long.class)
+                .addComponent("id2", Component.Role.IDENTIFIER, Long.class)
+                .addComponent("m", Component.Role.MEASURE, Long.class)
+                .addPoints(1L, 0L, 0L);
+        for (long i = 1; i < 1000; i++) {
+            builder.addPoints(1L, i, i);
+        }
+
+        VTLScriptEngine engine = new VTLScriptEngine();
+        engine.put("ds", builder.build());
+        engine.eval("res := sum(ds.m) group by id");
+        AbstractDatasetOperation result = (AbstractDatasetOperation) engine.get("res");
+        VtlConfiguration first = result.getConfiguration();
+
+        VtlConfiguration limited = VtlConfiguration.builder().memoryLimit(10_000L).build();
+        engine.setConfiguration(limited);
+        engine.eval("copy := res\n" +
+                "filtered := [res] { filter true }");
+
+        // The operations of the first evaluation keep their configuration.
+        AbstractDatasetOperation copy = (AbstractDatasetOperation) engine.get("copy");
+        assertThat(copy).isNotSameAs(result);
+        assertThat(copy.getConfiguration().getMemoryLimit()).isEqualTo(10_000L);
+        assertThat(result.getConfiguration()).isSameAs(first);
+        try (Stream<DataPoint> data = result.getData()) {
+            assertThat(data.count()).isEqualTo(1);
+        }
+
+        // But are read with the configuration of the evaluation that uses them.
+        for (String name : Arrays.asList("copy", "filtered")) {
+            Throwable throwable = catchThrowable(() -> {
+                try (Stream<DataPoint> data = ((Dataset) engine.get(name)).getData()) {
+                    data.count();
+                }
+            });
+            assertThat(throwable).isInstanceOf(VTLMemoryLimitException.class)
+                    .hasMessageContaining("AggregationOperation");
+        }
+        assertThat(copy.getConfiguration().getMemoryBudget().getUsed()).isEqualTo(0);
+    }
+
+    @Test
+    public void testContextAndCompiledScript() throws Exception {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        VtlConfiguration compileTime = VtlConfiguration.builder().profiling(true).build();
+        engine.setConfiguration(compileTime);
+        CompiledScript compiled = engine.compile("res := [ds] { filter true }");
+        engine.setConfiguration(VtlConfiguration.getDefault());
+
+        engine.put("ds", dataset);
+        compiled.eval();
+        assertThat(((AbstractDatasetOperation) engine.get("res")).getConfiguration()).isSameAs(compileTime);
+
+        VtlConfiguration contextual = VtlConfiguration.builder().forceSort(true).build();
+        VTLScriptContext context = new VTLScriptContext();
+        context.setConfiguration(contextual);
+        context.setAttribute("ds", dataset, ScriptContext.ENGINE_SCOPE);
+        compiled.eval(context);
+        assertThat(((AbstractDatasetOperation) context.getAttribute("res")).getConfiguration()).isSameAs(contextual);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        engine.setConfiguration(VtlConfiguration.builder().timeout(Duration.ZERO).build());
+        engine.put("ds", dataset);
+
+        Throwable throwable = catchThrowable(() -> engine.eval("res := [ds] { filter true }"));
+        assertThat(throwable).isInstanceOf(ScriptException.class);
+        assertThat(throwable.getCause()).isInstanceOf(VTLCancellationException.class);
+        assertThat(((VTLCancellationException) throwable.getCause()).isTimeout()).isTrue();
+        assertThat(engine.get("res")).isNull();
+    }
+
+    @Test
+    public void testMemoryLimit() throws Exception {
+        StaticDataset.ValueBuilder builder = StaticDataset.create()
+                .addComponent("id", Component.Role.IDENTIFIER, Long.class)
+                .addComponent("id2", Component.Role.IDENTIFIER, Long.class)
+                .addComponent("m", Component.Role.MEASURE, Long.class)
+                .addPoints(1L, 0L, 0L);
+        for (long i = 1; i < 1000; i++) {
+            builder.addPoints(1L, i, i);
+        }
+
+        VTLScriptEngine engine = new VTLScriptEngine();
+        engine.put("ds", builder.build());
+        engine.eval("res := sum(ds.m) group by id");
+
+        // Without limit the memory is only tracked.
+        AbstractDatasetOperation result = (AbstractDatasetOperation) engine.get("res");
+        try (VtlStream stream = (VtlStream) result.getData()) {
+            assertThat(stream.count()).isEqualTo(1);
+            assertThat(stream.getStatistics().getMemoryPeak()).isGreaterThan(1000);
+            assertThat(stream.getStatistics().getMemoryReserved()).isEqualTo(0);
+        }
+
+        engine.setConfiguration(VtlConfiguration.builder().memoryLimit(10_000L).build());
+        engine.eval("res := sum(ds.m) group by id");
+
+        AbstractDatasetOperation limited = (AbstractDatasetOperation) engine.get("res");
+        MemoryBudget budget = limited.getConfiguration().getMemoryBudget();
+        assertThat(budget.getLimit()).isEqualTo(10_000L);
+
+        Throwable throwable = catchThrowable(() -> {
+            try (Stream<DataPoint> data = limited.getData()) {
+                data.count();
+            }
+        });
+        assertThat(throwable).isInstanceOf(VTLMemoryLimitException.class)
+                .hasMessageContaining("AggregationOperation");
+        assertThat(budget.getUsed()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSortMemoryReleasedWhenExhausted() throws Exception {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        engine.setConfiguration(VtlConfiguration.builder().forceSort(true).build());
+        engine.put("ds", dataset);
+        engine.eval("res := [ds] { filter true }");
+
+        AbstractDatasetOperation result = (AbstractDatasetOperation) engine.get("res");
+        Ordering ordering = VtlOrdering.using(result).asc("id").build();
+        try (VtlStream stream = (VtlStream) result.computeData(ordering, Filtering.ALL, result.getDataStructure().keySet())) {
+            Iterator<DataPoint> iterator = stream.iterator();
+            iterator.next();
+            assertThat(stream.getStatistics().getMemoryReserved()).isGreaterThan(0);
+            iterator.next();
+            assertThat(iterator.hasNext()).isFalse();
+            assertThat(stream.getStatistics().getMemoryReserved()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testProfiling() throws Exception {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        engine.setConfiguration(VtlConfiguration.builder().profiling(true).profilingSampleInterval(1).build());
+        engine.put("ds", dataset);
+        engine.eval("res := [ds] { filter true }");
+
+        AbstractDatasetOperation result = (AbstractDatasetOperation) engine.get("res");
+        Ordering ordering = VtlOrdering.using(result).asc("id").build();
+        VtlStream stream = (VtlStream) result.computeData(ordering, Filtering.ALL, result.getDataStructure().keySet());
+        try (VtlStream data = stream) {
+            assertThat(data.count()).isEqualTo(2);
+        }
+
+        VtlStream.Statistics statistics = stream.getStatistics();
+        assertThat(statistics.isProfiled()).isTrue();
+        assertThat(statistics.getRowCount()).isEqualTo(2);
+        assertThat(statistics.getCellCount()).isEqualTo(4);
+        assertThat(statistics.getInclusiveNanos()).isGreaterThanOrEqualTo(statistics.getSelfNanos());
+        assertThat(statistics.getInclusiveNanos()).isGreaterThanOrEqualTo(statistics.getSortNanos());
+    }
+}
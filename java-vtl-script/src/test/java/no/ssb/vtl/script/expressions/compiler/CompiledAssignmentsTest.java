@@ -0,0 +1,83 @@
+package no.ssb.vtl.script.expressions.compiler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.model.VTLExpression;
+import no.ssb.vtl.model.VTLInteger;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.script.expressions.LiteralExpression;
+import no.ssb.vtl.script.expressions.VariableExpression;
+import no.ssb.vtl.script.expressions.arithmetic.AdditionExpression;
+import no.ssb.vtl.script.expressions.arithmetic.MultiplicationExpression;
+import no.ssb.vtl.script.operations.join.ComponentBindings;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompiledAssignmentsTest {
+
+    private static VTLExpression sum() {
+        return new AdditionExpression(
+                new VariableExpression(VTLInteger.class, "a"),
+                new VariableExpression(VTLInteger.class, "b")
+        );
+    }
+
+    @Test
+    public void testSharedSubexpressions() {
+        DataStructure structure = DataStructure.builder()
+                .put("a", Component.Role.MEASURE, Long.class)
+                .put("b", Component.Role.MEASURE, Long.class)
+                .put("x", Component.Role.MEASURE, Long.class)
+                .put("y", Component.Role.MEASURE, Long.class)
+                .put("z", Component.Role.MEASURE, Long.class)
+                .build();
+        ComponentBindings bindings = new ComponentBindings(StaticDataset.create(structure).build());
+        VTLExpression one = new LiteralExpression(VTLObject.of(1L));
+
+        // x := (a + b) * 2, y := (a + b) + 1, a := a + b, z := a + b
+        CompiledAssignments assignments = CompiledAssignments.builder(structure.size())
+                .add(new MultiplicationExpression(sum(), new LiteralExpression(VTLObject.of(2L))), bindings,
+                        structure, structure.indexOf("x"))
+                .add(new AdditionExpression(sum(), one), bindings, structure, structure.indexOf("y"))
+                .add(sum(), bindings, structure, structure.indexOf("a"))
+                .add(sum(), bindings, structure, structure.indexOf("z"))
+                .build();
+
+        // The last a + b reads the assigned value of a.
+        assertThat(assignments.getSharedCount()).isEqualTo(1);
+
+        DataPoint dataPoint = DataPoint.create(
+                VTLObject.of(1L), VTLObject.of(2L), VTLObject.NULL, VTLObject.NULL, VTLObject.NULL
+        );
+        assignments.evaluate(dataPoint);
+        assertThat(dataPoint.stream().map(VTLObject::get)).containsExactly(3L, 2L, 6L, 4L, 5L);
+
+        dataPoint.set(0, VTLObject.of(10L));
+        dataPoint.set(1, VTLObject.of(20L));
+        assignments.evaluate(dataPoint);
+        assertThat(dataPoint.stream().map(VTLObject::get)).containsExactly(30L, 20L, 60L, 31L, 50L);
+    }
+}
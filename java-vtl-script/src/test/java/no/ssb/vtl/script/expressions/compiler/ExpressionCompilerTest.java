@@ -0,0 +1,241 @@
+package no.ssb.vtl.script.expressions.compiler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableList;
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.model.VTLBoolean;
+import no.ssb.vtl.model.VTLExpression;
+import no.ssb.vtl.model.VTLFloat;
+import no.ssb.vtl.model.VTLFunction;
+import no.ssb.vtl.model.VTLInteger;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.model.VTLString;
+import no.ssb.vtl.script.expressions.FunctionExpression;
+import no.ssb.vtl.script.expressions.LiteralExpression;
+import no.ssb.vtl.script.expressions.VariableExpression;
+import no.ssb.vtl.script.expressions.arithmetic.AdditionExpression;
+import no.ssb.vtl.script.expressions.arithmetic.DivisionExpression;
+import no.ssb.vtl.script.expressions.arithmetic.MultiplicationExpression;
+import no.ssb.vtl.script.expressions.arithmetic.SubtractionExpression;
+import no.ssb.vtl.script.expressions.equality.EqualExpression;
+import no.ssb.vtl.script.expressions.equality.GraterThanExpression;
+import no.ssb.vtl.script.expressions.equality.IsNotNullExpression;
+import no.ssb.vtl.script.expressions.equality.IsNullExpression;
+import no.ssb.vtl.script.expressions.equality.LesserOrEqualExpression;
+import no.ssb.vtl.script.expressions.equality.NotEqualExpression;
+import no.ssb.vtl.script.expressions.logic.AndExpression;
+import no.ssb.vtl.script.expressions.logic.NotExpression;
+import no.ssb.vtl.script.expressions.logic.OrExpression;
+import no.ssb.vtl.script.expressions.logic.XorExpression;
+import no.ssb.vtl.script.functions.AbstractVTLFunction;
+import no.ssb.vtl.script.functions.TypeSafeArguments;
+import no.ssb.vtl.script.functions.VTLAbs;
+import no.ssb.vtl.script.functions.VTLConcatenation;
+import no.ssb.vtl.script.functions.VTLRound;
+import no.ssb.vtl.script.operations.join.ComponentBindings;
+import no.ssb.vtl.script.operations.join.DataPointBindings;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.script.Bindings;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpressionCompilerTest {
+
+    private static final AbstractVTLFunction.Argument<VTLString> VALUE =
+            new AbstractVTLFunction.Argument<>("value", VTLString.class);
+
+    @Rule
+    public JUnitSoftAssertions softly = new JUnitSoftAssertions();
+
+    private Dataset dataset;
+    private ComponentBindings bindings;
+    private List<DataPoint> data;
+
+    private VTLExpression id = new VariableExpression(VTLString.class, "id");
+    private VTLExpression integer = new VariableExpression(VTLInteger.class, "integer");
+    private VTLExpression number = new VariableExpression(VTLFloat.class, "number");
+    private VTLExpression bool = new VariableExpression(VTLBoolean.class, "bool");
+
+    @Before
+    public void setUp() {
+        dataset = StaticDataset.create()
+                .addComponent("id", Component.Role.IDENTIFIER, String.class)
+                .addComponent("integer", Component.Role.MEASURE, Long.class)
+                .addComponent("number", Component.Role.MEASURE, Double.class)
+                .addComponent("bool", Component.Role.MEASURE, Boolean.class)
+                .addPoints("a", 1L, 1.5, true)
+                .addPoints("b", 2L, -2.0, false)
+                .addPoints("c", null, 3.0, null)
+                .addPoints("d", 4L, null, true)
+                .addPoints("e", null, null, null)
+                .build();
+        bindings = new ComponentBindings(dataset);
+        data = dataset.getData().collect(Collectors.toList());
+    }
+
+    @Test
+    public void testCompiledMatchesInterpreter() {
+        VTLExpression one = new LiteralExpression(VTLObject.of(1L));
+        VTLExpression half = new LiteralExpression(VTLObject.of(0.5));
+
+        List<VTLExpression> expressions = ImmutableList.of(
+                new AdditionExpression(integer, one),
+                new SubtractionExpression(integer, integer),
+                new MultiplicationExpression(integer, number),
+                new DivisionExpression(integer, one),
+                new AdditionExpression(number, half),
+                new EqualExpression(integer, one),
+                new GraterThanExpression(number, integer),
+                new LesserOrEqualExpression(number, half),
+                new NotEqualExpression(id, new LiteralExpression(VTLObject.of("a"))),
+                new IsNullExpression(integer),
+                new IsNotNullExpression(number),
+                new IsNullExpression(id),
+                new AndExpression(bool, new GraterThanExpression(integer, one)),
+                new OrExpression(bool, new IsNullExpression(number)),
+                new XorExpression(bool, new EqualExpression(integer, one)),
+                new NotExpression(bool)
+        );
+
+        DataPointBindings dataPointBindings = new DataPointBindings(bindings, dataset.getDataStructure());
+        for (VTLExpression expression : expressions) {
+            CompiledExpression compiled = ExpressionCompiler.compile(expression, bindings, dataset.getDataStructure());
+            softly.assertThat(compiled.isInterpreted()).as("interpreted %s", expression).isFalse();
+            for (DataPoint dataPoint : data) {
+                dataPointBindings.setDataPoint(dataPoint);
+                Object expected = expression.resolve(dataPointBindings).get();
+                Object actual = compiled.resolve(dataPoint, null).get();
+                softly.assertThat(actual).as("%s with %s", expression, dataPoint).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void testFunction() {
+        VTLExpression expression = new AdditionExpression(
+                new FunctionExpression<>(VTLAbs.getInstance(), number),
+                new FunctionExpression<>(VTLRound.getInstance(), number, new LiteralExpression(VTLObject.of(0L)))
+        );
+        CompiledExpression compiled = ExpressionCompiler.compile(expression, bindings, dataset.getDataStructure());
+        assertThat(compiled.isInterpreted()).isFalse();
+
+        DataPointBindings dataPointBindings = new DataPointBindings(bindings, dataset.getDataStructure());
+        // The functions do not accept untyped nulls.
+        for (DataPoint dataPoint : data.subList(0, 3)) {
+            dataPointBindings.setDataPoint(dataPoint);
+            softly.assertThat(compiled.resolve(dataPoint, null).get())
+                    .as("%s with %s", expression, dataPoint)
+                    .isEqualTo(expression.resolve(dataPointBindings).get());
+        }
+    }
+
+    @Test
+    public void testFunctionConcurrent() throws Exception {
+        // Both threads resolve the first argument before either of them invokes the function.
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        VTLFunction<VTLString> await = new AbstractVTLFunction<VTLString>("await", VTLString.class, VALUE) {
+            @Override
+            protected VTLString safeInvoke(TypeSafeArguments arguments) {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return arguments.get(VALUE);
+            }
+        };
+        CompiledExpression compiled = ExpressionCompiler.compile(
+                new FunctionExpression<>(VTLConcatenation.getInstance(), id, new FunctionExpression<>(await, id)),
+                bindings, dataset.getDataStructure()
+        );
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<VTLObject> first = executor.submit(() -> compiled.resolve(data.get(0), null));
+            Future<VTLObject> second = executor.submit(() -> compiled.resolve(data.get(1), null));
+            assertThat(first.get(10, TimeUnit.SECONDS).get()).isEqualTo("aa");
+            assertThat(second.get(10, TimeUnit.SECONDS).get()).isEqualTo("bb");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPredicate() {
+        CompiledExpression compiled = ExpressionCompiler.compile(
+                new OrExpression(bool, new IsNullExpression(integer)),
+                bindings, dataset.getDataStructure()
+        );
+
+        List<VTLObject> ids = data.stream()
+                .filter(dataPoint -> compiled.test(dataPoint, null))
+                .map(dataPoint -> dataPoint.get(0))
+                .collect(Collectors.toList());
+
+        assertThat(ids).containsExactly(
+                VTLObject.of("a"), VTLObject.of("c"), VTLObject.of("d"), VTLObject.of("e")
+        );
+    }
+
+    @Test
+    public void testFallback() {
+        VTLExpression opaque = new VTLExpression() {
+            @Override
+            public VTLObject resolve(Bindings bindings) {
+                return VTLObject.of(((VTLObject) bindings.get("integer")).get() != null);
+            }
+
+            @Override
+            public Class<?> getVTLType() {
+                return VTLBoolean.class;
+            }
+        };
+        CompiledExpression compiled = ExpressionCompiler.compile(
+                new AndExpression(opaque, bool), bindings, dataset.getDataStructure()
+        );
+        assertThat(compiled.isInterpreted()).isTrue();
+
+        DataPointBindings dataPointBindings = new DataPointBindings(bindings, dataset.getDataStructure());
+        List<VTLObject> ids = data.stream()
+                .map(dataPointBindings::setDataPoint)
+                .map(DataPointBindings::getDataPoint)
+                .filter(dataPoint -> compiled.test(dataPoint, dataPointBindings))
+                .map(dataPoint -> dataPoint.get(0))
+                .collect(Collectors.toList());
+
+        assertThat(ids).containsExactly(VTLObject.of("a"), VTLObject.of("d"));
+    }
+}
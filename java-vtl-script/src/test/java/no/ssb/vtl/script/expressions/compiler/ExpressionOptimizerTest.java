@@ -0,0 +1,157 @@
+package no.ssb.vtl.script.expressions.compiler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.VTLBoolean;
+import no.ssb.vtl.model.VTLDate;
+import no.ssb.vtl.model.VTLExpression;
+import no.ssb.vtl.model.VTLInteger;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.model.VTLString;
+import no.ssb.vtl.script.expressions.FunctionExpression;
+import no.ssb.vtl.script.expressions.IfThenElseExpression;
+import no.ssb.vtl.script.expressions.LiteralExpression;
+import no.ssb.vtl.script.expressions.VariableExpression;
+import no.ssb.vtl.script.expressions.arithmetic.AdditionExpression;
+import no.ssb.vtl.script.expressions.arithmetic.MultiplicationExpression;
+import no.ssb.vtl.script.expressions.equality.GraterThanExpression;
+import no.ssb.vtl.script.expressions.logic.AndExpression;
+import no.ssb.vtl.script.expressions.logic.NotExpression;
+import no.ssb.vtl.script.expressions.logic.OrExpression;
+import no.ssb.vtl.script.functions.AbstractVTLFunction;
+import no.ssb.vtl.script.functions.TypeSafeArguments;
+import no.ssb.vtl.script.functions.VTLDateFromString;
+import no.ssb.vtl.script.functions.VTLIntegerFromString;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpressionOptimizerTest {
+
+    private VTLExpression x = new VariableExpression(VTLInteger.class, "x");
+    private VTLExpression b = new VariableExpression(VTLBoolean.class, "b");
+
+    private static LiteralExpression literal(Object value) {
+        return new LiteralExpression(VTLObject.of(value));
+    }
+
+    @Test
+    public void testFoldArithmetic() {
+        VTLExpression optimized = ExpressionOptimizer.optimize(
+                new GraterThanExpression(x, new MultiplicationExpression(literal(2L), literal(1000L)))
+        );
+
+        assertThat(optimized).isInstanceOf(GraterThanExpression.class);
+        VTLExpression right = ((GraterThanExpression) optimized).getRightOperand();
+        assertThat(right).isInstanceOf(LiteralExpression.class);
+        assertThat(right.resolve(null).get()).isEqualTo(2000L);
+        assertThat(right.getVTLType()).isEqualTo(VTLInteger.class);
+    }
+
+    @Test
+    public void testFoldFunction() {
+        VTLExpression date = new FunctionExpression<>(
+                VTLDateFromString.getInstance(), literal("2019"), literal("YYYY")
+        );
+        VTLExpression optimized = ExpressionOptimizer.optimize(date);
+        assertThat(optimized).isInstanceOf(LiteralExpression.class);
+        assertThat(optimized.getVTLType()).isEqualTo(VTLDate.class);
+        assertThat(optimized.resolve(null)).isEqualTo(date.resolve(null));
+
+        // Errors are left to the evaluation.
+        VTLExpression invalid = new FunctionExpression<>(VTLIntegerFromString.getInstance(), literal("abc"));
+        assertThat(ExpressionOptimizer.optimize(invalid)).isSameAs(invalid);
+    }
+
+    @Test
+    public void testNonDeterministicFunction() {
+        AtomicLong counter = new AtomicLong();
+        AbstractVTLFunction<VTLInteger> next = new AbstractVTLFunction<VTLInteger>("next", VTLInteger.class,
+                new AbstractVTLFunction.Argument<>("step", VTLInteger.class)) {
+            @Override
+            protected VTLInteger safeInvoke(TypeSafeArguments arguments) {
+                return VTLInteger.of(counter.incrementAndGet());
+            }
+
+            @Override
+            public boolean isDeterministic() {
+                return false;
+            }
+        };
+        VTLExpression expression = new FunctionExpression<>(next, literal(1L));
+        assertThat(ExpressionOptimizer.optimize(expression)).isSameAs(expression);
+    }
+
+    @Test
+    public void testIfThenElse() {
+        VTLExpression y = new VariableExpression(VTLInteger.class, "y");
+
+        IfThenElseExpression alwaysTrue = new IfThenElseExpression.Builder(y)
+                .addCondition(literal(true), x)
+                .build();
+        assertThat(ExpressionOptimizer.optimize(alwaysTrue)).isSameAs(x);
+
+        IfThenElseExpression neverTrue = new IfThenElseExpression.Builder(y)
+                .addCondition(literal(false), x)
+                .build();
+        assertThat(ExpressionOptimizer.optimize(neverTrue)).isSameAs(y);
+
+        IfThenElseExpression partial = new IfThenElseExpression.Builder(y)
+                .addCondition(literal(false), literal(1L))
+                .addCondition(b, x)
+                .build();
+        VTLExpression optimized = ExpressionOptimizer.optimize(partial);
+        assertThat(optimized).isInstanceOf(IfThenElseExpression.class);
+        assertThat(((IfThenElseExpression) optimized).getConditions()).containsOnlyKeys(b);
+    }
+
+    @Test
+    public void testBooleanSimplification() {
+        assertThat(ExpressionOptimizer.optimize(new AndExpression(b, literal(true)))).isSameAs(b);
+        assertThat(ExpressionOptimizer.optimize(new OrExpression(literal(false), b))).isSameAs(b);
+        assertThat(ExpressionOptimizer.optimize(new NotExpression(new NotExpression(b)))).isSameAs(b);
+
+        VTLExpression alwaysFalse = ExpressionOptimizer.optimize(new AndExpression(b, literal(false)));
+        assertThat(alwaysFalse.resolve(null).get()).isEqualTo(false);
+
+        VTLExpression alwaysTrue = ExpressionOptimizer.optimize(new OrExpression(literal(true), b));
+        assertThat(alwaysTrue.resolve(null).get()).isEqualTo(true);
+
+        // null and x cannot be simplified.
+        VTLExpression unknown = new AndExpression(literal((Boolean) null), b);
+        assertThat(ExpressionOptimizer.optimize(unknown)).isSameAs(unknown);
+    }
+
+    @Test
+    public void testNullPropagation() {
+        VTLExpression optimized = ExpressionOptimizer.optimize(
+                new AdditionExpression(x, literal((Long) null))
+        );
+        assertThat(optimized).isInstanceOf(LiteralExpression.class);
+        assertThat(optimized.resolve(null).get()).isNull();
+        assertThat(optimized.getVTLType()).isEqualTo(VTLInteger.class);
+
+        VTLExpression unchanged = new GraterThanExpression(x, new VariableExpression(VTLString.class, "s"));
+        assertThat(ExpressionOptimizer.optimize(unchanged)).isSameAs(unchanged);
+    }
+}
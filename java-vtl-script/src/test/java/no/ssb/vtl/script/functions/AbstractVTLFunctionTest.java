@@ -286,4 +286,31 @@ public class AbstractVTLFunctionTest {
 
         assertThat(function.toString()).isNotEmpty();
     }
+
+    @Test
+    public void testInvokeArray() throws Exception {
+        AbstractVTLFunction.Argument<VTLString> first = new AbstractVTLFunction.Argument<>("first", VTLString.class);
+        AbstractVTLFunction.Argument<VTLString> second = new AbstractVTLFunction.OptionalArgument<>(
+                "second", VTLString.class, VTLObject.of("default"));
+        AbstractVTLFunction<VTLString> function = new AbstractVTLFunction<VTLString>(
+                "testInvokeArray",
+                VTLString.class,
+                first, second
+        ) {
+            @Override
+            protected VTLString safeInvoke(TypeSafeArguments arguments) {
+                return VTLString.of(arguments.get(first).get() + arguments.get(second).get());
+            }
+        };
+
+        assertThat(function.invoke(new VTLObject[]{VTLObject.of("a"), VTLObject.of("b")}).get()).isEqualTo("ab");
+        VTLObject[] missing = {VTLObject.of("a"), null};
+        assertThat(function.invoke(missing).get()).isEqualTo("adefault");
+        assertThat(missing[1]).as("missing optional argument of the caller").isNull();
+
+        assertThatThrownBy(() -> function.invoke(new VTLObject[]{null, VTLObject.of("b")}))
+                .as("exception when a required argument is missing")
+                .hasMessageContaining("first")
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+    }
 }
@@ -0,0 +1,74 @@
+package no.ssb.vtl.script.functions;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.VTLDate;
+import no.ssb.vtl.model.VTLObject;
+import org.assertj.core.util.Lists;
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class VTLDateFromStringTest {
+
+    private final VTLDateFromString vtlDateFromString = VTLDateFromString.getInstance();
+
+    @Test
+    public void testInvoke() throws Exception {
+        VTLDate result = vtlDateFromString.invoke(
+                Lists.newArrayList(VTLObject.of("2019"), VTLObject.of("YYYY"))
+        );
+        assertThat(result.get()).isEqualTo(Instant.parse("2019-01-01T00:00:00Z"));
+        assertThat(result.getEpochSecond()).isEqualTo(Instant.parse("2019-01-01T00:00:00Z").getEpochSecond());
+    }
+
+    @Test
+    public void testInvokeCached() throws Exception {
+        VTLDate first = vtlDateFromString.invoke(
+                Lists.newArrayList(VTLObject.of("2001"), VTLObject.of("YYYY"))
+        );
+        long size = vtlDateFromString.cacheSize();
+        VTLDate second = vtlDateFromString.invoke(
+                Lists.newArrayList(VTLObject.of("2001"), VTLObject.of("YYYY"))
+        );
+        assertThat(second).isSameAs(first);
+        assertThat(vtlDateFromString.cacheSize()).isEqualTo(size);
+    }
+
+    @Test
+    public void testInvokeNull() throws Exception {
+        VTLDate result = vtlDateFromString.invoke(
+                Lists.newArrayList(VTLObject.of((String) null), VTLObject.of("YYYY"))
+        );
+        assertThat(result.get()).isNull();
+    }
+
+    @Test
+    public void testInvalidFormat() throws Exception {
+        assertThatThrownBy(() -> vtlDateFromString.invoke(
+                Lists.newArrayList(VTLObject.of("2019"), VTLObject.of("DD-MM"))
+        ))
+                .hasMessageContaining("DD-MM")
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+    }
+}
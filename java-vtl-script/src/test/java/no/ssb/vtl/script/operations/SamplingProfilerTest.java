@@ -0,0 +1,125 @@
+package no.ssb.vtl.script.operations;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import com.netflix.spectator.api.ManualClock;
+import no.ssb.vtl.model.DataPoint;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+public class SamplingProfilerTest {
+
+    @Rule
+    public JUnitSoftAssertions softly = new JUnitSoftAssertions();
+
+    private final ManualClock clock = new ManualClock();
+
+    /**
+     * The first row takes 1000ns, the others 10ns each.
+     */
+    private Stream<DataPoint> rows(int count) {
+        return LongStream.range(0, count).mapToObj(i -> {
+            clock.setMonotonicTime(clock.monotonicTime() + (i == 0 ? 1000 : 10));
+            return DataPoint.create(i, "value");
+        });
+    }
+
+    @Test
+    public void testSampled() {
+        SamplingProfiler profiler = new SamplingProfiler(10, clock);
+        try (Stream<DataPoint> stream = profiler.measure(rows(101))) {
+            softly.assertThat(stream.count()).isEqualTo(101);
+        }
+
+        softly.assertThat(profiler.getRows()).isEqualTo(101);
+        softly.assertThat(profiler.getCells()).isEqualTo(202);
+        softly.assertThat(profiler.getSamples()).isEqualTo(10);
+        softly.assertThat(profiler.getFirstRowNanos()).isEqualTo(1000);
+        softly.assertThat(profiler.getEstimatedNanos()).isEqualTo(2000);
+    }
+
+    @Test
+    public void testEveryRow() {
+        SamplingProfiler profiler = new SamplingProfiler(1, clock);
+        try (Stream<DataPoint> stream = profiler.measure(rows(101))) {
+            softly.assertThat(stream.count()).isEqualTo(101);
+        }
+
+        softly.assertThat(profiler.getSamples()).isEqualTo(100);
+        softly.assertThat(profiler.getEstimatedNanos()).isEqualTo(2000);
+    }
+
+    @Test
+    public void testMergedAtClose() {
+        SamplingProfiler profiler = new SamplingProfiler(10, clock);
+        try (Stream<DataPoint> stream = profiler.measure(rows(101))) {
+            softly.assertThat(stream.limit(5).count()).isEqualTo(5);
+            softly.assertThat(profiler.getRows()).isEqualTo(0);
+        }
+
+        softly.assertThat(profiler.getRows()).isEqualTo(5);
+        softly.assertThat(profiler.getFirstRowNanos()).isEqualTo(1000);
+        softly.assertThat(profiler.getEstimatedNanos()).isEqualTo(1000);
+    }
+
+    @Test
+    public void testEmpty() {
+        SamplingProfiler profiler = new SamplingProfiler(10, clock);
+        try (Stream<DataPoint> stream = profiler.measure(rows(0))) {
+            softly.assertThat(stream.count()).isEqualTo(0);
+        }
+
+        softly.assertThat(profiler.getRows()).isEqualTo(0);
+        softly.assertThat(profiler.getEstimatedNanos()).isEqualTo(0);
+    }
+
+    @Test
+    public void testParallel() {
+        SamplingProfiler profiler = new SamplingProfiler(10, clock);
+        Stream<DataPoint> source = LongStream.range(0, 10_000).mapToObj(i -> DataPoint.create(i, "value")).parallel();
+        try (Stream<DataPoint> stream = profiler.measure(source)) {
+            softly.assertThat(stream.isParallel()).isTrue();
+            softly.assertThat(stream.map(dataPoint -> dataPoint.get(0).get()).collect(Collectors.toList()))
+                    .isEqualTo(LongStream.range(0, 10_000).boxed().collect(Collectors.toList()));
+        }
+
+        softly.assertThat(profiler.getRows()).isEqualTo(10_000);
+        softly.assertThat(profiler.getCells()).isEqualTo(20_000);
+    }
+
+    @Test
+    public void testSplit() {
+        SamplingProfiler profiler = new SamplingProfiler(10, clock);
+        Spliterator<DataPoint> spliterator = profiler.measure(rows(101).parallel()).spliterator();
+        Spliterator<DataPoint> split = spliterator.trySplit();
+
+        softly.assertThat(split).isNotNull();
+        softly.assertThat(spliterator.hasCharacteristics(Spliterator.ORDERED)).isTrue();
+    }
+}
@@ -26,6 +26,8 @@ import no.ssb.vtl.model.DataStructure;
 import no.ssb.vtl.model.Dataset;
 import no.ssb.vtl.model.StaticDataset;
 import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.model.VtlFiltering;
+import no.ssb.vtl.model.VtlOrdering;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -298,4 +300,36 @@ public class CheckSingleRuleOperationTest {
 
     }
 
+    @Test
+    public void testPushDown() throws Exception {
+        Dataset ds = StaticDataset.create()
+                .withName("id", "measure", "CONDITION")
+                .andRoles(IDENTIFIER, MEASURE, MEASURE)
+                .andTypes(String.class, String.class, Boolean.class)
+                .addPoints("a", "measure a", false)
+                .addPoints("b", "measure b", true)
+                .addPoints("c", "measure c", null)
+                .addPoints("d", "measure d", false)
+                .build();
+
+        CheckSingleRuleOperation checkOperation = new CheckSingleRuleOperation.Builder(ds)
+                .rowsToReturn(CheckSingleRuleOperation.RowsToReturn.NOT_VALID)
+                .componentsToReturn(CheckSingleRuleOperation.ComponentsToReturn.MEASURES)
+                .errorCode("error001")
+                .build();
+
+        // The error code is constant and does not prevent the ordering from being pushed down.
+        VtlOrdering ordering = VtlOrdering.using(checkOperation).asc(ERROR_CODE_LABEL).desc("id").build();
+        assertThat(checkOperation.computeRequiredOrdering(ordering).columns()).containsExactly("id");
+
+        // Only invalid rows are requested from the child.
+        VtlFiltering filtering = VtlFiltering.using(checkOperation).with(VtlFiltering.neq("id", "d"));
+        VtlFiltering required = (VtlFiltering) checkOperation.computeRequiredFiltering(filtering);
+        assertThat(required.toString()).contains("id!=d", "CONDITION!=true");
+
+        List<DataPoint> collect = checkOperation.getData(ordering, filtering, checkOperation.getDataStructure().keySet())
+                .get().collect(toList());
+        assertThat(collect).extracting(dataPoint -> dataPoint.get(0).get()).containsExactly("c", "a");
+        assertThat(collect).extracting(dataPoint -> dataPoint.get(2).get()).containsOnly("error001");
+    }
 }
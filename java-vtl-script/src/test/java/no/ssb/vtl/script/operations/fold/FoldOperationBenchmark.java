@@ -25,11 +25,14 @@ import com.google.common.collect.Iterators;
 import no.ssb.vtl.model.DataPoint;
 import no.ssb.vtl.model.DataStructure;
 import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.Filtering;
+import no.ssb.vtl.model.Ordering;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -40,6 +43,7 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.Spliterator;
 import java.util.stream.Stream;
 
@@ -52,6 +56,9 @@ public class FoldOperationBenchmark {
     @State(Scope.Benchmark)
     public static class FoldState {
 
+        @Param({"false", "true"})
+        public boolean reuseRows;
+
         private Dataset dataset;
         private FoldOperation clause;
         private Spliterator<DataPoint> spliterator;
@@ -82,6 +89,12 @@ public class FoldOperationBenchmark {
                     return Stream.generate(source::next);
                 }
 
+                @Override
+                public Optional<Stream<DataPoint>> getData(Ordering orders, Filtering filtering, Set<String> components) {
+                    // The default implementation sorts, the generated stream is infinite.
+                    return Optional.of(getData());
+                }
+
                 @Override
                 public Optional<Map<String, Integer>> getDistinctValuesCount() {
                     return Optional.empty();
@@ -102,7 +115,8 @@ public class FoldOperationBenchmark {
                     dataset,
                     "newId",
                     "newMeasure",
-                    ImmutableSet.of("measure1", "measure2")
+                    ImmutableSet.of("measure1", "measure2"),
+                    reuseRows
             );
 
             spliterator = clause.getData().spliterator();
@@ -46,11 +46,13 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -466,4 +468,69 @@ public class FoldOperationTest extends RandomizedTest {
 
         }
     }
+
+    @Test
+    public void testFoldReuseRows() {
+
+        Dataset dataset = StaticDataset.create()
+                .addComponent("id1", IDENTIFIER, String.class)
+                .addComponent("measure1", MEASURE, String.class)
+                .addComponent("measure2", MEASURE, String.class)
+
+                .addPoints("id1-1", "measure1-1", "measure2-1")
+                .addPoints("id1-2", null, "measure2-2")
+                .addPoints("id1-3", "measure1-3", null)
+
+                .build();
+
+        FoldOperation clause = new FoldOperation(
+                dataset, "newId", "newMeasure", ImmutableSet.of("measure1", "measure2"), true
+        );
+
+        List<DataPoint> rows = new ArrayList<>();
+        try (Stream<DataPoint> stream = clause.getData()) {
+            // Consumers of reused rows must copy them.
+            stream.map(DataPoint::create).forEach(rows::add);
+        }
+
+        assertThat(rows).containsExactly(
+                DataPoint.create("id1-1", "measure1", "measure1-1"),
+                DataPoint.create("id1-1", "measure2", "measure2-1"),
+                DataPoint.create("id1-2", "measure2", "measure2-2"),
+                DataPoint.create("id1-3", "measure1", "measure1-3")
+        );
+    }
+
+    @Test
+    public void testFoldReuseRowsSorted() {
+
+        Dataset dataset = StaticDataset.create()
+                .addComponent("id1", IDENTIFIER, String.class)
+                .addComponent("measure1", MEASURE, String.class)
+                .addComponent("measure2", MEASURE, String.class)
+
+                .addPoints("id1-1", "measure1-1", "measure2-1")
+                .addPoints("id1-2", null, "measure2-2")
+                .addPoints("id1-3", "measure1-3", null)
+
+                .build();
+
+        FoldOperation clause = new FoldOperation(
+                dataset, "newId", "newMeasure", ImmutableSet.of("measure1", "measure2"), true
+        );
+
+        // The post sort buffers the rows, they must not be reused.
+        Ordering ordering = VtlOrdering.using(clause).asc("id1").desc("newId").build();
+        List<DataPoint> rows;
+        try (Stream<DataPoint> stream = clause.getData(ordering, Filtering.ALL, clause.getDataStructure().keySet()).get()) {
+            rows = stream.collect(Collectors.toList());
+        }
+
+        assertThat(rows).containsExactly(
+                DataPoint.create("id1-1", "measure2", "measure2-1"),
+                DataPoint.create("id1-1", "measure1", "measure1-1"),
+                DataPoint.create("id1-2", "measure2", "measure2-2"),
+                DataPoint.create("id1-3", "measure1", "measure1-3")
+        );
+    }
 }
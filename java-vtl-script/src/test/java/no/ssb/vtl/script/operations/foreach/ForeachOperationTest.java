@@ -24,11 +24,13 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import no.ssb.vtl.model.Component;
 import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
 import no.ssb.vtl.model.Dataset;
 import no.ssb.vtl.model.StaticDataset;
 import no.ssb.vtl.model.VtlOrdering;
 import no.ssb.vtl.script.VTLDataset;
 import no.ssb.vtl.script.VTLScriptEngine;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.operations.hierarchy.HierarchyOperation;
 import no.ssb.vtl.script.operations.join.InnerJoinOperation;
 import org.junit.Test;
@@ -38,7 +40,18 @@ import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -46,6 +59,7 @@ import static no.ssb.vtl.model.Component.Role.ATTRIBUTE;
 import static no.ssb.vtl.model.Component.Role.IDENTIFIER;
 import static no.ssb.vtl.model.Component.Role.MEASURE;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class ForeachOperationTest {
 
@@ -74,6 +88,37 @@ public class ForeachOperationTest {
         );
     }
 
+    @Test
+    public void testEvalParallel() throws ScriptException {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            AtomicInteger tasks = new AtomicInteger();
+            VTLScriptEngine engine = new VTLScriptEngine();
+            engine.setConfiguration(VtlConfiguration.builder().operationExecutor(task -> {
+                tasks.incrementAndGet();
+                pool.execute(task);
+            }).parallelism(2).build());
+
+            engine.put("t1", createInnerJoin1());
+            engine.put("t2", createInnerJoin2());
+            engine.eval("" +
+                    "res := foreach year in t1, t2 do" +
+                    "  test := [t1, t2] {" +
+                    "    filter true" +
+                    "  }" +
+                    "done" +
+                    "");
+
+            Dataset ds = (Dataset) engine.get("res");
+            try (Stream<DataPoint> data = ds.getData()) {
+                assertThat(data).containsExactlyInAnyOrder(createInnerJoinResult());
+            }
+            assertThat(tasks).hasPositiveValue();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     @Test
     public void testInnerJoin() {
         Dataset data1 = createInnerJoin1();
@@ -107,6 +152,165 @@ public class ForeachOperationTest {
 
     }
 
+    @Test
+    public void testBlockCompiledOnce() {
+        AtomicInteger compilations = new AtomicInteger();
+
+        ForeachOperation foreachOperation = new ForeachOperation(
+                ImmutableMap.of("t1", createInnerJoin1(), "t2", createInnerJoin2()), ImmutableSet.of("year"));
+        foreachOperation.setBlock(bindings -> {
+            compilations.incrementAndGet();
+            VTLDataset t1 = (VTLDataset) bindings.get("t1");
+            VTLDataset t2 = (VTLDataset) bindings.get("t2");
+            return VTLDataset.of(new InnerJoinOperation(ImmutableMap.of("t1", t1.get(), "t2", t2.get())));
+        });
+
+        for (int i = 0; i < 2; i++) {
+            try (Stream<DataPoint> stream = foreachOperation.getData()) {
+                assertThat(stream).containsExactlyInAnyOrder(createInnerJoinResult());
+            }
+        }
+        assertThat(compilations).hasValue(1);
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Dataset source = createInnerJoin1();
+            ForeachOperation foreachOperation = new ForeachOperation(
+                    ImmutableMap.of("t1", source), ImmutableSet.of("year"));
+
+            // The first slices of an ascending and a descending read are both bound before the
+            // ascending read, then the descending read, consume theirs.
+            CyclicBarrier bound = new CyclicBarrier(2);
+            CountDownLatch ascendingRead = new CountDownLatch(1);
+            AtomicBoolean first = new AtomicBoolean(true);
+            ThreadLocal<Boolean> ascending = new ThreadLocal<>();
+            foreachOperation.setBlock(bindings -> {
+                Dataset t1 = ((VTLDataset) bindings.get("t1")).get();
+                return VTLDataset.of(new Dataset() {
+                    @Override
+                    public Stream<DataPoint> getData() {
+                        if (!first.get()) {
+                            return t1.getData();
+                        }
+                        try {
+                            bound.await(10, TimeUnit.SECONDS);
+                            first.set(false);
+                            if (!ascending.get()) {
+                                ascendingRead.await(10, TimeUnit.SECONDS);
+                            }
+                            List<DataPoint> slice = t1.getData().collect(Collectors.toList());
+                            ascendingRead.countDown();
+                            return slice.stream();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+
+                    @Override
+                    public Optional<Map<String, Integer>> getDistinctValuesCount() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public Optional<Long> getSize() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public DataStructure getDataStructure() {
+                        return t1.getDataStructure();
+                    }
+                });
+            });
+            VtlOrdering asc = VtlOrdering.using(foreachOperation).asc("year").build();
+            VtlOrdering desc = VtlOrdering.using(foreachOperation).desc("year").build();
+
+            Function<VtlOrdering, Callable<List<DataPoint>>> read = ordering -> () -> {
+                ascending.set(ordering == asc);
+                try (Stream<DataPoint> stream = foreachOperation.getData(ordering).get()) {
+                    return stream.collect(Collectors.toList());
+                }
+            };
+            Future<List<DataPoint>> ascendingData = executor.submit(read.apply(asc));
+            Future<List<DataPoint>> descendingData = executor.submit(read.apply(desc));
+
+            List<DataPoint> expected = source.getData().collect(Collectors.toList());
+            assertThat(ascendingData.get(10, TimeUnit.SECONDS)).containsExactlyInAnyOrderElementsOf(expected);
+            assertThat(descendingData.get(10, TimeUnit.SECONDS)).containsExactlyInAnyOrderElementsOf(expected);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ForeachOperation foreachOperation = new ForeachOperation(
+                    ImmutableMap.of("t1", createInnerJoin1(), "t2", createInnerJoin2()), ImmutableSet.of("year"));
+            foreachOperation.setBlock(bindings -> {
+                VTLDataset t1 = (VTLDataset) bindings.get("t1");
+                VTLDataset t2 = (VTLDataset) bindings.get("t2");
+                return VTLDataset.of(new InnerJoinOperation(ImmutableMap.of("t1", t1.get(), "t2", t2.get())));
+            });
+            foreachOperation.configure(
+                    VtlConfiguration.builder().operationExecutor(executor).parallelism(3).build()
+            );
+
+            VtlOrdering orderedByYear = VtlOrdering.using(foreachOperation).desc("year").build();
+            try (Stream<DataPoint> stream = foreachOperation.getData(orderedByYear).get()) {
+                assertThat(stream).containsExactly(createInnerJoinResult());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallelFailure() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ForeachOperation foreachOperation = new ForeachOperation(
+                    ImmutableMap.of("t1", createInnerJoin1()), ImmutableSet.of("year"));
+            foreachOperation.setBlock(bindings -> {
+                Dataset t1 = ((VTLDataset) bindings.get("t1")).get();
+                return VTLDataset.of(new Dataset() {
+                    @Override
+                    public Stream<DataPoint> getData() {
+                        throw new IllegalStateException("block failure");
+                    }
+
+                    @Override
+                    public Optional<Map<String, Integer>> getDistinctValuesCount() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public Optional<Long> getSize() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public DataStructure getDataStructure() {
+                        return t1.getDataStructure();
+                    }
+                });
+            });
+            foreachOperation.configure(
+                    VtlConfiguration.builder().operationExecutor(executor).parallelism(2).build()
+            );
+
+            assertThatThrownBy(() -> foreachOperation.getData().count())
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("block failure");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private DataPoint[] createInnerJoinResult() {
         return new DataPoint[]{DataPoint.create(2004, 1, "m1", "t1-2004", "m1", "t2-2004"),
                 DataPoint.create(2004, 2, "m2", "t1-2004", "m2", "t2-2004"),
@@ -0,0 +1,119 @@
+package no.ssb.vtl.script.operations.hierarchy;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.spectator.api.Registry;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.script.VTLScriptEngine;
+import org.junit.Test;
+
+import javax.script.ScriptException;
+import java.util.stream.Stream;
+
+import static no.ssb.vtl.model.Component.Role.IDENTIFIER;
+import static no.ssb.vtl.model.Component.Role.MEASURE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HierarchyCacheTest {
+
+    private static Dataset hierarchy(String... codes) {
+        StaticDataset.ValueBuilder builder = StaticDataset.create()
+                .addComponent("from", IDENTIFIER, String.class)
+                .addComponent("to", IDENTIFIER, String.class)
+                .addComponent("sign", IDENTIFIER, String.class)
+                .addPoints(codes[0], "total", "+");
+        for (int i = 1; i < codes.length; i++) {
+            builder.addPoints(codes[i], "total", "+");
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        Registry registry = new DefaultRegistry();
+        HierarchyCache cache = new HierarchyCache(HierarchyCache.DEFAULT_MAXIMUM_WEIGHT, registry);
+
+        HierarchyRollup first = cache.get(hierarchy("a", "b"));
+        HierarchyRollup second = cache.get(hierarchy("a", "b"));
+        HierarchyRollup third = cache.get(hierarchy("a", "c"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(third).isNotSameAs(first);
+        assertThat(cache.size()).isEqualTo(2);
+
+        assertThat(cache.stats().hitCount()).isEqualTo(1);
+        assertThat(cache.stats().missCount()).isEqualTo(2);
+        assertThat(registry.counter(HierarchyCache.METRIC_NAME, "result", "hit").count()).isEqualTo(1);
+        assertThat(registry.counter(HierarchyCache.METRIC_NAME, "result", "miss").count()).isEqualTo(2);
+    }
+
+    @Test
+    public void testKeyedByEdges() {
+        HierarchyCache cache = new HierarchyCache(HierarchyCache.DEFAULT_MAXIMUM_WEIGHT, new DefaultRegistry());
+
+        // Same characters, split differently between the edges.
+        HierarchyRollup first = cache.get(hierarchy("ab", "c"));
+        HierarchyRollup second = cache.get(hierarchy("a", "bc"));
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(cache.stats().missCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEngineCache() throws ScriptException {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        engine.put("ds", StaticDataset.create()
+                .addComponent("code", IDENTIFIER, String.class)
+                .addComponent("m", MEASURE, Long.class)
+                .addPoints("a", 1L)
+                .addPoints("b", 2L)
+                .build());
+        engine.put("h", hierarchy("a", "b"));
+        engine.eval("res := hierarchy(ds, ds.code, h, false)");
+
+        Dataset result = (Dataset) engine.get("res");
+        for (int i = 0; i < 2; i++) {
+            try (Stream<DataPoint> data = result.getData()) {
+                assertThat(data).contains(DataPoint.create("total", 3L));
+            }
+        }
+
+        HierarchyCache cache = engine.getConfiguration().getHierarchyCache();
+        assertThat(cache.stats().missCount()).isEqualTo(1);
+        assertThat(cache.stats().hitCount()).isEqualTo(1);
+        assertThat(new VTLScriptEngine().getConfiguration().getHierarchyCache()).isNotSameAs(cache);
+    }
+
+    @Test
+    public void testEviction() {
+        // Each hierarchy weighs more than the maximum.
+        HierarchyCache cache = new HierarchyCache(2, new DefaultRegistry());
+
+        cache.get(hierarchy("a", "b"));
+        cache.get(hierarchy("a", "b"));
+
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.stats().missCount()).isEqualTo(2);
+    }
+}
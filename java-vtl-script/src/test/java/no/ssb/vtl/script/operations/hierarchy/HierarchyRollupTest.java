@@ -0,0 +1,69 @@
+package no.ssb.vtl.script.operations.hierarchy;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+import no.ssb.vtl.model.VTLObject;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HierarchyRollupTest {
+
+    @Test
+    public void testCoefficients() {
+
+        // a -(+)-> ab -(+)-> total
+        // b -(+)-> ab
+        // b -(-)-> total
+        MutableValueGraph<VTLObject, Composition> graph = ValueGraphBuilder.directed().allowsSelfLoops(false).build();
+        graph.putEdgeValue(VTLObject.of("a"), VTLObject.of("ab"), Composition.UNION);
+        graph.putEdgeValue(VTLObject.of("b"), VTLObject.of("ab"), Composition.UNION);
+        graph.putEdgeValue(VTLObject.of("ab"), VTLObject.of("total"), Composition.UNION);
+        graph.putEdgeValue(VTLObject.of("b"), VTLObject.of("total"), Composition.COMPLEMENT);
+
+        HierarchyRollup rollup = HierarchyRollup.compile(graph);
+        assertThat(rollup.size()).isEqualTo(4);
+        assertThat(rollup.indexOf(VTLObject.of("unknown"))).isEqualTo(-1);
+
+        int b = rollup.indexOf(VTLObject.of("b"));
+        int ab = rollup.indexOf(VTLObject.of("ab"));
+        int total = rollup.indexOf(VTLObject.of("total"));
+
+        // b contributes to itself, to ab and twice to total (+b - b).
+        assertThat(rollup.targets(b)).containsExactlyInAnyOrder(b, ab, total);
+        for (int k = 0; k < rollup.targets(b).length; k++) {
+            int target = rollup.targets(b)[k];
+            if (target == total) {
+                assertThat(rollup.coefficients(b)[k]).isEqualTo(0);
+                assertThat(rollup.paths(b)[k]).isEqualTo(2);
+            } else {
+                assertThat(rollup.coefficients(b)[k]).isEqualTo(1);
+                assertThat(rollup.paths(b)[k]).isEqualTo(1);
+            }
+        }
+
+        int a = rollup.indexOf(VTLObject.of("a"));
+        assertThat(rollup.targets(a)).containsExactlyInAnyOrder(a, ab, total);
+        assertThat(rollup.coefficients(a)).containsOnly(1);
+    }
+}
@@ -35,6 +35,7 @@ import no.ssb.vtl.model.FilteringSpecification;
 import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.OrderingSpecification;
 import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.script.VtlConfiguration;
 import org.junit.Test;
 
 import java.time.Instant;
@@ -509,7 +510,8 @@ public class AbstractJoinOperationTest {
         }
 
         @Override
-        public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components) {
+        public Stream<DataPoint> computeData(Ordering orders, Filtering filtering, Set<String> components,
+                                             VtlConfiguration configuration) {
             return null;
         }
 
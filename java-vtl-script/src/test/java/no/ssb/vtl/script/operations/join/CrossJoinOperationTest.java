@@ -1,3 +1,5 @@
+package no.ssb.vtl.script.operations.join;
+
 /*-
  * ========================LICENSE_START=================================
  * Java VTL
@@ -7,9 +9,9 @@
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -17,3 +19,192 @@
  * limitations under the License.
  * =========================LICENSE_END==================================
  */
+
+import com.google.common.collect.ImmutableMap;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.Ordering;
+import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.model.VtlFiltering;
+import no.ssb.vtl.script.VtlConfiguration;
+import no.ssb.vtl.script.error.VTLCancellationException;
+import no.ssb.vtl.script.support.CancellationToken;
+import no.ssb.vtl.script.support.DatasetCloseWatcher;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static no.ssb.vtl.model.Component.Role.IDENTIFIER;
+import static no.ssb.vtl.model.Component.Role.MEASURE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CrossJoinOperationTest {
+
+    private final StaticDataset ds1 = StaticDataset.create()
+            .addComponent("id", IDENTIFIER, String.class)
+            .addComponent("m1", MEASURE, Long.class)
+            .addPoints("a", 1L)
+            .addPoints("b", 2L)
+            .addPoints("c", 3L)
+            .build();
+
+    private final StaticDataset ds2 = StaticDataset.create()
+            .addComponent("id", IDENTIFIER, String.class)
+            .addComponent("m2", MEASURE, Long.class)
+            .addPoints("x", 10L)
+            .addPoints("y", 20L)
+            .addPoints("z", 30L)
+            .addPoints("w", 40L)
+            .addPoints("v", 50L)
+            .build();
+
+    @Test
+    public void testStructure() {
+        CrossJoinOperation result = new CrossJoinOperation(ImmutableMap.of("ds1", ds1, "ds2", ds2));
+        assertThat(result.getDataStructure().keySet()).containsExactly(
+                "ds1_id", "m1", "ds2_id", "m2"
+        );
+        assertThat(result.getSize()).contains(15L);
+    }
+
+    @Test
+    public void testInMemory() {
+        CrossJoinOperation result = new CrossJoinOperation(ImmutableMap.of("ds1", ds1, "ds2", ds2));
+
+        try (Stream<DataPoint> data = result.getData()) {
+            assertThat(data).hasSize(15).contains(
+                    DataPoint.create("a", 1L, "x", 10L),
+                    DataPoint.create("c", 3L, "v", 50L)
+            );
+        }
+        assertThat(result.getSpilledBlocks()).isZero();
+    }
+
+    @Test
+    public void testFilterPushedDown() {
+        CrossJoinOperation result = new CrossJoinOperation(ImmutableMap.of("ds1", ds1, "ds2", ds2));
+        VtlFiltering filtering = VtlFiltering.using(result).with(VtlFiltering.and(
+                VtlFiltering.eq("m1", 2L),
+                VtlFiltering.eq("ds2_id", "y")
+        ));
+
+        // The prefixed columns are filtered after the product.
+        assertThat(result.computeRequiredFiltering(filtering).toString()).isEqualTo("(m1=2&TRUE)");
+        assertThat(result.computeRequiredOrdering(Ordering.ANY)).isEqualTo(Ordering.ANY);
+        try (Stream<DataPoint> data = result.getData(Ordering.ANY, filtering, result.getDataStructure().keySet()).get()) {
+            assertThat(data).containsExactly(DataPoint.create("b", 2L, "y", 20L));
+        }
+    }
+
+    @Test
+    public void testSpill() {
+        CrossJoinOperation inMemory = new CrossJoinOperation(ImmutableMap.of("ds1", ds1, "ds2", ds2));
+        CrossJoinOperation spilled = new CrossJoinOperation(ImmutableMap.of("ds1", ds1, "ds2", ds2), 2, 1);
+
+        List<DataPoint> expected = inMemory.getData().collect(Collectors.toList());
+        try (Stream<DataPoint> data = spilled.getData()) {
+            assertThat(data).containsExactlyInAnyOrderElementsOf(expected);
+        }
+        // 4 rows spilled in blocks of 2.
+        assertThat(spilled.getSpilledBlocks()).isEqualTo(2);
+    }
+
+    @Test
+    public void testThreeDatasets() {
+        StaticDataset ds3 = StaticDataset.create()
+                .addComponent("id3", IDENTIFIER, Long.class)
+                .addPoints(1L)
+                .addPoints(2L)
+                .build();
+
+        CrossJoinOperation result = new CrossJoinOperation(
+                ImmutableMap.of("ds1", ds1, "ds2", ds2, "ds3", ds3), 1, 1
+        );
+
+        assertThat(result.getDataStructure().keySet()).containsExactly(
+                "ds1_id", "m1", "ds2_id", "m2", "id3"
+        );
+        assertThat(result.getData()).hasSize(30).doesNotHaveDuplicates().contains(
+                DataPoint.create("b", 2L, "y", 20L, 2L)
+        );
+    }
+
+    @Test
+    public void testIntermediateProductComputedOnce() {
+        StaticDataset ds3 = StaticDataset.create()
+                .addComponent("id3", IDENTIFIER, Long.class)
+                .addPoints(1L)
+                .addPoints(2L)
+                .build();
+        StaticDataset first = spy(ds1);
+        StaticDataset second = spy(ds2);
+
+        CrossJoinOperation result = new CrossJoinOperation(
+                ImmutableMap.of("ds1", first, "ds2", second, "ds3", ds3), 1, 1
+        );
+
+        try (Stream<DataPoint> data = result.getData()) {
+            assertThat(data).hasSize(30).doesNotHaveDuplicates();
+        }
+        // ds1 is streamed for each of the 5 blocks of ds2, the product is
+        // then replayed for each block of ds3.
+        verify(first, times(5)).getData(any(), any(), any());
+        verify(second, times(1)).getData(any(), any(), any());
+    }
+
+    @Test
+    public void testCancelled() {
+        StaticDataset.ValueBuilder left = StaticDataset.create()
+                .addComponent("id1", IDENTIFIER, Long.class)
+                .addPoints(0L);
+        StaticDataset.ValueBuilder right = StaticDataset.create()
+                .addComponent("id2", IDENTIFIER, Long.class)
+                .addPoints(0L);
+        for (long i = 1; i < 100; i++) {
+            left.addPoints(i);
+            right.addPoints(i);
+        }
+        DatasetCloseWatcher leftWatcher = DatasetCloseWatcher.wrap(left.build());
+        DatasetCloseWatcher rightWatcher = DatasetCloseWatcher.wrap(right.build());
+
+        CancellationToken token = CancellationToken.create();
+        CrossJoinOperation crossJoin = new CrossJoinOperation(
+                ImmutableMap.of("left", leftWatcher, "right", rightWatcher), 10, 10
+        );
+        crossJoin.configure(VtlConfiguration.builder().cancellationToken(token).build());
+
+        AtomicLong rows = new AtomicLong();
+        Throwable throwable = catchThrowable(() -> {
+            try (Stream<DataPoint> data = crossJoin.getData()) {
+                data.forEach(dataPoint -> {
+                    if (rows.incrementAndGet() == 10) {
+                        token.cancel();
+                    }
+                });
+            }
+        });
+
+        assertThat(throwable).isInstanceOf(VTLCancellationException.class);
+        assertThat(((VTLCancellationException) throwable).isTimeout()).isFalse();
+        assertThat(rows.get()).isLessThan(100 * 100);
+        assertThat(leftWatcher.allStreamWereClosed()).isTrue();
+        assertThat(rightWatcher.allStreamWereClosed()).isTrue();
+    }
+
+    @Test
+    public void testEmpty() {
+        StaticDataset empty = StaticDataset.create()
+                .addComponent("id3", IDENTIFIER, Long.class)
+                .build();
+
+        assertThat(new CrossJoinOperation(ImmutableMap.of("ds1", ds1, "empty", empty)).getData()).isEmpty();
+        assertThat(new CrossJoinOperation(ImmutableMap.of("empty", empty, "ds1", ds1)).getData()).isEmpty();
+    }
+}
@@ -0,0 +1,97 @@
+package no.ssb.vtl.script.operations.join;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.model.VTLExpression;
+import no.ssb.vtl.model.VTLInteger;
+import no.ssb.vtl.model.VTLObject;
+import no.ssb.vtl.script.expressions.LiteralExpression;
+import no.ssb.vtl.script.expressions.VariableExpression;
+import no.ssb.vtl.script.expressions.arithmetic.AdditionExpression;
+import no.ssb.vtl.script.expressions.arithmetic.MultiplicationExpression;
+import no.ssb.vtl.script.operations.AbstractDatasetOperation;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JoinCalcOperationTest {
+
+    private static VTLExpression variable(String name) {
+        return new VariableExpression(VTLInteger.class, name);
+    }
+
+    private static VTLExpression sum() {
+        return new AdditionExpression(variable("a"), variable("b"));
+    }
+
+    @Test
+    public void testMergeAndEvaluate() {
+        Dataset dataset = StaticDataset.create()
+                .addComponent("id", Component.Role.IDENTIFIER, String.class)
+                .addComponent("a", Component.Role.MEASURE, Long.class)
+                .addComponent("b", Component.Role.MEASURE, Long.class)
+                .addPoints("1", 1L, 2L)
+                .addPoints("2", 10L, null)
+                .build();
+
+        ComponentBindings bindings = new ComponentBindings(dataset);
+
+        // x := (a + b) * 2, y := (a + b) + x, a := a + b, z := a + b
+        AbstractDatasetOperation result = assign(dataset, bindings, "x",
+                new MultiplicationExpression(sum(), new LiteralExpression(VTLObject.of(2L))));
+        assertThat(result).isInstanceOf(JoinAssignment.class);
+
+        result = assign(result, bindings, "y", new AdditionExpression(sum(), variable("x")));
+        assertThat(result).isInstanceOf(JoinCalcOperation.class);
+
+        result = assign(result, bindings, "a", sum());
+        result = assign(result, bindings, "z", sum());
+        assertThat(result).isInstanceOf(JoinCalcOperation.class);
+        assertThat(((JoinCalcOperation) result).getAssignments()).hasSize(4);
+
+        assertThat(result.getDataStructure().keySet()).containsExactly("id", "a", "b", "x", "y", "z");
+
+        List<List<Object>> values = result.getData()
+                .map(dataPoint -> dataPoint.stream().map(VTLObject::get).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        assertThat(values).containsExactly(
+                Arrays.asList("1", 3L, 2L, 6L, 9L, 5L),
+                Arrays.asList("2", null, null, null, null, null)
+        );
+    }
+
+    private static AbstractDatasetOperation assign(Dataset dataset, ComponentBindings bindings, String name,
+                                                   VTLExpression expression) {
+        JoinAssignment assignment = new JoinAssignment(dataset, expression, name, Component.Role.MEASURE,
+                false, bindings);
+        bindings.putAll(new ComponentBindings(assignment));
+        AbstractDatasetOperation merged = JoinCalcOperation.merge(assignment);
+        bindings.putAll(new ComponentBindings(merged));
+        return merged;
+    }
+}
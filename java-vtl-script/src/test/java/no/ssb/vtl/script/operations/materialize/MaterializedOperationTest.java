@@ -0,0 +1,202 @@
+package no.ssb.vtl.script.operations.materialize;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.Filtering;
+import no.ssb.vtl.model.Ordering;
+import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.model.VtlFiltering;
+import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
+import no.ssb.vtl.script.support.MemoryBudget;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class MaterializedOperationTest {
+
+    @Rule
+    public final JUnitSoftAssertions softly = new JUnitSoftAssertions();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private final Dataset dataset = counting(StaticDataset.create()
+            .addComponent("id", Component.Role.IDENTIFIER, Long.class)
+            .addComponent("m", Component.Role.MEASURE, String.class)
+            .addPoints(2L, "b")
+            .addPoints(1L, "a")
+            .addPoints(3L, "c")
+            .build());
+
+    private Dataset counting(Dataset delegate) {
+        return new Dataset() {
+            @Override
+            public Stream<DataPoint> getData() {
+                reads.incrementAndGet();
+                return delegate.getData();
+            }
+
+            @Override
+            public Optional<Map<String, Integer>> getDistinctValuesCount() {
+                return Optional.empty();
+            }
+
+            @Override
+            public Optional<Long> getSize() {
+                return delegate.getSize();
+            }
+
+            @Override
+            public DataStructure getDataStructure() {
+                return delegate.getDataStructure();
+            }
+        };
+    }
+
+    private static List<Object> ids(Stream<DataPoint> stream) {
+        try (Stream<DataPoint> data = stream) {
+            return data.map(dataPoint -> dataPoint.get(0).get()).collect(Collectors.toList());
+        }
+    }
+
+    private void assertServesOrderings(MaterializedOperation operation) {
+        Ordering asc = VtlOrdering.using(operation).asc("id").build();
+        Ordering desc = VtlOrdering.using(operation).desc("id").build();
+        Filtering all = Filtering.ALL;
+        softly.assertThat(ids(operation.computeData(asc, all, operation.getDataStructure().keySet())))
+                .containsExactly(1L, 2L, 3L);
+        softly.assertThat(ids(operation.computeData(desc, all, operation.getDataStructure().keySet())))
+                .containsExactly(3L, 2L, 1L);
+        softly.assertThat(ids(operation.computeData(asc, all, operation.getDataStructure().keySet())))
+                .containsExactly(1L, 2L, 3L);
+        softly.assertThat(ids(operation.getData())).containsExactlyInAnyOrder(1L, 2L, 3L);
+    }
+
+    @Test
+    public void testComputedOnce() {
+        MaterializationCache cache = new MaterializationCache(1000, 1000);
+        MaterializedOperation operation = new MaterializedOperation(dataset, cache);
+        softly.assertThat(operation.isMaterialized()).isFalse();
+
+        assertServesOrderings(operation);
+
+        softly.assertThat(reads.get()).isEqualTo(1);
+        softly.assertThat(operation.isMaterialized()).isTrue();
+        softly.assertThat(operation.getSize()).contains(3L);
+        softly.assertThat(cache.stats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSpilled() {
+        MaterializationCache cache = new MaterializationCache(1000, 2);
+        MaterializedOperation operation = new MaterializedOperation(dataset, cache);
+
+        assertServesOrderings(operation);
+
+        softly.assertThat(reads.get()).isEqualTo(1);
+        softly.assertThat(cache.getIfPresent(operation).isSpilled()).isTrue();
+    }
+
+    @Test
+    public void testEvicted() {
+        MaterializationCache cache = new MaterializationCache(10, 1000);
+        MaterializedOperation first = new MaterializedOperation(dataset, cache);
+        MaterializedOperation second = new MaterializedOperation(dataset, cache);
+
+        first.getData().close();
+        second.getData().close();
+        softly.assertThat(first.isMaterialized()).isFalse();
+        softly.assertThat(second.isMaterialized()).isTrue();
+
+        first.getData().close();
+        softly.assertThat(reads.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testSpilledOverMemoryLimit() {
+        MaterializationCache cache = new MaterializationCache(1000, 1000);
+        MaterializedOperation operation = new MaterializedOperation(dataset, cache);
+        MemoryBudget budget = MemoryBudget.withLimit(1);
+        operation.configure(VtlConfiguration.builder().memoryBudget(budget).build());
+
+        try (Stream<DataPoint> data = operation.getData()) {
+            softly.assertThat(data.count()).isEqualTo(3);
+        }
+
+        softly.assertThat(reads.get()).isEqualTo(1);
+        softly.assertThat(cache.getIfPresent(operation).isSpilled()).isTrue();
+        softly.assertThat(budget.getUsed()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFilteredReadPushedDown() {
+        MaterializationCache cache = new MaterializationCache(1000, 1000);
+        MaterializedOperation operation = new MaterializedOperation(dataset, cache);
+        VtlFiltering filtering = VtlFiltering.using(operation).with(VtlFiltering.eq("id", 2L));
+
+        softly.assertThat(ids(operation.computeData(Ordering.ANY, filtering, operation.getDataStructure().keySet())))
+                .containsExactly(2L);
+        softly.assertThat(operation.isMaterialized()).isFalse();
+
+        operation.getData().close();
+        softly.assertThat(ids(operation.computeData(Ordering.ANY, filtering, operation.getDataStructure().keySet())))
+                .containsExactly(2L);
+        softly.assertThat(reads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSpillFileKeptWhileRead() throws Exception {
+        File directory = folder.newFolder();
+        MaterializationCache cache = new MaterializationCache(1000, 2);
+        MaterializedOperation operation = new MaterializedOperation(dataset, cache);
+        operation.configure(VtlConfiguration.builder().spillDirectory(directory.toPath()).build());
+
+        operation.getData().close();
+        Materialization materialization = cache.getIfPresent(operation);
+        Stream<DataPoint> data = materialization.open().get();
+
+        cache.invalidateAll();
+        softly.assertThat(directory.list()).hasSize(1);
+        softly.assertThat(ids(data)).containsExactlyInAnyOrder(1L, 2L, 3L);
+        softly.assertThat(directory.list()).isEmpty();
+        softly.assertThat(materialization.open()).isEmpty();
+
+        // Computed again once evicted.
+        softly.assertThat(ids(operation.getData())).containsExactlyInAnyOrder(1L, 2L, 3L);
+        softly.assertThat(reads.get()).isEqualTo(2);
+    }
+}
@@ -33,14 +33,19 @@ import org.assertj.core.api.AutoCloseableSoftAssertions;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static no.ssb.vtl.model.Component.Role.ATTRIBUTE;
 import static no.ssb.vtl.model.Component.Role.IDENTIFIER;
 import static no.ssb.vtl.model.Component.Role.MEASURE;
+import static org.assertj.core.api.Assertions.assertThat;
 
 public class UnfoldOperationTest {
 
@@ -173,4 +178,35 @@ public class UnfoldOperationTest {
             softly.assertThat(dataset.allStreamWereClosed()).isTrue();
         }
     }
+
+    @Test
+    public void testUnfoldParallel() {
+        StaticDataset.ValueBuilder builder = StaticDataset.create(DataStructure.of(
+                "id1", IDENTIFIER, Long.class,
+                "id2", IDENTIFIER, String.class,
+                "measure1", MEASURE, Long.class
+        ));
+
+        List<DataPoint> expected = new ArrayList<>();
+        for (long id = 0; id < 1000; id++) {
+            builder.addPoints(id, "a", id);
+            builder.addPoints(id, "b", -id);
+            if (id % 3 == 0) {
+                builder.addPoints(id, "c", 0L);
+            }
+            expected.add(DataPoint.create(id, id, -id));
+        }
+        Dataset dataset = builder.build();
+
+        DataStructure structure = dataset.getDataStructure();
+        UnfoldOperation clause = new UnfoldOperation(dataset, structure.get("id2"), structure.get("measure1"),
+                Sets.newLinkedHashSet(Arrays.asList("a", "b")));
+
+        // Small batches to force many splits.
+        List<DataPoint> result = StreamSupport.stream(
+                clause.createSpliterator(dataset.getData().spliterator(), 7), true
+        ).collect(Collectors.toList());
+
+        assertThat(result).isEqualTo(expected);
+    }
 }
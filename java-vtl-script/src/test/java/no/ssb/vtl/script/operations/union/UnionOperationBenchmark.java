@@ -0,0 +1,137 @@
+package no.ssb.vtl.script.operations.union;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableList;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.DataStructure;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.Filtering;
+import no.ssb.vtl.model.Ordering;
+import no.ssb.vtl.model.VtlOrdering;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static no.ssb.vtl.model.Component.Role.IDENTIFIER;
+import static no.ssb.vtl.model.Component.Role.MEASURE;
+
+/**
+ * Sorted union of interleaved inputs; the total number of rows stays the same for every
+ * input count so that only the merge cost changes.
+ */
+public class UnionOperationBenchmark {
+
+    private static final int ROWS = 100_000;
+
+    @State(Scope.Benchmark)
+    public static class UnionState {
+
+        @Param({"2", "8", "64"})
+        public int inputs;
+
+        private UnionOperation union;
+        private Ordering ordering;
+
+        @Setup()
+        public void setup() {
+
+            DataStructure structure = DataStructure.builder()
+                    .put("id", IDENTIFIER, Long.class)
+                    .put("measure", MEASURE, Long.class)
+                    .build();
+
+            List<Dataset> datasets = new ArrayList<>();
+            for (int input = 0; input < inputs; input++) {
+                List<DataPoint> rows = new ArrayList<>();
+                for (long id = input; id < ROWS; id += inputs) {
+                    rows.add(DataPoint.create(id, id * 2));
+                }
+                datasets.add(new SortedDataset(structure, rows));
+            }
+
+            union = new UnionOperation(datasets);
+            ordering = VtlOrdering.using(union).asc("id").build();
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 2, warmups = 1)
+    @Warmup(iterations = 5)
+    @BenchmarkMode(Mode.Throughput)
+    @Measurement(iterations = 10)
+    public void unionBenchmark(UnionState state, Blackhole blackhole) {
+        try (Stream<DataPoint> data = state.union.computeData(state.ordering, Filtering.ALL, state.union.getDataStructure().keySet())) {
+            data.forEach(blackhole::consume);
+        }
+    }
+
+    private static final class SortedDataset implements Dataset {
+
+        private final DataStructure structure;
+        private final List<DataPoint> rows;
+
+        private SortedDataset(DataStructure structure, List<DataPoint> rows) {
+            this.structure = structure;
+            this.rows = ImmutableList.copyOf(rows);
+        }
+
+        @Override
+        public Stream<DataPoint> getData() {
+            return rows.stream().map(DataPoint::create);
+        }
+
+        @Override
+        public Optional<Stream<DataPoint>> getData(Ordering orders, Filtering filtering, Set<String> components) {
+            return Optional.of(getData());
+        }
+
+        @Override
+        public Optional<Map<String, Integer>> getDistinctValuesCount() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Long> getSize() {
+            return Optional.of((long) rows.size());
+        }
+
+        @Override
+        public DataStructure getDataStructure() {
+            return structure;
+        }
+    }
+}
@@ -34,6 +34,7 @@ import no.ssb.vtl.model.Ordering;
 import no.ssb.vtl.model.StaticDataset;
 import no.ssb.vtl.model.VTLObject;
 import no.ssb.vtl.model.VtlOrdering;
+import no.ssb.vtl.script.VtlConfiguration;
 import no.ssb.vtl.script.error.VTLRuntimeException;
 import no.ssb.vtl.test.RandomizedDataset;
 import org.assertj.core.api.SoftAssertions;
@@ -46,6 +47,10 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -509,6 +514,108 @@ public class UnionOperationTest extends RandomizedTest {
                 stream.map(dataPoint -> "[" + dataPoint.toString() + "]").collect(Collectors.joining(", ")));
     }
 
+    @Test
+    public void testUnionDisjoint() {
+
+        Dataset totalPopulation1 = new TestableDataset(Lists.newArrayList(
+                dataPoint("2012", "Greece", 2L),
+                dataPoint("2012", "France", 3L)
+        ), dataStructure1);
+
+        Dataset totalPopulation2 = new TestableDataset(Lists.newArrayList(
+                dataPoint("2013", "Greece", 5L),
+                dataPoint("2013", "Belgium", 1L)
+        ), dataStructure1);
+
+        UnionOperation resultDataset = new UnionOperation(
+                Lists.newArrayList(totalPopulation1, totalPopulation2), true, false);
+        assertThat(resultDataset.isDisjoint()).isTrue();
+
+        assertThat(resultDataset.getData()).containsExactlyInAnyOrder(
+                dataPoint("2012", "Greece", 2L),
+                dataPoint("2012", "France", 3L),
+                dataPoint("2013", "Greece", 5L),
+                dataPoint("2013", "Belgium", 1L)
+        );
+
+        // Still sorted if an order is requested.
+        VtlOrdering ordering = VtlOrdering.using(resultDataset).asc("TIME").asc("GEO").build();
+        assertThat(resultDataset.getData(ordering).get()).containsExactly(
+                dataPoint("2012", "France", 3L),
+                dataPoint("2012", "Greece", 2L),
+                dataPoint("2013", "Belgium", 1L),
+                dataPoint("2013", "Greece", 5L)
+        );
+    }
+
+    @Test
+    public void testUnionDisjointConcurrent() throws InterruptedException {
+        List<Dataset> datasets = new ArrayList<>();
+        List<DataPoint> expected = new ArrayList<>();
+        for (int year = 2010; year < 2015; year++) {
+            List<DataPoint> points = Lists.newArrayList(
+                    dataPoint(String.valueOf(year), "Greece", 2L),
+                    dataPoint(String.valueOf(year), "France", 3L)
+            );
+            datasets.add(new TestableDataset(points, dataStructure1));
+            expected.addAll(points);
+        }
+
+        UnionOperation resultDataset = new UnionOperation(datasets, true, false);
+        AtomicInteger tasks = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            resultDataset.configure(VtlConfiguration.builder().parallelism(2).operationExecutor(task -> {
+                tasks.incrementAndGet();
+                executor.execute(task);
+            }).build());
+            try (Stream<DataPoint> stream = resultDataset.getData()) {
+                assertThat(stream).containsExactlyInAnyOrderElementsOf(expected);
+            }
+            assertThat(tasks).hasValue(2);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test(expected = VTLRuntimeException.class)
+    public void testUnionHashDuplicateCheck() {
+
+        Dataset totalPopulation1 = new TestableDataset(Lists.newArrayList(
+                dataPoint("2012", "Greece", 2L),
+                dataPoint("2012", "France", 3L)
+        ), dataStructure1);
+
+        Dataset totalPopulation2 = new TestableDataset(Lists.newArrayList(
+                dataPoint("2012", "Belgium", 1L),
+                dataPoint("2012", "Greece", 2L)
+        ), dataStructure1);
+
+        UnionOperation resultDataset = new UnionOperation(
+                Lists.newArrayList(totalPopulation1, totalPopulation2), false, true);
+        assertThat(resultDataset.isDisjoint()).isFalse();
+
+        try (Stream<DataPoint> stream = resultDataset.getData()) {
+            fail("UnionOperation with duplicates did not throw exception as expected but returned: " +
+                    stream.map(dataPoint -> "[" + dataPoint.toString() + "]").collect(Collectors.joining(", ")));
+        }
+    }
+
+    @Test
+    public void testComputeIndexMapping() {
+        DataStructure source = DataStructure.of(
+                "GEO", Role.IDENTIFIER, String.class,
+                "TIME", Role.IDENTIFIER, String.class
+        );
+        DataStructure target = DataStructure.of(
+                "TIME", Role.IDENTIFIER, String.class,
+                "GEO", Role.IDENTIFIER, String.class,
+                "ATTR", Role.ATTRIBUTE, String.class
+        );
+        assertThat(UnionOperation.computeIndexMapping(source, target)).containsExactly(1, 0, -1);
+    }
+
     private DataPoint dataPoint(Object... objects) {
         List<VTLObject> vtlObjects = Stream.of(objects).map(VTLObject::of).collect(Collectors.toList());
         return DataPoint.create(vtlObjects);
@@ -0,0 +1,94 @@
+package no.ssb.vtl.script.report;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.script.VTLScriptEngine;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ExecutionReportTest {
+
+    @Rule
+    public JUnitSoftAssertions softly = new JUnitSoftAssertions();
+
+    private final Dataset dataset = StaticDataset.create()
+            .addComponent("id1", Component.Role.IDENTIFIER, String.class)
+            .addComponent("id2", Component.Role.IDENTIFIER, Long.class)
+            .addComponent("m1", Component.Role.MEASURE, Long.class)
+            .addPoints("a", 1L, 10L)
+            .addPoints("a", 2L, 20L)
+            .addPoints("b", 1L, 30L)
+            .build();
+
+    @Test
+    public void testAnalyze() throws Exception {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        engine.put("ds1", dataset);
+
+        ExecutionReport report = engine.analyze("" +
+                "ds2 := [ds1] { filter id2 = 1 }\n" +
+                "ds3 := sum(ds1.m1) group by id1\n"
+        );
+
+        softly.assertThat(report.getDatasets()).containsOnlyKeys("ds2", "ds3");
+        softly.assertThat(report.getTotalNanos()).isPositive();
+        softly.assertThat(engine.get("ds3")).isNotNull();
+
+        OperatorReport filter = report.getDatasets().get("ds2");
+        softly.assertThat(filter.getActualRows()).isEqualTo(2);
+        softly.assertThat(filter.getInclusiveNanos()).isGreaterThanOrEqualTo(filter.getSelfNanos());
+        softly.assertThat(filter.getChildren()).isNotEmpty();
+
+        OperatorReport aggregation = report.getDatasets().get("ds3");
+        softly.assertThat(aggregation.getOperation()).isEqualTo("AggregationOperation");
+        softly.assertThat(aggregation.getActualRows()).isEqualTo(2);
+        softly.assertThat(aggregation.getMemoryPeak()).isPositive();
+        softly.assertThat(aggregation.getSpilledBytes()).isEqualTo(0);
+        softly.assertThat(aggregation.getChildren()).hasSize(1);
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        engine.put("ds1", dataset);
+
+        ExecutionReport report = engine.analyze("ds2 := sum(ds1.m1) group by id1");
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode json = mapper.readTree(mapper.writeValueAsString(report));
+
+        JsonNode aggregation = json.get("datasets").get("ds2");
+        softly.assertThat(json.get("totalNanos").asLong()).isEqualTo(report.getTotalNanos());
+        softly.assertThat(aggregation.get("operation").asText()).isEqualTo("AggregationOperation");
+        softly.assertThat(aggregation.get("actualRows").asLong()).isEqualTo(2);
+        softly.assertThat(aggregation.has("estimatedRows")).isFalse();
+        softly.assertThat(aggregation.has("inclusiveNanos")).isTrue();
+        softly.assertThat(aggregation.has("memoryPeak")).isTrue();
+        softly.assertThat(aggregation.get("children").isArray()).isTrue();
+    }
+}
@@ -0,0 +1,80 @@
+package no.ssb.vtl.script.scheduler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.parser.VTLParser;
+import no.ssb.vtl.script.VTLScriptEngine;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StatementGraphTest {
+
+    private static StatementGraph graph(String script) throws Exception {
+        VTLParser.StartContext start = new VTLScriptEngine().parse(new StringReader(script), error -> {
+            throw new AssertionError(error);
+        });
+        return StatementGraph.create(start.statement());
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        StatementGraph graph = graph("" +
+                "a := get(\"a\")\n" +
+                "b := get(\"b\")\n" +
+                "c := [a, b] { m := a.m + b.m }\n" +
+                "'d e' := [c] { filter m > 1 }\n" +
+                "a := 'd e'\n" +
+                "f := a\n");
+
+        assertThat(graph.size()).isEqualTo(6);
+        assertThat(graph.getWrite(3)).isEqualTo("d e");
+        assertThat(graph.getReads(2)).containsOnly("a", "b", "m");
+        assertThat(graph.getReads(3)).contains("c");
+
+        assertThat(graph.getDependencies(0)).isEmpty();
+        assertThat(graph.getDependencies(1)).isEmpty();
+        assertThat(graph.getDependencies(2)).containsExactly(0, 1);
+        assertThat(graph.getDependencies(3)).containsExactly(2);
+        // Overwriting a does not wait for the readers of a.
+        assertThat(graph.getDependencies(4)).containsExactly(3);
+        // Every earlier writer of a.
+        assertThat(graph.getDependencies(5)).containsExactly(0, 4);
+    }
+
+    @Test
+    public void testReaderCount() throws Exception {
+        StatementGraph graph = graph("" +
+                "a := ds\n" +
+                "b := [a] { filter true }\n" +
+                "c := [a, b] { filter true }\n" +
+                "a := c\n" +
+                "d := a\n");
+
+        assertThat(graph.getReaderCount(0)).isEqualTo(2);
+        assertThat(graph.getReaderCount(1)).isEqualTo(1);
+        assertThat(graph.getReaderCount(2)).isEqualTo(1);
+        assertThat(graph.getReaderCount(3)).isEqualTo(1);
+        assertThat(graph.getReaderCount(4)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,139 @@
+package no.ssb.vtl.script.scheduler;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import no.ssb.vtl.connectors.Connector;
+import no.ssb.vtl.model.Component;
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.model.Dataset;
+import no.ssb.vtl.model.StaticDataset;
+import no.ssb.vtl.script.VTLScriptEngine;
+import no.ssb.vtl.script.VtlConfiguration;
+import no.ssb.vtl.script.error.VTLCompileException;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StatementSchedulerTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private final Dataset dataset = StaticDataset.create()
+            .addComponent("id", Component.Role.IDENTIFIER, String.class)
+            .addComponent("m", Component.Role.MEASURE, Long.class)
+            .addPoints("1", 1L)
+            .addPoints("2", 2L)
+            .build();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testGetCalledConcurrently() throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        Connector connector = mock(Connector.class);
+        when(connector.canHandle(anyString())).thenReturn(true);
+        when(connector.getDataset(anyString())).then(invocation -> {
+            // Would time out if the get() calls were sequential.
+            barrier.await(10, TimeUnit.SECONDS);
+            return dataset;
+        });
+
+        VTLScriptEngine engine = new VTLScriptEngine(connector);
+        engine.setConfiguration(VtlConfiguration.builder().executor(executor).build());
+        engine.eval("" +
+                "a := get(\"a\")\n" +
+                "b := get(\"b\")\n" +
+                "c := [a, b] { total := a.m + b.m }\n");
+
+        Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        assertThat(bindings.keySet()).containsExactly("a", "b", "c");
+        assertThat(((Dataset) bindings.get("c")).getData().map(dp -> dp.get(3).get()).collect(Collectors.toList()))
+                .containsExactly(2L, 4L);
+    }
+
+    @Test
+    public void testSameResultAsSequential() throws Exception {
+        String script = "" +
+                "a := [ds] { n := m * 2 }\n" +
+                "b := [ds] { n := m * 3 }\n" +
+                "ds := [a, b] { n := a.n + b.n }\n" +
+                "a := [ds] { o := n + 1 }\n" +
+                "x := 1 + 2\n";
+
+        VTLScriptEngine sequential = new VTLScriptEngine();
+        sequential.put("ds", dataset);
+        Object sequentialResult = sequential.eval(script);
+
+        VTLScriptEngine concurrent = new VTLScriptEngine();
+        concurrent.setConfiguration(VtlConfiguration.builder().executor(executor).build());
+        concurrent.put("ds", dataset);
+        Object concurrentResult = concurrent.eval(script);
+
+        Bindings expected = sequential.getBindings(ScriptContext.ENGINE_SCOPE);
+        Bindings actual = concurrent.getBindings(ScriptContext.ENGINE_SCOPE);
+        assertThat(actual.keySet()).containsExactlyElementsOf(expected.keySet());
+        assertThat(concurrentResult).isEqualTo(sequentialResult);
+        for (String name : new String[]{"a", "b", "ds"}) {
+            assertThat(((Dataset) actual.get(name)).getDataStructure().keySet())
+                    .containsExactlyElementsOf(((Dataset) expected.get(name)).getDataStructure().keySet());
+            assertThat(((Dataset) actual.get(name)).getData().map(DataPoint::toString).collect(Collectors.toList()))
+                    .containsExactlyElementsOf(((Dataset) expected.get(name)).getData().map(DataPoint::toString).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testErrorsInScriptOrder() {
+        VTLScriptEngine engine = new VTLScriptEngine();
+        engine.setConfiguration(VtlConfiguration.builder().executor(executor).build());
+        engine.put("ds", dataset);
+
+        Throwable throwable = catchThrowable(() -> engine.eval("" +
+                "a := [ds] { n := m }\n" +
+                "b := undefined1\n" +
+                "c := [a] { o := n }\n" +
+                "d := b\n" +
+                "e := undefined2\n"));
+
+        assertThat(throwable).isInstanceOf(VTLCompileException.class);
+        assertThat(((VTLCompileException) throwable).getErrors())
+                .extracting(ScriptException::getLineNumber)
+                .containsExactly(2, 4, 5);
+        Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        assertThat(bindings.keySet()).containsExactly("ds", "a", "c");
+    }
+}
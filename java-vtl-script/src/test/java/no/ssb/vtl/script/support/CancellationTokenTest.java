@@ -0,0 +1,59 @@
+package no.ssb.vtl.script.support;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import no.ssb.vtl.script.error.VTLCancellationException;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class CancellationTokenTest {
+
+    @Test
+    public void testCancel() {
+        CancellationToken token = CancellationToken.create();
+        assertThat(token.isCancelled()).isFalse();
+        token.check();
+
+        token.cancel();
+        assertThat(token.isCancelled()).isTrue();
+        Throwable throwable = catchThrowable(token::check);
+        assertThat(throwable).isInstanceOf(VTLCancellationException.class);
+        assertThat(((VTLCancellationException) throwable).isTimeout()).isFalse();
+        assertThat(((VTLCancellationException) throwable).getVTLCode()).isEqualTo(VTLCancellationException.CANCELLED);
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        CancellationToken token = CancellationToken.withTimeout(Duration.ofMillis(1));
+        Thread.sleep(10);
+        assertThat(token.isCancelled()).isTrue();
+        Throwable throwable = catchThrowable(token::check);
+        assertThat(throwable).isInstanceOf(VTLCancellationException.class);
+        assertThat(((VTLCancellationException) throwable).isTimeout()).isTrue();
+        assertThat(throwable).hasMessageContaining("timeout");
+    }
+}
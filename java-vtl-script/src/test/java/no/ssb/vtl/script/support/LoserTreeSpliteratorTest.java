@@ -0,0 +1,95 @@
+package no.ssb.vtl.script.support;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2017 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoserTreeSpliteratorTest {
+
+    private static <T> List<T> merge(List<List<T>> sources, Comparator<? super T> comparator) {
+        List<Iterator<T>> iterators = sources.stream().map(List::iterator).collect(Collectors.toList());
+        return StreamSupport.stream(new LoserTreeSpliterator<>(iterators, comparator), false)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testSingleSource() {
+        assertThat(merge(ImmutableList.of(ImmutableList.of(1, 2, 3)), Comparator.<Integer>naturalOrder()))
+                .containsExactly(1, 2, 3);
+    }
+
+    @Test
+    public void testEmptySources() {
+        assertThat(merge(ImmutableList.of(
+                ImmutableList.of(),
+                ImmutableList.of(2, 4),
+                ImmutableList.of()
+        ), Comparator.<Integer>naturalOrder())).containsExactly(2, 4);
+    }
+
+    @Test
+    public void testStable() {
+        // Equal elements must come out in source order.
+        List<List<Map.Entry<Integer, String>>> sources = ImmutableList.of(
+                ImmutableList.of(entry(1, "a"), entry(2, "a")),
+                ImmutableList.of(entry(1, "b"), entry(3, "b")),
+                ImmutableList.of(entry(1, "c"), entry(2, "c"))
+        );
+        assertThat(merge(sources, Map.Entry.comparingByKey()))
+                .extracting(Map.Entry::getValue)
+                .containsExactly("a", "b", "c", "a", "c", "b");
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(42);
+        for (int size = 1; size <= 17; size++) {
+            List<List<Integer>> sources = new ArrayList<>();
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                List<Integer> source = random.ints(random.nextInt(20), 0, 50).sorted()
+                        .boxed().collect(Collectors.toList());
+                sources.add(source);
+                expected.addAll(source);
+            }
+            Collections.sort(expected);
+            assertThat(merge(sources, Comparator.<Integer>naturalOrder())).isEqualTo(expected);
+        }
+    }
+
+    private static Map.Entry<Integer, String> entry(Integer key, String value) {
+        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+    }
+}
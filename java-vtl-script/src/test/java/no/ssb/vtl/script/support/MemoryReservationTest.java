@@ -0,0 +1,99 @@
+package no.ssb.vtl.script.support;
+
+/*-
+ * ========================LICENSE_START=================================
+ * Java VTL
+ * %%
+ * Copyright (C) 2016 - 2018 Hadrien Kohl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+
+
+
+import no.ssb.vtl.model.DataPoint;
+import no.ssb.vtl.script.error.VTLMemoryLimitException;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class MemoryReservationTest {
+
+    @Rule
+    public JUnitSoftAssertions softly = new JUnitSoftAssertions();
+
+    @Test
+    public void testChildren() {
+        MemoryReservation memory = MemoryReservation.create(null, "test");
+        MemoryReservation left = memory.newChild();
+        MemoryReservation right = memory.newChild();
+
+        left.reserve(10);
+        right.reserve(20);
+        left.releaseAll();
+        right.reserve(5);
+
+        softly.assertThat(left.getReserved()).isEqualTo(0);
+        softly.assertThat(left.getPeak()).isEqualTo(10);
+        softly.assertThat(right.getReserved()).isEqualTo(25);
+        softly.assertThat(memory.getReserved()).isEqualTo(25);
+        softly.assertThat(memory.getPeak()).isEqualTo(30);
+
+        memory.close();
+        softly.assertThat(memory.getReserved()).isEqualTo(0);
+        softly.assertThat(memory.getPeak()).isEqualTo(30);
+    }
+
+    @Test
+    public void testBudget() {
+        MemoryBudget budget = MemoryBudget.withLimit(MemoryReservation.CHUNK_SIZE + 100);
+        MemoryReservation first = MemoryReservation.create(budget, "first");
+        MemoryReservation second = MemoryReservation.create(budget, "second");
+
+        // Acquired by chunks.
+        first.reserve(10);
+        softly.assertThat(budget.getUsed()).isEqualTo(MemoryReservation.CHUNK_SIZE);
+
+        // Falls back to the needed size close to the limit.
+        second.reserve(100);
+        softly.assertThat(budget.getUsed()).isEqualTo(MemoryReservation.CHUNK_SIZE + 100);
+
+        softly.assertThat(second.tryReserve(1)).isFalse();
+        softly.assertThat(second.getReserved()).isEqualTo(100);
+
+        Throwable throwable = catchThrowable(() -> second.newChild().reserve(1));
+        softly.assertThat(throwable).isInstanceOf(VTLMemoryLimitException.class)
+                .hasMessageContaining("second");
+        softly.assertThat(second.getReserved()).isEqualTo(100);
+
+        first.close();
+        second.close();
+        softly.assertThat(budget.getUsed()).isEqualTo(0);
+        softly.assertThat(budget.getPeak()).isEqualTo(MemoryReservation.CHUNK_SIZE + 100);
+    }
+
+    @Test
+    public void testEstimate() {
+        long small = MemoryReservation.estimate(DataPoint.create("a", 1L));
+        long large = MemoryReservation.estimate(DataPoint.create("a much longer string", 1L));
+        long nulls = MemoryReservation.estimate(DataPoint.create(2));
+
+        assertThat(small).isPositive();
+        assertThat(large).isGreaterThan(small);
+        assertThat(nulls).isLessThan(small);
+    }
+}